@@ -0,0 +1,91 @@
+package com.baker.goodpointersv2;
+
+import java.util.Arrays;
+
+/**
+ * A static index of the address ranges variables take up, for finding which variable any
+ * address falls inside, e.g. where a pointer into the middle of an array lands.
+ * Ranges are sorted by their start and looked up with a binary search, so a query costs
+ * O(log n) and allocates nothing. Ranges never overlap, as the AddressSpace never hands
+ * out the same byte twice.
+ * Storage is grown on build and reused afterwards, as in SpanIndex.
+ */
+public class AddressIndex {
+    private int count;
+    // Start address in the high half and the order it was added in the low half, so one
+    // primitive sort puts the ranges in address order
+    private long[] keys = new long[0];
+    private int[] addedIds = new int[0];
+    private int[] addedSizes = new int[0];
+    // By position in address order
+    private int[] starts = new int[0];
+    private long[] ends = new long[0];
+    private int[] ids = new int[0];
+
+    /**
+     * Prepare storage for up to n ranges and forget the previous contents.
+     * @param n The number of ranges about to be added.
+     */
+    public void reset(int n) {
+        if (keys.length < n) {
+            keys = new long[n * 2];
+            addedIds = new int[n * 2];
+            addedSizes = new int[n * 2];
+            starts = new int[n * 2];
+            ends = new long[n * 2];
+            ids = new int[n * 2];
+        }
+        count = 0;
+    }
+
+    /**
+     * Add a range. Call build() once every range has been added.
+     * @param id The value to report when an address in the range is looked up, e.g. a slot.
+     * @param address The first byte of the range.
+     * @param size How many bytes it covers.
+     */
+    public void add(int id, int address, int size) {
+        keys[count] = ((long) address << 32) | count;
+        addedIds[count] = id;
+        addedSizes[count] = size;
+        count++;
+    }
+
+    /**
+     * Sort the added ranges by address.
+     */
+    public void build() {
+        Arrays.sort(keys, 0, count);
+        for (int k = 0; k < count; k++) {
+            int added = (int) keys[k];
+            starts[k] = (int) (keys[k] >> 32);
+            ends[k] = (long) starts[k] + addedSizes[added];
+            ids[k] = addedIds[added];
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Find the range holding an address.
+     * @param address Any address.
+     * @return The id of the range it falls inside, or -1 if it isn't in any.
+     */
+    public int find(int address) {
+        // Last range starting at or before the address
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= address) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int k = lo - 1;
+        return k >= 0 && address < ends[k] ? ids[k] : -1;
+    }
+}
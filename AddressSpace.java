@@ -0,0 +1,702 @@
+package com.baker.goodpointersv2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The simulated memory VisController hands addresses out of, laid out like a 32 bit C++
+ * program so the addresses on screen behave like real ones.
+ *
+ * Stack - grows down from STACK_TOP. Each variable is bumped in just below the last one at
+ *         its natural alignment, so int a; int b; sit 4 bytes apart. Freeing the lowest
+ *         variable moves the stack back up past it and any holes above it; freeing one
+ *         further up leaves a hole the next variable of the same size reuses.
+ *         Calls push a StackFrame. Popping one moves the stack pointer straight back to
+ *         where the frame started and drops every block below it in one go.
+ * Heap  - blocks are carved upwards from HEAP_BASE in size classes, 8 byte steps up to 64
+ *         bytes and powers of two above. A freed block goes on its class's free list and
+ *         the next allocation of that class takes it back.
+ *
+ * Every block is kept in a table keyed by address, freed ones with their size negated, so
+ * alloc and free are O(1), a double free is caught, and free list entries that went stale
+ * (the block was reused or the stack moved back over it) are dropped when they come up.
+ */
+public class AddressSpace {
+    // Sizes of the simulated target, a plain 32 bit machine
+    public static final int POINTER_SIZE = 4;
+    public static final int STACK_TOP = 0x7ffffff0;
+    public static final int STACK_LIMIT = 8 * 1024 * 1024;
+    public static final int HEAP_BASE = 0x10000000;
+    // The heap may grow up to the lowest address the stack can reach
+    private static final int HEAP_END = STACK_TOP - STACK_LIMIT;
+    // The largest size class that fits between HEAP_BASE and HEAP_END
+    public static final int MAX_HEAP_BLOCK = 1 << 30;
+
+    // Classes 1 to 64 hold exactly that many bytes, the rest a power of two from 128 up
+    private static final int EXACT_CLASSES = 64;
+    private static final int CLASS_COUNT = 96;
+
+    private static final Map<String, Integer> SIZES = new HashMap<String, Integer>();
+
+    static {
+        SIZES.put("char", 1);
+        SIZES.put("bool", 1);
+        SIZES.put("int8_t", 1);
+        SIZES.put("uint8_t", 1);
+        SIZES.put("short", 2);
+        SIZES.put("short int", 2);
+        SIZES.put("int16_t", 2);
+        SIZES.put("uint16_t", 2);
+        SIZES.put("wchar_t", 4);
+        SIZES.put("int", 4);
+        SIZES.put("long", 4);
+        SIZES.put("long int", 4);
+        SIZES.put("int32_t", 4);
+        SIZES.put("uint32_t", 4);
+        SIZES.put("size_t", 4);
+        SIZES.put("float", 4);
+        SIZES.put("long long", 8);
+        SIZES.put("long long int", 8);
+        SIZES.put("int64_t", 8);
+        SIZES.put("uint64_t", 8);
+        SIZES.put("double", 8);
+        SIZES.put("long double", 12);
+    }
+
+    // Every block, live or freed, by address
+    private final BlockTable blocks = new BlockTable();
+    // Stack blocks in the order they were bumped in, so highest address first.
+    // A hole keeps its entry until the stack moves back up past it.
+    private int[] stack = new int[64];
+    private int stackCount;
+    private int sp = STACK_TOP;
+    private final FreeLists stackHoles = new FreeLists();
+    // The innermost call, or null outside of any
+    private StackFrame frame;
+    // Heap
+    private int brk = HEAP_BASE;
+    private final FreeLists heapFree = new FreeLists();
+    private int usedBytes;
+
+    /**
+     * sizeof a C++ type on the simulated target. Qualifiers are ignored, and anything
+     * not known, e.g. a class, is taken to be the size of an int.
+     * @param type The type as written, e.g. "unsigned long long" or "const char*".
+     * @return The size in bytes.
+     */
+    public static int sizeOf(String type) {
+        if (type == null) {
+            return 4;
+        }
+        if (type.indexOf('*') != -1) {
+            return POINTER_SIZE;
+        }
+        // Most types are written as one plain word, which needs no splitting
+        Integer exact = SIZES.get(type);
+        if (exact != null) {
+            return exact;
+        }
+        StringBuilder key = new StringBuilder();
+        for (String word : type.trim().split("\\s+")) {
+            if (word.equals("const") || word.equals("volatile") || word.equals("static")
+                    || word.equals("signed") || word.equals("unsigned")) {
+                continue;
+            }
+            if (key.length() > 0) {
+                key.append(' ');
+            }
+            key.append(word);
+        }
+        Integer size = SIZES.get(key.length() == 0 ? "int" : key.toString());
+        return size == null ? 4 : size;
+    }
+
+    /**
+     * Alignment of a block of the given size, the largest power of two dividing it up to 8.
+     */
+    public static int alignOf(int size) {
+        return Math.min(size & -size, 8);
+    }
+
+    /**
+     * Allocate a local variable.
+     * @param size Its size in bytes, e.g. from sizeOf().
+     * @return Its address, or -1 if the stack is full or size is more than STACK_LIMIT.
+     */
+    public int allocStack(int size) {
+        if (size <= 0 || size > STACK_LIMIT) {
+            return -1;
+        }
+        // A call only reuses holes in its own frame, so popping it frees everything it took
+        int limit = frame == null ? Integer.MAX_VALUE : frame.getBase();
+        int address = takeFree(stackHoles, classOf(size, true), size, limit);
+        if (address == -1) {
+            long next = ((long) sp - size) & -alignOf(size);
+            if (next < HEAP_END) {
+                return -1;
+            }
+            address = (int) next;
+            if (stackCount == stack.length) {
+                stack = Arrays.copyOf(stack, stackCount * 2);
+            }
+            stack[stackCount++] = address;
+            sp = address;
+        }
+        blocks.put(address, size);
+        usedBytes += size;
+        return address;
+    }
+
+    /**
+     * Allocate a block on the heap, as new or malloc would.
+     * @param size The size asked for. The block may be bigger, up to its size class.
+     * @return Its address, or -1 if the heap is full or size is not 1 to MAX_HEAP_BLOCK.
+     */
+    public int allocHeap(int size) {
+        if (size <= 0 || size > MAX_HEAP_BLOCK) {
+            return -1;
+        }
+        int c = heapClass(size);
+        int block = classSize(c);
+        int address = takeFree(heapFree, c, block, Integer.MAX_VALUE);
+        if (address == -1) {
+            if ((long) brk + block > HEAP_END) {
+                return -1;
+            }
+            address = brk;
+            brk += block;
+        }
+        blocks.put(address, block);
+        usedBytes += block;
+        return address;
+    }
+
+    /**
+     * The most a block can take from the untouched part of its region, alignment included,
+     * for checking a batch of allocations up front.
+     * @param size The size asked for.
+     * @param onHeap True for allocHeap(), false for allocStack().
+     * @return The bytes, or -1 if a block that size can never be allocated.
+     */
+    public static int footprint(int size, boolean onHeap) {
+        if (onHeap) {
+            return size <= 0 || size > MAX_HEAP_BLOCK ? -1 : classSize(heapClass(size));
+        }
+        return size <= 0 || size > STACK_LIMIT ? -1 : size + alignOf(size) - 1;
+    }
+
+    /**
+     * Whether blocks of the given total footprints would fit without reusing any freed
+     * block, so allocating them can't fail. Allocates nothing.
+     * @param heapBytes Sum of footprint() of the heap blocks.
+     * @param stackBytes Sum of footprint() of the stack blocks.
+     */
+    public boolean hasRoom(long heapBytes, long stackBytes) {
+        return brk + heapBytes <= HEAP_END && sp - stackBytes >= HEAP_END;
+    }
+
+    /**
+     * Free a block from either region.
+     * @param address Its address, as returned by an alloc or claimed.
+     * @return False if there is no live block there, e.g. a double free.
+     */
+    public boolean free(int address) {
+        int size = blocks.get(address);
+        if (size <= 0) {
+            return false;
+        }
+        usedBytes -= size;
+        blocks.put(address, -size);
+        if (isHeap(address)) {
+            heapFree.push(heapClass(size), address);
+        } else if (address == sp) {
+            retract();
+        } else {
+            stackHoles.push(classOf(size, false), address);
+        }
+        return true;
+    }
+
+    /**
+     * Mark a particular block as allocated, e.g. when an undo brings back a variable at the
+     * address it had. Holes it overlaps are dropped.
+     * Costs O(1) below the stack or on the heap, O(log n) for a stack hole freed in place,
+     * and at worst O(n) on the stack when the layout around it has changed.
+     * @param address The block's address.
+     * @param size Its size.
+     * @return False if it would overlap a live block, or not fit in its region.
+     */
+    public boolean claim(int address, int size) {
+        int old = blocks.get(address);
+        if (old > 0) {
+            return false;
+        }
+        if (isHeap(address)) {
+            if (size <= 0 || size > MAX_HEAP_BLOCK) {
+                return false;
+            }
+            int block = classSize(heapClass(size));
+            if ((long) address + block > HEAP_END
+                    || old == 0 && address < brk || old < 0 && -old != block) {
+                return false;
+            }
+            brk = Math.max(brk, address + block);
+            blocks.put(address, block);
+            usedBytes += block;
+            return true;
+        }
+
+        if (size <= 0 || size > STACK_LIMIT || address < HEAP_END
+                || (long) address + size > STACK_TOP) {
+            return false;
+        }
+        int i;
+        if (address < sp) {
+            i = stackCount;
+        } else {
+            i = search(address);
+        }
+        boolean present = i < stackCount && stack[i] == address;
+        // Holes above that the block would run into
+        while (i > 0 && stack[i - 1] < address + size) {
+            if (blocks.get(stack[i - 1]) > 0) {
+                return false;
+            }
+            removeStackEntry(--i);
+        }
+        // and a hole below that runs into it
+        int below = present ? i + 1 : i;
+        if (below < stackCount && stack[below] + Math.abs(blocks.get(stack[below])) > address) {
+            if (blocks.get(stack[below]) > 0) {
+                return false;
+            }
+            removeStackEntry(below);
+        }
+        if (!present) {
+            if (stackCount == stack.length) {
+                stack = Arrays.copyOf(stack, stackCount * 2);
+            }
+            System.arraycopy(stack, i, stack, i + 1, stackCount - i);
+            stack[i] = address;
+            stackCount++;
+        }
+        sp = stack[stackCount - 1];
+        blocks.put(address, size);
+        usedBytes += size;
+        return true;
+    }
+
+    /**
+     * Write out what it takes to hand out the same addresses from here on as this space
+     * would: the stack pointer, the break, every block with freed ones as negative sizes,
+     * in address order, and each free list in the order it's taken from. Free list entries
+     * whose block is no longer free are left out, as takeFree() would only drop them, so
+     * a model saved after an undo writes what it did before the step. The frame is left
+     * to the MemorySnapshot, which writes it with the variables.
+     * @param w Where to write it.
+     * @throws IOException If w fails.
+     */
+    void writeState(MemorySnapshot.Writer w) throws IOException {
+        w.varint(sp);
+        w.varint(brk);
+        long[] sorted = new long[blocks.size];
+        int n = 0;
+        for (int i = 0; i < blocks.keys.length; i++) {
+            if (blocks.keys[i] != 0) {
+                sorted[n++] = (long) blocks.keys[i] << 32 | (blocks.values[i] & 0xffffffffL);
+            }
+        }
+        // Addresses are all positive, so they sort as longs
+        Arrays.sort(sorted);
+        w.varint(n);
+        for (int i = 0; i < n; i++) {
+            w.varint((int) (sorted[i] >>> 32));
+            w.varint((int) sorted[i]);
+        }
+        stackHoles.write(w, blocks);
+        heapFree.write(w, blocks);
+    }
+
+    /**
+     * Replace everything with a state written by writeState(). The frame is set
+     * separately, as with setFrame().
+     * @param in The encoded state.
+     * @throws IOException If it isn't a state writeState() could have written.
+     */
+    void readState(ByteBuffer in) throws IOException {
+        clear();
+        sp = MemorySnapshot.varint(in);
+        brk = MemorySnapshot.varint(in);
+        if (sp < HEAP_END || sp > STACK_TOP || !isHeap(brk) && brk != HEAP_END) {
+            throw new IOException("Memory snapshot has a bad stack pointer or break.");
+        }
+        int count = MemorySnapshot.count(in);
+        int last = 0;
+        for (int i = 0; i < count; i++) {
+            int address = MemorySnapshot.varint(in);
+            int size = MemorySnapshot.varint(in);
+            if (address <= last || size == 0 || !isHeap(address) && address < HEAP_END) {
+                throw new IOException("Memory snapshot has a bad block.");
+            }
+            last = address;
+            blocks.put(address, size);
+            if (size > 0) {
+                usedBytes += size;
+            }
+            if (!isHeap(address)) {
+                if (stackCount == stack.length) {
+                    stack = Arrays.copyOf(stack, stackCount * 2);
+                }
+                stack[stackCount++] = address;
+            }
+        }
+        // Read lowest first, kept highest first
+        for (int i = 0, j = stackCount - 1; i < j; i++, j--) {
+            int t = stack[i];
+            stack[i] = stack[j];
+            stack[j] = t;
+        }
+        stackHoles.read(in);
+        heapFree.read(in);
+    }
+
+    /**
+     * Forget everything and claim the given blocks, e.g. for a model read back from a
+     * MemorySnapshot that has no allocator state. Gaps between them on the heap are not
+     * reused.
+     * @param addresses The blocks' addresses.
+     * @param sizes Their sizes.
+     * @param count How many of each array to use.
+     */
+    public void rebuild(int[] addresses, int[] sizes, int count) {
+        clear();
+        // Sorted, the heap is claimed upwards and the stack downwards, so every block lands
+        // past the last one
+        long[] sorted = new long[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = (long) addresses[i] << 32 | sizes[i];
+        }
+        Arrays.sort(sorted);
+        for (int i = 0; i < count; i++) {
+            int address = (int) (sorted[i] >>> 32);
+            if (isHeap(address)) {
+                claim(address, (int) sorted[i]);
+            }
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            int address = (int) (sorted[i] >>> 32);
+            if (!isHeap(address)) {
+                claim(address, (int) sorted[i]);
+            }
+        }
+    }
+
+    /**
+     * Start a function call. Locals allocated from now on belong to it.
+     * @param function The function's name, for display.
+     * @return The new frame.
+     */
+    public StackFrame pushFrame(String function) {
+        frame = new StackFrame(function, frame, sp);
+        return frame;
+    }
+
+    /**
+     * Return from the innermost call. The stack pointer goes straight back to the frame's
+     * base; the only other work is dropping the frame's own blocks, nothing outside the
+     * frame is looked at.
+     * @return False if there is no call to return from.
+     */
+    public boolean popFrame() {
+        if (frame == null) {
+            return false;
+        }
+        int base = frame.getBase();
+        while (stackCount > 0 && stack[stackCount - 1] < base) {
+            int size = blocks.get(stack[--stackCount]);
+            if (size > 0) {
+                usedBytes -= size;
+            }
+            blocks.remove(stack[stackCount]);
+        }
+        frame = frame.getCaller();
+        sp = stackCount == 0 ? STACK_TOP : stack[stackCount - 1];
+        // Holes at the bottom of the caller can go now too
+        retract();
+        return true;
+    }
+
+    /**
+     * @return The innermost call, or null if there is none.
+     */
+    public StackFrame getFrame() {
+        return frame;
+    }
+
+    /**
+     * Make an earlier frame the innermost again, e.g. on undo. The blocks are claimed
+     * or freed separately.
+     * @param frame The frame, or null for none.
+     */
+    public void setFrame(StackFrame frame) {
+        this.frame = frame;
+    }
+
+    public void clear() {
+        blocks.clear();
+        stackCount = 0;
+        sp = STACK_TOP;
+        stackHoles.clear();
+        frame = null;
+        brk = HEAP_BASE;
+        heapFree.clear();
+        usedBytes = 0;
+    }
+
+    /**
+     * @return The size of the live block at address, or 0 if there isn't one.
+     */
+    public int sizeAt(int address) {
+        return Math.max(blocks.get(address), 0);
+    }
+
+    public static boolean isHeap(int address) {
+        return address >= HEAP_BASE && address < HEAP_END;
+    }
+
+    public int getStackPointer() {
+        return sp;
+    }
+
+    public int getHeapBreak() {
+        return brk;
+    }
+
+    public int getUsedBytes() {
+        return usedBytes;
+    }
+
+    // Pop free list entries until one is still a free block big enough, aligned for size.
+    // A good one at or above limit is left for later.
+    private int takeFree(FreeLists lists, int c, int size, int limit) {
+        int align = alignOf(size);
+        while (lists.counts[c] > 0) {
+            int address = lists.lists[c][lists.counts[c] - 1];
+            int free = -blocks.get(address);
+            if (free >= size && (address & (align - 1)) == 0) {
+                if (address >= limit) {
+                    return -1;
+                }
+                lists.counts[c]--;
+                return address;
+            }
+            lists.counts[c]--;
+        }
+        return -1;
+    }
+
+    // The lowest block was freed, move the stack up past it and any holes above it,
+    // stopping at the base of the innermost frame
+    private void retract() {
+        int base = frame == null ? Integer.MAX_VALUE : frame.getBase();
+        while (stackCount > 0 && stack[stackCount - 1] < base && blocks.get(stack[stackCount - 1]) < 0) {
+            blocks.remove(stack[--stackCount]);
+        }
+        sp = stackCount == 0 ? STACK_TOP : stack[stackCount - 1];
+    }
+
+    private void removeStackEntry(int i) {
+        blocks.remove(stack[i]);
+        System.arraycopy(stack, i + 1, stack, i, stackCount - i - 1);
+        stackCount--;
+    }
+
+    // First entry at or below address, the stack being sorted highest first
+    private int search(int address) {
+        int lo = 0;
+        int hi = stackCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (stack[mid] > address) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * The size class of a block. Heap blocks are rounded up to whole classes so they always
+     * fit the class exactly. Stack holes are whatever size they were, so a hole goes in the
+     * class below its size and a request in the class above, and any hole taken fits.
+     * @param size The size in bytes.
+     * @param up True to round up, for requests and heap blocks.
+     */
+    private static int classOf(int size, boolean up) {
+        if (size <= EXACT_CLASSES) {
+            return size;
+        }
+        int log = up ? 32 - Integer.numberOfLeadingZeros(size - 1)
+                : 31 - Integer.numberOfLeadingZeros(size);
+        return EXACT_CLASSES + log - 6;
+    }
+
+    // Heap blocks are 8 byte aligned, so only every 8th exact class is used there
+    private static int heapClass(int size) {
+        return classOf((size + 7) & ~7, true);
+    }
+
+    private static int classSize(int c) {
+        return c <= EXACT_CLASSES ? c : 1 << (c - EXACT_CLASSES + 6);
+    }
+
+    /**
+     * A stack of free addresses per size class. Entries are checked against the block
+     * table when taken, so nothing ever has to be removed from the middle.
+     */
+    private static final class FreeLists {
+        final int[][] lists = new int[CLASS_COUNT][];
+        final int[] counts = new int[CLASS_COUNT];
+
+        void push(int c, int address) {
+            int[] list = lists[c];
+            if (list == null) {
+                list = lists[c] = new int[16];
+            } else if (counts[c] == list.length) {
+                list = lists[c] = Arrays.copyOf(list, list.length * 2);
+            }
+            list[counts[c]++] = address;
+        }
+
+        void clear() {
+            Arrays.fill(counts, 0);
+        }
+
+        // The classes with entries for free blocks, each with those entries bottom first
+        void write(MemorySnapshot.Writer w, BlockTable blocks) throws IOException {
+            int[] free = new int[CLASS_COUNT];
+            int used = 0;
+            for (int c = 0; c < CLASS_COUNT; c++) {
+                for (int k = 0; k < counts[c]; k++) {
+                    if (blocks.get(lists[c][k]) < 0) {
+                        free[c]++;
+                    }
+                }
+                if (free[c] > 0) {
+                    used++;
+                }
+            }
+            w.varint(used);
+            for (int c = 0; c < CLASS_COUNT; c++) {
+                if (free[c] > 0) {
+                    w.varint(c);
+                    w.varint(free[c]);
+                    for (int k = 0; k < counts[c]; k++) {
+                        if (blocks.get(lists[c][k]) < 0) {
+                            w.varint(lists[c][k]);
+                        }
+                    }
+                }
+            }
+        }
+
+        void read(ByteBuffer in) throws IOException {
+            int used = MemorySnapshot.count(in);
+            for (int n = 0; n < used; n++) {
+                int c = MemorySnapshot.varint(in);
+                if (c < 0 || c >= CLASS_COUNT) {
+                    throw new IOException("Memory snapshot has a bad size class.");
+                }
+                int count = MemorySnapshot.count(in);
+                for (int k = 0; k < count; k++) {
+                    push(c, MemorySnapshot.varint(in));
+                }
+            }
+        }
+    }
+
+    /**
+     * Address -> block size, open addressing with linear probing.
+     * No block sits at address 0, so 0 marks an empty slot and get() returns 0 for no block.
+     */
+    private static final class BlockTable {
+        int[] keys = new int[64];
+        int[] values = new int[64];
+        int size;
+
+        int get(int key) {
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask; keys[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return 0;
+        }
+
+        void put(int key, int value) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == 0) {
+                keys[i] = key;
+                size++;
+            }
+            values[i] = value;
+        }
+
+        void remove(int key) {
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != key) {
+                if (keys[i] == 0) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            // Shift later entries of the run back so lookups never stop early
+            for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+                int home = hash(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    i = j;
+                }
+            }
+            keys[i] = 0;
+            size--;
+        }
+
+        void clear() {
+            Arrays.fill(keys, 0);
+            size = 0;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
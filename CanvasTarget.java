@@ -0,0 +1,140 @@
+package com.baker.goodpointersv2;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Picture;
+import android.graphics.RectF;
+
+/**
+ * Draws the diagram onto an android Canvas, for PointerVisualizer.
+ * Holds one Paint per style and a scratch rect, so drawing allocates nothing, and counts
+ * the draw calls it makes for VisMetrics.
+ */
+public class CanvasTarget implements RenderTarget {
+    private Canvas canvas;
+    private final Paint[] paints = new Paint[7];
+    private final RectF rect = new RectF();
+    // Calls made on the canvas since the last resetDrawCalls()
+    private int drawCalls;
+
+    /**
+     * @param densityScalar Device pixel density, for text sizes and line widths.
+     */
+    public CanvasTarget(float densityScalar) {
+        // Value paint
+        Paint valPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        valPaint.setColor(Color.parseColor("#3A5FCD"));
+        valPaint.setStyle(Paint.Style.FILL);
+        // Address paint
+        Paint addPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        addPaint.setColor(Color.parseColor("#DA4747"));
+        addPaint.setStyle(Paint.Style.FILL);
+
+        // Text Paint Characteristics
+        Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        textPaint.setColor(Color.WHITE);
+        textPaint.setTextSize(densityScalar * 13);
+        textPaint.setTextAlign(Paint.Align.CENTER);
+
+        // DarkText Paint Characteristics
+        Paint darkText = new Paint(Paint.ANTI_ALIAS_FLAG);
+        darkText.setColor(Color.BLACK);
+        darkText.setTextSize(densityScalar * 13);
+        darkText.setTextAlign(Paint.Align.CENTER);
+
+        // Line Paint Characteristics
+        Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        linePaint.setColor(Color.BLACK);
+        linePaint.setStrokeWidth(densityScalar*2);
+
+        // Arrow heads, drawn as round points as wide as the old 5dp circles
+        Paint headPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        headPaint.setColor(Color.BLACK);
+        headPaint.setStrokeWidth(densityScalar * 10);
+        headPaint.setStrokeCap(Paint.Cap.ROUND);
+
+        // Highlight paint, for values as they change
+        Paint highlightPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        highlightPaint.setColor(Color.parseColor("#F5A623"));
+        highlightPaint.setStyle(Paint.Style.FILL);
+
+        paints[VALUE] = valPaint;
+        paints[ADDRESS] = addPaint;
+        paints[TEXT] = textPaint;
+        paints[DARK_TEXT] = darkText;
+        paints[LINE] = linePaint;
+        paints[ARROW_HEAD] = headPaint;
+        paints[HIGHLIGHT] = highlightPaint;
+    }
+
+    /**
+     * @param canvas The canvas to draw onto until the next call.
+     */
+    public void setCanvas(Canvas canvas) {
+        this.canvas = canvas;
+    }
+
+    /**
+     * Replay a recorded layer.
+     * @param picture The layer.
+     * @param left Logical x the layer was recorded from.
+     */
+    public void drawPicture(Picture picture, float left) {
+        int saveCount = canvas.save();
+        canvas.translate(left, 0);
+        canvas.drawPicture(picture);
+        canvas.restoreToCount(saveCount);
+        drawCalls++;
+    }
+
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+
+    public void resetDrawCalls() {
+        drawCalls = 0;
+    }
+
+    @Override
+    public void drawRoundRect(float left, float top, float right, float bottom, float radius, int style) {
+        drawCalls++;
+        rect.set(left, top, right, bottom);
+        canvas.drawRoundRect(rect, radius, radius, paints[style]);
+    }
+
+    @Override
+    public void drawCircle(float cx, float cy, float radius, int style) {
+        drawCalls++;
+        canvas.drawCircle(cx, cy, radius, paints[style]);
+    }
+
+    @Override
+    public void drawLine(float startX, float startY, float stopX, float stopY, int style) {
+        drawCalls++;
+        canvas.drawLine(startX, startY, stopX, stopY, paints[style]);
+    }
+
+    @Override
+    public void drawLines(float[] pts, int count, int style) {
+        drawCalls++;
+        canvas.drawLines(pts, 0, count, paints[style]);
+    }
+
+    @Override
+    public void drawPoints(float[] pts, int count, int style) {
+        drawCalls++;
+        canvas.drawPoints(pts, 0, count, paints[style]);
+    }
+
+    @Override
+    public void drawText(String text, float x, float y, int style) {
+        drawCalls++;
+        canvas.drawText(text, x, y, paints[style]);
+    }
+
+    @Override
+    public float measureText(String text, int style) {
+        return paints[style].measureText(text);
+    }
+}
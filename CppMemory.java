@@ -0,0 +1,700 @@
+package com.baker.goodpointersv2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author Alexander Baker baker.alex.j@gmail.com
+ * This class reads a C++ snippet and turns it into the variables shown by the
+ * PointerVisualizer, through the VisController.
+ * It understands simple declarations and assignments, e.g.
+ *      int x = 5;
+ *      int* p = &x;
+ *      p = &y;
+ *      *p = 7;
+ *      int** pp = &p;
+ *      **pp = 9;
+ *
+ * Parsing is incremental so a live editor stays responsive:
+ *  - Parsed lines are cached by their text, so only new or edited lines are parsed again.
+ *    Expressions are resolved as they are parsed, so running a statement matches nothing.
+ *  - The statements are run into a light "shadow" copy of memory that keeps every state
+ *    each variable was written in, and remembers what each statement read. After an edit
+ *    only the edited statements run again, then those that read something a rerun changed,
+ *    in source order, so the cost follows what the edit affects rather than the file.
+ *  - Only the variables whose outcome changed are sent on to the VisController, as one batch.
+ */
+public class CppMemory {
+    private static final Pattern DECLARATION = Pattern.compile(
+            "((?:(?:const|unsigned|signed|long|short)\\s+)*[A-Za-z_]\\w*)\\s*(\\**)\\s*([A-Za-z_]\\w*)\\s*(?:=\\s*(.+))?");
+    private static final Pattern ASSIGNMENT = Pattern.compile(
+            "(\\**)\\s*([A-Za-z_]\\w*)\\s*=\\s*(.+)");
+    private static final Pattern ADDRESS_OF = Pattern.compile("&\\s*([A-Za-z_]\\w*)");
+    private static final Pattern DEREFERENCE = Pattern.compile("(\\*+)\\s*([A-Za-z_]\\w*)");
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_]\\w*");
+
+    private VisController controller;
+
+    // Parsed statements for every distinct line of the current source, keyed by line text,
+    // and how many lines hold each text
+    private Map<String, Statement[]> parsedLines = new HashMap<String, Statement[]>();
+    private Map<String, Integer> lineCounts = new HashMap<String, Integer>();
+    private String[] lines = new String[0];
+    // The last run of each statement, per line
+    private Run[][] runs = new Run[0][];
+
+    // The shadow memory: every state each variable was written in, by the position of the
+    // statement that wrote it, and the positions of the statements that read it
+    private Map<String, TreeMap<Long, Variable>> writes = new HashMap<String, TreeMap<Long, Variable>>();
+    private Map<String, TreeSet<Long>> readers = new HashMap<String, TreeSet<Long>>();
+    // Statements to run again, and variables whose final state may have changed since
+    // the VisController was last sent them
+    private TreeSet<Long> dirty = new TreeSet<Long>();
+    private Set<String> changed = new HashSet<String>();
+
+    // What the VisController currently shows, by variable name, and the names of the
+    // pointers it shows aimed at each variable
+    private Map<String, Variable> applied = new HashMap<String, Variable>();
+    private Map<String, Set<String>> aimedAt = new HashMap<String, Set<String>>();
+
+    /**
+     * Constructor
+     * @param controller The controller to send variable changes to.
+     */
+    public CppMemory(VisController controller) {
+        this.controller = controller;
+    }
+
+    /**
+     * Replace the whole source. Lines that were already parsed are not parsed again,
+     * wherever they moved to, but every statement is run again.
+     * @param source The C++ source text.
+     */
+    public void setSource(String source) {
+        String[] newLines = source.split("\r?\n", -1);
+        Map<String, Statement[]> newParsed = new HashMap<String, Statement[]>();
+        Map<String, Integer> newCounts = new HashMap<String, Integer>();
+        for (String line : newLines) {
+            Integer count = newCounts.get(line);
+            if (count == null) {
+                Statement[] statements = parsedLines.get(line);
+                newParsed.put(line, statements != null ? statements : parseLine(line));
+            }
+            newCounts.put(line, count == null ? 1 : count + 1);
+        }
+        lines = newLines;
+        parsedLines = newParsed;
+        lineCounts = newCounts;
+
+        writes.clear();
+        readers.clear();
+        dirty.clear();
+        // Anything shown that the new source doesn't declare has to go
+        changed.addAll(applied.keySet());
+        runs = new Run[lines.length][];
+        for (int n = 0; n < lines.length; n++) {
+            runs[n] = newRuns(n, parsedLines.get(lines[n]), null);
+        }
+        rerun();
+        apply();
+    }
+
+    /**
+     * Replace one line of the source, e.g. as the user types. Only the line's statements
+     * and those depending on what they wrote are run again.
+     * @param lineNumber Zero based line to replace.
+     * @param text The new text of the line.
+     */
+    public void editLine(int lineNumber, String text) {
+        if (lineNumber < 0 || lineNumber >= lines.length) {
+            controller.getDiagnostics().report(VisDiagnostics.NO_LINE, null, lineNumber);
+            return;
+        }
+        String old = lines[lineNumber];
+        lines[lineNumber] = text;
+        holdLine(text);
+        releaseLine(old);
+        runs[lineNumber] = newRuns(lineNumber, parsedLines.get(text), runs[lineNumber]);
+        rerun();
+        apply();
+    }
+
+    private void holdLine(String line) {
+        Integer count = lineCounts.get(line);
+        if (count == null) {
+            parsedLines.put(line, parseLine(line));
+        }
+        lineCounts.put(line, count == null ? 1 : count + 1);
+    }
+
+    // The parse of a line is dropped once no line holds its text
+    private void releaseLine(String line) {
+        int count = lineCounts.get(line);
+        if (count == 1) {
+            lineCounts.remove(line);
+            parsedLines.remove(line);
+        } else {
+            lineCounts.put(line, count - 1);
+        }
+    }
+
+    /**
+     * Split a line into statements and parse each one. Text after the last semicolon is
+     * an unfinished statement and is ignored until it is terminated.
+     * @param line One line of source.
+     * @return The parsed statements, possibly empty.
+     */
+    private Statement[] parseLine(String line) {
+        int comment = line.indexOf("//");
+        if (comment != -1) {
+            line = line.substring(0, comment);
+        }
+        String[] parts = line.split(";", -1);
+        List<Statement> statements = new ArrayList<Statement>();
+        // The last part is whatever follows the final ';'
+        for (int i = 0; i < parts.length - 1; i++) {
+            String text = parts[i].trim();
+            if (text.length() == 0) {
+                continue;
+            }
+            Statement statement = parseStatement(text);
+            if (statement != null) {
+                statements.add(statement);
+            } else {
+                controller.getDiagnostics().report(VisDiagnostics.BAD_STATEMENT, text, 0);
+            }
+        }
+        return statements.toArray(new Statement[statements.size()]);
+    }
+
+    private Statement parseStatement(String text) {
+        Matcher m = ASSIGNMENT.matcher(text);
+        if (m.matches()) {
+            return new Statement(false, m.group(1).length(), 0, m.group(2),
+                    Expression.parse(m.group(3).trim()), null);
+        }
+        m = DECLARATION.matcher(text);
+        if (m.matches()) {
+            Expression init = m.group(4) == null ? null : Expression.parse(m.group(4).trim());
+            return new Statement(true, 0, m.group(2).length(), m.group(3), init, m.group(1));
+        }
+        return null;
+    }
+
+    private static long position(int line, int index) {
+        return ((long) line << 32) | index;
+    }
+
+    /**
+     * Make the runs of a line's statements and mark them to run again. A statement that
+     * takes the place of an old one keeps its last run, so what it wrote can be compared,
+     * and old statements left over are forgotten.
+     */
+    private Run[] newRuns(int line, Statement[] statements, Run[] old) {
+        int kept = old == null ? 0 : Math.min(old.length, statements.length);
+        Run[] lineRuns = new Run[statements.length];
+        for (int k = 0; k < statements.length; k++) {
+            lineRuns[k] = k < kept ? old[k] : new Run();
+            lineRuns[k].statement = statements[k];
+            dirty.add(position(line, k));
+        }
+        for (int k = kept; old != null && k < old.length; k++) {
+            long pos = position(line, k);
+            unread(old[k], pos);
+            if (old[k].wrote != null) {
+                unwrite(old[k].wrote, pos);
+                invalidate(old[k].wrote, pos);
+            }
+        }
+        return lineRuns;
+    }
+
+    /**
+     * Run the marked statements in source order. A statement that writes something other
+     * than last time marks the statements that read it, up to the next write of it.
+     */
+    private void rerun() {
+        Long pos;
+        while ((pos = dirty.pollFirst()) != null) {
+            int line = (int) (pos >>> 32);
+            int k = (int) (pos & 0xffffffffL);
+            if (k >= runs[line].length) {
+                // Marked by another statement of a line that has since lost it
+                continue;
+            }
+            Run run = runs[line][k];
+            String oldName = run.wrote;
+            Variable oldState = run.written;
+            unread(run, pos);
+            if (oldName != null) {
+                unwrite(oldName, pos);
+            }
+            run.wrote = null;
+            run.written = null;
+
+            if (!execute(run, pos)) {
+                controller.getDiagnostics().report(VisDiagnostics.STATEMENT_FAILED,
+                        run.statement.name, line + 1);
+            }
+            boolean same = oldName != null && oldName.equals(run.wrote)
+                    && oldState.equals(run.written);
+            if (run.wrote != null) {
+                TreeMap<Long, Variable> states = writes.get(run.wrote);
+                if (states == null) {
+                    states = new TreeMap<Long, Variable>();
+                    writes.put(run.wrote, states);
+                }
+                states.put(pos, run.written);
+            }
+            if (!same && oldName != null) {
+                invalidate(oldName, pos);
+            }
+            if (!same && run.wrote != null && !run.wrote.equals(oldName)) {
+                invalidate(run.wrote, pos);
+            }
+        }
+    }
+
+    private void unread(Run run, long pos) {
+        for (String name : run.reads) {
+            TreeSet<Long> positions = readers.get(name);
+            if (positions != null && positions.remove(pos) && positions.isEmpty()) {
+                readers.remove(name);
+            }
+        }
+        run.reads.clear();
+    }
+
+    private void unwrite(String name, long pos) {
+        TreeMap<Long, Variable> states = writes.get(name);
+        states.remove(pos);
+        if (states.isEmpty()) {
+            writes.remove(name);
+        }
+    }
+
+    // What's written to a variable at pos changed, so mark every statement from there up
+    // to and including its next write that reads it
+    private void invalidate(String name, long pos) {
+        changed.add(name);
+        TreeSet<Long> positions = readers.get(name);
+        if (positions == null) {
+            return;
+        }
+        TreeMap<Long, Variable> states = writes.get(name);
+        Long next = states == null ? null : states.higherKey(pos);
+        dirty.addAll(positions.subSet(pos, false, next == null ? Long.MAX_VALUE : next, true));
+    }
+
+    /**
+     * Look a variable up as it stands just before the statement at pos, and remember that
+     * the statement read it, even if it doesn't exist yet.
+     */
+    private Variable read(String name, Run run, long pos) {
+        TreeSet<Long> positions = readers.get(name);
+        if (positions == null) {
+            positions = new TreeSet<Long>();
+            readers.put(name, positions);
+        }
+        positions.add(pos);
+        run.reads.add(name);
+        TreeMap<Long, Variable> states = writes.get(name);
+        Map.Entry<Long, Variable> state = states == null ? null : states.lowerEntry(pos);
+        return state == null ? null : state.getValue();
+    }
+
+    private Variable finalState(String name) {
+        TreeMap<Long, Variable> states = writes.get(name);
+        return states == null ? null : states.lastEntry().getValue();
+    }
+
+    // Leaves what the statement wrote, if anything, in run.wrote and run.written
+    private boolean execute(Run run, long pos) {
+        Statement s = run.statement;
+        if (s.declaration) {
+            if (read(s.name, run, pos) != null) {
+                return false;
+            }
+            Variable v = new Variable(s.stars, s.type);
+            boolean assigned = s.expression == null || assign(v, s.expression, run, pos);
+            run.wrote = s.name;
+            run.written = v;
+            return assigned;
+        }
+
+        // *p = ... or **pp = ... assigns to whatever the pointer leads to
+        String name = s.name;
+        Variable v = read(name, run, pos);
+        for (int i = 0; i < s.derefs && v != null; i++) {
+            name = v.pointer ? v.target : null;
+            v = name == null ? null : read(name, run, pos);
+        }
+        if (v == null) {
+            return false;
+        }
+        // States are kept for every statement, so the write goes into a copy
+        Variable copy = v.copy();
+        if (!assign(copy, s.expression, run, pos)) {
+            return false;
+        }
+        run.wrote = name;
+        run.written = copy;
+        return true;
+    }
+
+    /**
+     * Dereference a variable a number of times.
+     * @return The variable reached, or null if the chain breaks first.
+     */
+    private Variable follow(String name, int times, Run run, long pos) {
+        Variable v = read(name, run, pos);
+        for (int i = 0; i < times && v != null; i++) {
+            v = v.pointer && v.target != null ? read(v.target, run, pos) : null;
+        }
+        return v;
+    }
+
+    private boolean assign(Variable v, Expression e, Run run, long pos) {
+        if (v.pointer) {
+            // A pointer can only hold the address of something one level down
+            if (e.kind == Expression.ADDRESS) {
+                Variable target = read(e.name, run, pos);
+                if (target == null || target.level != v.level - 1) {
+                    return false;
+                }
+                v.target = e.name;
+                return true;
+            }
+            if (e.isNull) {
+                v.target = null;
+                return true;
+            }
+            Variable other = null;
+            if (e.kind == Expression.DEREF) {
+                other = follow(e.name, e.derefs, run, pos);
+            } else if (e.kind == Expression.NAME) {
+                other = read(e.name, run, pos);
+            }
+            if (other != null && other.level == v.level) {
+                v.target = other.target;
+                return true;
+            }
+            return false;
+        }
+
+        if (e.kind == Expression.DEREF) {
+            Variable end = follow(e.name, e.derefs, run, pos);
+            if (end == null || end.pointer) {
+                return false;
+            }
+            v.value = end.value;
+            return true;
+        }
+        if (e.kind == Expression.NAME) {
+            Variable other = read(e.name, run, pos);
+            if (other != null) {
+                if (other.pointer) {
+                    return false;
+                }
+                v.value = other.value;
+                return true;
+            }
+        }
+        if (e.text.startsWith("&")) {
+            return false;
+        }
+        v.value = e.text;
+        return true;
+    }
+
+    /**
+     * Send the VisController only what differs between what it shows and the new final
+     * state of each changed variable, along with the arrows of pointers aimed at anything
+     * that had to be added again.
+     * If the controller refuses the batch, e.g. for a name it already holds from elsewhere,
+     * each variable is sent again on its own so the rest still show. Those refused are
+     * left as they are shown until a rerun changes them again, rather than being sent
+     * after every edit.
+     */
+    private void apply() {
+        if (changed.isEmpty()) {
+            return;
+        }
+        // New variables are added in the order they're declared, which is their first write
+        List<String> names = new ArrayList<String>(changed);
+        final Map<String, Long> declared = new HashMap<String, Long>();
+        final Map<String, Variable> now = new HashMap<String, Variable>();
+        for (String name : names) {
+            TreeMap<Long, Variable> states = writes.get(name);
+            declared.put(name, states == null ? -1L : states.firstKey());
+            now.put(name, finalState(name));
+        }
+        Collections.sort(names, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return declared.get(a).compareTo(declared.get(b));
+            }
+        });
+        if (!send(names, now) && names.size() > 1) {
+            for (String name : names) {
+                send(Collections.singletonList(name), now);
+            }
+        }
+        changed.clear();
+    }
+
+    /**
+     * Send some of the changed variables as one batch, and note what the controller
+     * shows if it takes them.
+     * @return False if the batch was refused, leaving the controller as it was.
+     */
+    private boolean send(List<String> names, Map<String, Variable> now) {
+        Set<String> sending = new HashSet<String>(names);
+        VisBatch batch = controller.beginBatch();
+
+        // Remove variables that are gone or changed between pointer and nonPointer, or
+        // changed type and so need a block of another size
+        for (String name : names) {
+            Variable old = applied.get(name);
+            if (old != null && !sameKind(old, now.get(name))) {
+                if (old.pointer) {
+                    batch.deletePointer(name);
+                } else {
+                    batch.deleteNonPointer(name);
+                }
+            }
+        }
+
+        // Add or update nonPointers first so pointers have something to aim at
+        for (String name : names) {
+            Variable v = now.get(name);
+            Variable old = applied.get(name);
+            if (v == null || v.pointer) {
+                continue;
+            }
+            if (!sameKind(old, v)) {
+                batch.addNonPointer(new NonPointer(name, v.value, v.type));
+            } else if (!old.value.equals(v.value)) {
+                batch.changeNonPtrVal(name, v.value);
+            }
+        }
+        // Add every new pointer before aiming any, as pointers can point at each other
+        Set<String> added = new HashSet<String>();
+        for (String name : names) {
+            Variable v = now.get(name);
+            Variable old = applied.get(name);
+            if (v == null || !v.pointer) {
+                continue;
+            }
+            boolean fresh = old == null || !old.pointer;
+            if (!fresh && old.target != null && v.target == null) {
+                // No way to un-aim a pointer, so start it over
+                batch.deletePointer(name);
+                fresh = true;
+            }
+            if (fresh) {
+                batch.addPointer(new Pointer(name));
+                added.add(name);
+            }
+        }
+        for (String name : names) {
+            Variable v = now.get(name);
+            if (v != null && v.pointer && v.target != null && (added.contains(name)
+                    || !v.target.equals(applied.get(name).target)
+                    || addedAgain(v.target, added, sending, now))) {
+                aim(batch, name, v.target);
+            }
+        }
+        // A target added again needs the arrows of unchanged pointers redone as well
+        for (String name : names) {
+            Set<String> aimers = aimedAt.get(name);
+            if (aimers != null && addedAgain(name, added, sending, now)) {
+                for (String p : aimers) {
+                    if (!sending.contains(p)) {
+                        aim(batch, p, name);
+                    }
+                }
+            }
+        }
+
+        // Everything from one edit shows up in one frame
+        if (!batch.commit()) {
+            return false;
+        }
+        for (String name : names) {
+            Variable old = applied.get(name);
+            Variable v = now.get(name);
+            if (old != null && old.pointer && old.target != null) {
+                aimedAt.get(old.target).remove(name);
+            }
+            if (v == null) {
+                applied.remove(name);
+                continue;
+            }
+            applied.put(name, v);
+            if (v.pointer && v.target != null) {
+                Set<String> aimers = aimedAt.get(v.target);
+                if (aimers == null) {
+                    aimers = new HashSet<String>();
+                    aimedAt.put(v.target, aimers);
+                }
+                aimers.add(name);
+            }
+        }
+        return true;
+    }
+
+    private boolean addedAgain(String name, Set<String> added, Set<String> sending,
+            Map<String, Variable> now) {
+        return added.contains(name)
+                || (sending.contains(name) && !sameKind(applied.get(name), now.get(name)));
+    }
+
+    private void aim(VisBatch batch, String pointer, String target) {
+        if (finalState(target).pointer) {
+            batch.pointToPointer(pointer, target);
+        } else {
+            batch.pointTo(pointer, target);
+        }
+    }
+
+    private static boolean sameKind(Variable old, Variable now) {
+        return old != null && now != null && old.pointer == now.pointer
+                && (now.pointer || old.type.equals(now.type));
+    }
+
+    /**
+     * One parsed C++ statement, either a declaration or an assignment.
+     */
+    private static class Statement {
+        final boolean declaration;
+        // Number of *s in an assignment through pointers, e.g. 2 for **pp = 7
+        final int derefs;
+        // Number of *s in a declaration
+        final int stars;
+        final String name;
+        // Right hand side, or null for a declaration without one
+        final Expression expression;
+        // Declared type without the *s, or null for an assignment
+        final String type;
+
+        Statement(boolean declaration, int derefs, int stars, String name, Expression expression,
+                  String type) {
+            this.declaration = declaration;
+            this.derefs = derefs;
+            this.stars = stars;
+            this.name = name;
+            this.expression = expression;
+            this.type = type;
+        }
+    }
+
+    /**
+     * The right hand side of a statement, resolved once when it's parsed.
+     */
+    private static class Expression {
+        // &x
+        static final int ADDRESS = 0;
+        // *p, **pp
+        static final int DEREF = 1;
+        // A plain name, which may also be a literal such as nullptr
+        static final int NAME = 2;
+        // Anything else, taken as a value
+        static final int LITERAL = 3;
+
+        final int kind;
+        // The variable named, for all but a LITERAL
+        final String name;
+        final int derefs;
+        final String text;
+        // What a pointer can be set to to aim at nothing
+        final boolean isNull;
+
+        private Expression(int kind, String name, int derefs, String text) {
+            this.kind = kind;
+            this.name = name;
+            this.derefs = derefs;
+            this.text = text;
+            this.isNull = text.equals("nullptr") || text.equals("NULL") || text.equals("0");
+        }
+
+        static Expression parse(String text) {
+            Matcher m = ADDRESS_OF.matcher(text);
+            if (m.matches()) {
+                return new Expression(ADDRESS, m.group(1), 0, text);
+            }
+            m = DEREFERENCE.matcher(text);
+            if (m.matches()) {
+                return new Expression(DEREF, m.group(2), m.group(1).length(), text);
+            }
+            if (IDENTIFIER.matcher(text).matches()) {
+                return new Expression(NAME, text, 0, text);
+            }
+            return new Expression(LITERAL, null, 0, text);
+        }
+    }
+
+    /**
+     * The last run of one statement: the variables it read, and the state it left the
+     * variable it wrote in, if any.
+     */
+    private static class Run {
+        Statement statement;
+        final List<String> reads = new ArrayList<String>();
+        String wrote;
+        Variable written;
+    }
+
+    /**
+     * The shadow state of one variable. Once written by a statement it isn't changed again,
+     * a later statement writes a copy.
+     */
+    private static class Variable {
+        // Levels of indirection, 0 for a nonPointer, 2 for int** and so on
+        final int level;
+        final boolean pointer;
+        // The type without the *s, e.g. "double" for double* p
+        final String type;
+        String value = "";
+        // Name of the variable a pointer is aimed at
+        String target;
+
+        Variable(int level, String type) {
+            this.level = level;
+            this.pointer = level > 0;
+            this.type = type;
+        }
+
+        Variable copy() {
+            Variable v = new Variable(level, type);
+            v.value = value;
+            v.target = target;
+            return v;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Variable)) {
+                return false;
+            }
+            Variable v = (Variable) o;
+            return level == v.level && type.equals(v.type) && value.equals(v.value)
+                    && (target == null ? v.target == null : target.equals(v.target));
+        }
+
+        @Override
+        public int hashCode() {
+            return (type.hashCode() * 31 + value.hashCode()) * 31 + level;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.baker.goodpointersv2;
+
+/**
+ * Holds the geometry of every variable and arrow drawn by PointerVisualizer, in logical
+ * canvas coordinates (before pan and zoom are applied).
+ * It is only rebuilt when a new frame is published or the size of the view change, so the
+ * draw path can read positions straight out of it without recomputing spreads or
+ * allocating anything per frame.
+ * Variables are spread across the view while they fit, and otherwise placed a fixed
+ * pitch apart on a canvas wider than the view, in the columns a DiagramOrder gives
+ * them. Each row and the arrows are kept in a SpanIndex so only what is on screen needs
+ * to be visited.
+ * Arrays are grown as needed and then reused between rebuilds.
+ */
+public class DiagramLayout {
+    // Pointer row
+    int ptrCount;
+    float ptrY;
+    float[] ptrX = new float[0];
+    // Distance between neighbouring pointers, and between nonPointers
+    float ptrPitch;
+    float nonPtrPitch;
+
+    // NonPointer row. Each is an address rect on top of a value rect, both halfWidth
+    // tall and twice that wide.
+    int nonPtrCount;
+    float nonPtrTop;
+    float[] nonPtrX = new float[0];
+    float halfWidth;
+
+    // Arrows, stored as startX, startY, stopX, stopY for each one
+    int arrowCount;
+    // How many of them end at a pointer rather than a nonPointer
+    int ptrArrowCount;
+    float[] arrowLines = new float[0];
+    // The pointer slot each arrow starts from
+    int[] arrowPtr = new int[0];
+
+    // Size of the whole diagram, which may be wider than the view.
+    float contentWidth;
+    float contentHeight;
+
+    // The order the variables were placed in, null if by slot
+    DiagramOrder order;
+
+    // Spatial indexes over the rows and arrows, queried with the visible range.
+    final SpanIndex ptrSpans = new SpanIndex();
+    final SpanIndex nonPtrSpans = new SpanIndex();
+    final SpanIndex arrowSpans = new SpanIndex();
+
+    /**
+     * Recalculates every position from a frame and the view size.
+     * @param frame The variables to lay out.
+     * @param width Width of the view.
+     * @param height Height of the view.
+     * @param densityScalar Device pixel density.
+     */
+    public void rebuild(FrameSnapshot frame, int width, int height, float densityScalar) {
+        rebuild(frame, width, height, densityScalar, null);
+    }
+
+    /**
+     * Recalculates every position as above, placing each variable in the column the order
+     * gives it.
+     * @param order An order for this frame, or null to place variables by slot.
+     */
+    public void rebuild(FrameSnapshot frame, int width, int height, float densityScalar,
+                        DiagramOrder order) {
+        this.order = order;
+        ptrCount = frame.getPointerCount();
+        nonPtrCount = frame.getNonPointerCount();
+        ensureCapacity(ptrCount, nonPtrCount);
+
+        // Never let two variables get closer than this, scroll instead.
+        float minPitch = densityScalar * 60;
+        float ptrSpread = Math.max(width / (ptrCount + 1), minPitch);
+        float nonPtrSpread = Math.max(width / (nonPtrCount + 1), minPitch);
+        ptrPitch = ptrSpread;
+        nonPtrPitch = nonPtrSpread;
+        halfWidth = densityScalar * 20;
+        // Half of the horizontal room given to a node, names included.
+        float halfExtent = minPitch / 2;
+
+        ptrY = height / 4;
+        nonPtrTop = 3 * height / 4;
+        contentWidth = Math.max(width, Math.max((ptrCount + 1) * ptrSpread,
+                (nonPtrCount + 1) * nonPtrSpread));
+        contentHeight = height;
+
+        nonPtrSpans.reset(nonPtrCount);
+        for (int j = 0; j < nonPtrCount; j++) {
+            float x = ((order == null ? j : order.nonPtrColumns[j]) + 1) * nonPtrSpread;
+            nonPtrX[j] = x;
+            nonPtrSpans.add(j, x - halfExtent, x + halfExtent);
+        }
+        nonPtrSpans.build();
+
+        ptrSpans.reset(ptrCount);
+        for (int i = 0; i < ptrCount; i++) {
+            float x = ((order == null ? i : order.ptrColumns[i]) + 1) * ptrSpread;
+            ptrX[i] = x;
+            ptrSpans.add(i, x - halfExtent, x + halfExtent);
+        }
+
+        arrowCount = 0;
+        ptrArrowCount = 0;
+        arrowSpans.reset(ptrCount);
+        for (int i = 0; i < ptrCount; i++) {
+            FrameSnapshot.Node ptr = frame.getPointer(i);
+            if (ptr.getTarget() == -1) {
+                continue;
+            }
+            float stopX;
+            float stopY;
+            if (ptr.isTargetPointer()) {
+                // Pointer to pointer, runs along the bottom of the pointer row
+                stopX = ptrX[ptr.getTarget()];
+                stopY = ptrY + halfWidth;
+                ptrArrowCount++;
+            } else {
+                stopX = nonPtrX[ptr.getTarget()];
+                stopY = nonPtrTop;
+            }
+            int a = arrowCount * 4;
+            arrowLines[a] = ptrX[i];
+            arrowLines[a + 1] = ptrY + halfWidth;
+            arrowLines[a + 2] = stopX;
+            arrowLines[a + 3] = stopY;
+            arrowPtr[arrowCount] = i;
+            arrowSpans.add(arrowCount, Math.min(ptrX[i], stopX) - halfWidth,
+                    Math.max(ptrX[i], stopX) + halfWidth);
+            arrowCount++;
+        }
+        ptrSpans.build();
+        arrowSpans.build();
+    }
+
+    private void ensureCapacity(int ptrs, int nonPtrs) {
+        if (ptrX.length < ptrs) {
+            ptrX = new float[ptrs * 2];
+            arrowLines = new float[ptrs * 2 * 4];
+            arrowPtr = new int[ptrs * 2];
+        }
+        if (nonPtrX.length < nonPtrs) {
+            nonPtrX = new float[nonPtrs * 2];
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.baker.goodpointersv2;
+
+import java.util.Arrays;
+
+/**
+ * The left to right order of the variables in each row of the diagram, chosen so the arrows
+ * from the pointer row down to the nonPointer row don't cross.
+ * The two rows are ordered as layers of a graph: each nonPointer is moved towards the mean
+ * position of the pointers aiming at it, then each pointer is moved above what it aims at,
+ * and the two sweeps repeat until nothing moves. The pointer sweep comes last, and every
+ * pointer has at most one arrow, so a finished order has no crossings between those arrows.
+ * Refining starts from the order of the previous frame, carried over by adapt(), and sorts
+ * are stable, so when a single variable changes only the few nodes it affects move.
+ * Orders are immutable once made, so one can be worked out on LayoutWorker's thread and
+ * handed to the view as it is.
+ */
+public final class DiagramOrder {
+    // Most sweeps of each row per refine
+    static final int MAX_SWEEPS = 8;
+
+    final FrameSnapshot frame;
+    // Column of each pointer slot, and of each nonPointer slot
+    final int[] ptrColumns;
+    final int[] nonPtrColumns;
+
+    private DiagramOrder(FrameSnapshot frame, int[] ptrColumns, int[] nonPtrColumns) {
+        this.frame = frame;
+        this.ptrColumns = ptrColumns;
+        this.nonPtrColumns = nonPtrColumns;
+    }
+
+    /**
+     * @param frame A frame.
+     * @return Every variable in its slot's column, as laid out before any refining.
+     */
+    public static DiagramOrder identity(FrameSnapshot frame) {
+        return new DiagramOrder(frame, identity(frame.getPointerCount()),
+                identity(frame.getNonPointerCount()));
+    }
+
+    public FrameSnapshot getFrame() {
+        return frame;
+    }
+
+    public int getPointerColumn(int slot) {
+        return ptrColumns[slot];
+    }
+
+    public int getNonPointerColumn(int slot) {
+        return nonPtrColumns[slot];
+    }
+
+    /**
+     * Whether two orders place every slot in the same column. Orders carried over or
+     * refined without anything moving share their columns, so this is O(1).
+     * @param a An order, or null for slot order.
+     * @param b Another.
+     * @return True if they're known to be the same.
+     */
+    public static boolean sameColumns(DiagramOrder a, DiagramOrder b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.ptrColumns == b.ptrColumns && a.nonPtrColumns == b.nonPtrColumns;
+    }
+
+    /**
+     * Carry this order over to another frame, without refining it. Variables both frames
+     * have keep their columns, even if they're now in another slot, variables only the new
+     * frame has go on the end, and the gaps left by those it doesn't have are closed up.
+     * Variables are matched up by their order keys, which they keep whatever slot they're in.
+     * Costs O(n), so the view can use it for a frame the worker hasn't got to yet.
+     * @param to The frame to carry the order over to, usually the next one.
+     * @return An order for to.
+     */
+    public DiagramOrder adapt(FrameSnapshot to) {
+        if (to == frame) {
+            return this;
+        }
+        return new DiagramOrder(to, adapt(ptrColumns, frame.ptrs, to.ptrs),
+                adapt(nonPtrColumns, frame.nonPtrs, to.nonPtrs));
+    }
+
+    /**
+     * Sweep both rows until no arrows from pointers to nonPointers cross, or MAX_SWEEPS
+     * have been made.
+     * @return The refined order, or this if nothing moved.
+     */
+    public DiagramOrder refine() {
+        int ptrs = frame.getPointerCount();
+        int nonPtrs = frame.getNonPointerCount();
+        int[] ptrCols = ptrColumns.clone();
+        int[] nonPtrCols = nonPtrColumns.clone();
+        int[] slotAt = new int[Math.max(ptrs, nonPtrs)];
+        long[] keys = new long[slotAt.length];
+        float[] sums = new float[nonPtrs];
+        int[] referrers = new int[nonPtrs];
+
+        boolean changed = false;
+        for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+            // NonPointers towards the mean position of the pointers aiming at them. Those
+            // nothing aims at hold their place.
+            Arrays.fill(sums, 0);
+            Arrays.fill(referrers, 0);
+            for (int i = 0; i < ptrs; i++) {
+                FrameSnapshot.Node ptr = frame.getPointer(i);
+                if (ptr.getTarget() != -1 && !ptr.isTargetPointer()) {
+                    sums[ptr.getTarget()] += position(ptrCols[i], ptrs);
+                    referrers[ptr.getTarget()]++;
+                }
+            }
+            for (int j = 0; j < nonPtrs; j++) {
+                float key = referrers[j] == 0 ? position(nonPtrCols[j], nonPtrs) : sums[j] / referrers[j];
+                keys[j] = key(key, nonPtrCols[j]);
+            }
+            boolean moved = sort(keys, nonPtrCols, slotAt, nonPtrs);
+
+            // Pointers above what they aim at. Those aiming at nothing hold their place.
+            for (int i = 0; i < ptrs; i++) {
+                FrameSnapshot.Node ptr = frame.getPointer(i);
+                float key;
+                if (ptr.getTarget() == -1) {
+                    key = position(ptrCols[i], ptrs);
+                } else if (ptr.isTargetPointer()) {
+                    key = position(ptrCols[ptr.getTarget()], ptrs);
+                } else {
+                    key = position(nonPtrCols[ptr.getTarget()], nonPtrs);
+                }
+                keys[i] = key(key, ptrCols[i]);
+            }
+            moved |= sort(keys, ptrCols, slotAt, ptrs);
+            if (!moved) {
+                break;
+            }
+            changed = true;
+        }
+        return changed ? new DiagramOrder(frame, ptrCols, nonPtrCols) : this;
+    }
+
+    /**
+     * @return How many pairs of arrows from pointers to nonPointers cross in this order.
+     */
+    public long countCrossings() {
+        // Arrows by pointer column, then the inversions in their nonPointer columns
+        int ptrs = frame.getPointerCount();
+        long[] arrows = new long[ptrs];
+        int n = 0;
+        for (int i = 0; i < ptrs; i++) {
+            FrameSnapshot.Node ptr = frame.getPointer(i);
+            if (ptr.getTarget() != -1 && !ptr.isTargetPointer()) {
+                arrows[n++] = ((long) ptrColumns[i] << 32) | nonPtrColumns[ptr.getTarget()];
+            }
+        }
+        Arrays.sort(arrows, 0, n);
+        int[] stops = new int[n];
+        for (int k = 0; k < n; k++) {
+            stops[k] = (int) arrows[k];
+        }
+        return inversions(stops, new int[n], 0, n);
+    }
+
+    // Horizontal position of a column as a fraction of the row, as DiagramLayout spreads them
+    private static float position(int column, int count) {
+        return (column + 1) / (float) (count + 1);
+    }
+
+    // Sorts by position, ties kept in their current order. Positions are positive, so their
+    // bits compare as ints do.
+    private static long key(float position, int column) {
+        return ((long) Float.floatToIntBits(position) << 32) | column;
+    }
+
+    // Give each slot the column its key sorts into. Returns true if any moved.
+    private static boolean sort(long[] keys, int[] columns, int[] slotAt, int count) {
+        for (int s = 0; s < count; s++) {
+            slotAt[columns[s]] = s;
+        }
+        Arrays.sort(keys, 0, count);
+        boolean moved = false;
+        for (int c = 0; c < count; c++) {
+            int slot = slotAt[(int) keys[c]];
+            if (columns[slot] != c) {
+                columns[slot] = c;
+                moved = true;
+            }
+        }
+        return moved;
+    }
+
+    // Merge sort of a[from, to), counting pairs out of order
+    private static long inversions(int[] a, int[] scratch, int from, int to) {
+        if (to - from < 2) {
+            return 0;
+        }
+        int mid = (from + to) >>> 1;
+        long count = inversions(a, scratch, from, mid) + inversions(a, scratch, mid, to);
+        int i = from;
+        int j = mid;
+        int k = from;
+        while (i < mid && j < to) {
+            if (a[j] < a[i]) {
+                count += mid - i;
+                scratch[k++] = a[j++];
+            } else {
+                scratch[k++] = a[i++];
+            }
+        }
+        while (i < mid) {
+            scratch[k++] = a[i++];
+        }
+        while (j < to) {
+            scratch[k++] = a[j++];
+        }
+        System.arraycopy(scratch, from, a, from, to - from);
+        return count;
+    }
+
+    private static int[] identity(int count) {
+        int[] columns = new int[count];
+        for (int s = 0; s < count; s++) {
+            columns[s] = s;
+        }
+        return columns;
+    }
+
+    private static int[] adapt(int[] columns, PersistentVector<FrameSnapshot.Node> from,
+                               PersistentVector<FrameSnapshot.Node> to) {
+        if (from == to) {
+            return columns;
+        }
+        int count = to.size();
+        // Slot in from of the variable in each slot of to, -1 for new ones. Most are in the
+        // same slot as before, the rest are found by their key.
+        int[] was = new int[count];
+        boolean[] kept = new boolean[columns.length];
+        int[] slots = null;
+        boolean same = count == columns.length;
+        for (int s = 0; s < count; s++) {
+            int order = to.get(s).getOrder();
+            if (s < columns.length && from.get(s).getOrder() == order) {
+                was[s] = s;
+            } else {
+                if (slots == null) {
+                    slots = slotsByOrder(from);
+                }
+                was[s] = slotOf(slots, order);
+                same = false;
+            }
+            if (was[s] != -1) {
+                kept[was[s]] = true;
+            }
+        }
+        if (same) {
+            return columns;
+        }
+        // How many columns of dropped variables come before each column
+        int[] gone = new int[columns.length + 1];
+        for (int s = 0; s < columns.length; s++) {
+            if (!kept[s]) {
+                gone[columns[s] + 1]++;
+            }
+        }
+        for (int c = 0; c < columns.length; c++) {
+            gone[c + 1] += gone[c];
+        }
+        int[] adapted = new int[count];
+        int next = columns.length - gone[columns.length];
+        for (int s = 0; s < count; s++) {
+            adapted[s] = was[s] == -1 ? next++ : columns[was[s]] - gone[columns[was[s]]];
+        }
+        return adapted;
+    }
+
+    // An open-addressed table of key + 1 and slot pairs for the nodes of a row, at most
+    // half full, with 0 marking an empty entry
+    private static int[] slotsByOrder(PersistentVector<FrameSnapshot.Node> row) {
+        int mask = Integer.highestOneBit(Math.max(row.size(), 1)) * 4 - 1;
+        int[] slots = new int[2 * (mask + 1)];
+        for (int s = 0; s < row.size(); s++) {
+            int order = row.get(s).getOrder();
+            int h = hash(order) & mask;
+            while (slots[2 * h] != 0) {
+                h = (h + 1) & mask;
+            }
+            slots[2 * h] = order + 1;
+            slots[2 * h + 1] = s;
+        }
+        return slots;
+    }
+
+    private static int slotOf(int[] slots, int order) {
+        int mask = slots.length / 2 - 1;
+        for (int h = hash(order) & mask; slots[2 * h] != 0; h = (h + 1) & mask) {
+            if (slots[2 * h] == order + 1) {
+                return slots[2 * h + 1];
+            }
+        }
+        return -1;
+    }
+
+    // Keys are handed out one after another, so they're spread over the table
+    private static int hash(int order) {
+        int h = order * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,391 @@
+package com.baker.goodpointersv2;
+
+/**
+ * Draws a FrameSnapshot onto any RenderTarget, using the positions in a DiagramLayout.
+ * pointer type variables - [color] Circle
+ * non-pointer type variables - Stacked rectangles
+ *                              upper = Address as [color] rect
+ *                              lower = Value as [color] rect
+ * PointerVisualizer draws through this onto its Canvas, and the JVM exporter onto SVG and
+ * images, so both produce the same picture. Everything is in logical coordinates;
+ * pan and zoom are up to the target.
+ * Keeps label caches and scratch space between frames, so use one per drawing thread.
+ */
+public class DiagramRenderer {
+    private final float densityScalar;
+    // Measured, ellipsized labels. Values and pointer text go inside the shapes, names
+    // and addresses under them have a whole column.
+    private final LabelCache valueLabels;
+    private final LabelCache nameLabels;
+    // Slots found by the spatial index for the current frame.
+    private int[] visible = new int[0];
+    // Visible arrows packed for one drawLines and one drawPoints call.
+    private float[] arrowLines = new float[0];
+    private float[] arrowHeads = new float[0];
+    private int nodesDrawn;
+    private int arrowsDrawn;
+
+    /**
+     * @param measurer The target labels are measured with. Labels are reused between
+     *                 frames, so the targets drawn to should all measure text the same way.
+     * @param densityScalar Device pixel density the layout was built with.
+     */
+    public DiagramRenderer(RenderTarget measurer, float densityScalar) {
+        this.densityScalar = densityScalar;
+        valueLabels = new LabelCache(measurer, RenderTarget.TEXT, densityScalar * 36, 1024);
+        nameLabels = new LabelCache(measurer, RenderTarget.DARK_TEXT, densityScalar * 56, 1024);
+    }
+
+    /**
+     * Draw everything in the frame that falls within the given logical range.
+     * @param target Where to draw.
+     * @param frame The frame to draw.
+     * @param layout The layout built from the frame.
+     * @param left Left edge of the visible logical range.
+     * @param top Top edge of the visible logical range.
+     * @param right Right edge of the visible logical range.
+     * @param bottom Bottom edge of the visible logical range.
+     */
+    public void draw(RenderTarget target, FrameSnapshot frame, DiagramLayout layout,
+                     float left, float top, float right, float bottom) {
+        draw(target, frame, layout, left, top, right, bottom, null);
+    }
+
+    /**
+     * Draw the frame as above, leaving out the nodes a transition animates and the arrows
+     * of its pointers, to be drawn over it every frame by drawTransition().
+     * @param skip The transition, or null to draw everything.
+     */
+    public void draw(RenderTarget target, FrameSnapshot frame, DiagramLayout layout,
+                     float left, float top, float right, float bottom, DiagramTransition skip) {
+        nodesDrawn = 0;
+        arrowsDrawn = 0;
+        int most = Math.max(layout.ptrCount, layout.nonPtrCount);
+        if (visible.length < most) {
+            visible = new int[most * 2];
+            arrowLines = new float[most * 2 * 4];
+            arrowHeads = new float[most * 2 * 2];
+        }
+        if (frame.getPointerCount() != 0) {
+            drawPointers(target, frame, layout, left, top, right, bottom, skip);
+        }
+        if (frame.getNonPointerCount() != 0) {
+            drawNonPointers(target, frame, layout, left, top, right, bottom, skip);
+        }
+    }
+
+    /**
+     * Draw the nodes and arrows a transition animates, part way through it, over a layer
+     * drawn without them. Moved nodes and arrow ends slide, added nodes grow and removed
+     * ones shrink away, and changed values are highlighted until it ends.
+     * @param target Where to draw.
+     * @param transition The transition.
+     * @param layout The layout of the frame being moved to.
+     * @param progress How far through the transition, from 0 to 1.
+     * @param left Left edge of the visible logical range.
+     * @param right Right edge of the visible logical range.
+     */
+    public void drawTransition(RenderTarget target, DiagramTransition transition, DiagramLayout layout,
+                               float progress, float left, float right) {
+        nodesDrawn = 0;
+        arrowsDrawn = 0;
+        // Ease in and out
+        float t = progress * progress * (3 - 2 * progress);
+        float margin = densityScalar * 30;
+        int ptrs = transition.ptrCount;
+        if (arrowLines.length < ptrs * 4) {
+            arrowLines = new float[ptrs * 2 * 4];
+            arrowHeads = new float[ptrs * 2 * 2];
+        }
+
+        float startY = layout.ptrY + layout.halfWidth;
+        for (int k = 0; k < ptrs; k++) {
+            int flags = transition.ptrFlags[k];
+            // Arrows grow out of pointers that appear and shrink into ones that go
+            boolean had = !Float.isNaN(transition.stopFromX[k]) && (flags & DiagramTransition.ADDED) == 0;
+            boolean has = !Float.isNaN(transition.stopToX[k]) && (flags & DiagramTransition.REMOVED) == 0;
+            if (!had && !has) {
+                continue;
+            }
+            float x = lerp(transition.ptrFromX[k], transition.ptrToX[k], t);
+            float stopX;
+            float stopY;
+            if (had && has) {
+                stopX = lerp(transition.stopFromX[k], transition.stopToX[k], t);
+                stopY = lerp(transition.stopFromY[k], transition.stopToY[k], t);
+            } else if (has) {
+                stopX = lerp(x, transition.stopToX[k], t);
+                stopY = lerp(startY, transition.stopToY[k], t);
+            } else {
+                stopX = lerp(transition.stopFromX[k], x, t);
+                stopY = lerp(transition.stopFromY[k], startY, t);
+            }
+            if (Math.max(x, stopX) + margin < left || Math.min(x, stopX) - margin > right) {
+                continue;
+            }
+            int a = arrowsDrawn * 4;
+            arrowLines[a] = x;
+            arrowLines[a + 1] = startY;
+            arrowLines[a + 2] = stopX;
+            arrowLines[a + 3] = stopY;
+            arrowHeads[arrowsDrawn * 2] = stopX;
+            arrowHeads[arrowsDrawn * 2 + 1] = stopY;
+            arrowsDrawn++;
+        }
+        if (arrowsDrawn > 0) {
+            target.drawLines(arrowLines, arrowsDrawn * 4, RenderTarget.LINE);
+            target.drawPoints(arrowHeads, arrowsDrawn * 2, RenderTarget.ARROW_HEAD);
+        }
+
+        for (int k = 0; k < ptrs; k++) {
+            float x = lerp(transition.ptrFromX[k], transition.ptrToX[k], t);
+            if (x + margin < left || x - margin > right) {
+                continue;
+            }
+            int flags = transition.ptrFlags[k];
+            FrameSnapshot.Node ptr = transition.ptrNodes[k];
+            drawPointer(target, x, layout.ptrY, scale(flags, t), style(flags, RenderTarget.ADDRESS),
+                    ptr.getText(), ptr.getName(), ptr.getAddress());
+            nodesDrawn++;
+        }
+        for (int k = 0; k < transition.nonPtrCount; k++) {
+            float x = lerp(transition.nonPtrFromX[k], transition.nonPtrToX[k], t);
+            if (x + margin < left || x - margin > right) {
+                continue;
+            }
+            int flags = transition.nonPtrFlags[k];
+            FrameSnapshot.Node nonPtr = transition.nonPtrNodes[k];
+            drawNonPointer(target, x, layout.nonPtrTop, layout.halfWidth, scale(flags, t),
+                    style(flags, RenderTarget.VALUE), nonPtr.getText(), nonPtr.getAddress(),
+                    nonPtr.getName());
+            nodesDrawn++;
+        }
+    }
+
+    private static float lerp(float from, float to, float t) {
+        return from + (to - from) * t;
+    }
+
+    private static float scale(int flags, float t) {
+        if ((flags & DiagramTransition.ADDED) != 0) {
+            return t;
+        }
+        return (flags & DiagramTransition.REMOVED) != 0 ? 1 - t : 1;
+    }
+
+    private static int style(int flags, int normal) {
+        return (flags & DiagramTransition.CHANGED) != 0 ? RenderTarget.HIGHLIGHT : normal;
+    }
+
+    /**
+     * Draw a single pointer over whatever is there, e.g. on top of a cached layer when
+     * only its text has changed.
+     * @param target Where to draw.
+     * @param frame The frame holding it.
+     * @param layout The layout built for the frame.
+     * @param i The pointer's slot.
+     */
+    public void drawPointerAt(RenderTarget target, FrameSnapshot frame, DiagramLayout layout, int i) {
+        FrameSnapshot.Node ptr = frame.getPointer(i);
+        drawPointer(target, layout.ptrX[i], layout.ptrY, 1, RenderTarget.ADDRESS,
+                ptr.getText(), ptr.getName(), ptr.getAddress());
+    }
+
+    /**
+     * Draw a single nonPointer over whatever is there.
+     * @param target Where to draw.
+     * @param frame The frame holding it.
+     * @param layout The layout built for the frame.
+     * @param j The nonPointer's slot.
+     */
+    public void drawNonPointerAt(RenderTarget target, FrameSnapshot frame, DiagramLayout layout, int j) {
+        FrameSnapshot.Node nonPtr = frame.getNonPointer(j);
+        drawNonPointer(target, layout.nonPtrX[j], layout.nonPtrTop, layout.halfWidth, 1,
+                RenderTarget.VALUE, nonPtr.getText(), nonPtr.getAddress(), nonPtr.getName());
+    }
+
+    /**
+     * A value or pointer text is no longer shown, so its label can be dropped.
+     * @param text The text.
+     */
+    public void labelReplaced(String text) {
+        valueLabels.evict(text);
+    }
+
+    /**
+     * Too many texts were replaced to drop them one by one, so drop every label.
+     */
+    public void allLabelsReplaced() {
+        valueLabels.clear();
+    }
+
+    public int getNodesDrawn() {
+        return nodesDrawn;
+    }
+
+    public int getArrowsDrawn() {
+        return arrowsDrawn;
+    }
+
+    public long getLabelHits() {
+        return valueLabels.getHits() + nameLabels.getHits();
+    }
+
+    public long getLabelMisses() {
+        return valueLabels.getMisses() + nameLabels.getMisses();
+    }
+
+    /**
+     * Draws the pointers from the frame, as well as the lines connecting
+     * them to what they're pointing. Only pointers and arrows within the visible
+     * range are visited, and those in skip are left out.
+     */
+    private void drawPointers(RenderTarget target, FrameSnapshot frame, DiagramLayout layout,
+                              float left, float top, float right, float bottom,
+                              DiagramTransition skip) {
+        float radius = densityScalar * 20;
+        float textRoom = densityScalar * 55;
+
+        // Draw Pointers from Vector
+        if (layout.ptrY + radius >= top && layout.ptrY - textRoom <= bottom) {
+            int found = layout.ptrSpans.query(left, right, visible);
+            for (int k = 0; k < found; k++) {
+                int i = visible[k];
+                if (skip != null && skip.isPointerAnimated(i)) {
+                    continue;
+                }
+                FrameSnapshot.Node ptr = frame.getPointer(i);
+                drawPointer(target, layout.ptrX[i], layout.ptrY, 1, RenderTarget.ADDRESS,
+                        ptr.getText(), ptr.getName(), ptr.getAddress());
+                nodesDrawn++;
+            }
+        }
+        // Draw a line for every pointer that is pointing at something still in the list
+        if (layout.ptrY + radius <= bottom && layout.nonPtrTop >= top) {
+            int found = layout.arrowSpans.query(left, right, visible);
+            if (skip != null) {
+                // Keep only the arrows of pointers that aren't animated
+                int kept = 0;
+                for (int k = 0; k < found; k++) {
+                    if (!skip.isPointerAnimated(layout.arrowPtr[visible[k]])) {
+                        visible[kept++] = visible[k];
+                    }
+                }
+                found = kept;
+            }
+            arrowsDrawn += found;
+            drawArrows(target, layout, found);
+        }
+    }
+
+    /**
+     * Draws the nonPointer objects from the frame that fall within the visible range.
+     */
+    private void drawNonPointers(RenderTarget target, FrameSnapshot frame, DiagramLayout layout,
+                                 float left, float top, float right, float bottom,
+                                 DiagramTransition skip) {
+        if (layout.nonPtrTop > bottom || layout.nonPtrTop + densityScalar * 55 < top) {
+            return;
+        }
+        // Draw NonPointers from Vector
+        int found = layout.nonPtrSpans.query(left, right, visible);
+        for (int k = 0; k < found; k++) {
+            int j = visible[k];
+            if (skip != null && skip.isNonPointerAnimated(j)) {
+                continue;
+            }
+            FrameSnapshot.Node nonPtr = frame.getNonPointer(j);
+            drawNonPointer(target, layout.nonPtrX[j], layout.nonPtrTop, layout.halfWidth, 1,
+                    RenderTarget.VALUE, nonPtr.getText(), nonPtr.getAddress(), nonPtr.getName());
+            nodesDrawn++;
+        }
+    }
+
+    /**
+     * drawNonPointer creates a visualization of a Cpp nonPointer variable using two rectangles,
+     * with the top containing the value, the bottom the address, and the name below.
+     *
+     * @param target Where to draw.
+     * @param x The centre of the nonPointer.
+     * @param top The top of the upper rectangle.
+     * @param halfWidth Half the width, and the height, of each rectangle.
+     * @param scale Size relative to normal, about the centre. Text is left out when small.
+     * @param valueStyle The style of the value rect, VALUE or HIGHLIGHT.
+     * @param value The value of the nonPointer.
+     * @param address The address of the nonPointer.
+     * @param name The name of the nonPointer.
+     */
+    private void drawNonPointer(RenderTarget target, float x, float top, float halfWidth,
+                                float scale, int valueStyle, String value, String address,
+                                String name) {
+        float cornerRadius = 15 * scale;
+        if (scale != 1) {
+            top += halfWidth * (1 - scale);
+            halfWidth *= scale;
+        }
+
+        // Draw rounded rectangles
+        target.drawRoundRect(x - halfWidth, top, x + halfWidth, top + halfWidth,
+                cornerRadius, RenderTarget.ADDRESS);
+        target.drawRoundRect(x - halfWidth, top + halfWidth, x + halfWidth, top + halfWidth * 2,
+                cornerRadius, valueStyle);
+        if (scale < 0.6f) {
+            return;
+        }
+
+        // Draw our text from our strings, cut down to fit their shapes.
+        target.drawText(valueLabels.get(value), x, top + densityScalar * 18 * scale, RenderTarget.TEXT);
+        target.drawText(valueLabels.get(address), x, top + densityScalar * 37 * scale, RenderTarget.TEXT);
+        target.drawText(nameLabels.get(name), x, top + densityScalar * 50 * scale, RenderTarget.DARK_TEXT);
+    }
+
+    /**
+     * drawPointer places a visualization of a Cpp Pointer variable, which is a round circle
+     * with either the address of the object its pointing to, or the value (given it's dereferenced)
+     * @param target Where to draw.
+     * @param x The location of the drawn object from the left of the screen.
+     * @param y The location of the drawn object from the top of the screen.
+     * @param scale Size relative to normal. Text is left out when small.
+     * @param style The style of the circle, ADDRESS or HIGHLIGHT.
+     * @param pAddress The address of the variable it is pointing to. Can be changed to value if
+     *                 dereferenced.
+     * @param name The name of the pointer.
+     * @param address The pointer's own address, shown above the name so pointers to
+     *                pointers can be followed.
+     */
+    private void drawPointer(RenderTarget target, float x, float y, float scale, int style,
+                             String pAddress, String name, String address) {
+        float radius = densityScalar * 20 * scale;
+
+        target.drawCircle(x, y, radius, style);
+        if (scale < 0.6f) {
+            return;
+        }
+        target.drawText(valueLabels.get(pAddress), x, y + densityScalar * 5, RenderTarget.TEXT);
+        target.drawText(nameLabels.get(name), x, y - densityScalar * 25, RenderTarget.DARK_TEXT);
+        target.drawText(nameLabels.get(address), x, y - densityScalar * 40, RenderTarget.DARK_TEXT);
+    }
+
+    /**
+     * Function will draw lines with an arrowHead to convey what nonPointer each Pointer variable
+     * is pointing to. The arrows found by the spatial index are packed together so every
+     * line goes in one call and every head in another.
+     * @param target Where to draw.
+     * @param layout The layout holding the arrows.
+     * @param found How many arrows at the start of visible to draw.
+     */
+    private void drawArrows(RenderTarget target, DiagramLayout layout, int found) {
+        if (found == 0) {
+            return;
+        }
+        for (int k = 0; k < found; k++) {
+            int a = visible[k] * 4;
+            System.arraycopy(layout.arrowLines, a, arrowLines, k * 4, 4);
+            // The head sits on the end of the line
+            arrowHeads[k * 2] = layout.arrowLines[a + 2];
+            arrowHeads[k * 2 + 1] = layout.arrowLines[a + 3];
+        }
+        target.drawLines(arrowLines, found * 4, RenderTarget.LINE);
+        target.drawPoints(arrowHeads, found * 2, RenderTarget.ARROW_HEAD);
+    }
+}
@@ -0,0 +1,353 @@
+package com.baker.goodpointersv2;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What changed between two consecutive frames, so PointerVisualizer can animate only that:
+ * nodes added, removed, moved to another position or showing another value, and arrows
+ * that now end somewhere else.
+ * Frames share every unchanged node through PersistentVector, so the changed slots are
+ * found without visiting the rest, and a step that changes a few variables costs the same
+ * however many thousands are on screen. Moving to a layout in another DiagramOrder has to
+ * compare every position instead. Every node left out of the transition is drawn
+ * once into the static layer and never touched while it plays.
+ * Storage is grown on build and reused afterwards, as in DiagramLayout.
+ */
+public class DiagramTransition {
+    // How long a transition plays for, in nanoseconds
+    public static final long DURATION = 250000000L;
+
+    // What happened to an animated node, as flags
+    static final int ADDED = 1;
+    static final int REMOVED = 2;
+    static final int MOVED = 4;
+    static final int CHANGED = 8;
+    // A pointer's arrow appears, goes, or ends at another node
+    static final int RETARGETED = 16;
+
+    // Animated pointers. Removed ones hold their node from the old frame.
+    int ptrCount;
+    FrameSnapshot.Node[] ptrNodes = new FrameSnapshot.Node[0];
+    int[] ptrFlags = new int[0];
+    float[] ptrFromX = new float[0];
+    float[] ptrToX = new float[0];
+    // Where the arrow ends before and after, NaN where there's no arrow
+    float[] stopFromX = new float[0];
+    float[] stopFromY = new float[0];
+    float[] stopToX = new float[0];
+    float[] stopToY = new float[0];
+
+    // Animated nonPointers
+    int nonPtrCount;
+    FrameSnapshot.Node[] nonPtrNodes = new FrameSnapshot.Node[0];
+    int[] nonPtrFlags = new int[0];
+    float[] nonPtrFromX = new float[0];
+    float[] nonPtrToX = new float[0];
+
+    // Slots of the new frame that are animated, and so left out of the static layer
+    private final BitSet ptrSlots = new BitSet();
+    private final BitSet nonPtrSlots = new BitSet();
+    // Set if anything moves, appears or goes, rather than only changing its value
+    private boolean structural;
+
+    // Scratch space for build()
+    private int[] candidates = new int[0];
+    private final BitSet replaced = new BitSet();
+    private final Map<String, Integer> oldSlots = new HashMap<String, Integer>();
+    private final BitSet matched = new BitSet();
+
+    /**
+     * Work out the transition from one frame to the next.
+     * @param from The frame on screen.
+     * @param fromLayout The layout it was drawn with.
+     * @param to The frame to show next.
+     * @param toLayout The layout built for it. May be fromLayout when nothing moved.
+     * @param limit The most nodes to animate.
+     * @return True if there is anything to animate, false if nothing changed or more than
+     *         limit nodes did, in which case the new frame should just be drawn.
+     */
+    public boolean build(FrameSnapshot from, DiagramLayout fromLayout, FrameSnapshot to,
+                         DiagramLayout toLayout, int limit) {
+        ptrCount = 0;
+        nonPtrCount = 0;
+        ptrSlots.clear();
+        nonPtrSlots.clear();
+        structural = false;
+        ensureCapacity(limit);
+        boolean fits = diffNonPointers(from, fromLayout, to, toLayout, limit)
+                && diffPointers(from, fromLayout, to, toLayout, limit);
+        if (!fits) {
+            ptrCount = 0;
+            nonPtrCount = 0;
+            ptrSlots.clear();
+            nonPtrSlots.clear();
+        }
+        // Don't hold on to nodes of frames long gone
+        Arrays.fill(ptrNodes, ptrCount, ptrNodes.length, null);
+        Arrays.fill(nonPtrNodes, nonPtrCount, nonPtrNodes.length, null);
+        return ptrCount + nonPtrCount > 0;
+    }
+
+    public boolean isPointerAnimated(int slot) {
+        return ptrSlots.get(slot);
+    }
+
+    public boolean isNonPointerAnimated(int slot) {
+        return nonPtrSlots.get(slot);
+    }
+
+    /**
+     * @return True if the transition moves, adds or removes anything, which the static
+     *         layer has to be drawn without. False if values only change in place.
+     */
+    public boolean isStructural() {
+        return structural;
+    }
+
+    public int getAnimatedCount() {
+        return ptrCount + nonPtrCount;
+    }
+
+    private boolean diffNonPointers(FrameSnapshot from, DiagramLayout fromLayout, FrameSnapshot to,
+                                    DiagramLayout toLayout, int limit) {
+        int n = candidates(from, fromLayout, to, toLayout, false,
+                fromLayout.nonPtrPitch != toLayout.nonPtrPitch, limit);
+        if (n == -1) {
+            return false;
+        }
+        collectOldSlots(from.nonPtrs, n);
+        for (int k = 0; k < n; k++) {
+            int s = candidates[k];
+            if (s >= to.getNonPointerCount()) {
+                continue;
+            }
+            FrameSnapshot.Node now = to.getNonPointer(s);
+            Integer o = oldSlots.get(now.getName());
+            float toX = toLayout.nonPtrX[s];
+            float fromX = toX;
+            int flags = ADDED;
+            if (o != null) {
+                matched.set(o);
+                fromX = fromLayout.nonPtrX[o];
+                flags = (fromX != toX ? MOVED : 0) | (changed(from.getNonPointer(o), now) ? CHANGED : 0);
+            }
+            if (flags != 0 && !addNonPointer(now, flags, fromX, toX, limit)) {
+                return false;
+            }
+            if (flags != 0) {
+                nonPtrSlots.set(s);
+            }
+        }
+        for (int k = 0; k < n; k++) {
+            int s = candidates[k];
+            if (s < from.getNonPointerCount() && !matched.get(s)) {
+                float x = fromLayout.nonPtrX[s];
+                if (!addNonPointer(from.getNonPointer(s), REMOVED, x, x, limit)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean diffPointers(FrameSnapshot from, DiagramLayout fromLayout, FrameSnapshot to,
+                                 DiagramLayout toLayout, int limit) {
+        // Every arrow into a nonPointer that moved was redrawn along with it
+        boolean all = fromLayout.ptrPitch != toLayout.ptrPitch
+                || fromLayout.nonPtrPitch != toLayout.nonPtrPitch;
+        int n = candidates(from, fromLayout, to, toLayout, true, all, limit);
+        if (n == -1) {
+            return false;
+        }
+        collectOldSlots(from.ptrs, n);
+        for (int k = 0; k < n; k++) {
+            int s = candidates[k];
+            if (s >= to.getPointerCount()) {
+                continue;
+            }
+            FrameSnapshot.Node now = to.getPointer(s);
+            Integer o = oldSlots.get(now.getName());
+            float toX = toLayout.ptrX[s];
+            float fromX = toX;
+            float toStopX = stopX(now, toLayout);
+            float toStopY = stopY(now, toLayout);
+            float fromStopX = toStopX;
+            float fromStopY = toStopY;
+            int flags = ADDED;
+            if (o != null) {
+                matched.set(o);
+                FrameSnapshot.Node was = from.getPointer(o);
+                fromX = fromLayout.ptrX[o];
+                fromStopX = stopX(was, fromLayout);
+                fromStopY = stopY(was, fromLayout);
+                flags = (fromX != toX ? MOVED : 0) | (changed(was, now) ? CHANGED : 0)
+                        | (same(fromStopX, toStopX) && same(fromStopY, toStopY) ? 0 : RETARGETED);
+            }
+            if (flags != 0 && !addPointer(now, flags, fromX, toX, fromStopX, fromStopY,
+                    toStopX, toStopY, limit)) {
+                return false;
+            }
+            if (flags != 0) {
+                ptrSlots.set(s);
+            }
+        }
+        for (int k = 0; k < n; k++) {
+            int s = candidates[k];
+            if (s < from.getPointerCount() && !matched.get(s)) {
+                FrameSnapshot.Node was = from.getPointer(s);
+                float x = fromLayout.ptrX[s];
+                float stopX = stopX(was, fromLayout);
+                float stopY = stopY(was, fromLayout);
+                if (!addPointer(was, REMOVED, x, x, stopX, stopY, stopX, stopY, limit)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Slots, of either frame, that may hold a node that changed: those holding another node
+    // than before, and those only one of the frames has. Every slot if all is set, or if the
+    // tries can't be compared because one grew a level. When the layouts are in different
+    // orders, slots placed somewhere else, or whose arrow now ends somewhere else, are
+    // included too, which means visiting every slot.
+    private int candidates(FrameSnapshot fromFrame, DiagramLayout fromLayout, FrameSnapshot toFrame,
+                           DiagramLayout toLayout, boolean pointers, boolean all, int limit) {
+        PersistentVector<FrameSnapshot.Node> from = pointers ? fromFrame.ptrs : fromFrame.nonPtrs;
+        PersistentVector<FrameSnapshot.Node> to = pointers ? toFrame.ptrs : toFrame.nonPtrs;
+        int shared = Math.min(from.size(), to.size());
+        int most = Math.max(from.size(), to.size());
+        int n = all ? -1 : to.diffShared(from, candidates);
+        if (n != -1 && !DiagramOrder.sameColumns(fromLayout.order, toLayout.order)) {
+            replaced.clear();
+            for (int k = 0; k < n; k++) {
+                replaced.set(candidates[k]);
+            }
+            n = 0;
+            for (int s = 0; s < shared; s++) {
+                if (replaced.get(s) || placedElsewhere(s, pointers, fromFrame, fromLayout, toLayout)) {
+                    if (n == limit) {
+                        return -1;
+                    }
+                    candidates[n++] = s;
+                }
+            }
+        }
+        if (n == -1) {
+            if (most > limit) {
+                return -1;
+            }
+            for (n = 0; n < most; n++) {
+                candidates[n] = n;
+            }
+            return n;
+        }
+        if (n + most - shared > limit) {
+            return -1;
+        }
+        for (int s = shared; s < most; s++) {
+            candidates[n++] = s;
+        }
+        return n;
+    }
+
+    // Whether an unchanged node is drawn somewhere else in the new layout
+    private static boolean placedElsewhere(int s, boolean pointer, FrameSnapshot frame,
+                                           DiagramLayout fromLayout, DiagramLayout toLayout) {
+        if (!pointer) {
+            return fromLayout.nonPtrX[s] != toLayout.nonPtrX[s];
+        }
+        FrameSnapshot.Node ptr = frame.getPointer(s);
+        return fromLayout.ptrX[s] != toLayout.ptrX[s]
+                || !same(stopX(ptr, fromLayout), stopX(ptr, toLayout));
+    }
+
+    // Names in the old frame at the candidate slots. An unchanged slot holds the same node
+    // in both frames and names are unique, so a node at a changed slot can only have come
+    // from another changed slot.
+    private void collectOldSlots(PersistentVector<FrameSnapshot.Node> from, int n) {
+        oldSlots.clear();
+        matched.clear();
+        for (int k = 0; k < n; k++) {
+            int s = candidates[k];
+            if (s < from.size()) {
+                oldSlots.put(from.get(s).getName(), s);
+            }
+        }
+    }
+
+    private static boolean changed(FrameSnapshot.Node was, FrameSnapshot.Node now) {
+        return !was.getText().equals(now.getText()) || !was.getAddress().equals(now.getAddress());
+    }
+
+    private static boolean same(float a, float b) {
+        return a == b || (a != a && b != b);
+    }
+
+    private static float stopX(FrameSnapshot.Node ptr, DiagramLayout layout) {
+        if (ptr.getTarget() == -1) {
+            return Float.NaN;
+        }
+        return ptr.isTargetPointer() ? layout.ptrX[ptr.getTarget()] : layout.nonPtrX[ptr.getTarget()];
+    }
+
+    private static float stopY(FrameSnapshot.Node ptr, DiagramLayout layout) {
+        if (ptr.getTarget() == -1) {
+            return Float.NaN;
+        }
+        return ptr.isTargetPointer() ? layout.ptrY + layout.halfWidth : layout.nonPtrTop;
+    }
+
+    private boolean addNonPointer(FrameSnapshot.Node node, int flags, float fromX, float toX, int limit) {
+        if (ptrCount + nonPtrCount == limit) {
+            return false;
+        }
+        int k = nonPtrCount++;
+        nonPtrNodes[k] = node;
+        nonPtrFlags[k] = flags;
+        nonPtrFromX[k] = fromX;
+        nonPtrToX[k] = toX;
+        structural |= flags != CHANGED;
+        return true;
+    }
+
+    private boolean addPointer(FrameSnapshot.Node node, int flags, float fromX, float toX,
+                               float fromStopX, float fromStopY, float toStopX, float toStopY,
+                               int limit) {
+        if (ptrCount + nonPtrCount == limit) {
+            return false;
+        }
+        int k = ptrCount++;
+        ptrNodes[k] = node;
+        ptrFlags[k] = flags;
+        ptrFromX[k] = fromX;
+        ptrToX[k] = toX;
+        stopFromX[k] = fromStopX;
+        stopFromY[k] = fromStopY;
+        stopToX[k] = toStopX;
+        stopToY[k] = toStopY;
+        structural |= flags != CHANGED;
+        return true;
+    }
+
+    private void ensureCapacity(int limit) {
+        if (candidates.length < limit) {
+            candidates = new int[limit];
+            ptrNodes = new FrameSnapshot.Node[limit];
+            ptrFlags = new int[limit];
+            ptrFromX = new float[limit];
+            ptrToX = new float[limit];
+            stopFromX = new float[limit];
+            stopFromY = new float[limit];
+            stopToX = new float[limit];
+            stopToY = new float[limit];
+            nonPtrNodes = new FrameSnapshot.Node[limit];
+            nonPtrFlags = new int[limit];
+            nonPtrFromX = new float[limit];
+            nonPtrToX = new float[limit];
+        }
+    }
+}
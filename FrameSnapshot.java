@@ -0,0 +1,149 @@
+package com.baker.goodpointersv2;
+
+import java.util.List;
+
+/**
+ * One complete, immutable picture of the memory model, as handed from VisController to
+ * PointerVisualizer for drawing.
+ * The controller publishes a new snapshot after every step, from whatever thread it runs on,
+ * and onDraw only ever reads the latest one, so a frame never shows half of a change and the
+ * variable objects themselves are never touched by the render thread.
+ * Consecutive snapshots share all but the changed nodes through PersistentVector.
+ */
+public final class FrameSnapshot {
+    public static final FrameSnapshot EMPTY = new FrameSnapshot(
+            PersistentVector.<Node>empty(), PersistentVector.<Node>empty());
+
+    // In the same order as VisController's lists, so slot i here is slot i there.
+    final PersistentVector<Node> ptrs;
+    final PersistentVector<Node> nonPtrs;
+
+    FrameSnapshot(PersistentVector<Node> ptrs, PersistentVector<Node> nonPtrs) {
+        this.ptrs = ptrs;
+        this.nonPtrs = nonPtrs;
+    }
+
+    /**
+     * Build a frame straight from lists of variables, e.g. a restored MemorySnapshot,
+     * without going through a VisController.
+     * @param ptrList The pointers, each with its slot set to its index.
+     * @param nonPtrList The nonPointers, each with its slot set to its index.
+     * @return The frame.
+     */
+    public static FrameSnapshot of(List<Pointer> ptrList, List<NonPointer> nonPtrList) {
+        Node[] ptrs = new Node[ptrList.size()];
+        for (int i = 0; i < ptrs.length; i++) {
+            ptrs[i] = Node.of(ptrList.get(i));
+        }
+        Node[] nonPtrs = new Node[nonPtrList.size()];
+        for (int j = 0; j < nonPtrs.length; j++) {
+            nonPtrs[j] = Node.of(nonPtrList.get(j));
+        }
+        return new FrameSnapshot(PersistentVector.<Node>empty().splice(0, ptrs, ptrs.length),
+                PersistentVector.<Node>empty().splice(0, nonPtrs, nonPtrs.length));
+    }
+
+    public int getPointerCount() {
+        return ptrs.size();
+    }
+
+    public int getNonPointerCount() {
+        return nonPtrs.size();
+    }
+
+    public Node getPointer(int slot) {
+        return ptrs.get(slot);
+    }
+
+    public Node getNonPointer(int slot) {
+        return nonPtrs.get(slot);
+    }
+
+    /**
+     * What gets drawn for a single variable, copied out of it when it changes.
+     */
+    public static final class Node {
+        // Drawn under the node. An array's name comes with its range of elements, as the
+        // whole array is drawn as this one node.
+        final String name;
+        // The value of a nonPointer, or what a pointer shows in its circle
+        final String text;
+        final String address;
+        final int addressValue;
+        // Bytes taken up from addressValue on
+        final int size;
+        // Slot of the pointer's arrow target, -1 for no arrow
+        final int target;
+        final boolean targetIsPointer;
+        // The variable's order key. A variable keeps its key while it exists, whichever
+        // slot it's in, so two frames' nodes can be matched up by it.
+        final int order;
+
+        private Node(String name, String text, String address, int addressValue, int size,
+                     int target, boolean targetIsPointer, int order) {
+            this.name = name;
+            this.text = text;
+            this.address = address;
+            this.addressValue = addressValue;
+            this.size = size;
+            this.target = target;
+            this.targetIsPointer = targetIsPointer;
+            this.order = order;
+        }
+
+        public static Node of(NonPointer np) {
+            String name = np.isArray()
+                    ? np.getName() + "[0.." + (np.getLength() - 1) + "]" : np.getName();
+            return new Node(name, np.getDisplayValue(), np.getAddress(),
+                    np.getAddressValue(), np.getSize(), -1, false, np.getOrder());
+        }
+
+        public static Node of(Pointer p) {
+            int target = -1;
+            boolean targetIsPointer = false;
+            if (p.isPointing() && !p.isDangling()) {
+                if (p.getTarget() != null) {
+                    target = p.getTarget().getSlot();
+                } else if (p.getPointerTarget() != null) {
+                    target = p.getPointerTarget().getSlot();
+                    targetIsPointer = true;
+                }
+            }
+            return new Node(p.getName(), p.getToDisplay(), p.getAddress(),
+                    p.getAddressValue(), AddressSpace.POINTER_SIZE, target, targetIsPointer,
+                    p.getOrder());
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public int getAddressValue() {
+            return addressValue;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getTarget() {
+            return target;
+        }
+
+        public boolean isTargetPointer() {
+            return targetIsPointer;
+        }
+
+        public int getOrder() {
+            return order;
+        }
+    }
+}
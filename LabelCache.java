@@ -0,0 +1,124 @@
+package com.baker.goodpointersv2;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Measured and ellipsized labels for one text style and one shape width, so drawing doesn't
+ * measure the same strings every frame and long values don't spill out of their shapes.
+ * A label that is too wide is cut down to fit, with an ellipsis on the end.
+ * Bounded, with the least recently drawn label thrown out first. Only used from the
+ * thread that draws the view.
+ */
+public class LabelCache {
+    private static final String ELLIPSIS = "\u2026";
+
+    private final RenderTarget measurer;
+    private final int style;
+    private final float maxWidth;
+    private final LinkedHashMap<String, Label> labels;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param measurer Measures text as it will be drawn.
+     * @param style The RenderTarget text style labels are drawn with.
+     * @param maxWidth Widest a label may be, in pixels.
+     * @param capacity Most labels kept.
+     */
+    public LabelCache(RenderTarget measurer, int style, float maxWidth, final int capacity) {
+        this.measurer = measurer;
+        this.style = style;
+        this.maxWidth = maxWidth;
+        // Access order, so the eldest entry is the least recently used one
+        this.labels = new LinkedHashMap<String, Label>(capacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Label> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param text The full string.
+     * @return The string to draw, ellipsized if it wouldn't fit.
+     */
+    public String get(String text) {
+        return lookup(text).text;
+    }
+
+    /**
+     * @param text The full string.
+     * @return The width of what get() returns, in pixels.
+     */
+    public float getWidth(String text) {
+        return lookup(text).width;
+    }
+
+    /**
+     * Forget a string that is no longer shown, e.g. a value that was just changed.
+     * @param text The full string.
+     */
+    public void evict(String text) {
+        labels.remove(text);
+    }
+
+    public void clear() {
+        labels.clear();
+    }
+
+    public int size() {
+        return labels.size();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    private Label lookup(String text) {
+        Label label = labels.get(text);
+        if (label != null) {
+            hits++;
+            return label;
+        }
+        misses++;
+        label = measure(text);
+        labels.put(text, label);
+        return label;
+    }
+
+    private Label measure(String text) {
+        float width = measurer.measureText(text, style);
+        if (width <= maxWidth) {
+            return new Label(text, width);
+        }
+        // Longest prefix that leaves room for the ellipsis
+        float room = maxWidth - measurer.measureText(ELLIPSIS, style);
+        int fits = 0;
+        int tooMany = text.length();
+        while (tooMany - fits > 1) {
+            int mid = (fits + tooMany) >>> 1;
+            if (measurer.measureText(text.substring(0, mid), style) <= room) {
+                fits = mid;
+            } else {
+                tooMany = mid;
+            }
+        }
+        String cut = text.substring(0, fits) + ELLIPSIS;
+        return new Label(cut, measurer.measureText(cut, style));
+    }
+
+    private static final class Label {
+        final String text;
+        final float width;
+
+        Label(String text, float width) {
+            this.text = text;
+            this.width = width;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.baker.goodpointersv2;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Works out the DiagramOrder of each frame PointerVisualizer is given, on a thread of its
+ * own, so refining the order never holds up a frame being drawn.
+ * Frames published faster than they can be ordered are skipped, only the latest one is
+ * worked on, starting from the last order finished. The view never waits: each request
+ * carries the last order over to its frame with DiagramOrder.adapt(), on the thread
+ * publishing it, and the view uses that until the refined order is ready. The view is
+ * only told to redraw when refining moved something.
+ */
+public class LayoutWorker {
+    /**
+     * Told when an order is finished. Called on the worker's thread.
+     */
+    public interface Listener {
+        void onOrderReady(DiagramOrder order);
+    }
+
+    private final Listener listener;
+    private ExecutorService executor;
+    // The newest frame to be ordered, and the newest order finished
+    private final AtomicReference<FrameSnapshot> requested = new AtomicReference<FrameSnapshot>();
+    private final AtomicReference<DiagramOrder> finished = new AtomicReference<DiagramOrder>();
+    // The last order finished, carried over to the newest frame requested
+    private final AtomicReference<DiagramOrder> carried = new AtomicReference<DiagramOrder>();
+    // Set while a task is queued or running, so requests made meanwhile don't queue another
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final Runnable task = new Runnable() {
+        @Override
+        public void run() {
+            do {
+                FrameSnapshot frame;
+                while ((frame = requested.getAndSet(null)) != null) {
+                    // The view already shows what it started from, so a redraw is only
+                    // needed if refining moved anything
+                    DiagramOrder from = orderFor(frame);
+                    DiagramOrder order = from.refine();
+                    finished.set(order);
+                    if (!DiagramOrder.sameColumns(order, from)) {
+                        listener.onOrderReady(order);
+                    }
+                }
+                running.set(false);
+                // A request may have come in after the last check and before running was
+                // cleared, in which case it didn't queue a task of its own
+            } while (requested.get() != null && running.compareAndSet(false, true));
+        }
+    };
+
+    /**
+     * @param listener Told whenever an order is finished.
+     */
+    public LayoutWorker(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Ask for a frame to be ordered. Returns once the last order is carried over to it,
+     * in O(n), without waiting for it to be refined. Safe to call from any thread.
+     * @param frame The frame.
+     */
+    public void request(FrameSnapshot frame) {
+        carried.set(orderFor(frame));
+        requested.set(frame);
+        if (running.compareAndSet(false, true)) {
+            executor().execute(task);
+        }
+    }
+
+    /**
+     * The best order there is for a frame without waiting: the finished one if it's for
+     * that frame, otherwise the last one finished carried over to it.
+     * Allocates nothing for a frame that was requested, so the view can call it while
+     * drawing.
+     * @param frame The frame.
+     * @return An order for the frame.
+     */
+    public DiagramOrder orderFor(FrameSnapshot frame) {
+        DiagramOrder last = finished.get();
+        if (last != null && last.getFrame() == frame) {
+            return last;
+        }
+        DiagramOrder next = carried.get();
+        if (next != null && next.getFrame() == frame) {
+            return next;
+        }
+        return last == null ? DiagramOrder.identity(frame) : last.adapt(frame);
+    }
+
+    /**
+     * Stop the thread, e.g. when the view is detached. It is started again by the next
+     * request.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        running.set(false);
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "DiagramLayout");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+}
@@ -2,12 +2,104 @@ package com.baker.goodpointersv2;
 
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 
 public class MainActivity extends AppCompatActivity {
+    // The memory model is kept in a file across rotations and process death, as a big one
+    // is far over what a Bundle can carry. Only the file's path goes in the Bundle.
+    private static final String MODEL_KEY = "memoryModelFile";
+    private static final String MODEL_FILE = "memoryModel.gpvs";
+
+    private VisController visController;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+
+        PointerVisualizer pointerVisualizer = findVisualizer(findViewById(android.R.id.content));
+        if (pointerVisualizer == null) {
+            pointerVisualizer = new PointerVisualizer(this);
+            addContentView(pointerVisualizer, new ViewGroup.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        }
+        visController = new VisController(pointerVisualizer);
+        if (savedInstanceState != null) {
+            String path = savedInstanceState.getString(MODEL_KEY);
+            if (path != null) {
+                restoreModel(new File(path));
+            }
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        // Written next to the old file and renamed over it, so a kill part way through
+        // leaves the last whole model
+        File file = new File(getFilesDir(), MODEL_FILE);
+        File partial = new File(getFilesDir(), MODEL_FILE + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(partial);
+            try {
+                visController.save(out);
+            } finally {
+                out.close();
+            }
+            if (!partial.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+            outState.putString(MODEL_KEY, file.getPath());
+        } catch (IOException e) {
+            Log.e("MAIN ACTIVITY: ", "Could not save the memory model: " + e.getMessage());
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Nothing will come back for the model once the user has left
+        if (isFinishing()) {
+            new File(getFilesDir(), MODEL_FILE).delete();
+        }
+    }
+
+    private void restoreModel(File file) {
+        try {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = in.getChannel();
+                visController.restore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e("MAIN ACTIVITY: ", "Could not restore the memory model: " + e.getMessage());
+        }
+    }
+
+    // The layout is searched for the view by its class, so it needn't have a particular id
+    private static PointerVisualizer findVisualizer(View view) {
+        if (view instanceof PointerVisualizer) {
+            return (PointerVisualizer) view;
+        }
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                PointerVisualizer found = findVisualizer(group.getChildAt(i));
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
     }
 }
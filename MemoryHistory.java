@@ -0,0 +1,76 @@
+package com.baker.goodpointersv2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Every version of the memory model that VisController has gone through, for undo and redo.
+ * Each version is a PersistentMap of VarRecords that shares almost all of its structure with
+ * the version before it, so a step costs O(log n) memory rather than a copy of the model.
+ * Any version can be fetched in O(1); VisController then applies the difference between it
+ * and the current one.
+ */
+public class MemoryHistory {
+    private List<PersistentMap> versions = new ArrayList<PersistentMap>();
+    // The innermost call at each version, null for none
+    private List<StackFrame> frames = new ArrayList<StackFrame>();
+    private int current;
+
+    public MemoryHistory() {
+        versions.add(PersistentMap.EMPTY);
+        frames.add(null);
+    }
+
+    /**
+     * Start from a model that already exists, e.g. one restored from a MemorySnapshot,
+     * so undo stops there instead of emptying it.
+     * @param base The model at step 0.
+     * @param frame The innermost call at step 0.
+     */
+    public MemoryHistory(PersistentMap base, StackFrame frame) {
+        versions.add(base);
+        frames.add(frame);
+    }
+
+    /**
+     * Add a new version after the current one. Any versions that were undone are dropped.
+     * @param version The model after the step.
+     * @param frame The innermost call after the step.
+     */
+    public void record(PersistentMap version, StackFrame frame) {
+        if (current + 1 < versions.size()) {
+            versions.subList(current + 1, versions.size()).clear();
+            frames.subList(current + 1, frames.size()).clear();
+        }
+        versions.add(version);
+        frames.add(frame);
+        current++;
+    }
+
+    public PersistentMap current() {
+        return versions.get(current);
+    }
+
+    public PersistentMap get(int step) {
+        return versions.get(step);
+    }
+
+    public StackFrame getFrame(int step) {
+        return frames.get(step);
+    }
+
+    public int getCurrentStep() {
+        return current;
+    }
+
+    void setCurrentStep(int step) {
+        current = step;
+    }
+
+    /**
+     * @return The number of versions, including the empty one before any step.
+     */
+    public int size() {
+        return versions.size();
+    }
+}
@@ -0,0 +1,487 @@
+package com.baker.goodpointersv2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary copy of the whole memory model, so it can survive a rotation or the
+ * process being killed without re-parsing and replaying every VisController call.
+ *
+ * Layout, all counts and addresses as unsigned varints, strings as a varint byte
+ * length followed by UTF-8:
+ *      int     magic "GPVS"
+ *      byte    format version
+ *      varint  stack frame count, then per frame, outermost first: function, base
+ *      varint  nonPointer count, then per nonPointer: name, value, address, type,
+ *              a byte of flags, and the depth of its frame (0 for none). An array
+ *              follows with its length and the elements written, as a count and then
+ *              index and value for each.
+ *      varint  pointer count, then per pointer: name, address, frame depth, flags, and
+ *              then the target's slot if aimed at something, followed by the element for
+ *              a nonPointer, or the held address + 1 and the stale value if dangling.
+ *      per frame, outermost first: the slots of its nonPointers and then of its pointers,
+ *              each as a count and the slots in the order the frame lists them, which is
+ *              the order popping it removes them in
+ *      allocator state, as AddressSpace.writeState() writes it: stack pointer, break,
+ *              block count and then address and size per block, freed ones negative,
+ *              and then the stack holes and heap free lists, each as a count of size
+ *              classes and per class its number, entry count and addresses.
+ * Variables are written in slot order and targets are stored as slots, so restoring
+ * needs no lookups by name and puts everything back where it was drawn. The allocator
+ * state makes the restored model hand out the same addresses the saved one would have.
+ * Version 1 had the next faux address after the version byte, and no type or flags.
+ * Version 2 had no stack frames.
+ * Version 3 had no arrays, and no element after a pointer's target.
+ * Version 4 had no frame lists or allocator state, so its locals are listed in slot
+ * order and its blocks are claimed afresh on restore.
+ */
+public final class MemorySnapshot {
+    static final int MAGIC = 0x47505653;
+    static final int VERSION = 5;
+
+    // NonPointer flags
+    private static final int ON_HEAP = 1;
+    private static final int ARRAY = 2;
+
+    // Pointer flags
+    private static final int AT_NON_POINTER = 1;
+    private static final int AT_POINTER = 2;
+    private static final int DANGLING = 4;
+    private static final int DEREFED = 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final List<NonPointer> nonPointers;
+    private final List<Pointer> pointers;
+    private final StackFrame frame;
+    private final AddressSpace space;
+
+    private MemorySnapshot(List<NonPointer> nonPointers, List<Pointer> pointers, StackFrame frame,
+                           AddressSpace space) {
+        this.nonPointers = nonPointers;
+        this.pointers = pointers;
+        this.frame = frame;
+        this.space = space;
+    }
+
+    /**
+     * The restored nonPointers, in slot order.
+     */
+    public List<NonPointer> getNonPointers() {
+        return nonPointers;
+    }
+
+    /**
+     * The restored pointers, in slot order, already aimed at their targets.
+     */
+    public List<Pointer> getPointers() {
+        return pointers;
+    }
+
+    /**
+     * The innermost restored call, with its callers below it, or null if there was none.
+     */
+    public StackFrame getFrame() {
+        return frame;
+    }
+
+    /**
+     * The restored allocator, with the frame set, or null if the snapshot is from before
+     * version 5 and the blocks have to be claimed afresh.
+     */
+    public AddressSpace getAddressSpace() {
+        return space;
+    }
+
+    /**
+     * Stream the model out. Output is buffered here, so out doesn't need to be.
+     * @param ptrList The pointers, in slot order.
+     * @param nonPtrList The nonPointers, in slot order.
+     * @param space The allocator the variables' addresses came from, with the innermost
+     *              call as its frame.
+     * @param out Where to write to. Not closed.
+     * @throws IOException If out fails.
+     */
+    public static void write(List<Pointer> ptrList, List<NonPointer> nonPtrList, AddressSpace space,
+                             OutputStream out) throws IOException {
+        Writer w = new Writer(out);
+        StackFrame frame = space.getFrame();
+        w.int32(MAGIC);
+        w.int8(VERSION);
+
+        StackFrame[] frames = new StackFrame[frame == null ? 0 : frame.getDepth()];
+        for (StackFrame f = frame; f != null; f = f.getCaller()) {
+            frames[f.getDepth() - 1] = f;
+        }
+        w.varint(frames.length);
+        for (StackFrame f : frames) {
+            w.string(f.getFunction());
+            w.varint(f.getBase());
+        }
+
+        w.varint(nonPtrList.size());
+        for (int j = 0; j < nonPtrList.size(); j++) {
+            NonPointer np = nonPtrList.get(j);
+            w.string(np.getName());
+            w.string(np.getValue());
+            w.varint(np.getAddressValue());
+            w.string(np.getType());
+            w.int8((np.isOnHeap() ? ON_HEAP : 0) | (np.isArray() ? ARRAY : 0));
+            w.varint(depthOf(np.getStackFrame()));
+            if (np.isArray()) {
+                w.varint(np.getLength());
+                w.varint(np.getElements().size());
+                for (Map.Entry<Integer, String> e : np.getElements().entrySet()) {
+                    w.varint(e.getKey());
+                    w.string(e.getValue());
+                }
+            }
+        }
+
+        w.varint(ptrList.size());
+        for (int i = 0; i < ptrList.size(); i++) {
+            Pointer p = ptrList.get(i);
+            int flags = p.isDerefed() ? DEREFED : 0;
+            int target = -1;
+            if (p.isDangling()) {
+                flags |= DANGLING;
+            } else if (p.getTarget() != null) {
+                flags |= AT_NON_POINTER;
+                target = p.getTarget().getSlot();
+            } else if (p.getPointerTarget() != null) {
+                flags |= AT_POINTER;
+                target = p.getPointerTarget().getSlot();
+            }
+            w.string(p.getName());
+            w.varint(p.getAddressValue());
+            w.varint(depthOf(p.getStackFrame()));
+            w.int8(flags);
+            if (target != -1) {
+                w.varint(target);
+                if ((flags & AT_NON_POINTER) != 0) {
+                    w.varint(p.getElement());
+                }
+            } else if (p.isDangling()) {
+                w.varint(p.getpAddressValue() + 1);
+                w.string(p.getDerefValue());
+            }
+        }
+        // A frame's lists keep deleted locals until it sweeps them, which are left out
+        for (StackFrame f : frames) {
+            int live = 0;
+            for (NonPointer np : f.nonPointers) {
+                if (np.getSlot() != -1 && np.getStackFrame() == f) {
+                    live++;
+                }
+            }
+            w.varint(live);
+            for (NonPointer np : f.nonPointers) {
+                if (np.getSlot() != -1 && np.getStackFrame() == f) {
+                    w.varint(np.getSlot());
+                }
+            }
+            live = 0;
+            for (Pointer p : f.pointers) {
+                if (p.getSlot() != -1 && p.getStackFrame() == f) {
+                    live++;
+                }
+            }
+            w.varint(live);
+            for (Pointer p : f.pointers) {
+                if (p.getSlot() != -1 && p.getStackFrame() == f) {
+                    w.varint(p.getSlot());
+                }
+            }
+        }
+        space.writeState(w);
+        w.flush();
+    }
+
+    /**
+     * Decode a model written by write(). Strings are decoded straight out of the buffer's
+     * backing array when it has one, so nothing is copied on the way in.
+     * The buffer's position is left after the snapshot.
+     * @param in The encoded model.
+     * @return The model, with every pointer aimed and dereferenced as it was.
+     * @throws IOException If the data isn't a snapshot this version can read.
+     */
+    public static MemorySnapshot read(ByteBuffer in) throws IOException {
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a memory snapshot.");
+            }
+            int version = in.get();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ".");
+            }
+            if (version == 1) {
+                // The old next faux address, replaced by the AddressSpace
+                varint(in);
+            }
+
+            StackFrame[] frames = new StackFrame[version >= 3 ? count(in) : 0];
+            StackFrame frame = null;
+            for (int d = 0; d < frames.length; d++) {
+                frame = new StackFrame(string(in), frame, varint(in));
+                frames[d] = frame;
+            }
+
+            int nonPtrCount = count(in);
+            List<NonPointer> nonPointers = new ArrayList<NonPointer>(nonPtrCount);
+            for (int j = 0; j < nonPtrCount; j++) {
+                NonPointer np = new NonPointer(string(in), string(in));
+                np.setAddress(varint(in));
+                int npFlags = 0;
+                if (version != 1) {
+                    np.setType(string(in));
+                    npFlags = in.get();
+                    np.setOnHeap((npFlags & ON_HEAP) != 0);
+                }
+                if (version >= 3) {
+                    np.setStackFrame(frameAt(frames, varint(in)));
+                    if (np.getStackFrame() != null && version < 5) {
+                        np.getStackFrame().add(np);
+                    }
+                }
+                if ((npFlags & ARRAY) != 0) {
+                    np.setLength(varint(in));
+                    int written = count(in);
+                    for (int k = 0; k < written; k++) {
+                        int index = varint(in);
+                        if (index < 0 || index >= np.getLength()) {
+                            throw new IOException("Memory snapshot has an element past the end of "
+                                    + np.getName() + ".");
+                        }
+                        np.setElement(index, string(in));
+                    }
+                }
+                np.setSlot(j);
+                np.setOrder(j);
+                nonPointers.add(np);
+            }
+
+            int ptrCount = count(in);
+            List<Pointer> pointers = new ArrayList<Pointer>(ptrCount);
+            int[] flags = new int[ptrCount];
+            int[] targets = new int[ptrCount];
+            int[] elements = new int[ptrCount];
+            String[] stale = new String[ptrCount];
+            for (int i = 0; i < ptrCount; i++) {
+                Pointer p = new Pointer(string(in));
+                p.setAddress(varint(in));
+                if (version >= 3) {
+                    p.setStackFrame(frameAt(frames, varint(in)));
+                    if (p.getStackFrame() != null && version < 5) {
+                        p.getStackFrame().add(p);
+                    }
+                }
+                p.setSlot(i);
+                p.setOrder(i);
+                flags[i] = in.get();
+                if ((flags[i] & (AT_NON_POINTER | AT_POINTER)) != 0) {
+                    targets[i] = varint(in);
+                    if ((flags[i] & AT_NON_POINTER) != 0 && version >= 4) {
+                        elements[i] = varint(in);
+                    }
+                } else if ((flags[i] & DANGLING) != 0) {
+                    targets[i] = varint(in) - 1;
+                    stale[i] = string(in);
+                }
+                pointers.add(p);
+            }
+
+            // Aim once every pointer exists, since pointers can point forwards.
+            for (int i = 0; i < ptrCount; i++) {
+                Pointer p = pointers.get(i);
+                if ((flags[i] & AT_NON_POINTER) != 0) {
+                    NonPointer np = nonPointers.get(targets[i]);
+                    if (elements[i] < 0 || elements[i] > np.getCount()) {
+                        throw new IOException("Pointer " + p.getName() + " is past the end of "
+                                + np.getName() + ".");
+                    }
+                    p.setNonPointer(np, elements[i]);
+                } else if ((flags[i] & AT_POINTER) != 0) {
+                    p.setPointer(pointers.get(targets[i]));
+                } else if ((flags[i] & DANGLING) != 0) {
+                    p.clearTarget(true, targets[i], stale[i]);
+                }
+                p.deref((flags[i] & DEREFED) != 0);
+            }
+
+            AddressSpace space = null;
+            if (version >= 5) {
+                for (StackFrame f : frames) {
+                    int locals = count(in);
+                    for (int k = 0; k < locals; k++) {
+                        NonPointer np = nonPointers.get(varint(in));
+                        if (np.getStackFrame() != f) {
+                            throw new IOException("Memory snapshot lists " + np.getName()
+                                    + " in the wrong frame.");
+                        }
+                        f.add(np);
+                    }
+                    locals = count(in);
+                    for (int k = 0; k < locals; k++) {
+                        Pointer p = pointers.get(varint(in));
+                        if (p.getStackFrame() != f) {
+                            throw new IOException("Memory snapshot lists " + p.getName()
+                                    + " in the wrong frame.");
+                        }
+                        f.add(p);
+                    }
+                }
+                space = new AddressSpace();
+                space.readState(in);
+                space.setFrame(frame);
+                for (NonPointer np : nonPointers) {
+                    checkBlock(space, np.getAddressValue(), np.getName());
+                }
+                for (Pointer p : pointers) {
+                    checkBlock(space, p.getAddressValue(), p.getName());
+                }
+            }
+            return new MemorySnapshot(nonPointers, pointers, frame, space);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Memory snapshot is truncated.");
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Memory snapshot refers to a variable it doesn't have.");
+        }
+    }
+
+    private static void checkBlock(AddressSpace space, int address, String name) throws IOException {
+        if (space.sizeAt(address) == 0) {
+            throw new IOException("Memory snapshot has no block for " + name + ".");
+        }
+    }
+
+    private static int depthOf(StackFrame frame) {
+        return frame == null ? 0 : frame.getDepth();
+    }
+
+    // Depth 0 is no frame at all
+    private static StackFrame frameAt(StackFrame[] frames, int depth) {
+        return depth == 0 ? null : frames[depth - 1];
+    }
+
+    static int varint(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed number in memory snapshot.");
+    }
+
+    // Every variable takes at least one byte, which bounds a sane count.
+    static int count(ByteBuffer in) throws IOException {
+        int count = varint(in);
+        if (count < 0 || count > in.remaining()) {
+            throw new IOException("Bad variable count in memory snapshot.");
+        }
+        return count;
+    }
+
+    static String string(ByteBuffer in) throws IOException {
+        int length = varint(in);
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String s;
+        if (in.hasArray()) {
+            s = new String(in.array(), in.arrayOffset() + in.position(), length, UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            s = new String(bytes, UTF_8);
+        }
+        return s;
+    }
+
+    /**
+     * Buffers output so each field isn't a separate call on the stream.
+     * Also used for the records of a trace file.
+     */
+    static final class Writer {
+        final OutputStream out;
+        final byte[] bytes = new byte[8192];
+        int count;
+        // Bytes already passed on to out
+        long flushed;
+
+        Writer(OutputStream out) {
+            this.out = out;
+        }
+
+        // Room for at least n more bytes
+        void ensure(int n) throws IOException {
+            if (count + n > bytes.length) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            out.write(bytes, 0, count);
+            flushed += count;
+            count = 0;
+        }
+
+        // How many bytes have been written so far
+        long position() {
+            return flushed + count;
+        }
+
+        void int8(int v) throws IOException {
+            ensure(1);
+            bytes[count++] = (byte) v;
+        }
+
+        void int32(int v) throws IOException {
+            ensure(4);
+            bytes[count++] = (byte) (v >>> 24);
+            bytes[count++] = (byte) (v >>> 16);
+            bytes[count++] = (byte) (v >>> 8);
+            bytes[count++] = (byte) v;
+        }
+
+        void int64(long v) throws IOException {
+            int32((int) (v >>> 32));
+            int32((int) v);
+        }
+
+        void varint(int v) throws IOException {
+            ensure(5);
+            while ((v & ~0x7f) != 0) {
+                bytes[count++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            bytes[count++] = (byte) v;
+        }
+
+        void string(String s) throws IOException {
+            byte[] utf8 = s.getBytes(UTF_8);
+            varint(utf8.length);
+            raw(utf8, utf8.length);
+        }
+
+        void raw(byte[] b, int length) throws IOException {
+            if (length > bytes.length - count) {
+                flush();
+                out.write(b, 0, length);
+                flushed += length;
+            } else {
+                System.arraycopy(b, 0, bytes, count, length);
+                count += length;
+            }
+        }
+    }
+}
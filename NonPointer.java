@@ -1,22 +1,60 @@
 package com.baker.goodpointersv2;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
 /**
  * @author Alexander Baker, <baker.alex.j@gmail.com>
  * Started 8 November, 2018
  * This class will instantiate NonPointer variable types as needed by the
  * PointerVisualizer and VisController classes.
  * They will hold date typical to a C++ variable.
+ * A NonPointer can also be an array, taking up length contiguous elements of its type.
  */
 public class NonPointer {
-    private String address;
+    // Addresses are kept as plain ints so they compare cheaply; the "0x..." label
+    // is only built the first time it's drawn and kept until the address changes.
+    private int address;
+    private String addressLabel;
     private String value;
     private String name;
+    // The C++ type, which decides how many bytes the variable takes up. For an array,
+    // the type of each element.
+    private String type = "int";
+    // Number of elements for an array, 0 for a plain variable
+    private int length;
+    // Elements of an array given a value of their own, by index. Every other element
+    // still holds value, so a huge array costs nothing until it's written to.
+    // Left null until the first element is written.
+    private TreeMap<Integer, String> elements;
+    // What's drawn for an array, built on first use and kept until an element changes
+    private String display;
+    // Set for a variable made with new, which lives on the heap instead of the stack
+    private boolean onHeap;
+    // The call this local was declared in, null for a global or heap variable
+    private StackFrame stackFrame;
+    // Index of this variable within VisController's nonPtrList, kept up to date by
+    // VisController. -1 while the variable is not in the list.
+    private int slot = -1;
+    // Given when it's added and kept until it's deleted, unlike its slot, so the diagram
+    // can tell it apart from whatever takes its slot
+    private int order;
+    // Pointers currently aimed at this variable, the first referrerCount of referrers, so a
+    // change only has to reach them. Left null until the first pointer arrives. Kept the
+    // way Pointer keeps its own, each pointer holding its index, rather than in a HashSet
+    // that costs more than the variable itself.
+    private Pointer[] referrers;
+    private int referrerCount;
 
     /**
      * Default constructor
      * Probably won't ever need this, but just to be safe.
      */
     public NonPointer() {
-        address = "0x";
+        address = 0;
         value = "";
         name = "";
     }
@@ -29,7 +67,7 @@ public class NonPointer {
      * @param value The value of the variable.
      */
     public NonPointer(String name, String value) {
-        address = "0x";
+        address = 0;
         this.value = value;
         this.name = name;
     }
@@ -41,42 +79,383 @@ public class NonPointer {
      * @param name The name of the variable.
      */
     public NonPointer(String name) {
-        address = "0x";
+        address = 0;
         value = "";
         this.name = name;
     }
 
     /**
-     * Relatively simple address generator for 4 digit addresses.
-     * There is a "base" table location of 0x, but then append
-     * the array location from PointerVisualizer.
-     * Addresses in most computers are displayed in an indexed form, AKA
+     * Non-default Constructor of an initialized non-pointer of a given type.
+     * e.g. in C++
+     *      double foo = 2.5;
+     * @param name The name of the variable.
+     * @param value The value of the variable.
+     * @param type The type of the variable, e.g. "double".
+     */
+    public NonPointer(String name, String value, String type) {
+        address = 0;
+        this.value = value;
+        this.name = name;
+        this.type = type;
+    }
+
+    /**
+     * Non-default Constructor of an array, every element starting out as the same value.
+     * e.g. in C++
+     *      int foo[1000] = {};
+     * @param name The name of the array.
+     * @param value The value of every element.
+     * @param type The type of each element, e.g. "int".
+     * @param length The number of elements.
+     */
+    public NonPointer(String name, String value, String type, int length) {
+        address = 0;
+        this.value = value;
+        this.name = name;
+        this.type = type;
+        this.length = length;
+    }
+
+    /**
+     * Relatively simple address setter, kept for older callers.
+     * The address given by the VisController's AddressSpace becomes the address,
+     * which is displayed in hex with a "base" of 0x.
      *
-     * @param myPlace The data table location as given by the VisController
+     * @param myPlace The address as given by the VisController
      */
     public void addressAppend(Integer myPlace) {
-        address += myPlace;
+        setAddress(myPlace);
+    }
+
+    /**
+     * The address as displayed, e.g. 0x1f. Formatted on first use and then cached.
+     * @return The hex address label.
+     */
+    public String getAddress() {
+        if (addressLabel == null) {
+            addressLabel = "0x" + Integer.toHexString(address);
+        }
+        return addressLabel;
     }
 
     // Standard getters and setters. JavaDccs aren't important here.
     // See: https://stackoverflow.com/questions/1028967/simple-getter-setter-comments
-    public String getAddress() {
+    public int getAddressValue() {
         return address;
     }
 
-    public void setAddress(String address) {
+    public void setAddress(int address) {
         this.address = address;
+        addressLabel = null;
     }
 
     public String getValue() {
         return value;
     }
 
+    /**
+     * Change the value, and pass it on to every pointer aimed at this variable
+     * so their dereferenced value stays current. For an array this is the value of
+     * every element not given one of its own.
+     * @param value The new value.
+     */
     public void setValue(String value) {
         this.value = value;
+        display = null;
+        for (int k = 0; k < referrerCount; k++) {
+            Pointer p = referrers[k];
+            p.setpValue(getElement(p.getElement()));
+        }
+    }
+
+    /**
+     * The value of one element. A plain variable is treated as an array of one, as C++
+     * does for pointer arithmetic.
+     * @param index The element.
+     * @return Its value, or empty for one past the end.
+     */
+    public String getElement(int index) {
+        if (index < 0 || index >= getCount()) {
+            return "";
+        }
+        if (elements != null) {
+            String v = elements.get(index);
+            if (v != null) {
+                return v;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Give one element of an array a value, and pass it on to the pointers aimed at
+     * that element.
+     * @param index The element, from 0 to getLength() - 1.
+     * @param value Its new value.
+     */
+    public void setElement(int index, String value) {
+        if (elements == null) {
+            elements = new TreeMap<Integer, String>();
+        }
+        elements.put(index, value);
+        elementChanged(index);
+    }
+
+    // Used when restoring an earlier version, where the element hadn't been written
+    void clearElement(int index) {
+        if (elements != null && elements.remove(index) != null) {
+            elementChanged(index);
+        }
+    }
+
+    private void elementChanged(int index) {
+        display = null;
+        for (int k = 0; k < referrerCount; k++) {
+            Pointer p = referrers[k];
+            if (p.getElement() == index) {
+                p.setpValue(getElement(index));
+            }
+        }
+    }
+
+    /**
+     * @return The elements given a value of their own, by index, in order.
+     */
+    Map<Integer, String> getElements() {
+        return elements == null ? Collections.<Integer, String>emptyMap() : elements;
+    }
+
+    /**
+     * The text drawn in the value box. An array is collapsed into runs of equal elements,
+     * each shown once with its count, so it takes one node however long it is.
+     * Only the first few runs are shown. Built on first use, then cached.
+     * @return The text to display.
+     */
+    public String getDisplayValue() {
+        if (length == 0) {
+            return value;
+        }
+        if (display == null) {
+            display = collapse();
+        }
+        return display;
+    }
+
+    // Walks the written elements in order with the gaps between them holding value,
+    // and stops as soon as there are more runs than are shown
+    private String collapse() {
+        Runs runs = new Runs();
+        int next = 0;
+        if (elements != null) {
+            for (Map.Entry<Integer, String> e : elements.entrySet()) {
+                if (!runs.add(value, e.getKey() - next) || !runs.add(e.getValue(), 1)) {
+                    return runs.text();
+                }
+                next = e.getKey() + 1;
+            }
+        }
+        runs.add(value, length - next);
+        return runs.text();
+    }
+
+    /**
+     * Builds the collapsed text of an array, one run of equal elements at a time.
+     */
+    private static final class Runs {
+        static final int SHOWN = 3;
+        final StringBuilder sb = new StringBuilder();
+        int shown;
+        String value;
+        int count;
+        boolean more;
+
+        // False once there's a run past the ones shown, and nothing more is needed
+        boolean add(String v, int n) {
+            if (n == 0 || v.equals(value)) {
+                count += n;
+                return true;
+            }
+            if (value != null && !append()) {
+                return false;
+            }
+            value = v;
+            count = n;
+            return true;
+        }
+
+        String text() {
+            if (!more && value != null) {
+                append();
+            }
+            return more ? sb.append(", \u2026").toString() : sb.toString();
+        }
+
+        private boolean append() {
+            if (shown == SHOWN) {
+                more = true;
+                return false;
+            }
+            if (shown++ > 0) {
+                sb.append(", ");
+            }
+            sb.append(value);
+            if (count > 1) {
+                sb.append('\u00d7').append(count);
+            }
+            return true;
+        }
     }
 
     public String getName() {
         return name;
     }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return The number of elements of an array, or 0 for a plain variable.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public boolean isArray() {
+        return length > 0;
+    }
+
+    /**
+     * @return The number of elements a pointer can step through, 1 for a plain variable.
+     */
+    public int getCount() {
+        return Math.max(length, 1);
+    }
+
+    // Used when restoring an earlier version, where the array had another length
+    void setLength(int length) {
+        this.length = length;
+        display = null;
+    }
+
+    /**
+     * @return sizeof the variable on the simulated machine, every element for an array.
+     *         Too large to address at all comes out as Integer.MAX_VALUE.
+     */
+    public int getSize() {
+        return (int) Math.min((long) getElementSize() * getCount(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return sizeof one element, or of the whole variable if it isn't an array.
+     */
+    public int getElementSize() {
+        return AddressSpace.sizeOf(type);
+    }
+
+    /**
+     * Which element an address points at, e.g. for a pointer moved by arithmetic.
+     * @param address The address.
+     * @return The element's index, getCount() for one past the end, or -1 if the address
+     *         is outside the variable or not on an element boundary.
+     */
+    public int elementAt(int address) {
+        long offset = (long) address - this.address;
+        int elementSize = getElementSize();
+        if (offset < 0 || offset % elementSize != 0 || offset / elementSize > getCount()) {
+            return -1;
+        }
+        return (int) (offset / elementSize);
+    }
+
+    public boolean isOnHeap() {
+        return onHeap;
+    }
+
+    /**
+     * Put the variable on the heap, as if made with new. Only has an effect before
+     * the variable is added to the VisController.
+     * @param onHeap True for the heap, false for the stack.
+     */
+    public void setOnHeap(boolean onHeap) {
+        this.onHeap = onHeap;
+    }
+
+    // Used when restoring an earlier version, where the variable had another type
+    void setType(String type) {
+        this.type = type;
+    }
+
+    public StackFrame getStackFrame() {
+        return stackFrame;
+    }
+
+    void setStackFrame(StackFrame stackFrame) {
+        this.stackFrame = stackFrame;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public void setSlot(int slot) {
+        this.slot = slot;
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    public void setOrder(int order) {
+        this.order = order;
+    }
+
+    void addReferrer(Pointer p) {
+        if (isReferrer(p)) {
+            return;
+        }
+        if (referrers == null) {
+            referrers = new Pointer[2];
+        } else if (referrerCount == referrers.length) {
+            referrers = Arrays.copyOf(referrers, referrerCount * 2);
+        }
+        p.referrerIndex = referrerCount;
+        referrers[referrerCount++] = p;
+    }
+
+    // The last referrer takes the place of the one leaving
+    void removeReferrer(Pointer p) {
+        if (!isReferrer(p)) {
+            return;
+        }
+        Pointer last = referrers[--referrerCount];
+        referrers[p.referrerIndex] = last;
+        last.referrerIndex = p.referrerIndex;
+        referrers[referrerCount] = null;
+    }
+
+    private boolean isReferrer(Pointer p) {
+        return p.referrerIndex < referrerCount && referrers[p.referrerIndex] == p;
+    }
+
+    List<Pointer> getReferrers() {
+        return referrerCount == 0 ? Collections.<Pointer>emptyList()
+                : Arrays.asList(referrers).subList(0, referrerCount);
+    }
+
+    public int getReferrerCount() {
+        return referrerCount;
+    }
+
+    /**
+     * Called once this variable has been deleted. Every pointer still aimed at it
+     * is marked as dangling, and nothing else is touched.
+     */
+    void release() {
+        for (int k = 0; k < referrerCount; k++) {
+            referrers[k].markDangling();
+        }
+        referrers = null;
+        referrerCount = 0;
+    }
 }
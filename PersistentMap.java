@@ -0,0 +1,401 @@
+package com.baker.goodpointersv2;
+
+import java.util.List;
+
+/**
+ * An immutable hash map from variable keys to VarRecords, used to keep every past version
+ * of the memory model for undo and redo.
+ * put() and remove() return a new map and leave this one untouched. Only the nodes on the
+ * path to the changed key are copied, at most 7 of them, so every version shares nearly
+ * all of its structure with the one before it and costs O(log n) memory.
+ * Because the shape of the trie only depends on the keys in it, two versions can be
+ * compared by walking both at once and skipping any shared subtree, which is what diff()
+ * does.
+ */
+public final class PersistentMap {
+    public static final PersistentMap EMPTY = new PersistentMap(null, 0);
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private final Object root;
+    private final int size;
+
+    /**
+     * Receives the differences found by diff().
+     */
+    public interface DiffListener {
+        /**
+         * @param key The key that differs.
+         * @param from The value in the first map, or null if it was added.
+         * @param to The value in the second map, or null if it was removed.
+         */
+        void changed(String key, VarRecord from, VarRecord to);
+    }
+
+    private PersistentMap(Object root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Build a map holding every record at once, e.g. for a model restored from a
+     * MemorySnapshot. Much cheaper than putting them one at a time, since nothing is
+     * copied, and the result has the same shape as if they had been.
+     * @param records The records, all with different keys.
+     * @return The map.
+     */
+    public static PersistentMap of(List<VarRecord> records) {
+        Entry[] entries = new Entry[records.size()];
+        for (int i = 0; i < entries.length; i++) {
+            String key = records.get(i).key();
+            entries[i] = new Entry(key, key.hashCode(), records.get(i));
+        }
+        if (entries.length == 0) {
+            return EMPTY;
+        }
+        return new PersistentMap(build(entries, 0, entries.length, 0, new Entry[entries.length]),
+                entries.length);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public VarRecord get(String key) {
+        return get(root, key, key.hashCode(), 0);
+    }
+
+    public PersistentMap put(String key, VarRecord value) {
+        int[] added = new int[1];
+        Object newRoot = put(root, new Entry(key, key.hashCode(), value), 0, added);
+        return newRoot == root ? this : new PersistentMap(newRoot, size + added[0]);
+    }
+
+    public PersistentMap remove(String key) {
+        if (get(key) == null) {
+            return this;
+        }
+        return new PersistentMap(remove(root, key, key.hashCode(), 0), size - 1);
+    }
+
+    /**
+     * Report every key whose value differs between this map and another.
+     * Subtrees the two maps share are skipped, so comparing neighbouring versions costs
+     * about O(d log n) for d differences rather than O(n).
+     * @param to The map to compare against.
+     * @param listener Told about each difference.
+     */
+    public void diff(PersistentMap to, DiffListener listener) {
+        diff(root, to.root, 0, listener);
+    }
+
+    /**
+     * Visit every entry in the map, in no particular order.
+     * @param listener Called with from = null and to = each value.
+     */
+    public void forEach(DiffListener listener) {
+        added(root, listener);
+    }
+
+    // A trie slot is either null, an Entry, a Branch or a Collision.
+
+    private static VarRecord get(Object node, String key, int hash, int shift) {
+        while (node != null) {
+            if (node instanceof Entry) {
+                Entry e = (Entry) node;
+                return e.key.equals(key) ? e.value : null;
+            }
+            if (node instanceof Collision) {
+                for (Entry e : ((Collision) node).entries) {
+                    if (e.key.equals(key)) {
+                        return e.value;
+                    }
+                }
+                return null;
+            }
+            Branch b = (Branch) node;
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((b.bitmap & bit) == 0) {
+                return null;
+            }
+            node = b.slots[Integer.bitCount(b.bitmap & (bit - 1))];
+            shift += BITS;
+        }
+        return null;
+    }
+
+    private static Object put(Object node, Entry entry, int shift, int[] added) {
+        if (node == null) {
+            added[0] = 1;
+            return entry;
+        }
+        if (node instanceof Entry) {
+            Entry e = (Entry) node;
+            if (e.key.equals(entry.key)) {
+                return e.value.equals(entry.value) ? node : entry;
+            }
+            added[0] = 1;
+            return merge(e, entry, shift);
+        }
+        if (node instanceof Collision) {
+            Collision c = (Collision) node;
+            for (int i = 0; i < c.entries.length; i++) {
+                if (c.entries[i].key.equals(entry.key)) {
+                    if (c.entries[i].value.equals(entry.value)) {
+                        return node;
+                    }
+                    Entry[] copy = c.entries.clone();
+                    copy[i] = entry;
+                    return new Collision(copy);
+                }
+            }
+            Entry[] copy = new Entry[c.entries.length + 1];
+            System.arraycopy(c.entries, 0, copy, 0, c.entries.length);
+            copy[c.entries.length] = entry;
+            added[0] = 1;
+            return new Collision(copy);
+        }
+
+        Branch b = (Branch) node;
+        int bit = 1 << ((entry.hash >>> shift) & MASK);
+        int index = Integer.bitCount(b.bitmap & (bit - 1));
+        if ((b.bitmap & bit) == 0) {
+            Object[] slots = new Object[b.slots.length + 1];
+            System.arraycopy(b.slots, 0, slots, 0, index);
+            slots[index] = entry;
+            System.arraycopy(b.slots, index, slots, index + 1, b.slots.length - index);
+            added[0] = 1;
+            return new Branch(b.bitmap | bit, slots);
+        }
+        Object child = put(b.slots[index], entry, shift + BITS, added);
+        if (child == b.slots[index]) {
+            return node;
+        }
+        Object[] slots = b.slots.clone();
+        slots[index] = child;
+        return new Branch(b.bitmap, slots);
+    }
+
+    // Bucket entries[from, to) by their hash bits at this level, then build each bucket
+    // one level down. Uses scratch for the bucketing.
+    private static Object build(Entry[] entries, int from, int to, int shift, Entry[] scratch) {
+        if (to - from == 1) {
+            return entries[from];
+        }
+        boolean sameHash = true;
+        for (int i = from + 1; i < to && sameHash; i++) {
+            sameHash = entries[i].hash == entries[from].hash;
+        }
+        if (sameHash || shift >= 32) {
+            Entry[] group = new Entry[to - from];
+            System.arraycopy(entries, from, group, 0, group.length);
+            return new Collision(group);
+        }
+
+        int[] starts = new int[MASK + 2];
+        for (int i = from; i < to; i++) {
+            starts[((entries[i].hash >>> shift) & MASK) + 1]++;
+        }
+        int bitmap = 0;
+        int slotCount = 0;
+        for (int b = 0; b <= MASK; b++) {
+            if (starts[b + 1] != 0) {
+                bitmap |= 1 << b;
+                slotCount++;
+            }
+            starts[b + 1] += starts[b];
+        }
+        if (slotCount == 1) {
+            // Everything shares this slot, so this level is a branch with one child
+            return new Branch(bitmap, new Object[] {build(entries, from, to, shift + BITS, scratch)});
+        }
+        int[] next = starts.clone();
+        for (int i = from; i < to; i++) {
+            scratch[from + next[(entries[i].hash >>> shift) & MASK]++] = entries[i];
+        }
+        System.arraycopy(scratch, from, entries, from, to - from);
+
+        Object[] slots = new Object[slotCount];
+        int s = 0;
+        for (int b = 0; b <= MASK; b++) {
+            if (starts[b + 1] != starts[b]) {
+                slots[s++] = build(entries, from + starts[b], from + starts[b + 1], shift + BITS, scratch);
+            }
+        }
+        return new Branch(bitmap, slots);
+    }
+
+    // Two entries landed in the same slot, push them down until their hashes split.
+    private static Object merge(Entry a, Entry b, int shift) {
+        if (shift >= 32 || a.hash == b.hash) {
+            return new Collision(new Entry[] {a, b});
+        }
+        int aBit = (a.hash >>> shift) & MASK;
+        int bBit = (b.hash >>> shift) & MASK;
+        if (aBit == bBit) {
+            return new Branch(1 << aBit, new Object[] {merge(a, b, shift + BITS)});
+        }
+        return new Branch((1 << aBit) | (1 << bBit), aBit < bBit ? new Object[] {a, b} : new Object[] {b, a});
+    }
+
+    // Only called when the key is known to be present.
+    private static Object remove(Object node, String key, int hash, int shift) {
+        if (node instanceof Entry) {
+            return null;
+        }
+        if (node instanceof Collision) {
+            Entry[] entries = ((Collision) node).entries;
+            if (entries.length == 2) {
+                return entries[0].key.equals(key) ? entries[1] : entries[0];
+            }
+            Entry[] copy = new Entry[entries.length - 1];
+            int j = 0;
+            for (Entry e : entries) {
+                if (!e.key.equals(key)) {
+                    copy[j++] = e;
+                }
+            }
+            return new Collision(copy);
+        }
+
+        Branch b = (Branch) node;
+        int bit = 1 << ((hash >>> shift) & MASK);
+        int index = Integer.bitCount(b.bitmap & (bit - 1));
+        Object child = remove(b.slots[index], key, hash, shift + BITS);
+        if (child != null) {
+            // Keep the trie canonical: a branch left holding a single entry collapses into it.
+            if (b.slots.length == 1 && !(child instanceof Branch)) {
+                return child;
+            }
+            Object[] slots = b.slots.clone();
+            slots[index] = child;
+            return new Branch(b.bitmap, slots);
+        }
+        if (b.slots.length == 1) {
+            return null;
+        }
+        Object[] slots = new Object[b.slots.length - 1];
+        System.arraycopy(b.slots, 0, slots, 0, index);
+        System.arraycopy(b.slots, index + 1, slots, index, slots.length - index);
+        if (slots.length == 1 && !(slots[0] instanceof Branch)) {
+            return slots[0];
+        }
+        return new Branch(b.bitmap & ~bit, slots);
+    }
+
+    private static void diff(Object a, Object b, int shift, DiffListener listener) {
+        if (a == b) {
+            return;
+        }
+        if (a == null) {
+            added(b, listener);
+        } else if (b == null) {
+            removed(a, listener);
+        } else if (a instanceof Branch && b instanceof Branch) {
+            Branch ba = (Branch) a;
+            Branch bb = (Branch) b;
+            int bits = ba.bitmap | bb.bitmap;
+            while (bits != 0) {
+                int bit = Integer.lowestOneBit(bits);
+                bits &= ~bit;
+                Object sa = (ba.bitmap & bit) == 0 ? null
+                        : ba.slots[Integer.bitCount(ba.bitmap & (bit - 1))];
+                Object sb = (bb.bitmap & bit) == 0 ? null
+                        : bb.slots[Integer.bitCount(bb.bitmap & (bit - 1))];
+                diff(sa, sb, shift + BITS, listener);
+            }
+        } else {
+            // At least one side is a leaf, so it holds only a handful of entries.
+            // Look each one up on the other side directly.
+            diffLeaf(a, b, shift, listener);
+        }
+    }
+
+    private static void diffLeaf(Object a, Object b, int shift, final DiffListener listener) {
+        final Object from = a;
+        final Object to = b;
+        final int s = shift;
+        forEach(a, new DiffListener() {
+            @Override
+            public void changed(String key, VarRecord unused, VarRecord value) {
+                VarRecord other = get(to, key, key.hashCode(), s);
+                if (other == null) {
+                    listener.changed(key, value, null);
+                } else if (!other.equals(value)) {
+                    listener.changed(key, value, other);
+                }
+            }
+        });
+        forEach(b, new DiffListener() {
+            @Override
+            public void changed(String key, VarRecord unused, VarRecord value) {
+                if (get(from, key, key.hashCode(), s) == null) {
+                    listener.changed(key, null, value);
+                }
+            }
+        });
+    }
+
+    private static void added(Object node, final DiffListener listener) {
+        forEach(node, listener);
+    }
+
+    private static void removed(Object node, final DiffListener listener) {
+        forEach(node, new DiffListener() {
+            @Override
+            public void changed(String key, VarRecord unused, VarRecord value) {
+                listener.changed(key, value, null);
+            }
+        });
+    }
+
+    private static void forEach(Object node, DiffListener listener) {
+        if (node == null) {
+            return;
+        }
+        if (node instanceof Entry) {
+            Entry e = (Entry) node;
+            listener.changed(e.key, null, e.value);
+        } else if (node instanceof Collision) {
+            for (Entry e : ((Collision) node).entries) {
+                listener.changed(e.key, null, e.value);
+            }
+        } else {
+            for (Object slot : ((Branch) node).slots) {
+                forEach(slot, listener);
+            }
+        }
+    }
+
+    private static final class Entry {
+        final String key;
+        final int hash;
+        final VarRecord value;
+
+        Entry(String key, int hash, VarRecord value) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+        }
+    }
+
+    private static final class Branch {
+        final int bitmap;
+        final Object[] slots;
+
+        Branch(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    // Entries whose whole hash is the same
+    private static final class Collision {
+        final Entry[] entries;
+
+        Collision(Entry[] entries) {
+            this.entries = entries;
+        }
+    }
+}
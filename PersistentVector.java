@@ -0,0 +1,241 @@
+package com.baker.goodpointersv2;
+
+/**
+ * An immutable list backed by a 32-way trie, used for the frame snapshots that
+ * VisController hands to PointerVisualizer.
+ * set(), push() and pop() return a new vector and leave this one untouched, copying only
+ * the path to the changed slot, so a writer can update a few variables and publish a new
+ * snapshot in O(log n) while the render thread is still drawing the previous one.
+ * @param <E> The element type.
+ */
+public final class PersistentVector<E> {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final PersistentVector<Object> EMPTY =
+            new PersistentVector<Object>(0, 0, new Object[WIDTH]);
+
+    private final int size;
+    private final int shift;
+    private final Object[] root;
+
+    private PersistentVector(int size, int shift, Object[] root) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentVector<E> empty() {
+        return (PersistentVector<E>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + ", size " + size);
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(i >>> level) & MASK];
+        }
+        return (E) node[i & MASK];
+    }
+
+    public PersistentVector<E> set(int i, E e) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + ", size " + size);
+        }
+        return new PersistentVector<E>(size, shift, setIn(root, shift, i, e));
+    }
+
+    public PersistentVector<E> push(E e) {
+        Object[] newRoot = root;
+        int newShift = shift;
+        if (size == (WIDTH << shift)) {
+            // Full, add a level on top
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newShift += BITS;
+        }
+        return new PersistentVector<E>(size + 1, newShift, setIn(newRoot, newShift, size, e));
+    }
+
+    public PersistentVector<E> pop() {
+        if (size <= 1) {
+            return empty();
+        }
+        int newSize = size - 1;
+        Object[] newRoot = popFrom(root, shift, newSize);
+        int newShift = shift;
+        // Drop a level once everything fits under the first child again
+        if (newShift > 0 && newSize <= (WIDTH << (newShift - BITS))) {
+            newRoot = (Object[]) newRoot[0];
+            newShift -= BITS;
+        }
+        return new PersistentVector<E>(newSize, newShift, newRoot);
+    }
+
+    /**
+     * Keep the first elements and put others after them in place of the rest, e.g. to fill
+     * an empty vector from an array without pushing each element in turn.
+     * Subtrees lying wholly before from are shared, and the rest is built in one pass rather
+     * than a push at a time, so this costs O(count + log n).
+     * @param from How many elements to keep. At most size().
+     * @param tail What follows them.
+     * @param count How many of tail to take.
+     * @return The new vector.
+     */
+    public PersistentVector<E> splice(int from, Object[] tail, int count) {
+        if (from < 0 || from > size) {
+            throw new IndexOutOfBoundsException("Index " + from + ", size " + size);
+        }
+        int newSize = from + count;
+        if (newSize == 0) {
+            return empty();
+        }
+        int newShift = 0;
+        while (newSize > (WIDTH << newShift)) {
+            newShift += BITS;
+        }
+        return new PersistentVector<E>(newSize, newShift,
+                build(from, tail, newSize, newShift, 0));
+    }
+
+    // The node at the given level covering slots base on, of a vector of newSize that keeps
+    // this one's slots below from and takes the rest from tail
+    private Object[] build(int from, Object[] tail, int newSize, int level, int base) {
+        int span = 1 << (level + BITS);
+        if (base + span <= from && level <= shift) {
+            return nodeAt(level, base);
+        }
+        Object[] node = new Object[WIDTH];
+        if (level == 0) {
+            for (int k = 0; k < WIDTH && base + k < newSize; k++) {
+                int i = base + k;
+                node[k] = i < from ? get(i) : tail[i - from];
+            }
+        } else {
+            int childSpan = 1 << level;
+            for (int k = 0; k < WIDTH && base + k * childSpan < newSize; k++) {
+                node[k] = build(from, tail, newSize, level - BITS, base + k * childSpan);
+            }
+        }
+        return node;
+    }
+
+    // This vector's node at the given level covering slot base
+    private Object[] nodeAt(int level, int base) {
+        Object[] node = root;
+        for (int l = shift; l > level; l -= BITS) {
+            node = (Object[]) node[(base >>> l) & MASK];
+        }
+        return node;
+    }
+
+    /**
+     * Find the slots holding a different element than in another vector of the same size,
+     * comparing elements by identity. Subtrees the two share are skipped, so this costs
+     * about O(d log n) for d differences.
+     * @param other A vector of the same size, usually an older or newer version of this one.
+     * @param out Filled with the differing slots, in order.
+     * @return How many slots differ, or -1 if there are more than fit in out or the
+     *         sizes differ.
+     */
+    public int diff(PersistentVector<E> other, int[] out) {
+        if (size != other.size) {
+            return -1;
+        }
+        return diff(root, other.root, shift, 0, out, 0, size);
+    }
+
+    /**
+     * Like diff(), for vectors that may have grown or shrunk: only the slots both have are
+     * compared, as when one is a version of the other with elements pushed or popped.
+     * @param other Another version of this vector.
+     * @param out Filled with the differing slots below the smaller size, in order.
+     * @return How many slots differ, or -1 if there are more than fit in out or the two
+     *         tries are of different heights.
+     */
+    public int diffShared(PersistentVector<E> other, int[] out) {
+        if (shift != other.shift) {
+            return -1;
+        }
+        return diff(root, other.root, shift, 0, out, 0, Math.min(size, other.size));
+    }
+
+    private static int diff(Object[] a, Object[] b, int shift, int base, int[] out, int found,
+                            int limit) {
+        if (a == b) {
+            return found;
+        }
+        for (int i = 0; i < WIDTH && found != -1 && base + (i << shift) < limit; i++) {
+            Object x = a == null ? null : a[i];
+            Object y = b == null ? null : b[i];
+            if (x == y) {
+                continue;
+            }
+            if (shift == 0) {
+                if (found == out.length) {
+                    return -1;
+                }
+                out[found++] = base + i;
+            } else {
+                found = diff((Object[]) x, (Object[]) y, shift - BITS, base + (i << shift), out,
+                        found, limit);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * How many of this vector's trie nodes aren't in another at the same place, e.g. to
+     * check that a step only copied the paths to the slots it changed.
+     * @param other Another version of this vector.
+     * @return The number of nodes, or -1 if the two tries are of different heights.
+     */
+    int copiedNodes(PersistentVector<E> other) {
+        return shift == other.shift ? copied(root, other.root, shift) : -1;
+    }
+
+    private static int copied(Object[] node, Object[] other, int shift) {
+        if (node == other || node == null) {
+            return 0;
+        }
+        int count = 1;
+        for (int i = 0; shift > 0 && i < WIDTH; i++) {
+            count += copied((Object[]) node[i], other == null ? null : (Object[]) other[i],
+                    shift - BITS);
+        }
+        return count;
+    }
+
+    private static Object[] setIn(Object[] node, int shift, int i, Object e) {
+        Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+        if (shift == 0) {
+            copy[i & MASK] = e;
+        } else {
+            int sub = (i >>> shift) & MASK;
+            copy[sub] = setIn((Object[]) copy[sub], shift - BITS, i, e);
+        }
+        return copy;
+    }
+
+    private static Object[] popFrom(Object[] node, int shift, int i) {
+        Object[] copy = node.clone();
+        if (shift == 0) {
+            copy[i & MASK] = null;
+        } else {
+            int sub = (i >>> shift) & MASK;
+            // The child is empty once its first slot is the one removed
+            boolean emptied = (i & ((1 << shift) - 1)) == 0;
+            copy[sub] = emptied ? null : popFrom((Object[]) copy[sub], shift - BITS, i);
+        }
+        return copy;
+    }
+}
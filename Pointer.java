@@ -1,20 +1,79 @@
 package com.baker.goodpointersv2;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * @author Alexander Baker, <baker.alex.j@gmail.com>
  * Started 8 November, 2018
  * The pointer class holds information relevant to a pointer, such as the value and
  * address of the variable it is pointing to, as well as the name assigned to it.
+ * A pointer can also point at another pointer (int** pp = &p;), to any depth. Where the
+ * chain of pointers finally ends up is memoized, and only forgotten by the pointers
+ * whose chain runs through a link that changed.
+ * A pointer aimed at a nonPointer can be moved along it by pointer arithmetic, e.g. p + 3
+ * into an array, anywhere from its first element to one past its last.
  */
 public class Pointer {
+    // pAddress when the pointer isn't aimed at anything.
+    public static final int NO_ADDRESS = -1;
+
     private String pValue;
-    private String pAddress;
+    private int pAddress;
     private String name;
+    // The nonPointer this pointer was last aimed at. Lets the view find the
+    // arrow's end without searching by address.
+    private NonPointer target;
+    // Which element of target the pointer is at, 0 unless moved by arithmetic
+    private int element;
     // Determine if pointer is dereferenced or not.
     private boolean pointing;
     private boolean derefed;
+    // Set when the variable this pointer is aimed at has been deleted.
+    private boolean dangling;
+
+    // The pointer this one is aimed at, for pointers to pointers. Only one of
+    // target and ptrTarget is ever set.
+    private Pointer ptrTarget;
+    // Pointers aimed at this pointer, the first referrerCount of referrers. Left null until
+    // the first one arrives. Each knows its own index, so it's taken out in O(1), and chains
+    // are walked by index rather than with an iterator.
+    private Pointer[] referrers;
+    private int referrerCount;
+    // Index of this pointer in its target's or ptrTarget's referrers. Only one of them is
+    // ever set, so one index serves both.
+    int referrerIndex;
+    // This pointer's own address, so that other pointers can hold it.
+    private int address;
+    private String addressLabel;
+    // Index within VisController's ptrList, kept by VisController. -1 while not in the list.
+    private int slot = -1;
+    // Given when it's added and kept until it's deleted, unlike its slot, so the diagram
+    // can tell it apart from whatever takes its slot
+    private int order;
+    // The call this local was declared in, null for a global
+    private StackFrame stackFrame;
+
+    // Memoized end of the chain of pointers. chainEnd is null if the chain doesn't reach a
+    // nonPointer, and chainCyclic is set if it loops back on itself.
+    private boolean chainValid;
+    private NonPointer chainEnd;
+    private int chainElement;
+    private int chainDepth;
+    private boolean chainCyclic;
+    // Only set while resolve() is walking through this pointer, to spot cycles.
+    private boolean visiting;
+    // The last chainValueChanged() walk through this pointer, so a walk can tell where it
+    // has been without a set of its own. Numbered across every model, as they may be
+    // walked on different threads.
+    private static final AtomicInteger WALKS = new AtomicInteger();
+    private int walk;
 
-    // This will be the String to display in PointerVisualizer
+    // This will be the String to display in PointerVisualizer.
+    // Left null until it's first drawn, then cached until the pointer changes.
     private String toDisplay;
 
     /**
@@ -23,9 +82,9 @@ public class Pointer {
      */
     public Pointer() {
         pValue = "";
-        pAddress = "";
+        pAddress = NO_ADDRESS;
         name = "";
-        toDisplay = pAddress;
+        toDisplay = null;
         pointing = false;
         derefed = false;
     }
@@ -37,11 +96,13 @@ public class Pointer {
      */
     public Pointer(NonPointer pointTo, String name) {
         this.name = name;
-        pAddress = pointTo.getAddress();
-        pValue = pointTo.getValue();
+        pAddress = pointTo.getAddressValue();
+        pValue = pointTo.getElement(0);
+        target = pointTo;
+        target.addReferrer(this);
         pointing = true;
         derefed = false;
-        toDisplay = pAddress;
+        toDisplay = null;
     }
 
     /**
@@ -51,9 +112,9 @@ public class Pointer {
     public Pointer(String name) {
         this.name = name;
         pValue = "";
-        pAddress = "";
+        pAddress = NO_ADDRESS;
 
-        toDisplay = pAddress;
+        toDisplay = null;
     }
 
     /**
@@ -62,19 +123,207 @@ public class Pointer {
     public void deref(boolean state)
     {
         this.derefed = state;
-        if (state == true) {
-            this.toDisplay = pValue;
-        } else {
-            this.toDisplay = pAddress;
-        }
+        this.toDisplay = null;
     }
 
-    // Standard getters and setters. Not vital for JavaDocs.
-    // See: https://stackoverflow.com/questions/1028967/simple-getter-setter-comments
+    /**
+     * The text drawn inside the pointer, either the value or the address it holds.
+     * Built on first use after a change, then reused every frame.
+     * @return The String to display.
+     */
     public String getToDisplay() {
+        if (toDisplay == null) {
+            toDisplay = derefed ? getDerefValue() : getpAddress();
+        }
         return toDisplay;
     }
 
+    /**
+     * The value found by fully dereferencing this pointer, e.g. **pp.
+     * @return The value, or empty if the chain doesn't end at a nonPointer.
+     */
+    public String getDerefValue() {
+        if (ptrTarget == null) {
+            return pValue;
+        }
+        NonPointer end = resolve();
+        return end == null ? "" : end.getElement(chainElement);
+    }
+
+    /**
+     * Follow the chain of pointers to the nonPointer it finally ends at.
+     * The answer is memoized until a link along the chain changes, and cycles are detected,
+     * so this is O(1) for an unchanged chain and never loops forever.
+     * @return The nonPointer at the end, or null if the chain is broken or cyclic.
+     */
+    public NonPointer resolve() {
+        if (!chainValid) {
+            resolveChain();
+        }
+        return chainEnd;
+    }
+
+    /**
+     * How many dereferences it takes to reach resolve(), e.g. 2 for int** pp = &p;
+     * @return The depth, or 0 if the chain doesn't end at a nonPointer.
+     */
+    public int getChainDepth() {
+        resolve();
+        return chainDepth;
+    }
+
+    public boolean isCyclic() {
+        resolve();
+        return chainCyclic;
+    }
+
+    private void resolveChain() {
+        // Walk down until we reach a pointer that already knows its answer,
+        // the end of the chain, or a pointer seen earlier on this walk.
+        int length = 0;
+        NonPointer end = null;
+        int endElement = 0;
+        int depth = 0;
+        boolean cyclic = false;
+        Pointer p = this;
+        while (true) {
+            if (p.chainValid) {
+                end = p.chainEnd;
+                endElement = p.chainElement;
+                depth = p.chainDepth;
+                cyclic = p.chainCyclic;
+                break;
+            }
+            if (p.visiting) {
+                cyclic = true;
+                break;
+            }
+            p.visiting = true;
+            length++;
+            if (p.ptrTarget == null || p.dangling) {
+                end = p.dangling ? null : p.target;
+                endElement = p.element;
+                break;
+            }
+            p = p.ptrTarget;
+        }
+
+        // Walk the same links again to fill in every pointer on the way, each one level
+        // less deep than the one before
+        Pointer q = this;
+        for (int i = 0; i < length; i++) {
+            Pointer next = q.ptrTarget;
+            q.chainEnd = end;
+            q.chainElement = endElement;
+            q.chainDepth = end == null ? 0 : depth + length - i;
+            q.chainCyclic = cyclic;
+            q.chainValid = true;
+            q.visiting = false;
+            q = next;
+        }
+    }
+
+    /**
+     * A link this pointer depends on changed. Forgets the memoized chain here and in every
+     * pointer aimed at this one, stopping wherever it's already been forgotten.
+     */
+    void invalidateChain() {
+        // The first referrer is gone to next without the stack, which is only made for a
+        // pointer with more than one, so a plain chain is forgotten without allocating
+        ArrayDeque<Pointer> stack = null;
+        Pointer q = chainValid ? this : null;
+        while (q != null) {
+            q.chainValid = false;
+            if (q.derefed) {
+                q.toDisplay = null;
+            }
+            Pointer next = null;
+            // A referrer that has forgotten its chain has nobody above it still
+            // remembering one through it
+            for (int k = 0; k < q.referrerCount; k++) {
+                Pointer r = q.referrers[k];
+                if (!r.chainValid) {
+                    continue;
+                }
+                if (next == null) {
+                    next = r;
+                } else {
+                    if (stack == null) {
+                        stack = new ArrayDeque<Pointer>();
+                    }
+                    stack.push(r);
+                }
+            }
+            if (next == null) {
+                // Skip any already reached the other way since they were pushed
+                while (stack != null && !stack.isEmpty() && !stack.peek().chainValid) {
+                    stack.pop();
+                }
+                next = stack == null || stack.isEmpty() ? null : stack.pop();
+            }
+            q = next;
+        }
+    }
+
+    /**
+     * The value at the end of the chain changed, so every dereferenced pointer
+     * whose chain runs through this one has to rebuild its text.
+     */
+    private void chainValueChanged() {
+        if (referrerCount == 0) {
+            return;
+        }
+        // Pointers can form a cycle, so each one reached is stamped with this walk. As in
+        // invalidateChain(), the stack is only made where the pointers branch.
+        int stamp = WALKS.incrementAndGet();
+        walk = stamp;
+        ArrayDeque<Pointer> stack = null;
+        Pointer q = this;
+        while (q != null) {
+            Pointer next = null;
+            for (int k = 0; k < q.referrerCount; k++) {
+                Pointer r = q.referrers[k];
+                if (r.walk == stamp) {
+                    continue;
+                }
+                r.walk = stamp;
+                if (r.derefed) {
+                    r.toDisplay = null;
+                }
+                if (next == null) {
+                    next = r;
+                } else {
+                    if (stack == null) {
+                        stack = new ArrayDeque<Pointer>();
+                    }
+                    stack.push(r);
+                }
+            }
+            q = next != null ? next : stack == null || stack.isEmpty() ? null : stack.pop();
+        }
+    }
+
+    /**
+     * The held address formatted as hex, or empty if the pointer isn't aimed at anything.
+     * Reuses the target's cached label when it's the same address.
+     * @return The hex address label.
+     */
+    public String getpAddress() {
+        if (pAddress == NO_ADDRESS) {
+            return "";
+        }
+        if (target != null && target.getAddressValue() == pAddress) {
+            return target.getAddress();
+        }
+        if (ptrTarget != null && ptrTarget.getAddressValue() == pAddress) {
+            return ptrTarget.getAddress();
+        }
+        return "0x" + Integer.toHexString(pAddress);
+    }
+
+    // Standard getters and setters. Not vital for JavaDocs.
+    // See: https://stackoverflow.com/questions/1028967/simple-getter-setter-comments
+
     public void setToDisplay(String toDisplay) {
         this.toDisplay = toDisplay;
     }
@@ -83,16 +332,104 @@ public class Pointer {
         return name;
     }
 
-    public String getpAddress() {
+    public int getpAddressValue() {
         return pAddress;
     }
 
-    public void setpAddress(String pAddress) {
+    public void setpAddress(int pAddress) {
         this.pAddress = pAddress;
+        toDisplay = null;
     }
 
     public void setpValue(String pValue) {
         this.pValue = pValue;
+        toDisplay = null;
+        chainValueChanged();
+    }
+
+    /**
+     * This pointer's own address, e.g. 0x1f. Formatted on first use and then cached.
+     * @return The hex address label.
+     */
+    public String getAddress() {
+        if (addressLabel == null) {
+            addressLabel = "0x" + Integer.toHexString(address);
+        }
+        return addressLabel;
+    }
+
+    public int getAddressValue() {
+        return address;
+    }
+
+    public void setAddress(int address) {
+        this.address = address;
+        addressLabel = null;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public void setSlot(int slot) {
+        this.slot = slot;
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    public void setOrder(int order) {
+        this.order = order;
+    }
+
+    public Pointer getPointerTarget() {
+        return ptrTarget;
+    }
+
+    public StackFrame getStackFrame() {
+        return stackFrame;
+    }
+
+    void setStackFrame(StackFrame stackFrame) {
+        this.stackFrame = stackFrame;
+    }
+
+    void addReferrer(Pointer p) {
+        if (isReferrer(p)) {
+            return;
+        }
+        if (referrers == null) {
+            referrers = new Pointer[2];
+        } else if (referrerCount == referrers.length) {
+            referrers = Arrays.copyOf(referrers, referrerCount * 2);
+        }
+        p.referrerIndex = referrerCount;
+        referrers[referrerCount++] = p;
+    }
+
+    // The last referrer takes the place of the one leaving
+    void removeReferrer(Pointer p) {
+        if (!isReferrer(p)) {
+            return;
+        }
+        Pointer last = referrers[--referrerCount];
+        referrers[p.referrerIndex] = last;
+        last.referrerIndex = p.referrerIndex;
+        referrers[referrerCount] = null;
+    }
+
+    private boolean isReferrer(Pointer p) {
+        return p.referrerIndex < referrerCount && referrers[p.referrerIndex] == p;
+    }
+
+    List<Pointer> getReferrers() {
+        return referrerCount == 0 ? Collections.<Pointer>emptyList()
+                : Arrays.asList(referrers).subList(0, referrerCount);
+    }
+
+    public boolean isDerefed() {
+        return derefed;
     }
 
     public boolean isPointing() {
@@ -103,9 +440,117 @@ public class Pointer {
         this.pointing = pointing;
     }
 
+    public NonPointer getTarget() {
+        return target;
+    }
+
+    public int getElement() {
+        return element;
+    }
+
+    public boolean isDangling() {
+        return dangling;
+    }
+
+    /**
+     * The target has been deleted. The pointer keeps the stale address, as it would
+     * in C++, but no longer has anything to draw an arrow to.
+     */
+    void markDangling() {
+        dangling = true;
+        invalidateChain();
+    }
+
+    /**
+     * Called once this pointer has been deleted. Stops receiving updates from its target,
+     * and marks every pointer aimed at it as dangling.
+     */
+    void release() {
+        detachTarget();
+        for (int k = 0; k < referrerCount; k++) {
+            referrers[k].markDangling();
+        }
+        referrers = null;
+        referrerCount = 0;
+    }
+
+    /**
+     * Aim at nothing, used when restoring an earlier version of the model.
+     * @param dangling True to leave the pointer dangling, holding a stale address.
+     * @param heldAddress The stale address, if dangling.
+     * @param staleValue The value it was left showing, if dangling.
+     */
+    void clearTarget(boolean dangling, int heldAddress, String staleValue) {
+        detachTarget();
+        target = null;
+        element = 0;
+        ptrTarget = null;
+        pointing = dangling;
+        this.dangling = dangling;
+        pValue = dangling && staleValue != null ? staleValue : "";
+        setpAddress(dangling ? heldAddress : NO_ADDRESS);
+        invalidateChain();
+        chainValueChanged();
+    }
+
+    private void detachTarget() {
+        if (target != null) {
+            target.removeReferrer(this);
+        }
+        if (ptrTarget != null) {
+            ptrTarget.removeReferrer(this);
+        }
+    }
+
     public void setNonPointer(NonPointer newNonPointer) {
-        setpValue(newNonPointer.getValue());
-        setpAddress(newNonPointer.getAddress());
+        setNonPointer(newNonPointer, 0);
+    }
+
+    /**
+     * Aim this pointer at one element of a nonPointer, e.g. p = &a[3]; or p = a + 3;
+     * @param newNonPointer The nonPointer to point into.
+     * @param element The element, up to newNonPointer.getCount() for one past the end.
+     */
+    public void setNonPointer(NonPointer newNonPointer, int element) {
+        detachTarget();
+        target = newNonPointer;
+        this.element = element;
+        ptrTarget = null;
+        target.addReferrer(this);
+        dangling = false;
+        invalidateChain();
+        setpValue(newNonPointer.getElement(element));
+        setpAddress(newNonPointer.getAddressValue() + element * newNonPointer.getElementSize());
+        setPointing(true);
+        deref(false);
+    }
+
+    /**
+     * Pointer arithmetic, moving to another element of the nonPointer already aimed at,
+     * e.g. p += 3; Stays dereferenced if it was.
+     * @param element The element, up to getTarget().getCount() for one past the end.
+     */
+    public void moveTo(int element) {
+        this.element = element;
+        invalidateChain();
+        setpValue(target.getElement(element));
+        setpAddress(target.getAddressValue() + element * target.getElementSize());
+    }
+
+    /**
+     * Aim this pointer at another pointer, e.g. pp = &p;
+     * @param newPointer The pointer to point at.
+     */
+    public void setPointer(Pointer newPointer) {
+        detachTarget();
+        target = null;
+        element = 0;
+        ptrTarget = newPointer;
+        ptrTarget.addReferrer(this);
+        dangling = false;
+        invalidateChain();
+        setpValue(newPointer.getpAddress());
+        setpAddress(newPointer.getAddressValue());
         setPointing(true);
         deref(false);
     }
@@ -4,14 +4,17 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.RectF;
+import android.graphics.Picture;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
-import android.util.Log;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.View;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author Alexander Baker baker.alex.j@gmail.com
@@ -25,21 +28,84 @@ import java.util.List;
  * Information for each is initialized in
  *       NonPointer.java
  *       Pointer.java
+ * The shapes themselves are drawn by DiagramRenderer, onto the canvas through CanvasTarget.
  *
  */
 public class PointerVisualizer extends View {
 
     private float densityScalar; // Necessary for different device pixel densities
-    private Paint valPaint;
-    private Paint addPaint;
-    private Paint circlePaint;
-    private Paint textPaint;
-    private Paint darkText;
-    private Paint linePaint;
+    private CanvasTarget canvasTarget;
+    private DiagramRenderer renderer;
+    private Paint overlayPaint;
 
-    // These two ArrayLists will hold our pointer and non-pointer variables from the parser
-    List<Pointer> ptrList;
-    List<NonPointer> nonPtrList;
+    // The latest frame published by VisController, swapped in whole so onDraw always sees
+    // one consistent model, and the one the cached layout was built from.
+    private final AtomicReference<FrameSnapshot> published =
+            new AtomicReference<FrameSnapshot>(FrameSnapshot.EMPTY);
+    private FrameSnapshot drawn;
+
+    // Set when the model changes and cleared once the frame showing it is drawn.
+    // While it is set a redraw is already queued, so further changes don't queue another.
+    private volatile boolean dirty;
+    private long framesDrawn;
+
+    // Frame and VisController timings.
+    private final VisMetrics metrics = new VisMetrics();
+
+    // Geometry for every node and arrow, rebuilt only when the view size, the number of
+    // variables or where their arrows go change.
+    private DiagramLayout layout;
+    private boolean layoutStale = true;
+    // The layout before the last rebuild, kept so a transition knows where things were
+    private DiagramLayout spareLayout;
+    // Orders each published frame to keep arrows from crossing, off the UI thread
+    private LayoutWorker layoutWorker;
+
+    // Changes between the last frame shown and the one being moved to are animated for
+    // DiagramTransition.DURATION, with the rest of the diagram drawn from the layer.
+    // If a frame runs over FRAME_BUDGET the transition skips to its end and fewer nodes
+    // are animated from then on, so steps never cost frames however big the model is.
+    private static final long FRAME_BUDGET = 8000000L;
+    private static final int MIN_ANIMATED = 16;
+    private static final int MAX_ANIMATED = 4096;
+    private boolean animationsEnabled = true;
+    private final DiagramTransition transition = new DiagramTransition();
+    private FrameSnapshot shown;
+    private boolean animating;
+    private long transitionStart;
+    private int animationLimit = 512;
+
+    // Everything in layerFrame between layerLeft and layerRight, recorded once and replayed
+    // while only panning, zooming, or changing a few values. Changed nodes are drawn on top.
+    private Picture layer;
+    private FrameSnapshot layerFrame;
+    private float layerLeft;
+    private float layerRight;
+    // Set if the layer leaves out the nodes the transition animates
+    private boolean layerPartial;
+    // Slots changed since layerFrame. Any more than this and the layer is recorded again.
+    private final int[] changedPtrSlots = new int[64];
+    private final int[] changedNonPtrSlots = new int[64];
+
+    // Texts replaced by newer frames, queued by VisController and dropped from the
+    // renderer's label cache before the next frame is drawn. Steps taken faster than
+    // frames are drawn would grow the queue without end, so past the value label cache's
+    // capacity nothing more is queued and the whole cache is cleared instead.
+    private static final int MAX_REPLACED_LABELS = 1024;
+    private final ConcurrentLinkedQueue<String> replacedLabels = new ConcurrentLinkedQueue<String>();
+    private final AtomicInteger replacedCount = new AtomicInteger();
+
+    // Address ranges of the nonPointers in addressFrame, built on the first lookup after
+    // a new frame
+    private final AddressIndex addressIndex = new AddressIndex();
+    private FrameSnapshot addressFrame;
+
+    // Pan and zoom of the virtual canvas. Logical point p is drawn at p * zoom - pan.
+    private float panX;
+    private float panY;
+    private float zoom = 1f;
+    private GestureDetector panDetector;
+    private ScaleGestureDetector zoomDetector;
 
     /**
      * This is the default constructor.
@@ -80,196 +146,452 @@ public class PointerVisualizer extends View {
         DisplayMetrics metrics = getResources().getDisplayMetrics();
         densityScalar = metrics.density;
 
-        // Value paint
-        valPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        valPaint.setColor(Color.parseColor("#3A5FCD"));
-        valPaint.setStyle(Paint.Style.FILL);
-        // Address paint
-        addPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        addPaint.setColor(Color.parseColor("#DA4747"));
-        addPaint.setStyle(Paint.Style.FILL);
-
-        // Circle Paint Characteristics
-        circlePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        circlePaint.setStyle(Paint.Style.FILL);
-        circlePaint.setColor(Color.parseColor("#DA4747"));
-
-        // Text Paint Characteristics
-        textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        textPaint.setColor(Color.WHITE);
-        textPaint.setTextSize(densityScalar * 13);
-        textPaint.setTextAlign(Paint.Align.CENTER);
-
-        // DarkText Paint Characteristics
-        darkText = new Paint(Paint.ANTI_ALIAS_FLAG);
-        darkText.setColor(Color.BLACK);
-        darkText.setTextSize(densityScalar * 13);
-        darkText.setTextAlign(Paint.Align.CENTER);
-
-        // Line Paint Characteristics
-        linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        linePaint.setColor(Color.BLACK);
-        linePaint.setStrokeWidth(densityScalar*2);
+        // Paints for each shape live in the canvas target
+        canvasTarget = new CanvasTarget(densityScalar);
+        renderer = new DiagramRenderer(canvasTarget, densityScalar);
+
+        // Metrics overlay Paint Characteristics
+        overlayPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        overlayPaint.setColor(Color.BLACK);
+        overlayPaint.setTextSize(densityScalar * 11);
+        overlayPaint.setTextAlign(Paint.Align.LEFT);
 
         // Initialize containers
-        ptrList = new ArrayList<Pointer>();
-        nonPtrList = new ArrayList<NonPointer>();
+        layout = new DiagramLayout();
+        spareLayout = new DiagramLayout();
+        layoutWorker = new LayoutWorker(new LayoutWorker.Listener() {
+            @Override
+            public void onOrderReady(DiagramOrder order) {
+                markChanged();
+            }
+        });
+
+        // Pan by dragging, zoom by pinching
+        panDetector = new GestureDetector(getContext(), new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                setPan(panX + distanceX, panY + distanceY);
+                return true;
+            }
+        });
+        zoomDetector = new ScaleGestureDetector(getContext(),
+                new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoomAround(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Feeds touches to the pan and zoom gesture detectors.
+     * @param event The touch event.
+     * @return Always true, the view consumes every gesture.
+     */
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        zoomDetector.onTouchEvent(event);
+        if (!zoomDetector.isInProgress()) {
+            panDetector.onTouchEvent(event);
+        }
+        return true;
+    }
+
+    /**
+     * Scroll the virtual canvas, clamped so the diagram can't be dragged off screen.
+     * @param x Horizontal scroll in screen pixels.
+     * @param y Vertical scroll in screen pixels.
+     */
+    public void setPan(float x, float y) {
+        panX = Math.max(0, Math.min(x, layout.contentWidth * zoom - getWidth()));
+        panY = Math.max(0, Math.min(y, layout.contentHeight * zoom - getHeight()));
+        invalidate();
+    }
+
+    /**
+     * Zoom the virtual canvas while keeping the given screen point still.
+     * @param factor How much to scale the current zoom by.
+     * @param focusX Screen x to zoom around.
+     * @param focusY Screen y to zoom around.
+     */
+    public void zoomAround(float factor, float focusX, float focusY) {
+        float newZoom = Math.max(0.1f, Math.min(zoom * factor, 4f));
+        float logicalX = (panX + focusX) / zoom;
+        float logicalY = (panY + focusY) / zoom;
+        zoom = newZoom;
+        setPan(logicalX * zoom - focusX, logicalY * zoom - focusY);
+    }
+
+    /**
+     * Stops the layout thread while the view isn't shown.
+     */
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        layoutWorker.shutdown();
+    }
+
+    /**
+     * Keeps the cached layout in step with the size of the view.
+     */
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        layoutStale = true;
     }
 
     /**
      * This is the overriden onDraw to draw the pointer vectors and possible lines.
+     * Positions come from the cached layout, so nothing is allocated here once it is built.
+     * Everything drawn comes from the one frame read at the start, however many are
+     * published while drawing. While a transition plays, only the nodes it animates are
+     * drawn each frame, over the layer.
+     * Variables are placed in the order LayoutWorker last finished, carried over to the
+     * frame if it's newer. When the order for the frame itself is ready the layout is
+     * rebuilt with it, after any transition playing has ended.
      * @param canvas Canvas of the view
      */
     @Override
     protected void onDraw(Canvas canvas) {
-        if (ptrList.size() != 0) {
-            drawPointers(canvas);
+        // Cleared before reading the frame, so a frame published after this queues a redraw
+        dirty = false;
+        framesDrawn++;
+        long start = metrics.start();
+        long now = System.nanoTime();
+        FrameSnapshot frame = published.get();
+        if (replacedCount.getAndSet(0) > MAX_REPLACED_LABELS) {
+            replacedLabels.clear();
+            renderer.allLabelsReplaced();
+        } else {
+            for (String replaced = replacedLabels.poll(); replaced != null; replaced = replacedLabels.poll()) {
+                renderer.labelReplaced(replaced);
+            }
         }
-        if (nonPtrList.size() != 0) {
-            drawNonPointers(canvas);
+        canvasTarget.resetDrawCalls();
+
+        // Can the cached layer be drawn with only the changed nodes on top of it?
+        int changedPtrs = -1;
+        int changedNonPtrs = -1;
+        if (layer != null && !layoutStale) {
+            changedPtrs = frame.ptrs.diff(layerFrame.ptrs, changedPtrSlots);
+            changedNonPtrs = frame.nonPtrs.diff(layerFrame.nonPtrs, changedNonPtrSlots);
+            if ((changedPtrs > 0 || changedNonPtrs > 0)
+                    && !onlyTextChanged(frame, changedPtrs, changedNonPtrs)) {
+                changedPtrs = -1;
+            }
+        }
+        // Is the order for this frame ready, and different to the one laid out?
+        if (animating && now - transitionStart >= DiagramTransition.DURATION) {
+            animating = false;
+        }
+        DiagramOrder order = layoutWorker.orderFor(frame);
+        boolean reordered = !animating && order.getFrame() == frame && frame == shown
+                && !DiagramOrder.sameColumns(order, layout.order);
+        boolean overdraw = !reordered && changedPtrs != -1 && changedNonPtrs != -1;
+        boolean resized = layoutStale;
+        DiagramLayout fromLayout = layout;
+        if (reordered || (!overdraw && (layoutStale || frame != drawn))) {
+            // Keep the old positions to animate from
+            DiagramLayout old = layout;
+            layout = spareLayout;
+            spareLayout = old;
+            layout.rebuild(frame, getWidth(), getHeight(), densityScalar, order);
+            drawn = frame;
+            layoutStale = false;
+        }
+
+        // A new frame or order starts a new transition, from wherever the last one was heading
+        if (frame != shown || reordered) {
+            animating = animationsEnabled && shown != null && !resized
+                    && transition.build(shown, fromLayout, frame, layout, animationLimit);
+            transitionStart = now;
+            shown = frame;
+        }
+        float progress = 1;
+        if (animating) {
+            progress = Math.min(1, (now - transitionStart) / (float) DiagramTransition.DURATION);
+            animating = progress < 1;
+        }
+        boolean partial = animating && transition.isStructural();
+
+        // The part of the logical canvas currently on screen.
+        float left = panX / zoom;
+        float top = panY / zoom;
+        float right = (panX + getWidth()) / zoom;
+        float bottom = (panY + getHeight()) / zoom;
+
+        int nodesDrawn = 0;
+        int arrowsDrawn = 0;
+        if (!overdraw || partial != layerPartial || (partial && layerFrame != frame)
+                || Math.max(left, 0) < layerLeft || Math.min(right, layout.contentWidth) > layerRight) {
+            recordLayer(frame, left, right, partial);
+            nodesDrawn = renderer.getNodesDrawn();
+            arrowsDrawn = renderer.getArrowsDrawn();
+            changedPtrs = 0;
+            changedNonPtrs = 0;
+        }
+
+        int saveCount = canvas.save();
+        canvas.translate(-panX, -panY);
+        canvas.scale(zoom, zoom);
+        canvasTarget.setCanvas(canvas);
+        canvasTarget.drawPicture(layer, layerLeft);
+        // Same order as a full draw, pointers and then nonPointers over the arrow heads
+        float margin = densityScalar * 30;
+        for (int k = 0; k < changedPtrs; k++) {
+            int i = changedPtrSlots[k];
+            if (layout.ptrX[i] + margin >= left && layout.ptrX[i] - margin <= right) {
+                renderer.drawPointerAt(canvasTarget, frame, layout, i);
+                nodesDrawn++;
+            }
+        }
+        for (int k = 0; k < changedNonPtrs; k++) {
+            int j = changedNonPtrSlots[k];
+            if (layout.nonPtrX[j] + margin >= left && layout.nonPtrX[j] - margin <= right) {
+                renderer.drawNonPointerAt(canvasTarget, frame, layout, j);
+                nodesDrawn++;
+            }
+        }
+        if (animating) {
+            renderer.drawTransition(canvasTarget, transition, layout, progress, left, right);
+            nodesDrawn += renderer.getNodesDrawn();
+            arrowsDrawn += renderer.getArrowsDrawn();
+            keepAnimating(now);
+        }
+        canvas.restoreToCount(saveCount);
+        metrics.frameDone(start, nodesDrawn, arrowsDrawn, canvasTarget.getDrawCalls());
+        if (start != 0 && metrics.isOverlayShown()) {
+            drawOverlay(canvas);
         }
-        this.invalidate();
     }
 
     /**
-     * Called in onDraw as a way to draw pointers from the list, as well as the lines connecting
-     * them to what they're pointing.
-     * @param canvas Canvas of the view
+     * Queue the next frame of the transition, unless this one ran over budget, in which
+     * case skip to the end and animate fewer nodes next time. Frames well under budget let
+     * the limit grow back.
+     */
+    private void keepAnimating(long now) {
+        long elapsed = System.nanoTime() - now;
+        if (elapsed > FRAME_BUDGET) {
+            animating = false;
+            animationLimit = Math.max(MIN_ANIMATED, animationLimit / 2);
+        } else if (elapsed < FRAME_BUDGET / 4) {
+            animationLimit = Math.min(MAX_ANIMATED, animationLimit * 2);
+        }
+        postInvalidateOnAnimation();
+    }
+
+    /**
+     * Record the layer for a frame, covering the visible range and a screen either side
+     * of it so panning doesn't record it again straight away.
+     * @param partial True to leave out what the transition animates.
+     */
+    private void recordLayer(FrameSnapshot frame, float left, float right, boolean partial) {
+        float span = right - left;
+        layerLeft = Math.max(0, left - span);
+        layerRight = Math.min(layout.contentWidth, right + span);
+        if (layer == null) {
+            layer = new Picture();
+        }
+        Canvas recording = layer.beginRecording((int) Math.ceil(layerRight - layerLeft),
+                (int) Math.ceil(layout.contentHeight));
+        recording.translate(-layerLeft, 0);
+        canvasTarget.setCanvas(recording);
+        renderer.draw(canvasTarget, frame, layout, layerLeft, 0, layerRight, layout.contentHeight,
+                partial ? transition : null);
+        layer.endRecording();
+        layerFrame = frame;
+        layerPartial = partial;
+    }
+
+    /**
+     * Whether the changed nodes only show different text in their shapes, so they can be
+     * drawn over the layer. Names and pointers' addresses are drawn outside the shapes, so a
+     * node whose labels changed, e.g. a slot now holding another variable, would leave the
+     * old ones showing. A new arrow can't be drawn over either, and neither can a pointer
+     * another pointer's arrow ends at, since redrawing it would cover that arrow's head.
      */
-    private void drawPointers(Canvas canvas) {
-        // This is only testing information for the variables below.
-
-        int ptrSpread = getWidth() / (ptrList.size() + 1);
-        int nonPtrSpread = getWidth() / (nonPtrList.size() + 1);
-        // Draw Pointers from Vector
-        for (int i = 0; i < ptrList.size(); i++) {
-            drawPointer(canvas, (i + 1) * ptrSpread,
-                    ptrList.get(i).getToDisplay(), ptrList.get(i).getName());
-            // Draw a line given the pointer is pointing
-            if (ptrList.get(i).isPointing()) {
-                int j = findNonPtrByAddress(ptrList.get(i).getpAddress());
-                drawArrow(canvas, (i + 1) * ptrSpread, (j + 1) * nonPtrSpread);
+    private boolean onlyTextChanged(FrameSnapshot frame, int changedPtrs, int changedNonPtrs) {
+        if (changedPtrs > 0 && layout.ptrArrowCount > 0) {
+            return false;
+        }
+        for (int k = 0; k < changedPtrs; k++) {
+            FrameSnapshot.Node was = layerFrame.getPointer(changedPtrSlots[k]);
+            FrameSnapshot.Node now = frame.getPointer(changedPtrSlots[k]);
+            if (!sameLabels(was, now) || was.getTarget() != now.getTarget()
+                    || was.isTargetPointer() != now.isTargetPointer()) {
+                return false;
+            }
+        }
+        for (int k = 0; k < changedNonPtrs; k++) {
+            if (!sameLabels(layerFrame.getNonPointer(changedNonPtrSlots[k]),
+                    frame.getNonPointer(changedNonPtrSlots[k]))) {
+                return false;
             }
         }
+        return true;
+    }
 
+    private static boolean sameLabels(FrameSnapshot.Node was, FrameSnapshot.Node now) {
+        return was.getName().equals(now.getName()) && was.getAddress().equals(now.getAddress());
     }
 
     /**
-     * Called in onDraw to draw all nonPointer objects from their respective list
+     * Draws the latest timings in the top left corner, over the diagram.
+     * Only called while metrics are enabled, so it's free to allocate.
      * @param canvas Canvas of the view.
      */
-    private void drawNonPointers(Canvas canvas) {
-        int nonPtrSpread = getWidth() / (nonPtrList.size() + 1);
-        // Draw NonPointers from Vector
-        for (int j = 0; j < nonPtrList.size(); j++) {
-            drawNonPointer(canvas, (j + 1) * nonPtrSpread,
-                    nonPtrList.get(j).getValue(),
-                    nonPtrList.get(j).getAddress(),
-                    nonPtrList.get(j).getName());
+    private void drawOverlay(Canvas canvas) {
+        float x = densityScalar * 4;
+        float line = densityScalar * 13;
+        VisMetrics.Histogram frameTime = metrics.getFrameTime();
+        canvas.drawText(String.format("frame p50 %.2fms p99 %.2fms max %.2fms",
+                frameTime.getPercentile(50) / 1e6, frameTime.getPercentile(99) / 1e6,
+                frameTime.getMax() / 1e6), x, line, overlayPaint);
+        canvas.drawText("drawn " + metrics.getLastNodesDrawn() + " nodes, "
+                + metrics.getLastArrowsDrawn() + " arrows in " + metrics.getLastDrawCalls()
+                + " draw calls", x, line * 2, overlayPaint);
+        VisMetrics.Histogram pointTo = metrics.getOpLatency(VisMetrics.POINT_TO);
+        VisMetrics.Histogram change = metrics.getOpLatency(VisMetrics.CHANGE_VALUE);
+        canvas.drawText(String.format("pointTo p99 %dus, change p99 %dus",
+                pointTo.getPercentile(99) / 1000, change.getPercentile(99) / 1000),
+                x, line * 3, overlayPaint);
+    }
+
+    /**
+     * Turn animated transitions between frames on or off. When off, each new frame is
+     * drawn straight away.
+     * @param enabled True to animate, the default.
+     */
+    public void setAnimationsEnabled(boolean enabled) {
+        animationsEnabled = enabled;
+        if (!enabled && animating) {
+            animating = false;
+            invalidate();
         }
     }
 
     /**
-     * drawNonPointer creates a visualization of a Cpp nonPointer variable using two rectangles,
-     * with the top containing the value, the bottom the address, and the name below.
-     *
-     * @param canvas Canvas to pass in
-     * @param x The location of the object from the left of the screen.
-     * @param value The value of the nonPointer.
-     * @param address The address of the nonPointer.
-     * @param name The name of the nonPointer.
+     * @return True while a transition is playing.
      */
-    private void drawNonPointer(Canvas canvas, int x, String value, String address, String name) {
-        int cornerRadius = 15;
-        int top = 3 * getHeight() / 4;
-        float width = densityScalar * 40; //Keep in mind that we'll never truly use our width to draw the rectangle.
-        float height = width / 2;
-
-        // Set up our rectangles
-        RectF addrR = new RectF(
-                x - height,
-                top,
-                x + height,
-                top + height
-        );
-        RectF valuR = new RectF(
-                x - height,
-                top + height,
-                x + height,
-                top + height*2
-        );
-
-        // Draw rounded rectangles
-        canvas.drawRoundRect(
-                addrR,
-                cornerRadius,
-                cornerRadius,
-                addPaint
-        );
-        canvas.drawRoundRect(
-                valuR,
-                cornerRadius,
-                cornerRadius,
-                valPaint
-        );
-
-        // Draw our text from our strings. Probably need to calculate an offset.
-        Log.d("Pointer Visualizer", value + " is the current value.");
-        canvas.drawText(value, x, top + densityScalar * 18, textPaint);
-        canvas.drawText(address, x, top + densityScalar * 37, textPaint);
-        canvas.drawText(name, x, top + densityScalar * 50, darkText);
+    public boolean isAnimating() {
+        return animating;
     }
 
-    /*
-        Might want to consider putting a bool here to determine if it's dereferenced
+    /**
+     * The view's frame timings and, through VisController, its operation timings.
+     * Enable them with getMetrics().setEnabled(true).
+     * @return The metrics.
      */
+    public VisMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
-     * drawPointer places a visualization of a Cpp Pointer variable, which is a round circle
-     * with either the address of the object its pointing to, or the value (given it's dereferenced)
-     * @param canvas Canvas to pass in.
-     * @param x The location of the drawn object from the left of the screen.
-     * @param pAddress The address of the variable it is pointing to. Can be changed to value if
-     *                 dereferenced.
+     * Called by VisController with the model after each step. The frame replaces the
+     * previous one without locking, so the caller never waits on a frame being drawn.
+     * Safe to call from any thread.
+     * @param frame The frame to draw next.
      */
-    private void drawPointer(Canvas canvas, int x, String pAddress, String name) {
-        int y = getHeight() / 4;
-        float radius = densityScalar * 20;
+    public void publish(FrameSnapshot frame) {
+        // Requested first, so the order carried over to the frame is there to draw it with
+        layoutWorker.request(frame);
+        published.set(frame);
+        markChanged();
+    }
 
-        canvas.drawCircle(x, y, radius, circlePaint);
-        canvas.drawText(pAddress, x, y + densityScalar * 5, textPaint);
-        canvas.drawText(name, x, y - densityScalar * 25, darkText);
+    /**
+     * Called by VisController when a value or pointer text is replaced, so its label can
+     * be dropped from the cache. Safe to call from any thread.
+     * @param text The text that is no longer shown.
+     */
+    public void labelReplaced(String text) {
+        if (replacedCount.incrementAndGet() <= MAX_REPLACED_LABELS) {
+            replacedLabels.add(text);
+        }
     }
 
     /**
-     * Function will draw a line with an arrowHead to convey what nonPointer a Pointer variable
-     * is pointing to.
-     * @param canvas Canvas objecto be passed in.
-     * @param startX The start of the line from the top pointer object.
-     * @param stopX The end of the line from the top pointer object.
+     * @return Label lookups answered from the cache since the view was created.
      */
-    private void drawArrow(Canvas canvas, float startX, float stopX) {
-        float startY = getHeight() / 4 + densityScalar * 20;
-        float stopY = 3 * getHeight() / 4;
-        float radius = densityScalar * 5;
+    public long getLabelHits() {
+        return renderer.getLabelHits();
+    }
 
-        canvas.drawLine(startX, startY, stopX, stopY, linePaint);
-        canvas.drawCircle(stopX, stopY, radius, linePaint);
+    /**
+     * @return Label lookups that had to measure the text.
+     */
+    public long getLabelMisses() {
+        return renderer.getLabelMisses();
     }
 
     /**
-     * May be unnecessary. Consider testing removal, but not needed.
-     * @param nonPtrAddress The address of the nonPtr.
-     * @return The location of value within list array
+     * @return The latest frame published to the view.
      */
-    public int findNonPtrByAddress(String nonPtrAddress) {
-        int indexPlace = -1;
+    public FrameSnapshot getFrame() {
+        return published.get();
+    }
+
+    /**
+     * Schedules a single redraw no matter how many frames are published before the next
+     * one is drawn, and does nothing while the model is unchanged, so the view sits idle
+     * between edits. Safe to call from any thread.
+     */
+    public void markChanged() {
+        if (!dirty) {
+            dirty = true;
+            postInvalidate();
+        }
+    }
 
-        for(int i = 0; i < nonPtrList.size(); i++) {
-            if (nonPtrList.get(i).getAddress().equals(nonPtrAddress)) {
-                indexPlace = i;
+    /**
+     * Number of frames drawn since the view was created. Stays the same while
+     * nothing in the model changes.
+     * @return The frame count.
+     */
+    public long getFramesDrawn() {
+        return framesDrawn;
+    }
+
+    /**
+     * Find the nonPointer an address falls inside, e.g. an element in the middle of an
+     * array, in O(log n).
+     * @param nonPtrAddress Any address.
+     * @return The location of value within list array, or -1 if no nonPointer holds it.
+     */
+    public synchronized int findNonPtrByAddress(int nonPtrAddress) {
+        FrameSnapshot frame = published.get();
+        if (frame != addressFrame) {
+            addressIndex.reset(frame.getNonPointerCount());
+            for (int i = 0; i < frame.getNonPointerCount(); i++) {
+                FrameSnapshot.Node node = frame.getNonPointer(i);
+                addressIndex.add(i, node.getAddressValue(), node.getSize());
             }
+            addressIndex.build();
+            addressFrame = frame;
         }
+        return addressIndex.find(nonPtrAddress);
+    }
 
-        return indexPlace;
+    /**
+     * Same as above, for an address written out as a hex label like 0x1f.
+     * @param nonPtrAddress The address label of the nonPtr.
+     * @return The location of value within list array
+     */
+    public int findNonPtrByAddress(String nonPtrAddress) {
+        if (nonPtrAddress == null || !nonPtrAddress.startsWith("0x")) {
+            return -1;
+        }
+        try {
+            return findNonPtrByAddress(Integer.parseInt(nonPtrAddress.substring(2), 16));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 }
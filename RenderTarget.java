@@ -0,0 +1,59 @@
+package com.baker.goodpointersv2;
+
+/**
+ * Something the diagram can be drawn onto: the view's Canvas on a device, or an SVG or
+ * image on a plain JVM. DiagramRenderer does all the drawing through this, in logical
+ * coordinates, so every target shows exactly the same layout.
+ * Colours, text sizes and line widths are picked by style, so each target sets up its
+ * own paints once instead of being told them on every call.
+ */
+public interface RenderTarget {
+    // Styles
+    // Lower rect of a nonPointer, #3A5FCD
+    int VALUE = 0;
+    // Upper rect of a nonPointer and pointer circles, #DA4747
+    int ADDRESS = 1;
+    // White 13dp text, centred
+    int TEXT = 2;
+    // Black 13dp text, centred
+    int DARK_TEXT = 3;
+    // Black 2dp lines
+    int LINE = 4;
+    // Black 10dp dots, for arrow heads
+    int ARROW_HEAD = 5;
+    // Shapes whose value just changed, #F5A623
+    int HIGHLIGHT = 6;
+
+    void drawRoundRect(float left, float top, float right, float bottom, float radius, int style);
+
+    void drawCircle(float cx, float cy, float radius, int style);
+
+    void drawLine(float startX, float startY, float stopX, float stopY, int style);
+
+    /**
+     * Many lines in one call.
+     * @param pts startX, startY, stopX, stopY for each line.
+     * @param count How many floats of pts to use, 4 per line.
+     */
+    void drawLines(float[] pts, int count, int style);
+
+    /**
+     * Many dots in one call, each as wide as the style's stroke.
+     * @param pts x, y for each dot.
+     * @param count How many floats of pts to use, 2 per dot.
+     */
+    void drawPoints(float[] pts, int count, int style);
+
+    /**
+     * @param text The text, centred on x.
+     * @param x Centre of the text.
+     * @param y Baseline of the text.
+     * @param style TEXT or DARK_TEXT.
+     */
+    void drawText(String text, float x, float y, int style);
+
+    /**
+     * @return How wide text would be drawn in the given style.
+     */
+    float measureText(String text, int style);
+}
@@ -0,0 +1,160 @@
+package com.baker.goodpointersv2;
+
+/**
+ * A static index of horizontal spans used by PointerVisualizer to find which nodes and
+ * arrows overlap the visible part of the canvas.
+ * Spans are sorted by their left edge, and a segment tree over that order keeps the
+ * furthest right edge of every range, so a query only walks the branches that can still
+ * reach the viewport. Queries cost O(log n + k) for k results and allocate nothing.
+ * Storage is grown on build and reused afterwards.
+ */
+public class SpanIndex {
+    private int count;
+    private int[] ids = new int[0];
+    private float[] mins = new float[0];
+    private float[] maxs = new float[0];
+    // tree[node] = furthest right edge within that node's range of sorted spans
+    private float[] tree = new float[0];
+
+    /**
+     * Prepare storage for up to n spans and forget the previous contents.
+     * @param n The number of spans about to be added.
+     */
+    public void reset(int n) {
+        if (ids.length < n) {
+            ids = new int[n * 2];
+            mins = new float[n * 2];
+            maxs = new float[n * 2];
+            tree = new float[n * 8];
+        }
+        count = 0;
+    }
+
+    /**
+     * Add a span. Call build() once every span has been added.
+     * @param id The value to report when this span is found, e.g. a list slot.
+     * @param min Left edge of the span.
+     * @param max Right edge of the span.
+     */
+    public void add(int id, float min, float max) {
+        ids[count] = id;
+        mins[count] = min;
+        maxs[count] = max;
+        count++;
+    }
+
+    /**
+     * Sort the added spans and build the search tree over them.
+     */
+    public void build() {
+        if (!isSorted()) {
+            sort(0, count - 1);
+        }
+        if (count > 0) {
+            buildTree(1, 0, count - 1);
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Find every span that overlaps [left, right].
+     * @param left Left edge of the query range.
+     * @param right Right edge of the query range.
+     * @param out Receives the ids of the overlapping spans. Must hold at least size() entries.
+     * @return The number of ids written to out.
+     */
+    public int query(float left, float right, int[] out) {
+        // Only spans starting at or before the right edge can overlap.
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mins[mid] <= right) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo == 0) {
+            return 0;
+        }
+        return collect(1, 0, count - 1, lo - 1, left, out, 0);
+    }
+
+    private int collect(int node, int lo, int hi, int last, float left, int[] out, int found) {
+        if (lo > last || tree[node] < left) {
+            return found;
+        }
+        if (lo == hi) {
+            out[found] = ids[lo];
+            return found + 1;
+        }
+        int mid = (lo + hi) >>> 1;
+        found = collect(node * 2, lo, mid, last, left, out, found);
+        return collect(node * 2 + 1, mid + 1, hi, last, left, out, found);
+    }
+
+    private float buildTree(int node, int lo, int hi) {
+        if (lo == hi) {
+            tree[node] = maxs[lo];
+        } else {
+            int mid = (lo + hi) >>> 1;
+            tree[node] = Math.max(buildTree(node * 2, lo, mid), buildTree(node * 2 + 1, mid + 1, hi));
+        }
+        return tree[node];
+    }
+
+    private boolean isSorted() {
+        for (int i = 1; i < count; i++) {
+            if (mins[i - 1] > mins[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // In-place quicksort of the parallel arrays by left edge.
+    private void sort(int lo, int hi) {
+        while (lo < hi) {
+            float pivot = mins[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (mins[i] < pivot) {
+                    i++;
+                }
+                while (mins[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // Recurse into the smaller half to keep the stack shallow.
+            if (j - lo < hi - i) {
+                sort(lo, j);
+                lo = i;
+            } else {
+                sort(i, hi);
+                hi = j;
+            }
+        }
+    }
+
+    private void swap(int a, int b) {
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        float f = mins[a];
+        mins[a] = mins[b];
+        mins[b] = f;
+        f = maxs[a];
+        maxs[a] = maxs[b];
+        maxs[b] = f;
+    }
+}
@@ -0,0 +1,98 @@
+package com.baker.goodpointersv2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One function call on the simulated stack, pushed by VisController.pushFrame() and
+ * popped again by popFrame(), taking every local declared in it along.
+ * Apart from the list of its locals a frame never changes, so every recorded step can
+ * keep the frame that was on top at the time, and undo puts it back.
+ */
+public final class StackFrame {
+    private final String function;
+    private final StackFrame caller;
+    private final int depth;
+    // The stack pointer when the frame was pushed. Every local of the frame is below it.
+    private final int base;
+
+    // Locals declared in this frame. Deleted ones are left in, and skipped on pop, until
+    // the lists grow to sweepAt.
+    final List<Pointer> pointers = new ArrayList<Pointer>();
+    final List<NonPointer> nonPointers = new ArrayList<NonPointer>();
+    private int sweepAt = 16;
+
+    StackFrame(String function, StackFrame caller, int base) {
+        this.function = function;
+        this.caller = caller;
+        this.depth = caller == null ? 1 : caller.depth + 1;
+        this.base = base;
+    }
+
+    public String getFunction() {
+        return function;
+    }
+
+    /**
+     * @return The frame below this one, or null if this is the outermost call.
+     */
+    public StackFrame getCaller() {
+        return caller;
+    }
+
+    /**
+     * @return 1 for the outermost call, 2 for the one it made, and so on.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getBase() {
+        return base;
+    }
+
+    /**
+     * List a local as declared in this frame.
+     */
+    void add(Pointer p) {
+        if (pointers.size() + nonPointers.size() >= sweepAt) {
+            sweep();
+        }
+        pointers.add(p);
+    }
+
+    void add(NonPointer np) {
+        if (pointers.size() + nonPointers.size() >= sweepAt) {
+            sweep();
+        }
+        nonPointers.add(np);
+    }
+
+    // Drop locals that were deleted, have moved to another frame, or are listed twice.
+    // Undo and redo make a new object for every variable they bring back, so without this
+    // the lists would grow with every step gone through. The next sweep waits until the
+    // lists have doubled, so adding stays O(1) amortized.
+    private void sweep() {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        int kept = 0;
+        for (int i = 0; i < pointers.size(); i++) {
+            Pointer p = pointers.get(i);
+            if (p.getSlot() != -1 && p.getStackFrame() == this && seen.add(p)) {
+                pointers.set(kept++, p);
+            }
+        }
+        pointers.subList(kept, pointers.size()).clear();
+        kept = 0;
+        for (int i = 0; i < nonPointers.size(); i++) {
+            NonPointer np = nonPointers.get(i);
+            if (np.getSlot() != -1 && np.getStackFrame() == this && seen.add(np)) {
+                nonPointers.set(kept++, np);
+            }
+        }
+        nonPointers.subList(kept, nonPointers.size()).clear();
+        sweepAt = Math.max(16, 2 * (pointers.size() + nonPointers.size()));
+    }
+}
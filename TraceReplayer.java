@@ -0,0 +1,327 @@
+package com.baker.goodpointersv2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+
+/**
+ * Steps a VisController through a trace written by TraceWriter.
+ * The file is memory mapped, so events are decoded straight out of the page cache, and
+ * they are handed to the controller in batches of up to BATCH_SIZE, one undo step and one
+ * redraw per batch rather than per event.
+ * Seeking to a step restores the nearest keyframe at or before it and replays the events
+ * from there, so it never replays more than one keyframe interval, however long the trace.
+ * Traces must be under 2GB, the most one mapping can hold.
+ */
+public class TraceReplayer implements Closeable {
+    // Most events applied as one batch
+    public static final int BATCH_SIZE = 4096;
+
+    private final VisController controller;
+    private final RandomAccessFile file;
+    private final ByteBuffer data;
+    // A second view of data, for reading strings without moving data's position
+    private final ByteBuffer lookup;
+
+    private int[] keyframeSteps;
+    private int[] keyframeOffsets;
+    private int[] stringOffsets;
+    private String[] strings;
+    private int stepCount;
+    // Offset of the first record, and the end of the last
+    private int start;
+    private int end;
+
+    // The step the controller is showing, and the offset of the record after it
+    private int step;
+    private int position;
+
+    /**
+     * Map a trace file and start before its first step. The controller's model is replaced
+     * with an empty one.
+     * @param trace The trace file.
+     * @param controller The controller to replay into.
+     * @throws IOException If the file can't be read or isn't a trace.
+     */
+    public TraceReplayer(File trace, VisController controller) throws IOException {
+        this.controller = controller;
+        this.file = new RandomAccessFile(trace, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Trace is too large to map.");
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            lookup = data.duplicate();
+            readIndex();
+            restore(emptyModel());
+            position = start;
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * @return The number of steps in the trace. Step 0 is before the first event.
+     */
+    public int getStepCount() {
+        return stepCount;
+    }
+
+    /**
+     * Apply the next event as a single step.
+     * @return False at the end of the trace, or if the event can't be applied.
+     */
+    public boolean step() {
+        return advance(1) == 1;
+    }
+
+    /**
+     * Apply the next events, in batches of up to BATCH_SIZE.
+     * @param steps How many to apply.
+     * @return How many were applied. Less than asked at the end of the trace, or if a
+     *         batch was rejected, in which case the model stays at the step before it.
+     */
+    public int advance(int steps) {
+        int applied = 0;
+        while (applied < steps && step < stepCount) {
+            int chunk = Math.min(Math.min(steps - applied, stepCount - step), BATCH_SIZE);
+            int chunkStart = position;
+            VisBatch batch = controller.beginBatch();
+            try {
+                for (int n = 0; n < chunk; n++) {
+                    readEvent(batch);
+                }
+            } catch (IOException e) {
+                // Nothing of the chunk was applied, so the next read starts from it again
+                position = chunkStart;
+                controller.getDiagnostics().report(VisDiagnostics.BAD_TRACE, e.getMessage(), step);
+                break;
+            }
+            if (!batch.commit()) {
+                position = chunkStart;
+                controller.getDiagnostics().report(VisDiagnostics.BAD_TRACE,
+                        "an event can't be applied", step);
+                break;
+            }
+            step += chunk;
+            applied += chunk;
+        }
+        return applied;
+    }
+
+    /**
+     * Show the model as it was after a given step: restore the last keyframe at or before
+     * it, unless that's behind the current step, then replay the events from there.
+     * @param target The step, 0 being before the first event.
+     * @return False if there is no such step or the trace is corrupt there.
+     */
+    public boolean seek(int target) {
+        if (target < 0 || target > stepCount) {
+            controller.getDiagnostics().report(VisDiagnostics.NO_STEP, null, target);
+            return false;
+        }
+        int k = keyframeBefore(target);
+        int keyStep = k == -1 ? 0 : keyframeSteps[k];
+        if (target < step || step < keyStep) {
+            try {
+                if (k == -1) {
+                    restore(emptyModel());
+                    position = start;
+                } else {
+                    data.position(keyframeOffsets[k] + 1);
+                    int length = MemorySnapshot.varint(data);
+                    ByteBuffer snapshot = data.slice();
+                    snapshot.limit(length);
+                    restore(snapshot);
+                    position = data.position() + length;
+                }
+                step = keyStep;
+            } catch (IOException e) {
+                controller.getDiagnostics().report(VisDiagnostics.BAD_TRACE, e.getMessage(), keyStep);
+                return false;
+            }
+        }
+        int remaining = target - step;
+        return advance(remaining) == remaining;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private void restore(ByteBuffer snapshot) throws IOException {
+        try {
+            controller.restore(snapshot);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Keyframe is truncated.");
+        }
+    }
+
+    // Index of the last keyframe at or before step, or -1 if there is none
+    private int keyframeBefore(int target) {
+        int lo = 0;
+        int hi = keyframeSteps.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keyframeSteps[mid] <= target) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+
+    private void readIndex() throws IOException {
+        try {
+            if (data.getInt(0) != TraceWriter.MAGIC) {
+                throw new IOException("Not a trace.");
+            }
+            if (data.get(4) < 1 || data.get(4) > TraceWriter.VERSION) {
+                throw new IOException("Unsupported trace version " + data.get(4) + ".");
+            }
+            start = 5;
+            if (data.getInt(data.limit() - 4) != TraceWriter.INDEX_MAGIC) {
+                throw new IOException("Trace has no index, it may not have been finished.");
+            }
+            end = checkedOffset(data.getLong(data.limit() - 12));
+            data.position(end);
+            int keyframes = count(data.getInt(), 12);
+            keyframeSteps = new int[keyframes];
+            keyframeOffsets = new int[keyframes];
+            for (int k = 0; k < keyframes; k++) {
+                keyframeSteps[k] = data.getInt();
+                keyframeOffsets[k] = checkedOffset(data.getLong());
+            }
+            int stringCount = count(data.getInt(), 8);
+            stringOffsets = new int[stringCount];
+            strings = new String[stringCount];
+            for (int s = 0; s < stringCount; s++) {
+                stringOffsets[s] = checkedOffset(data.getLong());
+            }
+            stepCount = data.getInt();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Trace index is truncated.");
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Trace is truncated.");
+        }
+    }
+
+    private int count(int count, int bytesEach) throws IOException {
+        if (count < 0 || (long) count * bytesEach > data.remaining()) {
+            throw new IOException("Bad count in trace index.");
+        }
+        return count;
+    }
+
+    private int checkedOffset(long offset) throws IOException {
+        if (offset < start || offset >= data.limit()) {
+            throw new IOException("Bad offset in trace index.");
+        }
+        return (int) offset;
+    }
+
+    // Decode the next event into the batch, skipping strings and keyframes on the way
+    private void readEvent(VisBatch batch) throws IOException {
+        try {
+            data.position(position);
+            while (true) {
+                if (data.position() >= end) {
+                    throw new IOException("Trace ends early.");
+                }
+                int kind = data.get();
+                if (kind == TraceWriter.STRING || kind == TraceWriter.KEYFRAME) {
+                    int length = MemorySnapshot.varint(data);
+                    data.position(data.position() + length);
+                    continue;
+                }
+                switch (kind) {
+                    case TraceWriter.ADD_POINTER:
+                        batch.addPointer(new Pointer(string()));
+                        break;
+                    case TraceWriter.ADD_NON_POINTER:
+                        NonPointer np = new NonPointer(string(), string(), string());
+                        int flags = data.get();
+                        np.setOnHeap((flags & TraceWriter.ON_HEAP) != 0);
+                        if ((flags & TraceWriter.ARRAY) != 0) {
+                            np.setLength(MemorySnapshot.varint(data));
+                        }
+                        batch.addNonPointer(np);
+                        break;
+                    case TraceWriter.CHANGE_ELEMENT:
+                        String array = string();
+                        int index = MemorySnapshot.varint(data);
+                        batch.changeElement(array, index, string());
+                        break;
+                    case TraceWriter.MOVE_POINTER:
+                        String pointer = string();
+                        int zigzag = MemorySnapshot.varint(data);
+                        batch.movePointer(pointer, (zigzag >>> 1) ^ -(zigzag & 1));
+                        break;
+                    case TraceWriter.CHANGE_VALUE:
+                        batch.changeNonPtrVal(string(), string());
+                        break;
+                    case TraceWriter.POINT_TO:
+                        batch.pointTo(string(), string());
+                        break;
+                    case TraceWriter.POINT_TO_POINTER:
+                        batch.pointToPointer(string(), string());
+                        break;
+                    case TraceWriter.DELETE_POINTER:
+                        batch.deletePointer(string());
+                        break;
+                    case TraceWriter.DELETE_NON_POINTER:
+                        batch.deleteNonPointer(string());
+                        break;
+                    case TraceWriter.PUSH_FRAME:
+                        batch.pushFrame(string());
+                        break;
+                    case TraceWriter.POP_FRAME:
+                        batch.popFrame();
+                        break;
+                    default:
+                        throw new IOException("Unknown event " + kind + ".");
+                }
+                position = data.position();
+                return;
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Event is truncated.");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Record runs past the end.");
+        }
+    }
+
+    // Read a string id and look it up, decoding the string the first time it's used
+    private String string() throws IOException {
+        int id = MemorySnapshot.varint(data);
+        if (id < 0 || id >= strings.length) {
+            throw new IOException("Unknown string " + id + ".");
+        }
+        if (strings[id] == null) {
+            lookup.position(stringOffsets[id] + 1);
+            strings[id] = MemorySnapshot.string(lookup);
+        }
+        return strings[id];
+    }
+
+    private static ByteBuffer emptyModel() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MemorySnapshot.write(Collections.<Pointer>emptyList(), Collections.<NonPointer>emptyList(),
+                new AddressSpace(), out);
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+}
@@ -0,0 +1,280 @@
+package com.baker.goodpointersv2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records a run of a program as a trace, to be stepped through later by TraceReplayer.
+ * Every change is one event and one step of the trace. The events are also played into a
+ * model of their own, and every keyframeInterval steps the whole model is written out as
+ * a keyframe, so a replay can start from the one nearest the step it wants.
+ *
+ * Layout, numbers as in MemorySnapshot plus 8 byte longs:
+ *      int     magic "GPVT"
+ *      byte    format version
+ *      then records, each a kind byte followed by
+ *          STRING      varint length and UTF-8. Defines the next string id.
+ *          KEYFRAME    varint length and a MemorySnapshot of the model after the steps
+ *                      so far.
+ *          an event    its arguments as varint string ids, see the methods below.
+ *                      Numbers that aren't strings are varints too, zigzag encoded where
+ *                      they can be negative.
+ *      then the index
+ *          int     keyframe count, then per keyframe: int step, long record offset
+ *          int     string count, then per string: long record offset
+ *          int     step count
+ *      long    offset of the index
+ *      int     magic "GPVI"
+ * Each string is written once, just before the first event using it, so events stay a
+ * few bytes long and the trace can be written as a stream. The index at the end lets a
+ * replay find any keyframe and any string without reading what comes before it.
+ */
+public class TraceWriter {
+    static final int MAGIC = 0x47505654;
+    static final int INDEX_MAGIC = 0x47505649;
+    static final int VERSION = 2;
+
+    // Record kinds
+    static final int STRING = 0;
+    static final int KEYFRAME = 1;
+    static final int ADD_POINTER = 2;
+    static final int ADD_NON_POINTER = 3;
+    static final int CHANGE_VALUE = 4;
+    static final int POINT_TO = 5;
+    static final int POINT_TO_POINTER = 6;
+    static final int DELETE_POINTER = 7;
+    static final int DELETE_NON_POINTER = 8;
+    static final int PUSH_FRAME = 9;
+    static final int POP_FRAME = 10;
+    static final int CHANGE_ELEMENT = 11;
+    static final int MOVE_POINTER = 12;
+
+    // ADD_NON_POINTER flags. An ARRAY is followed by its length.
+    static final int ON_HEAP = 1;
+    static final int ARRAY = 2;
+
+    private final MemorySnapshot.Writer w;
+    private final int keyframeInterval;
+    // The model the keyframes are taken from. Events are queued and applied in one batch
+    // per keyframe, so recording doesn't keep an undo step for every event.
+    private final VisController model = new VisController();
+    private VisBatch pending;
+    private final ByteArrayOutputStream keyframe = new ByteArrayOutputStream();
+
+    private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+    private long[] stringOffsets = new long[64];
+    private int[] keyframeSteps = new int[16];
+    private long[] keyframeOffsets = new long[16];
+    private int keyframeCount;
+    private int steps;
+
+    /**
+     * @param out Where to write the trace. Output is buffered here, and out is not closed.
+     * @param keyframeInterval Steps between keyframes. A seek replays at most this many.
+     * @throws IOException If out fails.
+     */
+    public TraceWriter(OutputStream out, int keyframeInterval) throws IOException {
+        this.w = new MemorySnapshot.Writer(out);
+        this.keyframeInterval = keyframeInterval;
+        pending = model.beginBatch();
+        w.int32(MAGIC);
+        w.int8(VERSION);
+    }
+
+    public void addPointer(String name) throws IOException {
+        event(ADD_POINTER, name);
+        pending.addPointer(new Pointer(name));
+        stepDone();
+    }
+
+    /**
+     * @param name The variable's name.
+     * @param value Its value.
+     * @param type Its C++ type, e.g. "int".
+     * @param onHeap True if it was made with new.
+     */
+    public void addNonPointer(String name, String value, String type, boolean onHeap) throws IOException {
+        int nameId = intern(name);
+        int valueId = intern(value);
+        int typeId = intern(type);
+        w.int8(ADD_NON_POINTER);
+        w.varint(nameId);
+        w.varint(valueId);
+        w.varint(typeId);
+        w.int8(onHeap ? ON_HEAP : 0);
+        NonPointer np = new NonPointer(name, value, type);
+        np.setOnHeap(onHeap);
+        pending.addNonPointer(np);
+        stepDone();
+    }
+
+    /**
+     * @param name The array's name.
+     * @param value The value every element starts out with.
+     * @param type The C++ type of each element.
+     * @param length The number of elements.
+     * @param onHeap True if it was made with new.
+     */
+    public void addArray(String name, String value, String type, int length, boolean onHeap)
+            throws IOException {
+        int nameId = intern(name);
+        int valueId = intern(value);
+        int typeId = intern(type);
+        w.int8(ADD_NON_POINTER);
+        w.varint(nameId);
+        w.varint(valueId);
+        w.varint(typeId);
+        w.int8((onHeap ? ON_HEAP : 0) | ARRAY);
+        w.varint(length);
+        NonPointer np = new NonPointer(name, value, type, length);
+        np.setOnHeap(onHeap);
+        pending.addNonPointer(np);
+        stepDone();
+    }
+
+    public void changeElement(String arrayName, int index, String newValue) throws IOException {
+        int nameId = intern(arrayName);
+        int valueId = intern(newValue);
+        w.int8(CHANGE_ELEMENT);
+        w.varint(nameId);
+        w.varint(index);
+        w.varint(valueId);
+        pending.changeElement(arrayName, index, newValue);
+        stepDone();
+    }
+
+    public void movePointer(String pointerName, int delta) throws IOException {
+        event(MOVE_POINTER, pointerName);
+        w.varint((delta << 1) ^ (delta >> 31));
+        pending.movePointer(pointerName, delta);
+        stepDone();
+    }
+
+    public void changeNonPtrVal(String nonPtrName, String newValue) throws IOException {
+        event(CHANGE_VALUE, nonPtrName, newValue);
+        pending.changeNonPtrVal(nonPtrName, newValue);
+        stepDone();
+    }
+
+    public void pointTo(String pointerName, String nonPointerName) throws IOException {
+        event(POINT_TO, pointerName, nonPointerName);
+        pending.pointTo(pointerName, nonPointerName);
+        stepDone();
+    }
+
+    public void pointToPointer(String pointerName, String targetName) throws IOException {
+        event(POINT_TO_POINTER, pointerName, targetName);
+        pending.pointToPointer(pointerName, targetName);
+        stepDone();
+    }
+
+    public void deletePointer(String name) throws IOException {
+        event(DELETE_POINTER, name);
+        pending.deletePointer(name);
+        stepDone();
+    }
+
+    public void deleteNonPointer(String name) throws IOException {
+        event(DELETE_NON_POINTER, name);
+        pending.deleteNonPointer(name);
+        stepDone();
+    }
+
+    public void pushFrame(String function) throws IOException {
+        event(PUSH_FRAME, function);
+        pending.pushFrame(function);
+        stepDone();
+    }
+
+    public void popFrame() throws IOException {
+        w.int8(POP_FRAME);
+        pending.popFrame();
+        stepDone();
+    }
+
+    public int getStepCount() {
+        return steps;
+    }
+
+    /**
+     * Write the index and flush everything to the stream. Nothing can be added after.
+     * @throws IOException If out fails, or an event since the last keyframe was invalid.
+     */
+    public void finish() throws IOException {
+        applyPending();
+        long indexOffset = w.position();
+        w.int32(keyframeCount);
+        for (int k = 0; k < keyframeCount; k++) {
+            w.int32(keyframeSteps[k]);
+            w.int64(keyframeOffsets[k]);
+        }
+        w.int32(stringIds.size());
+        for (int s = 0; s < stringIds.size(); s++) {
+            w.int64(stringOffsets[s]);
+        }
+        w.int32(steps);
+        w.int64(indexOffset);
+        w.int32(INDEX_MAGIC);
+        w.flush();
+    }
+
+    private void event(int kind, String name) throws IOException {
+        int nameId = intern(name);
+        w.int8(kind);
+        w.varint(nameId);
+    }
+
+    private void event(int kind, String name, String value) throws IOException {
+        int nameId = intern(name);
+        int valueId = intern(value);
+        w.int8(kind);
+        w.varint(nameId);
+        w.varint(valueId);
+    }
+
+    // The id of a string, writing it out first if it's new
+    private int intern(String s) throws IOException {
+        Integer id = stringIds.get(s);
+        if (id != null) {
+            return id;
+        }
+        int next = stringIds.size();
+        if (next == stringOffsets.length) {
+            stringOffsets = Arrays.copyOf(stringOffsets, next * 2);
+        }
+        stringOffsets[next] = w.position();
+        w.int8(STRING);
+        w.string(s);
+        stringIds.put(s, next);
+        return next;
+    }
+
+    private void stepDone() throws IOException {
+        steps++;
+        if (steps % keyframeInterval == 0) {
+            applyPending();
+            keyframe.reset();
+            model.save(keyframe);
+            if (keyframeCount == keyframeSteps.length) {
+                keyframeSteps = Arrays.copyOf(keyframeSteps, keyframeCount * 2);
+                keyframeOffsets = Arrays.copyOf(keyframeOffsets, keyframeCount * 2);
+            }
+            keyframeSteps[keyframeCount] = steps;
+            keyframeOffsets[keyframeCount] = w.position();
+            keyframeCount++;
+            w.int8(KEYFRAME);
+            w.varint(keyframe.size());
+            w.raw(keyframe.toByteArray(), keyframe.size());
+        }
+    }
+
+    private void applyPending() throws IOException {
+        if (pending.size() > 0 && !pending.commit()) {
+            throw new IOException("Trace has an invalid event before step " + steps + ".");
+        }
+    }
+}
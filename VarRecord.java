@@ -0,0 +1,151 @@
+package com.baker.goodpointersv2;
+
+/**
+ * An immutable copy of the state of one variable, as kept in each version of the
+ * memory model by MemoryHistory.
+ * Pointers refer to their target by name, so a record stays valid no matter which
+ * NonPointer or Pointer object is holding that name at the time it is restored.
+ * Each element of an array given a value of its own has a record too, so writing one
+ * element of a huge array only adds a single record to the next version.
+ */
+public final class VarRecord {
+    final boolean pointer;
+    final String name;
+    // Position in its list. Deletes move the last variable into the freed slot, so undo
+    // needs this to put both back where they were. -1 for an element.
+    final int slot;
+    // The variable's order key, which undo gives back to it so the diagram keeps its column
+    final int order;
+    final int address;
+    // nonPointers, and the stale value a dangling pointer was left with
+    final String value;
+    final String type;
+    // Elements of an array, 0 for a plain variable
+    final int length;
+    // For the record of one array element, its index, otherwise -1
+    final int element;
+    final boolean onHeap;
+    // The call a local belongs to, null for globals
+    final StackFrame stackFrame;
+    // Pointers
+    final boolean pointing;
+    final boolean dangling;
+    final String target;
+    final boolean targetIsPointer;
+    final int heldAddress;
+
+    private VarRecord(boolean pointer, String name, int slot, int order, int address, String value,
+                      String type, int length, int element, boolean onHeap, StackFrame stackFrame,
+                      boolean pointing, boolean dangling, String target, boolean targetIsPointer,
+                      int heldAddress) {
+        this.pointer = pointer;
+        this.name = name;
+        this.slot = slot;
+        this.order = order;
+        this.address = address;
+        this.value = value;
+        this.type = type;
+        this.length = length;
+        this.element = element;
+        this.onHeap = onHeap;
+        this.stackFrame = stackFrame;
+        this.pointing = pointing;
+        this.dangling = dangling;
+        this.target = target;
+        this.targetIsPointer = targetIsPointer;
+        this.heldAddress = heldAddress;
+    }
+
+    public static VarRecord of(NonPointer np) {
+        return new VarRecord(false, np.getName(), np.getSlot(), np.getOrder(), np.getAddressValue(),
+                np.getValue(), np.getType(), np.getLength(), -1, np.isOnHeap(), np.getStackFrame(),
+                false, false, null, false, Pointer.NO_ADDRESS);
+    }
+
+    /**
+     * The record of one element of an array.
+     * @param np The array.
+     * @param index The element.
+     */
+    public static VarRecord ofElement(NonPointer np, int index) {
+        return new VarRecord(false, np.getName(), -1, -1, 0, np.getElement(index), null, 0, index,
+                false, null, false, false, null, false, Pointer.NO_ADDRESS);
+    }
+
+    public static VarRecord of(Pointer p) {
+        String target = null;
+        boolean targetIsPointer = false;
+        // A dangling pointer's target is gone, only the stale address matters
+        if (!p.isDangling() && p.getTarget() != null) {
+            target = p.getTarget().getName();
+        } else if (!p.isDangling() && p.getPointerTarget() != null) {
+            target = p.getPointerTarget().getName();
+            targetIsPointer = true;
+        }
+        String stale = p.isDangling() ? p.getDerefValue() : null;
+        return new VarRecord(true, p.getName(), p.getSlot(), p.getOrder(), p.getAddressValue(), stale,
+                null, 0, -1, false, p.getStackFrame(), p.isPointing(), p.isDangling(), target,
+                targetIsPointer, p.getpAddressValue());
+    }
+
+    /**
+     * The key a variable is stored under. Pointers and nonPointers have separate names,
+     * so the kind is part of the key.
+     */
+    public static String keyOf(boolean pointer, String name) {
+        return (pointer ? "p:" : "n:") + name;
+    }
+
+    /**
+     * The key an element of an array is stored under.
+     */
+    public static String elementKey(String name, int index) {
+        return "e:" + name + "[" + index + "]";
+    }
+
+    public String key() {
+        return element >= 0 ? elementKey(name, element) : keyOf(pointer, name);
+    }
+
+    public boolean isElement() {
+        return element >= 0;
+    }
+
+    /**
+     * @return sizeof the variable this is a record of.
+     */
+    public int size() {
+        if (pointer) {
+            return AddressSpace.POINTER_SIZE;
+        }
+        return (int) Math.min((long) AddressSpace.sizeOf(type) * Math.max(length, 1), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof VarRecord)) {
+            return false;
+        }
+        VarRecord r = (VarRecord) o;
+        return pointer == r.pointer && slot == r.slot && order == r.order && address == r.address
+                && pointing == r.pointing && dangling == r.dangling
+                && targetIsPointer == r.targetIsPointer && heldAddress == r.heldAddress && onHeap == r.onHeap
+                && length == r.length && element == r.element
+                && stackFrame == r.stackFrame && name.equals(r.name)
+                && (value == null ? r.value == null : value.equals(r.value))
+                && (type == null ? r.type == null : type.equals(r.type))
+                && (target == null ? r.target == null : target.equals(r.target));
+    }
+
+    @Override
+    public int hashCode() {
+        int h = name.hashCode() * 31 + address;
+        h = h * 31 + element;
+        h = h * 31 + (value == null ? 0 : value.hashCode());
+        h = h * 31 + (target == null ? 0 : target.hashCode());
+        return h * 31 + heldAddress;
+    }
+}
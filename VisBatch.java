@@ -0,0 +1,132 @@
+package com.baker.goodpointersv2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A group of VisController changes that are applied together, e.g. one step of a program.
+ * Get one from VisController.beginBatch(), queue the changes with the same methods the
+ * controller has, and then call commit(). The whole batch is checked before anything is
+ * changed, so the view never shows half of a step, and it is redrawn only once.
+ */
+public class VisBatch {
+    static final int ADD_POINTER = 0;
+    static final int ADD_NON_POINTER = 1;
+    static final int CHANGE_VALUE = 2;
+    static final int POINT_TO = 3;
+    static final int DELETE_POINTER = 4;
+    static final int DELETE_NON_POINTER = 5;
+    static final int POINT_TO_POINTER = 6;
+    static final int PUSH_FRAME = 7;
+    static final int POP_FRAME = 8;
+    static final int CHANGE_ELEMENT = 9;
+    static final int MOVE_POINTER = 10;
+
+    private VisController controller;
+    private List<Op> ops = new ArrayList<Op>();
+
+    VisBatch(VisController controller) {
+        this.controller = controller;
+    }
+
+    public VisBatch addPointer(Pointer newPtr) {
+        Op op = new Op(ADD_POINTER, newPtr.getName(), null);
+        op.ptr = newPtr;
+        ops.add(op);
+        return this;
+    }
+
+    public VisBatch addNonPointer(NonPointer newNonPtr) {
+        Op op = new Op(ADD_NON_POINTER, newNonPtr.getName(), null);
+        op.nonPtr = newNonPtr;
+        ops.add(op);
+        return this;
+    }
+
+    public VisBatch changeNonPtrVal(String nonPtrName, String newValue) {
+        ops.add(new Op(CHANGE_VALUE, nonPtrName, newValue));
+        return this;
+    }
+
+    public VisBatch changeElement(String arrayName, int index, String newValue) {
+        Op op = new Op(CHANGE_ELEMENT, arrayName, newValue);
+        op.index = index;
+        ops.add(op);
+        return this;
+    }
+
+    public VisBatch movePointer(String pointerName, int delta) {
+        Op op = new Op(MOVE_POINTER, pointerName, null);
+        op.index = delta;
+        ops.add(op);
+        return this;
+    }
+
+    public VisBatch pointTo(String pointerName, String nonPointerName) {
+        ops.add(new Op(POINT_TO, pointerName, nonPointerName));
+        return this;
+    }
+
+    public VisBatch pointToPointer(String pointerName, String targetName) {
+        ops.add(new Op(POINT_TO_POINTER, pointerName, targetName));
+        return this;
+    }
+
+    public VisBatch deletePointer(String toDeleteName) {
+        ops.add(new Op(DELETE_POINTER, toDeleteName, null));
+        return this;
+    }
+
+    public VisBatch deleteNonPointer(String toDeleteName) {
+        ops.add(new Op(DELETE_NON_POINTER, toDeleteName, null));
+        return this;
+    }
+
+    public VisBatch pushFrame(String function) {
+        ops.add(new Op(PUSH_FRAME, function, null));
+        return this;
+    }
+
+    public VisBatch popFrame() {
+        ops.add(new Op(POP_FRAME, null, null));
+        return this;
+    }
+
+    public int size() {
+        return ops.size();
+    }
+
+    /**
+     * Apply every queued change, or none of them if any would fail.
+     * The batch is emptied either way.
+     * @return True if the changes were applied.
+     */
+    public boolean commit() {
+        boolean applied = controller.applyBatch(ops);
+        ops = new ArrayList<Op>();
+        return applied;
+    }
+
+    /**
+     * A single queued change. The controller fills in the variables it refers to
+     * while checking the batch, so they don't have to be looked up again to apply it.
+     */
+    static class Op {
+        final int kind;
+        // The variable the change is made to
+        final String name;
+        // New value, or the target's name for POINT_TO and POINT_TO_POINTER
+        final String value;
+        // The element for CHANGE_ELEMENT, how many elements to move by for MOVE_POINTER
+        int index;
+        Pointer ptr;
+        Pointer ptrTarget;
+        NonPointer nonPtr;
+
+        Op(int kind, String name, String value) {
+            this.kind = kind;
+            this.name = name;
+            this.value = value;
+        }
+    }
+}
@@ -1,16 +1,28 @@
 package com.baker.goodpointersv2;
 
-import android.util.Log;
-
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author Alexander Baker baker.alex.j@gmail.com
  * Started 26 November 2018
  * This class will act as the "control" (like in the MVC pattern)
  * of the custom view, PointerVisualizer (which is the view).
- * It will mainly manipulate the two ListArrays within PointerVisualizer,
+ * It will mainly manipulate its two ListArrays of variables,
  * by adding, removing, and changing their data.
+ * After every change it publishes an immutable FrameSnapshot to PointerVisualizer, so the
+ * controller can be driven from a background thread without the view ever reading the
+ * lists while they change. Calls must still come from one thread at a time.
+ * Operations that can fail return a VisDiagnostics code, OK on success, and report the
+ * same code to getDiagnostics().
  *
  * pointer type variables - [color] Circle
  * non-pointer type variables - Stacked rectangles
@@ -27,7 +39,44 @@ import java.util.List;
  */
 public class VisController {
     private com.baker.goodpointersv2.PointerVisualizer pointerVisualizer;
-    private Integer fauxAddressPlace = 0;
+    // Shared with the view, times every public operation while enabled
+    private VisMetrics metrics;
+    // Every failed operation, and anyone listening for them
+    private final VisDiagnostics diagnostics = new VisDiagnostics();
+    // Where every variable's address comes from, and goes back to when it's deleted
+    private AddressSpace space = new AddressSpace();
+
+    // The model. Only the controller's thread touches these, the view draws from frames.
+    private List<Pointer> ptrList = new ArrayList<Pointer>();
+    private List<NonPointer> nonPtrList = new ArrayList<NonPointer>();
+    // The last frame handed to the view. Each step only replaces the nodes it changed.
+    // Volatile so other threads reading it through getFrame() see each one as it's made.
+    private volatile FrameSnapshot frame = FrameSnapshot.EMPTY;
+    // The order key the next new variable gets. Slots change as others are deleted, keys
+    // don't, so the diagram can follow a variable from one frame to the next by its key.
+    private int nextOrder;
+
+    // Name -> list index for both lists, kept in sync with every add and delete
+    // so lookups don't have to walk the lists.
+    private Map<String, Integer> ptrIndex = new HashMap<String, Integer>();
+    private Map<String, Integer> nonPtrIndex = new HashMap<String, Integer>();
+    // Address range -> nonPointer slot, rebuilt on the next lookup after any nonPointer
+    // was added, removed or moved
+    private AddressIndex addressIndex = new AddressIndex();
+    private boolean addressesMoved;
+
+    // Every version of the lists, for undo and redo. Variables changed since the last
+    // recorded step are collected here and copied into the next version when it's done.
+    private MemoryHistory history = new MemoryHistory();
+    private List<Pointer> touchedPtrs = new ArrayList<Pointer>();
+    private List<NonPointer> touchedNonPtrs = new ArrayList<NonPointer>();
+    // Array elements written since the last recorded step, as parallel lists, and the
+    // keys of elements whose array has since been deleted
+    private List<NonPointer> touchedArrays = new ArrayList<NonPointer>();
+    private List<Integer> touchedElements = new ArrayList<Integer>();
+    private List<String> staleElements = new ArrayList<String>();
+    // Set when a call was pushed or popped since the last recorded step
+    private boolean frameMoved;
 
     /**
      * Constructor
@@ -35,6 +84,15 @@ public class VisController {
      */
     public VisController(com.baker.goodpointersv2.PointerVisualizer pointerVisualizer) {
         this.pointerVisualizer = pointerVisualizer;
+        this.metrics = pointerVisualizer.getMetrics();
+    }
+
+    /**
+     * Constructor for a model with no view, e.g. one run on a plain JVM.
+     * Frames are still built and can be read with getFrame().
+     */
+    public VisController() {
+        this.metrics = new VisMetrics();
     }
 
     /**
@@ -45,56 +103,177 @@ public class VisController {
     public void update() {
     }
 
+    /**
+     * @return Where failed operations are reported.
+     */
+    public VisDiagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
     /**
      * Add a new pointer to the array.
      * @param newPtr
+     * @return OK, DUPLICATE_NAME, or OUT_OF_MEMORY if it wasn't added.
      */
-    public void addPointer(Pointer newPtr) {
+    public int addPointer(Pointer newPtr) {
+        long start = metrics.start();
+        int result = VisDiagnostics.OK;
         // Error checking, make sure name is unique, not a copy.
         if (findPointerByName(newPtr.getName()) == -1) {
-            pointerVisualizer.ptrList.add(newPtr);
+            if (insertPointer(newPtr)) {
+                stepDone();
+            } else {
+                result = VisDiagnostics.OUT_OF_MEMORY;
+            }
         } else {
-            // TODO: Implement toast for this error message.
-            Log.e("VISUAL CONTROLLER: ", "Cannot add two ptr variables of the same name!");
+            result = diagnostics.report(VisDiagnostics.DUPLICATE_NAME, newPtr.getName(), 0);
         }
+        metrics.opDone(VisMetrics.ADD_POINTER, start);
+        return result;
     }
 
     /**
      * Add a new nonPointer to the array.
      * @param newNonPtr
+     * @return OK, DUPLICATE_NAME, or OUT_OF_MEMORY if it wasn't added.
      */
-    public void addNonPointer(NonPointer newNonPtr) {
+    public int addNonPointer(NonPointer newNonPtr) {
+        long start = metrics.start();
+        int result = VisDiagnostics.OK;
         if (findNonPointerByName(newNonPtr.getName()) == -1) {
-            newNonPtr.addressAppend(fauxAddressPlace);
-            pointerVisualizer.nonPtrList.add(newNonPtr);
-            fauxAddressPlace++;
+            if (insertNonPointer(newNonPtr)) {
+                stepDone();
+            } else {
+                result = VisDiagnostics.OUT_OF_MEMORY;
+            }
         } else {
-            Log.e("VISUAL CONTROLLER: ", "Cannot add two variables of the same name!");
+            result = diagnostics.report(VisDiagnostics.DUPLICATE_NAME, newNonPtr.getName(), 0);
         }
+        metrics.opDone(VisMetrics.ADD_NON_POINTER, start);
+        return result;
     }
 
     /**
      * Assign a new value to the specified nonPointer.
      * @param nonPtrName
      * @param newValue
+     * @return OK, NO_NON_POINTER or WHOLE_ARRAY.
      */
-    public void changeNonPtrVal(String nonPtrName, String newValue) {
+    public int changeNonPtrVal(String nonPtrName, String newValue) {
+        long start = metrics.start();
+        int result = VisDiagnostics.OK;
         int index = findNonPointerByName(nonPtrName);
-        if (index != -1 && newValue != null) {
-            pointerVisualizer.nonPtrList.get(index).setValue(newValue);
+        if (index != -1 && newValue != null && !nonPtrList.get(index).isArray()) {
+            changeValue(nonPtrList.get(index), newValue);
+            stepDone();
+        } else if (index != -1 && newValue != null) {
+            result = diagnostics.report(VisDiagnostics.WHOLE_ARRAY, nonPtrName, 0);
         } else {
-            Log.e("VISUAL CONTROLLER: ","Cannot change a non existant variable!");
+            result = diagnostics.report(VisDiagnostics.NO_NON_POINTER, nonPtrName, 0);
         }
+        metrics.opDone(VisMetrics.CHANGE_VALUE, start);
+        return result;
     }
 
-    public void changePtrVal(String ptrName, String nonPtrName) {
-        int pIndex = findPointerByName(ptrName);
-        int index = findNonPointerByName(nonPtrName);
-        if (pIndex != -1 && index != -1) {
-            pointTo(ptrName, nonPtrName);
+    /**
+     * Assign a new value to one element of an array.
+     * e.g. in C++
+     *      a[3] = 7;
+     * @param arrayName The name of the array.
+     * @param index The element.
+     * @param newValue Its new value.
+     * @return OK, NO_NON_POINTER or NO_ELEMENT.
+     */
+    public int changeElement(String arrayName, int index, String newValue) {
+        long start = metrics.start();
+        int result = VisDiagnostics.OK;
+        int i = findNonPointerByName(arrayName);
+        if (i != -1 && newValue != null && index >= 0 && index < nonPtrList.get(i).getLength()) {
+            changeElement(nonPtrList.get(i), index, newValue);
+            stepDone();
+        } else if (i != -1) {
+            result = diagnostics.report(VisDiagnostics.NO_ELEMENT, arrayName, index);
         } else {
-            Log. e("VISUAL CONTROLLER:", "Cannot change a non existent variable!");
+            result = diagnostics.report(VisDiagnostics.NO_NON_POINTER, arrayName, 0);
+        }
+        metrics.opDone(VisMetrics.CHANGE_ELEMENT, start);
+        return result;
+    }
+
+    /**
+     * Pointer arithmetic, moving a pointer a number of elements along what it points at.
+     * As in C++ it can go anywhere from the first element to one past the last, with a
+     * plain variable counting as an array of one, but not beyond.
+     * e.g. in C++
+     *      p += 3;
+     * @param pointerName The name of the pointer.
+     * @param delta How many elements to move by, negative to move back.
+     * @return OK, NO_POINTER or OUT_OF_BOUNDS.
+     */
+    public int movePointer(String pointerName, int delta) {
+        long start = metrics.start();
+        int result = VisDiagnostics.OK;
+        int i = findPointerByName(pointerName);
+        Pointer p = i == -1 ? null : ptrList.get(i);
+        if (p != null && canMove(aimedAt(p), p.getElement(), delta)) {
+            move(p, p.getElement() + delta);
+            stepDone();
+        } else if (p != null) {
+            result = diagnostics.report(VisDiagnostics.OUT_OF_BOUNDS, pointerName, delta);
+        } else {
+            result = diagnostics.report(VisDiagnostics.NO_POINTER, pointerName, 0);
+        }
+        metrics.opDone(VisMetrics.MOVE_POINTER, start);
+        return result;
+    }
+
+    /**
+     * Aim a pointer at whatever variable holds an address, at the element the address
+     * falls on, e.g. a raw address recorded from a running program.
+     * @param pointerName The name of the pointer.
+     * @param address The address, which must be on an element boundary.
+     * @return OK, NO_POINTER or NO_ADDRESS.
+     */
+    public int pointToAddress(String pointerName, int address) {
+        long start = metrics.start();
+        int result = VisDiagnostics.OK;
+        int i = findPointerByName(pointerName);
+        int slot = findNonPointerByAddress(address);
+        int element = slot == -1 ? -1 : nonPtrList.get(slot).elementAt(address);
+        if (i != -1 && element != -1) {
+            aim(ptrList.get(i), nonPtrList.get(slot), element);
+            stepDone();
+        } else if (i != -1) {
+            result = diagnostics.report(VisDiagnostics.NO_ADDRESS, pointerName, address);
+        } else {
+            result = diagnostics.report(VisDiagnostics.NO_POINTER, pointerName, 0);
+        }
+        metrics.opDone(VisMetrics.POINT_TO, start);
+        return result;
+    }
+
+    /**
+     * Find the nonPointer an address falls inside, anywhere in it rather than only at its
+     * start, e.g. an element in the middle of an array. Use NonPointer.elementAt() on the
+     * result for the element. O(log n) through a sorted index of address ranges.
+     * @param address The address.
+     * @return The nonPointer's slot, or -1 if no nonPointer holds the address.
+     */
+    public int findNonPointerByAddress(int address) {
+        if (addressesMoved) {
+            addressIndex.reset(nonPtrList.size());
+            for (int j = 0; j < nonPtrList.size(); j++) {
+                NonPointer np = nonPtrList.get(j);
+                addressIndex.add(j, np.getAddressValue(), np.getSize());
+            }
+            addressIndex.build();
+            addressesMoved = false;
         }
+        return addressIndex.find(address);
+    }
+
+    public int changePtrVal(String ptrName, String nonPtrName) {
+        return pointTo(ptrName, nonPtrName);
     }
 
     /**
@@ -102,33 +281,110 @@ public class VisController {
      * (Pointing to a nonPointer variable) Possible update method for any changes made.
      * @param pointerName The name of the variable.
      * @param nonPointerName The name of the variable.
+     * @return OK, NO_POINTER or NO_NON_POINTER.
      */
-    public void pointTo(String pointerName, String nonPointerName) {
-        int iOfPtr;
-        int iOfNonPtr;
-        String pntToAddress;
-        String pntToValue = "";
-
-        if (pointerVisualizer.ptrList.size() > 0
-                && pointerVisualizer.nonPtrList.size() > 0) {
-            iOfPtr = findPointerByName(pointerName);
-            iOfNonPtr = findNonPointerByName(nonPointerName);
-
-            // Check if both names are in the list.
-            if (iOfPtr != -1 && iOfNonPtr != -1) {
-                NonPointer newNP = pointerVisualizer.nonPtrList.get(iOfNonPtr);
-                pointerVisualizer.ptrList.get(iOfPtr).setNonPointer(newNP);
-            } else {
-                // Error message, possibly a toast?
-                if (iOfPtr == -1) {
-                    Log.e("VISUAL CONTROLLER: ",
-                            "Cannot find pointer" + pointerName + "in list.");
-                } else {
-                    Log.e("VISUAL CONTROLLER: ",
-                            "No NONpointer" + nonPointerName + "in list.");
-                }
+    public int pointTo(String pointerName, String nonPointerName) {
+        long start = metrics.start();
+        int result = VisDiagnostics.OK;
+        int iOfPtr = findPointerByName(pointerName);
+        int iOfNonPtr = findNonPointerByName(nonPointerName);
+
+        // Check if both names are in the list.
+        if (iOfPtr != -1 && iOfNonPtr != -1) {
+            NonPointer newNP = nonPtrList.get(iOfNonPtr);
+            aim(ptrList.get(iOfPtr), newNP);
+            stepDone();
+        } else if (iOfPtr == -1) {
+            result = diagnostics.report(VisDiagnostics.NO_POINTER, pointerName, 0);
+        } else {
+            result = diagnostics.report(VisDiagnostics.NO_NON_POINTER, nonPointerName, 0);
+        }
+        metrics.opDone(VisMetrics.POINT_TO, start);
+        return result;
+    }
+
+    /**
+     * Aim a pointer at another pointer, for pointers to pointers.
+     * e.g. in C++
+     *      int** pp = &p;
+     * @param pointerName The name of the pointer to change.
+     * @param targetName The name of the pointer it should point at.
+     * @return OK, or NO_POINTER.
+     */
+    public int pointToPointer(String pointerName, String targetName) {
+        long start = metrics.start();
+        int result = VisDiagnostics.OK;
+        int iOfPtr = findPointerByName(pointerName);
+        int iOfTarget = findPointerByName(targetName);
+
+        if (iOfPtr != -1 && iOfTarget != -1) {
+            Pointer target = ptrList.get(iOfTarget);
+            aim(ptrList.get(iOfPtr), target);
+            stepDone();
+        } else {
+            result = diagnostics.report(VisDiagnostics.NO_POINTER,
+                    iOfPtr == -1 ? pointerName : targetName, 0);
+        }
+        metrics.opDone(VisMetrics.POINT_TO, start);
+        return result;
+    }
+
+    /**
+     * Enter a function. Pointers and stack nonPointers added from now on are its locals,
+     * until the matching popFrame().
+     * Names still have to be unique across every frame.
+     * @param function The function's name.
+     */
+    public void pushFrame(String function) {
+        long start = metrics.start();
+        space.pushFrame(function);
+        frameMoved = true;
+        stepDone();
+        metrics.opDone(VisMetrics.PUSH_FRAME, start);
+    }
+
+    /**
+     * Return from the innermost function. Every local of it goes at once: each is taken
+     * out of its slot without any lookup, pointers still aimed at one are marked dangling
+     * through its referrers, and the stack is freed in a single step. The cost depends only
+     * on the frame's own locals, not on how deep the stack is or how much else there is.
+     * Heap variables made in the function stay, as they would in C++.
+     * @return OK, or NO_FUNCTION.
+     */
+    public int popFrame() {
+        long start = metrics.start();
+        int result = VisDiagnostics.OK;
+        if (space.getFrame() != null) {
+            popTopFrame();
+            stepDone();
+        } else {
+            result = diagnostics.report(VisDiagnostics.NO_FUNCTION, null, 0);
+        }
+        metrics.opDone(VisMetrics.POP_FRAME, start);
+        return result;
+    }
+
+    private void popTopFrame() {
+        StackFrame top = space.getFrame();
+        for (Pointer p : top.pointers) {
+            if (p.getSlot() != -1 && p.getStackFrame() == top) {
+                removePointerAt(p.getSlot(), false);
+            }
+        }
+        for (NonPointer np : top.nonPointers) {
+            if (np.getSlot() != -1 && np.getStackFrame() == top) {
+                removeNonPointerAt(np.getSlot(), false);
             }
         }
+        space.popFrame();
+        frameMoved = true;
+    }
+
+    /**
+     * @return The innermost function, or null outside of any.
+     */
+    public StackFrame getStackFrame() {
+        return space.getFrame();
     }
 
     /**
@@ -137,15 +393,9 @@ public class VisController {
      * @return If -1, pointer not found.
      */
     public int findPointerByName(String pointerName) {
-        int indexPlace = -1;
+        Integer indexPlace = ptrIndex.get(pointerName);
 
-        for(int i = 0; i < pointerVisualizer.ptrList.size(); i++) {
-            if (pointerVisualizer.ptrList.get(i).getName().equals(pointerName)) {
-                indexPlace = i;
-            }
-        }
-
-        return indexPlace;
+        return indexPlace == null ? -1 : indexPlace;
     }
 
     /**
@@ -154,42 +404,889 @@ public class VisController {
      * @return If -1, nonPointer not found.
      */
     public int findNonPointerByName(String nonPointerName) {
-        int indexPlace = -1;
+        Integer indexPlace = nonPtrIndex.get(nonPointerName);
+
+        return indexPlace == null ? -1 : indexPlace;
+    }
+
+    /**
+     * Show the value a pointer leads to instead of the address it holds, or switch back.
+     * This only changes the view, so it isn't recorded as an undo step.
+     * @param pointerName The name of the pointer.
+     * @param state True to show the value.
+     * @return OK, or NO_POINTER.
+     */
+    public int derefPointer(String pointerName, boolean state) {
+        int i = findPointerByName(pointerName);
+        if (i == -1) {
+            return diagnostics.report(VisDiagnostics.NO_POINTER, pointerName, 0);
+        }
+        ptrList.get(i).deref(state);
+        publishFrame(Collections.<NonPointer>emptyList(), Collections.singletonList(ptrList.get(i)));
+        return VisDiagnostics.OK;
+    }
+
+    /**
+     * Write the whole model out as a MemorySnapshot, e.g. to keep it across a rotation.
+     * @param out Where to write it. Not closed.
+     * @throws IOException If out fails.
+     */
+    public void save(OutputStream out) throws IOException {
+        MemorySnapshot.write(ptrList, nonPtrList, space, out);
+    }
+
+    /**
+     * Replace the whole model with one written by save(). The restored model becomes
+     * step 0, so there is nothing to undo past it.
+     * @param in The snapshot.
+     * @throws IOException If it can't be read, in which case nothing is changed.
+     */
+    public void restore(ByteBuffer in) throws IOException {
+        MemorySnapshot snapshot = MemorySnapshot.read(in);
+
+        ptrList.clear();
+        nonPtrList.clear();
+        ptrIndex.clear();
+        nonPtrIndex.clear();
+        List<VarRecord> records = new ArrayList<VarRecord>();
+        int count = snapshot.getNonPointers().size() + snapshot.getPointers().size();
+        int[] addresses = new int[count];
+        int[] sizes = new int[count];
+        int n = 0;
+        for (NonPointer np : snapshot.getNonPointers()) {
+            nonPtrIndex.put(np.getName(), np.getSlot());
+            nonPtrList.add(np);
+            records.add(VarRecord.of(np));
+            for (Integer index : np.getElements().keySet()) {
+                records.add(VarRecord.ofElement(np, index));
+            }
+            addresses[n] = np.getAddressValue();
+            sizes[n++] = np.getSize();
+        }
+        for (Pointer p : snapshot.getPointers()) {
+            ptrIndex.put(p.getName(), p.getSlot());
+            ptrList.add(p);
+            records.add(VarRecord.of(p));
+            addresses[n] = p.getAddressValue();
+            sizes[n++] = AddressSpace.POINTER_SIZE;
+        }
+        nextOrder = Math.max(nonPtrList.size(), ptrList.size());
+        if (snapshot.getAddressSpace() != null) {
+            space = snapshot.getAddressSpace();
+        } else {
+            space.rebuild(addresses, sizes, n);
+            space.setFrame(snapshot.getFrame());
+        }
+        history = new MemoryHistory(PersistentMap.of(records), snapshot.getFrame());
+        addressesMoved = true;
+        clearTouched();
+
+        // Every node is new, so the frame is built from scratch
+        frame = FrameSnapshot.EMPTY;
+        publishFrame(touchedNonPtrs, touchedPtrs);
+    }
+
+    /**
+     * @return The simulated memory the variables' addresses come from.
+     */
+    public AddressSpace getAddressSpace() {
+        return space;
+    }
+
+    /**
+     * Safe to call from any thread. Frames are immutable, so the one returned stays whole
+     * however many steps are made after.
+     * @return The frame most recently handed to the view.
+     */
+    public FrameSnapshot getFrame() {
+        return frame;
+    }
+
+    /**
+     * Start collecting a group of changes to apply together with commit().
+     * Nothing is changed, and nothing is redrawn, until the batch is committed.
+     * @return An empty batch tied to this controller.
+     */
+    public VisBatch beginBatch() {
+        return new VisBatch(this);
+    }
+
+    /**
+     * Apply a whole batch of operations at once. Every operation is checked first, against
+     * the lists as they would be after the operations before it. If any of them would fail
+     * the lists are left untouched. Otherwise everything is applied with each name looked
+     * up only once, followed by a single redraw.
+     * @param ops The operations, in order.
+     * @return True if the batch was applied, false if it was rejected.
+     */
+    boolean applyBatch(List<VisBatch.Op> ops) {
+        long start = metrics.start();
+        boolean applied = applyOps(ops);
+        metrics.opDone(VisMetrics.BATCH, start);
+        return applied;
+    }
+
+    private boolean applyOps(List<VisBatch.Op> ops) {
+        // Names added or deleted earlier in the batch. A null value means deleted.
+        Map<String, Pointer> ptrs = new HashMap<String, Pointer>();
+        Map<String, NonPointer> nonPtrs = new HashMap<String, NonPointer>();
+        // Frames the batch pops take their locals with them. Locals added by the batch are
+        // listed per frame, the innermost existing frame's under the first entry.
+        StackFrame existing = space.getFrame();
+        List<List<VisBatch.Op>> frameAdds = new ArrayList<List<VisBatch.Op>>();
+        frameAdds.add(new ArrayList<VisBatch.Op>());
+        // Where pointers aimed earlier in the batch would be, for checking arithmetic
+        Map<Pointer, NonPointer> aims = new HashMap<Pointer, NonPointer>();
+        Map<Pointer, Integer> aimElements = new HashMap<Pointer, Integer>();
+        // Memory the batch's variables could take. Blocks freed or reused along the way
+        // aren't counted, so every allocation is sure to succeed once the batch is applied.
+        long heapBytes = 0;
+        long stackBytes = 0;
+
+        for (int i = 0; i < ops.size(); i++) {
+            VisBatch.Op op = ops.get(i);
+            boolean valid;
+            switch (op.kind) {
+                case VisBatch.ADD_POINTER:
+                    stackBytes += AddressSpace.footprint(AddressSpace.POINTER_SIZE, false);
+                    valid = batchPointer(op.ptr.getName(), ptrs) == null
+                            && space.hasRoom(heapBytes, stackBytes);
+                    ptrs.put(op.ptr.getName(), op.ptr);
+                    frameAdds.get(frameAdds.size() - 1).add(op);
+                    break;
+                case VisBatch.ADD_NON_POINTER:
+                    int bytes = AddressSpace.footprint(op.nonPtr.getSize(), op.nonPtr.isOnHeap());
+                    if (op.nonPtr.isOnHeap()) {
+                        heapBytes += bytes;
+                    } else {
+                        stackBytes += bytes;
+                    }
+                    valid = batchNonPointer(op.nonPtr.getName(), nonPtrs) == null
+                            && bytes != -1 && space.hasRoom(heapBytes, stackBytes);
+                    nonPtrs.put(op.nonPtr.getName(), op.nonPtr);
+                    if (!op.nonPtr.isOnHeap()) {
+                        frameAdds.get(frameAdds.size() - 1).add(op);
+                    }
+                    break;
+                case VisBatch.CHANGE_VALUE:
+                    op.nonPtr = batchNonPointer(op.name, nonPtrs);
+                    valid = op.nonPtr != null && op.value != null && !op.nonPtr.isArray();
+                    break;
+                case VisBatch.CHANGE_ELEMENT:
+                    op.nonPtr = batchNonPointer(op.name, nonPtrs);
+                    valid = op.nonPtr != null && op.value != null && op.index >= 0
+                            && op.index < op.nonPtr.getLength();
+                    break;
+                case VisBatch.POINT_TO:
+                    op.ptr = batchPointer(op.name, ptrs);
+                    op.nonPtr = batchNonPointer(op.value, nonPtrs);
+                    valid = op.ptr != null && op.nonPtr != null;
+                    aims.put(op.ptr, op.nonPtr);
+                    aimElements.put(op.ptr, 0);
+                    break;
+                case VisBatch.POINT_TO_POINTER:
+                    op.ptr = batchPointer(op.name, ptrs);
+                    op.ptrTarget = batchPointer(op.value, ptrs);
+                    valid = op.ptr != null && op.ptrTarget != null;
+                    aims.put(op.ptr, null);
+                    break;
+                case VisBatch.MOVE_POINTER:
+                    op.ptr = batchPointer(op.name, ptrs);
+                    valid = false;
+                    if (op.ptr != null) {
+                        NonPointer at = aims.containsKey(op.ptr) ? aims.get(op.ptr) : aimedAt(op.ptr);
+                        int element = aimElements.containsKey(op.ptr)
+                                ? aimElements.get(op.ptr) : op.ptr.getElement();
+                        // What it points into may have been deleted earlier in the batch
+                        valid = at != null && batchNonPointer(at.getName(), nonPtrs) == at
+                                && canMove(at, element, op.index);
+                        aims.put(op.ptr, at);
+                        aimElements.put(op.ptr, element + op.index);
+                    }
+                    break;
+                case VisBatch.DELETE_POINTER:
+                    op.ptr = batchPointer(op.name, ptrs);
+                    valid = op.ptr != null;
+                    ptrs.put(op.name, null);
+                    break;
+                case VisBatch.DELETE_NON_POINTER:
+                    op.nonPtr = batchNonPointer(op.name, nonPtrs);
+                    valid = op.nonPtr != null;
+                    nonPtrs.put(op.name, null);
+                    break;
+                case VisBatch.PUSH_FRAME:
+                    valid = op.name != null;
+                    frameAdds.add(new ArrayList<VisBatch.Op>());
+                    break;
+                case VisBatch.POP_FRAME:
+                    valid = frameAdds.size() > 1 || existing != null;
+                    if (valid && frameAdds.size() == 1) {
+                        batchPopFrame(existing, ptrs, nonPtrs);
+                        existing = existing.getCaller();
+                    }
+                    for (VisBatch.Op add : frameAdds.get(frameAdds.size() - 1)) {
+                        if (add.kind == VisBatch.ADD_POINTER && ptrs.get(add.ptr.getName()) == add.ptr) {
+                            ptrs.put(add.ptr.getName(), null);
+                        } else if (add.kind == VisBatch.ADD_NON_POINTER
+                                && nonPtrs.get(add.nonPtr.getName()) == add.nonPtr) {
+                            nonPtrs.put(add.nonPtr.getName(), null);
+                        }
+                    }
+                    if (frameAdds.size() > 1) {
+                        frameAdds.remove(frameAdds.size() - 1);
+                    } else {
+                        frameAdds.get(0).clear();
+                    }
+                    break;
+                default:
+                    valid = false;
+            }
+            if (!valid) {
+                diagnostics.report(VisDiagnostics.BATCH_REJECTED, null, i);
+                return false;
+            }
+        }
+
+        for (VisBatch.Op op : ops) {
+            switch (op.kind) {
+                case VisBatch.ADD_POINTER:
+                    insertPointer(op.ptr);
+                    break;
+                case VisBatch.ADD_NON_POINTER:
+                    insertNonPointer(op.nonPtr);
+                    break;
+                case VisBatch.CHANGE_VALUE:
+                    changeValue(op.nonPtr, op.value);
+                    break;
+                case VisBatch.CHANGE_ELEMENT:
+                    changeElement(op.nonPtr, op.index, op.value);
+                    break;
+                case VisBatch.POINT_TO:
+                    aim(op.ptr, op.nonPtr);
+                    break;
+                case VisBatch.MOVE_POINTER:
+                    move(op.ptr, op.ptr.getElement() + op.index);
+                    break;
+                case VisBatch.POINT_TO_POINTER:
+                    aim(op.ptr, op.ptrTarget);
+                    break;
+                case VisBatch.DELETE_POINTER:
+                    removePointerAt(ptrIndex.get(op.name), true);
+                    break;
+                case VisBatch.DELETE_NON_POINTER:
+                    removeNonPointerAt(op.nonPtr.getSlot(), true);
+                    break;
+                case VisBatch.PUSH_FRAME:
+                    space.pushFrame(op.name);
+                    frameMoved = true;
+                    break;
+                case VisBatch.POP_FRAME:
+                    popTopFrame();
+                    break;
+            }
+        }
+        stepDone();
+        return true;
+    }
+
+    // While checking a batch, the existing locals of a frame it pops count as deleted,
+    // unless the batch already deleted or replaced them
+    private void batchPopFrame(StackFrame f, Map<String, Pointer> ptrs, Map<String, NonPointer> nonPtrs) {
+        for (Pointer p : f.pointers) {
+            if (p.getSlot() != -1 && p.getStackFrame() == f && !ptrs.containsKey(p.getName())) {
+                ptrs.put(p.getName(), null);
+            }
+        }
+        for (NonPointer np : f.nonPointers) {
+            if (np.getSlot() != -1 && np.getStackFrame() == f && !nonPtrs.containsKey(np.getName())) {
+                nonPtrs.put(np.getName(), null);
+            }
+        }
+    }
+
+    /**
+     * Step back to the version before the last operation (or batch).
+     * @return False if there is nothing to undo.
+     */
+    public boolean undo() {
+        return jumpToStep(history.getCurrentStep() - 1);
+    }
+
+    /**
+     * Step forward again after an undo.
+     * @return False if there is nothing to redo.
+     */
+    public boolean redo() {
+        return jumpToStep(history.getCurrentStep() + 1);
+    }
+
+    public int getCurrentStep() {
+        return history.getCurrentStep();
+    }
+
+    /**
+     * @return The number of recorded versions, including the empty one at step 0.
+     */
+    public int getStepCount() {
+        return history.size();
+    }
 
-        for(int i = 0; i < pointerVisualizer.nonPtrList.size(); i++) {
-            if (pointerVisualizer.nonPtrList.get(i).getName().equals(nonPointerName)) {
-                indexPlace = i;
+    /**
+     * Put the lists back the way they were at any recorded step, earlier or later.
+     * Only the variables that differ between the two versions are touched, and finding them
+     * skips everything the versions share, so this costs O(log n) per changed variable.
+     * @param step The step to go to, 0 being before the first operation.
+     * @return False if there is no such step.
+     */
+    public boolean jumpToStep(int step) {
+        long start = metrics.start();
+        boolean jumped = restoreStep(step);
+        metrics.opDone(VisMetrics.JUMP_TO_STEP, start);
+        return jumped;
+    }
+
+    private boolean restoreStep(int step) {
+        if (step < 0 || step >= history.size()) {
+            diagnostics.report(VisDiagnostics.NO_STEP, null, step);
+            return false;
+        }
+        if (step == history.getCurrentStep()) {
+            return true;
+        }
+        space.setFrame(history.getFrame(step));
+        final PersistentMap to = history.get(step);
+        final List<VarRecord> removed = new ArrayList<VarRecord>();
+        final List<VarRecord> added = new ArrayList<VarRecord>();
+        final List<VarRecord> changed = new ArrayList<VarRecord>();
+        // Array elements that lose their own value, and ones that get a new one
+        final List<VarRecord> clearedElements = new ArrayList<VarRecord>();
+        final List<VarRecord> setElements = new ArrayList<VarRecord>();
+        history.current().diff(to, new PersistentMap.DiffListener() {
+            @Override
+            public void changed(String key, VarRecord from, VarRecord record) {
+                if (record == null && from.isElement()) {
+                    clearedElements.add(from);
+                } else if (record != null && record.isElement()) {
+                    setElements.add(record);
+                } else if (record == null) {
+                    removed.add(from);
+                } else if (from == null) {
+                    added.add(record);
+                } else {
+                    changed.add(record);
+                }
+            }
+        });
+
+        // Pointers aimed at anything removed need aiming again once the rest is in place
+        List<Pointer> toAim = new ArrayList<Pointer>();
+        for (VarRecord r : removed) {
+            if (r.pointer) {
+                int i = findPointerByName(r.name);
+                toAim.addAll(ptrList.get(i).getReferrers());
+                removePointerAt(i, true);
+            } else {
+                int i = findNonPointerByName(r.name);
+                toAim.addAll(nonPtrList.get(i).getReferrers());
+                removeNonPointerAt(i, true);
+            }
+        }
+        // Variables that moved or changed size give their old block back before any block
+        // is claimed
+        for (VarRecord r : changed) {
+            if (r.pointer) {
+                Pointer p = ptrList.get(findPointerByName(r.name));
+                if (p.getAddressValue() != r.address) {
+                    space.free(p.getAddressValue());
+                }
+            } else {
+                NonPointer np = nonPtrList.get(findNonPointerByName(r.name));
+                if (np.getAddressValue() != r.address || np.getSize() != r.size()) {
+                    space.free(np.getAddressValue());
+                }
+            }
+        }
+        for (VarRecord r : added) {
+            if (!r.pointer) {
+                NonPointer np = new NonPointer(r.name, r.value, r.type, r.length);
+                np.setOnHeap(r.onHeap);
+                joinFrame(np, r.stackFrame);
+                np.setAddress(r.address);
+                claim(r.address, np.getSize());
+                np.setOrder(r.order);
+                placeNonPointer(np);
+            }
+        }
+        for (VarRecord r : added) {
+            if (r.pointer) {
+                Pointer p = new Pointer(r.name);
+                joinFrame(p, r.stackFrame);
+                p.setAddress(r.address);
+                claim(r.address, AddressSpace.POINTER_SIZE);
+                p.setOrder(r.order);
+                placePointer(p);
+                toAim.add(p);
+            }
+        }
+        for (VarRecord r : changed) {
+            if (r.pointer) {
+                Pointer p = ptrList.get(findPointerByName(r.name));
+                if (p.getStackFrame() != r.stackFrame) {
+                    joinFrame(p, r.stackFrame);
+                }
+                if (p.getAddressValue() != r.address) {
+                    p.setAddress(r.address);
+                    claim(r.address, AddressSpace.POINTER_SIZE);
+                }
+                // Deleted and added again under the same name since
+                p.setOrder(r.order);
+                toAim.add(p);
+            } else {
+                NonPointer np = nonPtrList.get(findNonPointerByName(r.name));
+                if (np.getStackFrame() != r.stackFrame) {
+                    joinFrame(np, r.stackFrame);
+                }
+                boolean moved = np.getAddressValue() != r.address || np.getSize() != r.size();
+                // An array of one and a plain variable, or two types, can share a size
+                np.setType(r.type);
+                np.setLength(r.length);
+                np.setOnHeap(r.onHeap);
+                if (moved) {
+                    np.setAddress(r.address);
+                    claim(r.address, np.getSize());
+                    addressesMoved = true;
+                }
+                np.setOrder(r.order);
+                touchedNonPtrs.add(np);
+                if (!np.getValue().equals(r.value)) {
+                    np.setValue(r.value);
+                }
+            }
+        }
+        // Elements of arrays that are gone entirely have nothing to go back into
+        for (VarRecord r : clearedElements) {
+            int i = findNonPointerByName(r.name);
+            if (i != -1) {
+                nonPtrList.get(i).clearElement(r.element);
+                touchedNonPtrs.add(nonPtrList.get(i));
+            }
+        }
+        for (VarRecord r : setElements) {
+            int i = findNonPointerByName(r.name);
+            if (i != -1) {
+                nonPtrList.get(i).setElement(r.element, r.value);
+                touchedNonPtrs.add(nonPtrList.get(i));
+            }
+        }
+        for (Pointer p : toAim) {
+            if (p.getSlot() != -1) {
+                restoreTarget(p, to.get(VarRecord.keyOf(true, p.getName())));
+                touchedPtrs.add(p);
+            }
+        }
+        restoreSlots(to);
+
+        history.setCurrentStep(step);
+        publishFrame(touchedNonPtrs, touchedPtrs);
+        clearTouched();
+        return true;
+    }
+
+    // Removing swapped the last variable into each freed slot, and adding appended, so
+    // put every variable that moved back in the slot it had at the version restored.
+    // Every slot change is recorded, so the slots of a version are always a permutation
+    // and each variable that's out of place is one of those touched.
+    private void restoreSlots(PersistentMap to) {
+        for (Pointer p : touchedPtrs) {
+            if (p.getSlot() != -1) {
+                int slot = to.get(VarRecord.keyOf(true, p.getName())).slot;
+                if (slot != p.getSlot()) {
+                    ptrList.set(slot, p);
+                    p.setSlot(slot);
+                    ptrIndex.put(p.getName(), slot);
+                }
+            }
+        }
+        for (NonPointer np : touchedNonPtrs) {
+            if (np.getSlot() != -1) {
+                int slot = to.get(VarRecord.keyOf(false, np.getName())).slot;
+                if (slot != np.getSlot()) {
+                    nonPtrList.set(slot, np);
+                    np.setSlot(slot);
+                    nonPtrIndex.put(np.getName(), slot);
+                    addressesMoved = true;
+                }
+            }
+        }
+    }
+
+    private void claim(int address, int size) {
+        if (!space.claim(address, size)) {
+            diagnostics.report(VisDiagnostics.OVERLAP, null, address);
+        }
+    }
+
+    private void restoreTarget(Pointer p, VarRecord r) {
+        if (!r.pointing || r.dangling) {
+            p.clearTarget(r.dangling, r.heldAddress, r.value);
+        } else if (r.targetIsPointer && findPointerByName(r.target) != -1) {
+            p.setPointer(ptrList.get(findPointerByName(r.target)));
+        } else if (!r.targetIsPointer && findNonPointerByName(r.target) != -1) {
+            NonPointer np = nonPtrList.get(findNonPointerByName(r.target));
+            int element = Math.max(np.elementAt(r.heldAddress), 0);
+            if (p.getTarget() == np && !p.isDangling()) {
+                // Only moved along it, which leaves it dereferenced or not
+                p.moveTo(element);
+            } else {
+                p.setNonPointer(np, element);
+            }
+        } else {
+            p.clearTarget(true, r.heldAddress, r.value);
+        }
+    }
+
+    /**
+     * Called after every successful operation or batch. Copies the variables it touched
+     * into a new version for undo, and publishes a new frame to the view.
+     */
+    private void stepDone() {
+        if (touchedPtrs.isEmpty() && touchedNonPtrs.isEmpty() && !frameMoved) {
+            return;
+        }
+        frameMoved = false;
+        PersistentMap version = history.current();
+        // Elements of deleted arrays go first, in case a new array took the name
+        for (String key : staleElements) {
+            version = version.remove(key);
+        }
+        for (NonPointer np : touchedNonPtrs) {
+            String key = VarRecord.keyOf(false, np.getName());
+            int i = findNonPointerByName(np.getName());
+            version = i == -1 ? version.remove(key)
+                    : version.put(key, VarRecord.of(nonPtrList.get(i)));
+        }
+        for (Pointer p : touchedPtrs) {
+            String key = VarRecord.keyOf(true, p.getName());
+            int i = findPointerByName(p.getName());
+            version = i == -1 ? version.remove(key)
+                    : version.put(key, VarRecord.of(ptrList.get(i)));
+        }
+        for (int k = 0; k < touchedArrays.size(); k++) {
+            NonPointer np = touchedArrays.get(k);
+            if (np.getSlot() != -1) {
+                int index = touchedElements.get(k);
+                version = version.put(VarRecord.elementKey(np.getName(), index),
+                        VarRecord.ofElement(np, index));
+            }
+        }
+        history.record(version, space.getFrame());
+        publishFrame(touchedNonPtrs, touchedPtrs);
+        clearTouched();
+    }
+
+    private void clearTouched() {
+        touchedPtrs.clear();
+        touchedNonPtrs.clear();
+        touchedArrays.clear();
+        touchedElements.clear();
+        staleElements.clear();
+    }
+
+    /**
+     * Build the next frame from the last one by resizing it to the lists, adding the nodes
+     * of new variables in one pass, and replacing the nodes of everything touched. A
+     * pointer's arrow and text depend on what it points at, so every pointer leading to a
+     * touched variable is replaced as well.
+     * The new frame is then handed to the view, which never waits on this.
+     */
+    private void publishFrame(List<NonPointer> nonPtrs, List<Pointer> ptrs) {
+        PersistentVector<FrameSnapshot.Node> ptrNodes = frame.ptrs;
+        PersistentVector<FrameSnapshot.Node> nonPtrNodes = frame.nonPtrs;
+        while (ptrNodes.size() > ptrList.size()) {
+            ptrNodes = ptrNodes.pop();
+        }
+        // Slots from here on get their nodes made from scratch, so aren't replaced again
+        int newPtrs = ptrNodes.size();
+        if (ptrNodes.size() < ptrList.size()) {
+            ptrNodes = ptrNodes.splice(ptrNodes.size(), pointerNodes(ptrNodes.size()),
+                    ptrList.size() - ptrNodes.size());
+        }
+        while (nonPtrNodes.size() > nonPtrList.size()) {
+            nonPtrNodes = nonPtrNodes.pop();
+        }
+        int newNonPtrs = nonPtrNodes.size();
+        if (nonPtrNodes.size() < nonPtrList.size()) {
+            nonPtrNodes = nonPtrNodes.splice(nonPtrNodes.size(),
+                    nonPointerNodes(nonPtrNodes.size()), nonPtrList.size() - nonPtrNodes.size());
+        }
+
+        List<Pointer> pending = new ArrayList<Pointer>(ptrs);
+        for (NonPointer np : nonPtrs) {
+            if (np.getSlot() != -1 && np.getSlot() < newNonPtrs) {
+                nonPtrNodes = nonPtrNodes.set(np.getSlot(),
+                        replaced(nonPtrNodes.get(np.getSlot()), FrameSnapshot.Node.of(np)));
             }
+            pending.addAll(np.getReferrers());
+        }
+        Set<Pointer> seen = new HashSet<Pointer>();
+        while (!pending.isEmpty()) {
+            Pointer p = pending.remove(pending.size() - 1);
+            if (!seen.add(p)) {
+                continue;
+            }
+            if (p.getSlot() != -1 && p.getSlot() < newPtrs) {
+                ptrNodes = ptrNodes.set(p.getSlot(),
+                        replaced(ptrNodes.get(p.getSlot()), FrameSnapshot.Node.of(p)));
+            }
+            pending.addAll(p.getReferrers());
+        }
+
+        frame = new FrameSnapshot(ptrNodes, nonPtrNodes);
+        if (pointerVisualizer != null) {
+            pointerVisualizer.publish(frame);
+        }
+    }
+
+    // Nodes for the variables from slot from on, which the last frame didn't have
+    private Object[] pointerNodes(int from) {
+        Object[] nodes = new Object[ptrList.size() - from];
+        for (int k = 0; k < nodes.length; k++) {
+            nodes[k] = FrameSnapshot.Node.of(ptrList.get(from + k));
+        }
+        return nodes;
+    }
+
+    private Object[] nonPointerNodes(int from) {
+        Object[] nodes = new Object[nonPtrList.size() - from];
+        for (int k = 0; k < nodes.length; k++) {
+            nodes[k] = FrameSnapshot.Node.of(nonPtrList.get(from + k));
+        }
+        return nodes;
+    }
+
+    // Lets the view drop the cached label of text that a node no longer shows
+    private FrameSnapshot.Node replaced(FrameSnapshot.Node old, FrameSnapshot.Node node) {
+        if (pointerVisualizer != null && !old.getText().equals(node.getText())) {
+            pointerVisualizer.labelReplaced(old.getText());
+        }
+        return node;
+    }
+
+    private void changeValue(NonPointer np, String value) {
+        np.setValue(value);
+        touchedNonPtrs.add(np);
+    }
+
+    private void aim(Pointer p, NonPointer target) {
+        p.setNonPointer(target);
+        touchedPtrs.add(p);
+    }
+
+    private void aim(Pointer p, NonPointer target, int element) {
+        p.setNonPointer(target, element);
+        touchedPtrs.add(p);
+    }
+
+    private void move(Pointer p, int element) {
+        p.moveTo(element);
+        touchedPtrs.add(p);
+    }
+
+    private void changeElement(NonPointer np, int index, String value) {
+        np.setElement(index, value);
+        touchedNonPtrs.add(np);
+        touchedArrays.add(np);
+        touchedElements.add(index);
+    }
+
+    // The nonPointer a pointer can do arithmetic along, null if there is none
+    private static NonPointer aimedAt(Pointer p) {
+        return p.isDangling() ? null : p.getTarget();
+    }
+
+    // Pointer arithmetic stays within the variable pointed into, one past the end included
+    private static boolean canMove(NonPointer target, int element, int delta) {
+        long to = (long) element + delta;
+        return target != null && to >= 0 && to <= target.getCount();
+    }
+
+    private void aim(Pointer p, Pointer target) {
+        p.setPointer(target);
+        touchedPtrs.add(p);
+    }
+
+    private Pointer batchPointer(String name, Map<String, Pointer> ptrs) {
+        if (ptrs.containsKey(name)) {
+            return ptrs.get(name);
+        }
+        int i = findPointerByName(name);
+        return i == -1 ? null : ptrList.get(i);
+    }
+
+    private NonPointer batchNonPointer(String name, Map<String, NonPointer> nonPtrs) {
+        if (nonPtrs.containsKey(name)) {
+            return nonPtrs.get(name);
+        }
+        int i = findNonPointerByName(name);
+        return i == -1 ? null : nonPtrList.get(i);
+    }
+
+    // Both return false, having added nothing, if there's no memory for the variable
+    private boolean insertPointer(Pointer newPtr) {
+        // Pointers get an address too, so other pointers can point at them
+        int address = allocate(AddressSpace.POINTER_SIZE, false);
+        if (address == -1) {
+            return false;
         }
-        return indexPlace;
+        newPtr.setAddress(address);
+        joinFrame(newPtr, space.getFrame());
+        newPtr.setOrder(nextOrder++);
+        placePointer(newPtr);
+        return true;
     }
 
-    /*public void derefPointer(Pointer toDeref) {
+    private boolean insertNonPointer(NonPointer newNonPtr) {
+        int address = allocate(newNonPtr.getSize(), newNonPtr.isOnHeap());
+        if (address == -1) {
+            return false;
+        }
+        newNonPtr.addressAppend(address);
+        if (!newNonPtr.isOnHeap()) {
+            joinFrame(newNonPtr, space.getFrame());
+        }
+        newNonPtr.setOrder(nextOrder++);
+        placeNonPointer(newNonPtr);
+        return true;
+    }
 
-    }*/
+    // Make a variable a local of the given call, or a global if it's null
+    private void joinFrame(Pointer p, StackFrame f) {
+        p.setStackFrame(f);
+        if (f != null) {
+            f.add(p);
+        }
+    }
+
+    private void joinFrame(NonPointer np, StackFrame f) {
+        np.setStackFrame(f);
+        if (f != null) {
+            f.add(np);
+        }
+    }
+
+    // Locals go on the stack, anything made with new on the heap. -1 if there's no room.
+    private int allocate(int size, boolean onHeap) {
+        int address = onHeap ? space.allocHeap(size) : space.allocStack(size);
+        if (address == -1) {
+            diagnostics.report(VisDiagnostics.OUT_OF_MEMORY, null, onHeap ? 1 : 0);
+        }
+        return address;
+    }
+
+    private void placePointer(Pointer newPtr) {
+        newPtr.setSlot(ptrList.size());
+        ptrIndex.put(newPtr.getName(), newPtr.getSlot());
+        ptrList.add(newPtr);
+        touchedPtrs.add(newPtr);
+    }
+
+    private void placeNonPointer(NonPointer newNonPtr) {
+        newNonPtr.setSlot(nonPtrList.size());
+        nonPtrIndex.put(newNonPtr.getName(), newNonPtr.getSlot());
+        nonPtrList.add(newNonPtr);
+        touchedNonPtrs.add(newNonPtr);
+        addressesMoved = true;
+    }
+
+    // The last element is moved into the freed slot so nothing has to shift down.
+    // Pointers aimed at the removed nonPointer are marked dangling through its referrers.
+    // freeBlock is false when popping a frame, which frees the whole frame's stack at once.
+    private void removeNonPointerAt(int i, boolean freeBlock) {
+        List<NonPointer> list = nonPtrList;
+        NonPointer last = list.remove(list.size() - 1);
+        NonPointer removed = last;
+        if (i < list.size()) {
+            removed = list.set(i, last);
+            last.setSlot(i);
+            nonPtrIndex.put(last.getName(), i);
+            touchedNonPtrs.add(last);
+        }
+        nonPtrIndex.remove(removed.getName());
+        removed.setSlot(-1);
+        if (freeBlock) {
+            space.free(removed.getAddressValue());
+        }
+        for (Integer index : removed.getElements().keySet()) {
+            staleElements.add(VarRecord.elementKey(removed.getName(), index));
+        }
+        addressesMoved = true;
+        touchedNonPtrs.add(removed);
+        touchedPtrs.addAll(removed.getReferrers());
+        removed.release();
+    }
+
+    private void removePointerAt(int i, boolean freeBlock) {
+        List<Pointer> list = ptrList;
+        Pointer last = list.remove(list.size() - 1);
+        Pointer removed = last;
+        if (i < list.size()) {
+            removed = list.set(i, last);
+            last.setSlot(i);
+            ptrIndex.put(last.getName(), i);
+            touchedPtrs.add(last);
+        }
+        ptrIndex.remove(removed.getName());
+        removed.setSlot(-1);
+        if (freeBlock) {
+            space.free(removed.getAddressValue());
+        }
+        touchedPtrs.add(removed);
+        touchedPtrs.addAll(removed.getReferrers());
+        removed.release();
+    }
 
     /**
      * Remove a specific nonPointer from the list array.
+     * The last nonPointer is moved into the freed slot so nothing has to shift down.
+     * Undo puts both back in their own slots.
      * @param toDeleteName name of nonPointer to remove.
+     * @return OK, or NO_NON_POINTER.
      */
-    public void deleteNonPointer(String toDeleteName) {
+    public int deleteNonPointer(String toDeleteName) {
+        long start = metrics.start();
+        int result = VisDiagnostics.OK;
         int i = findNonPointerByName(toDeleteName);
 
         if (i != -1) {
-            pointerVisualizer.nonPtrList.remove(i);
+            removeNonPointerAt(i, true);
+            stepDone();
+        } else {
+            result = diagnostics.report(VisDiagnostics.NO_NON_POINTER, toDeleteName, 0);
         }
+        metrics.opDone(VisMetrics.DELETE_NON_POINTER, start);
+        return result;
     }
 
     //Will likely not be used for now
     /**
      * Remove a specific pointer from the list array.
+     * The last pointer is moved into the freed slot so nothing has to shift down.
+     * Undo puts both back in their own slots.
      * @param toDeleteName name of pointer to remove.
+     * @return OK, or NO_POINTER.
      */
-    public void deletePointer(String toDeleteName) {
+    public int deletePointer(String toDeleteName) {
+        long start = metrics.start();
+        int result = VisDiagnostics.OK;
         int i = findPointerByName(toDeleteName);
 
         if (i != -1) {
-            pointerVisualizer.ptrList.remove(i);
+            removePointerAt(i, true);
+            stepDone();
+        } else {
+            result = diagnostics.report(VisDiagnostics.NO_POINTER, toDeleteName, 0);
         }
+        metrics.opDone(VisMetrics.DELETE_POINTER, start);
+        return result;
     }
 }
@@ -0,0 +1,274 @@
+package com.baker.goodpointersv2;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Problems met by VisController and the classes driving it, such as a name used twice or
+ * a variable that doesn't exist, kept as typed events rather than log lines.
+ * Each event is a code, the name or text it concerns and one number, stored in a ring of
+ * preallocated arrays, so reporting one builds no strings and allocates nothing. Text is
+ * only made when an event is read back with format(). Once the ring is full the oldest
+ * events are overwritten.
+ * A listener can be told about each event as it happens, e.g. to show a toast, and the
+ * controller also returns the code from the operation that failed.
+ * Recording is on by default. With it off and no listener or logging, reporting costs a
+ * couple of flag checks and a count. Counts may be reported and read from any thread.
+ * Events are written by the controller's thread, and are only for that thread to read
+ * back; another thread reading them may find an event half overwritten once the ring
+ * has wrapped.
+ */
+public class VisDiagnostics {
+    // Event codes, which VisController operations also return. subject and arg are
+    // what's stored with each.
+    public static final int OK = 0;
+    // A variable by that name already exists. subject: the name
+    public static final int DUPLICATE_NAME = 1;
+    // subject: the pointer's name
+    public static final int NO_POINTER = 2;
+    // subject: the nonPointer's name
+    public static final int NO_NON_POINTER = 3;
+    // A whole array was assigned to. subject: the array's name
+    public static final int WHOLE_ARRAY = 4;
+    // subject: the array's name, arg: the index
+    public static final int NO_ELEMENT = 5;
+    // Pointer arithmetic would leave the variable. subject: the pointer, arg: the delta
+    public static final int OUT_OF_BOUNDS = 6;
+    // No variable holds the address. arg: the address
+    public static final int NO_ADDRESS = 7;
+    // popFrame() outside of any function
+    public static final int NO_FUNCTION = 8;
+    // arg: the index of the first invalid operation
+    public static final int BATCH_REJECTED = 9;
+    // No such undo step, or trace step. arg: the step
+    public static final int NO_STEP = 10;
+    // A restored block overlaps another variable. arg: its address
+    public static final int OVERLAP = 11;
+    // Simulated memory ran out and a variable wasn't added. arg: 1 on the heap, 0 on the stack
+    public static final int OUT_OF_MEMORY = 12;
+    // A statement CppMemory can't parse. subject: the statement
+    public static final int BAD_STATEMENT = 13;
+    // A statement CppMemory can't run. subject: the variable, arg: the line, from 1
+    public static final int STATEMENT_FAILED = 14;
+    // CppMemory was asked to edit a line it doesn't have. arg: the line, from 0
+    public static final int NO_LINE = 15;
+    // A trace or keyframe can't be read. subject: what's wrong, arg: the step
+    public static final int BAD_TRACE = 16;
+    private static final int CODE_COUNT = 17;
+
+    /**
+     * Told about every event as it's reported, on the thread reporting it.
+     */
+    public interface Listener {
+        void onDiagnostic(int code, String subject, int arg);
+    }
+
+    private final int mask;
+    private final long[] times;
+    private final int[] codes;
+    private final String[] subjects;
+    private final int[] args;
+    // Events ever recorded. The newest is at (written - 1) & mask.
+    private volatile long written;
+    // How many of each code were ever reported, recorded or not
+    private final AtomicLongArray counts = new AtomicLongArray(CODE_COUNT);
+
+    private volatile boolean enabled = true;
+    private volatile boolean logged;
+    private volatile Listener listener;
+
+    /**
+     * Keeps the last 256 events.
+     */
+    public VisDiagnostics() {
+        this(256);
+    }
+
+    /**
+     * @param capacity How many of the latest events to keep. Rounded up to a power of two.
+     */
+    public VisDiagnostics(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mask = size - 1;
+        times = new long[size];
+        codes = new int[size];
+        subjects = new String[size];
+        args = new int[size];
+    }
+
+    /**
+     * Report an event.
+     * @param code What happened, e.g. NO_POINTER.
+     * @param subject The name or text it concerns, or null.
+     * @param arg The number stored with it, or 0.
+     * @return code, so a failing operation can report and return in one.
+     */
+    public int report(int code, String subject, int arg) {
+        counts.incrementAndGet(code);
+        if (enabled) {
+            long n = written;
+            int k = (int) (n & mask);
+            times[k] = System.nanoTime();
+            codes[k] = code;
+            subjects[k] = subject;
+            args[k] = arg;
+            written = n + 1;
+        }
+        Listener l = listener;
+        if (l != null) {
+            l.onDiagnostic(code, subject, arg);
+        }
+        if (logged) {
+            Log.w("VIS DIAGNOSTICS: ", format(code, subject, arg));
+        }
+        return code;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turn recording into the ring on or off. Counts and the listener carry on either way.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isLogged() {
+        return logged;
+    }
+
+    /**
+     * Also write each event to the log as it's reported, formatting it there and then.
+     * Off by default, meant for debugging.
+     */
+    public void setLogged(boolean logged) {
+        this.logged = logged;
+    }
+
+    /**
+     * @param listener Told about every event from now on, or null for none.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return How many events are held, up to the capacity.
+     */
+    public int size() {
+        return (int) Math.min(written, mask + 1);
+    }
+
+    /**
+     * @return How many events were ever recorded, including those overwritten since.
+     */
+    public long getRecorded() {
+        return written;
+    }
+
+    /**
+     * @param code An event code.
+     * @return How many times it was reported, whether recorded or not.
+     */
+    public long getCount(int code) {
+        return counts.get(code);
+    }
+
+    /**
+     * @param i Which held event, 0 being the oldest and size() - 1 the newest.
+     */
+    public int getCode(int i) {
+        return codes[slot(i)];
+    }
+
+    public String getSubject(int i) {
+        return subjects[slot(i)];
+    }
+
+    public int getArg(int i) {
+        return args[slot(i)];
+    }
+
+    /**
+     * @return When the event was recorded, as System.nanoTime().
+     */
+    public long getTime(int i) {
+        return times[slot(i)];
+    }
+
+    /**
+     * @param i Which held event, 0 being the oldest.
+     * @return The event as a sentence.
+     */
+    public String format(int i) {
+        int k = slot(i);
+        return format(codes[k], subjects[k], args[k]);
+    }
+
+    /**
+     * Forget every held event. Counts are kept.
+     */
+    public void clear() {
+        for (int k = 0; k <= mask; k++) {
+            subjects[k] = null;
+        }
+        written = 0;
+    }
+
+    /**
+     * @return An event as a sentence.
+     */
+    public static String format(int code, String subject, int arg) {
+        switch (code) {
+            case OK:
+                return "OK.";
+            case DUPLICATE_NAME:
+                return "Cannot add two variables of the same name, " + subject + ".";
+            case NO_POINTER:
+                return "Cannot find pointer " + subject + " in list.";
+            case NO_NON_POINTER:
+                return "Cannot find variable " + subject + " in list.";
+            case WHOLE_ARRAY:
+                return "Cannot assign to the whole array " + subject + ", change its elements.";
+            case NO_ELEMENT:
+                return "No element " + arg + " in " + subject + ".";
+            case OUT_OF_BOUNDS:
+                return "Cannot move " + subject + " by " + arg
+                        + ", it would leave the variable it points into.";
+            case NO_ADDRESS:
+                return "No element at 0x" + Integer.toHexString(arg) + ".";
+            case NO_FUNCTION:
+                return "No function to return from.";
+            case BATCH_REJECTED:
+                return "Batch rejected, operation " + arg + " is invalid.";
+            case NO_STEP:
+                return "No step " + arg + " to go to.";
+            case OVERLAP:
+                return "Cannot restore the block at 0x" + Integer.toHexString(arg)
+                        + ", it overlaps another variable.";
+            case OUT_OF_MEMORY:
+                return "Out of simulated " + (arg != 0 ? "heap" : "stack")
+                        + " memory, variable not added.";
+            case BAD_STATEMENT:
+                return "Cannot understand statement: " + subject;
+            case STATEMENT_FAILED:
+                return "Line " + arg + ": cannot run statement for " + subject;
+            case NO_LINE:
+                return "No line " + arg + " to edit.";
+            case BAD_TRACE:
+                return "Trace is unreadable at step " + arg + ": " + subject;
+            default:
+                return "Unknown event " + code + ".";
+        }
+    }
+
+    // Ring position of the i-th oldest held event
+    private int slot(int i) {
+        long n = written;
+        long first = Math.max(0, n - (mask + 1));
+        return (int) ((first + i) & mask);
+    }
+}
@@ -0,0 +1,228 @@
+package com.baker.goodpointersv2;
+
+/**
+ * Timing for PointerVisualizer's frames and VisController's operations, for finding out
+ * what gets slow as the lists grow.
+ * Off by default. While off, each instrumented call costs a single flag check, since
+ * start() returns 0 without reading the clock and every record call ignores a 0 start.
+ * Frames are recorded by the drawing thread and operations by the controller's thread.
+ * Reading from any other thread is safe but may be a record or two behind.
+ */
+public class VisMetrics {
+    // Operations timed by VisController
+    public static final int ADD_POINTER = 0;
+    public static final int ADD_NON_POINTER = 1;
+    public static final int CHANGE_VALUE = 2;
+    public static final int POINT_TO = 3;
+    public static final int DELETE_POINTER = 4;
+    public static final int DELETE_NON_POINTER = 5;
+    public static final int BATCH = 6;
+    public static final int JUMP_TO_STEP = 7;
+    public static final int PUSH_FRAME = 8;
+    public static final int POP_FRAME = 9;
+    public static final int CHANGE_ELEMENT = 10;
+    public static final int MOVE_POINTER = 11;
+    private static final int OP_COUNT = 12;
+
+    private volatile boolean enabled;
+    private volatile boolean overlayShown;
+
+    private final Histogram frameTime = new Histogram();
+    private final Histogram[] opLatency = new Histogram[OP_COUNT];
+    private volatile int lastNodesDrawn;
+    private volatile int lastArrowsDrawn;
+    private volatile int lastDrawCalls;
+
+    public VisMetrics() {
+        for (int i = 0; i < OP_COUNT; i++) {
+            opLatency[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Start timing something.
+     * @return The start time to pass back when it's done, or 0 while disabled.
+     */
+    public long start() {
+        return enabled ? now() : 0;
+    }
+
+    /**
+     * A VisController operation that started at start() has finished.
+     * @param op Which operation, e.g. POINT_TO.
+     * @param start What start() returned.
+     */
+    public void opDone(int op, long start) {
+        if (start != 0) {
+            opLatency[op].record(now() - start);
+        }
+    }
+
+    /**
+     * A frame that started at start() has been drawn.
+     * @param start What start() returned.
+     * @param nodesDrawn Pointers and nonPointers drawn in the frame.
+     * @param arrowsDrawn Arrows drawn in the frame.
+     * @param drawCalls Calls made on the canvas in the frame.
+     */
+    public void frameDone(long start, int nodesDrawn, int arrowsDrawn, int drawCalls) {
+        if (start != 0) {
+            frameTime.record(now() - start);
+            lastNodesDrawn = nodesDrawn;
+            lastArrowsDrawn = arrowsDrawn;
+            lastDrawCalls = drawCalls;
+        }
+    }
+
+    // Every clock read goes through here, so tests can count them
+    long now() {
+        return System.nanoTime();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isOverlayShown() {
+        return overlayShown;
+    }
+
+    /**
+     * Show the latest frame and operation timings in the corner of the view.
+     * Has no effect unless metrics are enabled.
+     */
+    public void setOverlayShown(boolean overlayShown) {
+        this.overlayShown = overlayShown;
+    }
+
+    public Histogram getFrameTime() {
+        return frameTime;
+    }
+
+    /**
+     * @param op Which operation, e.g. POINT_TO.
+     * @return The latency of every recorded call of it.
+     */
+    public Histogram getOpLatency(int op) {
+        return opLatency[op];
+    }
+
+    public int getLastNodesDrawn() {
+        return lastNodesDrawn;
+    }
+
+    public int getLastArrowsDrawn() {
+        return lastArrowsDrawn;
+    }
+
+    public int getLastDrawCalls() {
+        return lastDrawCalls;
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public void reset() {
+        frameTime.reset();
+        for (Histogram h : opLatency) {
+            h.reset();
+        }
+        lastNodesDrawn = 0;
+        lastArrowsDrawn = 0;
+        lastDrawCalls = 0;
+    }
+
+    /**
+     * Counts of durations in nanoseconds, in buckets a quarter of a power of two wide,
+     * so any percentile is known to within 25% in a fixed 2KB no matter how many are
+     * recorded. Recording never allocates.
+     */
+    public static class Histogram {
+        private static final int BUCKETS = 256;
+
+        private final long[] counts = new long[BUCKETS];
+        private volatile long count;
+        private long total;
+        private long max;
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            counts[bucketOf(nanos)]++;
+            total += nanos;
+            if (nanos > max) {
+                max = nanos;
+            }
+            count++;
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = 0;
+            }
+            total = 0;
+            max = 0;
+            count = 0;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @return The mean in nanoseconds, or 0 if nothing was recorded.
+         */
+        public long getMean() {
+            long n = count;
+            return n == 0 ? 0 : total / n;
+        }
+
+        /**
+         * @param percentile e.g. 99 for the 99th percentile.
+         * @return The upper edge of the bucket holding that percentile, in nanoseconds,
+         *         or 0 if nothing was recorded.
+         */
+        public long getPercentile(double percentile) {
+            long n = count;
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(n * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                seen += counts[i];
+                if (seen >= Math.max(rank, 1)) {
+                    return Math.min(lowerBound(i + 1), max);
+                }
+            }
+            return max;
+        }
+
+        // Values under 4 get their own bucket, then four per power of two.
+        static int bucketOf(long v) {
+            if (v < 4) {
+                return (int) v;
+            }
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (exp - 2)) & 3;
+            return (exp - 1) * 4 + sub;
+        }
+
+        static long lowerBound(int bucket) {
+            if (bucket < 4) {
+                return bucket;
+            }
+            int exp = bucket / 4 + 1;
+            return (long) (4 + bucket % 4) << (exp - 2);
+        }
+    }
+}
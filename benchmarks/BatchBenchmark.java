@@ -0,0 +1,80 @@
+package com.baker.goodpointersv2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One program step, declaring ten variables and rewiring five pointers, applied call by
+ * call and as one VisBatch, on models of 10 to 100,000 variables.
+ * Each invocation jumps back to the step before, so both undo the same change in one
+ * restore and the model doesn't grow.
+ * On a model of 10 a batch is no faster than separate calls, as checking the whole batch
+ * first costs about what one step and one frame per call do on a model that small. There
+ * is deliberately no per-call path for small batches: a batch is applied whole or not at
+ * all, which CppMemory and the trace replayer rely on, and the view never sees half a step.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BatchBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private VisController controller;
+    private int base;
+    private final String[] declared = new String[10];
+    private final String[] ptrNames = new String[5];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] names = new String[size];
+        String[] ptrs = new String[size / 10 + 1];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "n" + i;
+        }
+        for (int i = 0; i < ptrs.length; i++) {
+            ptrs[i] = "p" + i;
+        }
+        controller = ModelBenchmark.build(names, ptrs);
+        base = controller.getCurrentStep();
+        for (int k = 0; k < declared.length; k++) {
+            declared[k] = "local" + k;
+        }
+        for (int k = 0; k < ptrNames.length; k++) {
+            ptrNames[k] = ptrs[k * ptrs.length / ptrNames.length];
+        }
+    }
+
+    @Benchmark
+    public boolean perCall() {
+        for (int k = 0; k < declared.length; k++) {
+            controller.addNonPointer(new NonPointer(declared[k], "0", "int"));
+        }
+        for (int k = 0; k < ptrNames.length; k++) {
+            controller.pointTo(ptrNames[k], declared[k * 2]);
+        }
+        return controller.jumpToStep(base);
+    }
+
+    @Benchmark
+    public boolean batched() {
+        VisBatch batch = controller.beginBatch();
+        for (int k = 0; k < declared.length; k++) {
+            batch.addNonPointer(new NonPointer(declared[k], "0", "int"));
+        }
+        for (int k = 0; k < ptrNames.length; k++) {
+            batch.pointTo(ptrNames[k], declared[k * 2]);
+        }
+        batch.commit();
+        return controller.jumpToStep(base);
+    }
+}
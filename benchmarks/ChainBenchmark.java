@@ -0,0 +1,78 @@
+package com.baker.goodpointersv2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chains of pointers 1 to 1000 links deep, as int** pp = &p; and so on build them: p0
+ * aimed at a nonPointer and every other link at the one before it. The Pointers are used
+ * directly, so what's measured is the chain and not the steps a VisController records.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChainBenchmark {
+    @Param({"1", "10", "100", "1000"})
+    public int depth;
+
+    private NonPointer x;
+    private NonPointer y;
+    private Pointer[] chain;
+    private Pointer top;
+    private boolean flip;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        x = new NonPointer("x", "1", "int");
+        y = new NonPointer("y", "2", "int");
+        chain = new Pointer[depth];
+        chain[0] = new Pointer("p0");
+        chain[0].setNonPointer(x);
+        for (int d = 1; d < depth; d++) {
+            chain[d] = new Pointer("p" + d);
+            chain[d].setPointer(chain[d - 1]);
+        }
+        top = chain[depth - 1];
+        top.deref(true);
+        top.resolve();
+    }
+
+    /**
+     * The end of an unchanged chain, as every frame drawn asks for it. Memoized, so the
+     * same at every depth.
+     */
+    @Benchmark
+    public NonPointer resolve() {
+        return top.resolve();
+    }
+
+    /**
+     * Aims the bottom link at the other nonPointer, which every link above has to forget,
+     * and then resolves the top again, walking the whole chain.
+     */
+    @Benchmark
+    public NonPointer retargetAndResolve() {
+        flip = !flip;
+        chain[0].setNonPointer(flip ? y : x);
+        return top.resolve();
+    }
+
+    /**
+     * A new value at the bottom of the chain, which the dereferenced top has to show.
+     */
+    @Benchmark
+    public String valueChange() {
+        flip = !flip;
+        chain[0].setpValue(flip ? "3" : "4");
+        return top.getToDisplay();
+    }
+}
@@ -0,0 +1,102 @@
+package com.baker.goodpointersv2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A history of 100,000 steps recorded on models of 1000 and 100,000 nonPointers with a
+ * pointer for every tenth, each step a new value or a pointer aimed elsewhere. Measures
+ * jumping to a random step and to a nearby one, and prints the heap the history keeps
+ * per step.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HistoryBenchmark {
+    static final int STEPS = 100000;
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private VisController controller;
+    private int base;
+    private int seed = 1;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] names = new String[size];
+        String[] ptrNames = new String[size / 10 + 1];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "n" + i;
+        }
+        for (int i = 0; i < ptrNames.length; i++) {
+            ptrNames[i] = "p" + i;
+        }
+        controller = ModelBenchmark.build(names, ptrNames);
+        base = controller.getCurrentStep();
+        // A small pool of values, so the strings aren't counted as history
+        String[] values = new String[100];
+        for (int v = 0; v < values.length; v++) {
+            values[v] = Integer.toString(v);
+        }
+
+        long before = usedHeap();
+        for (int s = 0; s < STEPS; s++) {
+            int r = random();
+            if (s % 4 == 3) {
+                controller.pointTo(ptrNames[r % ptrNames.length], names[(r >>> 8) % size]);
+            } else {
+                controller.changeNonPtrVal(names[r % size], values[(r >>> 8) % values.length]);
+            }
+        }
+        // Printed into the run's log; summed as a counter it would grow with the iterations
+        System.out.println("Retained " + (usedHeap() - before) / STEPS + " bytes per step");
+    }
+
+    /**
+     * Jumps from wherever the last jump left off to a random one of the recorded steps.
+     * Two random steps are on average a third of the history apart, so most of the
+     * variables differ between them and the jump has to put each of them back.
+     */
+    @Benchmark
+    public boolean jumpToStep() {
+        return controller.jumpToStep(base + random() % (STEPS + 1));
+    }
+
+    /**
+     * Jumps up to 100 steps either way from the current one, as stepping through a
+     * program back and forth does. Only what those steps changed is put back.
+     */
+    @Benchmark
+    public boolean jumpNearby() {
+        int step = controller.getCurrentStep() + random() % 201 - 100;
+        return controller.jumpToStep(Math.max(base, Math.min(base + STEPS, step)));
+    }
+
+    // xorshift, never 0, made non-negative
+    private int random() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed & Integer.MAX_VALUE;
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        // Twice, so anything only unreachable once the first one ran is gone too
+        System.gc();
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,105 @@
+package com.baker.goodpointersv2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Laying out and ordering a frame, and the PersistentMap and AddressSpace work under each
+ * step, at the same sizes as ModelBenchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LayoutBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private FrameSnapshot frame;
+    private DiagramOrder order;
+    private final DiagramLayout layout = new DiagramLayout();
+    private PersistentMap map;
+    private String[] keys;
+    private VarRecord record;
+    private final AddressSpace space = new AddressSpace();
+    private int[] blocks;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] names = new String[size];
+        String[] ptrNames = new String[size / 10 + 1];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "n" + i;
+        }
+        for (int i = 0; i < ptrNames.length; i++) {
+            ptrNames[i] = "p" + i;
+        }
+        frame = ModelBenchmark.build(names, ptrNames).getFrame();
+        order = DiagramOrder.identity(frame);
+
+        keys = new String[size];
+        PersistentMap m = PersistentMap.EMPTY;
+        for (int i = 0; i < size; i++) {
+            NonPointer np = new NonPointer(names[i], Integer.toString(i), "int");
+            keys[i] = VarRecord.keyOf(false, names[i]);
+            m = m.put(keys[i], VarRecord.of(np));
+        }
+        map = m;
+        record = VarRecord.of(new NonPointer("changed", "1", "int"));
+
+        blocks = new int[size];
+        for (int i = 0; i < size; i++) {
+            blocks[i] = space.allocHeap(4 + (i & 7) * 4);
+        }
+    }
+
+    @Benchmark
+    public DiagramLayout layout() {
+        layout.rebuild(frame, 1080, 1920, 2.625f, order);
+        return layout;
+    }
+
+    @Benchmark
+    public DiagramOrder refine() {
+        return order.refine();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public PersistentMap mapPut() {
+        return map.put(keys[next()], record);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public VarRecord mapGet() {
+        return map.get(keys[next()]);
+    }
+
+    /**
+     * Frees a heap block and allocates one of the same size class in its place.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int heapChurn() {
+        int i = next();
+        space.free(blocks[i]);
+        blocks[i] = space.allocHeap(4 + (i & 7) * 4);
+        return blocks[i];
+    }
+
+    private int next() {
+        int i = next;
+        next = i + 1 == size ? 0 : i + 1;
+        return i;
+    }
+}
@@ -0,0 +1,165 @@
+package com.baker.goodpointersv2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The VisController operations a program steps through, on models of 10 to 100,000
+ * nonPointers with a pointer for every tenth.
+ * Operations that record a step run on a model of their own, which is put back after every
+ * invocation, outside the measured time. So the history doesn't grow with the number of
+ * invocations and the undo isn't part of what's measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ModelBenchmark {
+    @Param({"10", "1000", "10000", "100000"})
+    public int size;
+
+    private VisController controller;
+    private String[] names;
+    private String[] ptrNames;
+    private int[] addresses;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        names = new String[size];
+        ptrNames = new String[size / 10 + 1];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "n" + i;
+        }
+        for (int i = 0; i < ptrNames.length; i++) {
+            ptrNames[i] = "p" + i;
+        }
+        controller = build(names, ptrNames);
+        addresses = new int[size];
+        FrameSnapshot frame = controller.getFrame();
+        for (int j = 0; j < frame.getNonPointerCount(); j++) {
+            addresses[j] = frame.getNonPointer(j).getAddressValue();
+        }
+    }
+
+    /**
+     * Adds every variable one call at a time to an empty controller, as a program's
+     * declarations are. Every call is a step of its own, and each step keeps the O(log n)
+     * nodes its version doesn't share, so the live heap, and the time the collector spends
+     * copying it, grows a little faster than the model.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public VisController bulkAdd() {
+        return build(names, ptrNames);
+    }
+
+    /**
+     * Adds every variable in one batch, as loading a saved program or a trace keyframe
+     * does. A single step is recorded, so nothing but the final version is kept.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public VisController bulkLoad() {
+        VisController controller = new VisController();
+        VisBatch batch = controller.beginBatch();
+        for (int i = 0; i < names.length; i++) {
+            batch.addNonPointer(new NonPointer(names[i], Integer.toString(i), "int"));
+        }
+        for (int i = 0; i < ptrNames.length; i++) {
+            batch.addPointer(new Pointer(ptrNames[i])).pointTo(ptrNames[i], names[i * 7 % names.length]);
+        }
+        batch.commit();
+        return controller;
+    }
+
+    @Benchmark
+    public int lookupByName() {
+        return controller.findNonPointerByName(names[next()]);
+    }
+
+    @Benchmark
+    public int lookupByAddress() {
+        return controller.findNonPointerByAddress(addresses[next()]);
+    }
+
+    @Benchmark
+    public int retarget(Stepped stepped) {
+        int i = next();
+        return stepped.controller.pointTo(ptrNames[i % ptrNames.length], names[i]);
+    }
+
+    @Benchmark
+    public int delete(Stepped stepped, Position position) {
+        return stepped.controller.deleteNonPointer(position.name);
+    }
+
+    /**
+     * Which nonPointer delete takes out. A delete that shifted the rest down would cost
+     * the most at the front, so each end and the middle are measured.
+     */
+    @State(Scope.Thread)
+    public static class Position {
+        @Param({"front", "middle", "back"})
+        public String at;
+
+        String name;
+
+        @Setup(Level.Trial)
+        public void setUp(ModelBenchmark model) {
+            int size = model.names.length;
+            int slot = at.equals("front") ? 0 : at.equals("middle") ? size / 2 : size - 1;
+            name = model.names[slot];
+        }
+    }
+
+    /**
+     * The model for operations that record a step, undone after each invocation. Timing
+     * every invocation on its own adds a few tens of nanoseconds to what's reported.
+     */
+    @State(Scope.Thread)
+    public static class Stepped {
+        VisController controller;
+        private int base;
+
+        @Setup(Level.Trial)
+        public void setUp(ModelBenchmark model) {
+            controller = build(model.names, model.ptrNames);
+            base = controller.getCurrentStep();
+        }
+
+        @TearDown(Level.Invocation)
+        public void undo() {
+            while (controller.getCurrentStep() > base) {
+                controller.undo();
+            }
+        }
+    }
+
+    static VisController build(String[] names, String[] ptrNames) {
+        VisController controller = new VisController();
+        for (int i = 0; i < names.length; i++) {
+            controller.addNonPointer(new NonPointer(names[i], Integer.toString(i), "int"));
+        }
+        for (int i = 0; i < ptrNames.length; i++) {
+            controller.addPointer(new Pointer(ptrNames[i]));
+            controller.pointTo(ptrNames[i], names[i * 7 % names.length]);
+        }
+        return controller;
+    }
+
+    private int next() {
+        int i = next;
+        next = i + 1 == size ? 0 : i + 1;
+        return i;
+    }
+}
@@ -0,0 +1,152 @@
+package com.baker.goodpointersv2;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders memory states to SVG or PNG files on a plain JVM, e.g. to generate diagrams for
+ * course material. Uses the same DiagramLayout and DiagramRenderer as PointerVisualizer,
+ * so every shape lands exactly where it would on a device of the given size and density.
+ * Only the font differs, which can move where long labels are cut.
+ * The whole diagram is exported, even where it is wider than the device.
+ */
+public class DiagramExporter {
+    public static final int SVG = 0;
+    public static final int PNG = 1;
+
+    private final int width;
+    private final int height;
+    private final float densityScalar;
+
+    // Layouts, renderers and targets are reused, but only within one thread.
+    private final ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+        @Override
+        protected Worker initialValue() {
+            return new Worker();
+        }
+    };
+
+    /**
+     * @param width Width of the device view to lay out for, in pixels.
+     * @param height Height of the device view.
+     * @param densityScalar Pixel density of the device.
+     */
+    public DiagramExporter(int width, int height, float densityScalar) {
+        this.width = width;
+        this.height = height;
+        this.densityScalar = densityScalar;
+    }
+
+    public String toSvg(FrameSnapshot frame) {
+        Worker w = workers.get();
+        w.layout(frame);
+        w.svg.begin(w.contentWidth(), height);
+        w.renderer.draw(w.svg, frame, w.layout, 0, 0, w.layout.contentWidth, height);
+        return w.svg.finish();
+    }
+
+    public BufferedImage toImage(FrameSnapshot frame) {
+        Worker w = workers.get();
+        w.layout(frame);
+        BufferedImage image = w.image.begin(w.contentWidth(), height);
+        w.renderer.draw(w.image, frame, w.layout, 0, 0, w.layout.contentWidth, height);
+        w.image.finish();
+        return image;
+    }
+
+    /**
+     * Write one file per frame, frame-00000.svg and so on, spread over several threads.
+     * Frames are immutable, so they can be shared between threads as they are.
+     * @param frames The frames to export.
+     * @param dir Directory to write into. Must exist.
+     * @param format SVG or PNG.
+     * @param threads How many threads to use, e.g. one per core.
+     * @throws IOException If any file couldn't be written. The rest are still written.
+     * @throws InterruptedException If interrupted while waiting for the threads.
+     */
+    public void exportAll(List<FrameSnapshot> frames, final File dir, final int format, int threads)
+            throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> done = new ArrayList<Future<Void>>(frames.size());
+        try {
+            for (int i = 0; i < frames.size(); i++) {
+                final FrameSnapshot frame = frames.get(i);
+                final File file = new File(dir, String.format("frame-%05d.%s", i,
+                        format == SVG ? "svg" : "png"));
+                done.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        export(frame, file, format);
+                        return null;
+                    }
+                }));
+            }
+            IOException failed = null;
+            for (Future<Void> f : done) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    if (failed == null) {
+                        failed = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                                : new IOException(e.getCause());
+                    }
+                }
+            }
+            if (failed != null) {
+                throw failed;
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Write a single frame.
+     * @param frame The frame.
+     * @param file The file to write.
+     * @param format SVG or PNG.
+     * @throws IOException If the file couldn't be written.
+     */
+    public void export(FrameSnapshot frame, File file, int format) throws IOException {
+        if (format == SVG) {
+            Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                out.write(toSvg(frame));
+            } finally {
+                out.close();
+            }
+        } else if (!ImageIO.write(toImage(frame), "png", file)) {
+            throw new IOException("No PNG writer available.");
+        }
+    }
+
+    private final class Worker {
+        final DiagramLayout layout = new DiagramLayout();
+        final SvgTarget svg = new SvgTarget(densityScalar);
+        final ImageTarget image = new ImageTarget(densityScalar);
+        // Both targets measure text the same way, so either can size the labels
+        final DiagramRenderer renderer = new DiagramRenderer(svg, densityScalar);
+
+        // Ordered as the view orders a frame it's given on its own, so arrows don't cross
+        void layout(FrameSnapshot frame) {
+            layout.rebuild(frame, width, height, densityScalar, DiagramOrder.identity(frame).refine());
+        }
+
+        int contentWidth() {
+            return (int) Math.ceil(layout.contentWidth);
+        }
+    }
+}
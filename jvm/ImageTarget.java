@@ -0,0 +1,72 @@
+package com.baker.goodpointersv2;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Draws the diagram into a BufferedImage, e.g. to be written out as a PNG.
+ */
+public class ImageTarget extends JvmTarget {
+    private final Color[] colors = new Color[COLORS.length];
+    private Graphics2D g;
+
+    public ImageTarget(float densityScalar) {
+        super(densityScalar);
+        for (int i = 0; i < COLORS.length; i++) {
+            colors[i] = new Color(COLORS[i], true);
+        }
+    }
+
+    /**
+     * Start a new image on a white background.
+     * @param width Width of the image.
+     * @param height Height of the image.
+     * @return The image, filled in by drawing through this target until finish().
+     */
+    public BufferedImage begin(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setFont(font);
+        g.setStroke(new BasicStroke(lineWidth()));
+        return image;
+    }
+
+    public void finish() {
+        g.dispose();
+        g = null;
+    }
+
+    @Override
+    public void drawRoundRect(float left, float top, float right, float bottom, float radius, int style) {
+        g.setColor(colors[style]);
+        g.fill(new RoundRectangle2D.Float(left, top, right - left, bottom - top, radius * 2, radius * 2));
+    }
+
+    @Override
+    public void drawCircle(float cx, float cy, float radius, int style) {
+        g.setColor(colors[style]);
+        g.fill(new Ellipse2D.Float(cx - radius, cy - radius, radius * 2, radius * 2));
+    }
+
+    @Override
+    public void drawLine(float startX, float startY, float stopX, float stopY, int style) {
+        g.setColor(colors[style]);
+        g.draw(new Line2D.Float(startX, startY, stopX, stopY));
+    }
+
+    @Override
+    public void drawText(String text, float x, float y, int style) {
+        g.setColor(colors[style]);
+        g.drawString(text, x - measureText(text, style) / 2, y);
+    }
+}
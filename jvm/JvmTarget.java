@@ -0,0 +1,49 @@
+package com.baker.goodpointersv2;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+
+/**
+ * What the JVM render targets share: the colours, text size and line width of each
+ * style, matching CanvasTarget's paints, and text measured with one AWT font so SVG and
+ * PNG exports ellipsize labels the same way.
+ * JVM only, like everything in this directory. It isn't part of the app's sources.
+ */
+abstract class JvmTarget implements RenderTarget {
+    // ARGB colour of each style
+    static final int[] COLORS = {0xFF3A5FCD, 0xFFDA4747, 0xFFFFFFFF, 0xFF000000, 0xFF000000, 0xFF000000,
+            0xFFF5A623};
+
+    private static final FontRenderContext FONT_CONTEXT = new FontRenderContext(null, true, true);
+
+    final float densityScalar;
+    final Font font;
+
+    JvmTarget(float densityScalar) {
+        this.densityScalar = densityScalar;
+        this.font = new Font(Font.SANS_SERIF, Font.PLAIN, 1).deriveFont(densityScalar * 13);
+    }
+
+    float lineWidth() {
+        return densityScalar * 2;
+    }
+
+    @Override
+    public void drawLines(float[] pts, int count, int style) {
+        for (int a = 0; a + 3 < count; a += 4) {
+            drawLine(pts[a], pts[a + 1], pts[a + 2], pts[a + 3], style);
+        }
+    }
+
+    @Override
+    public void drawPoints(float[] pts, int count, int style) {
+        for (int a = 0; a + 1 < count; a += 2) {
+            drawCircle(pts[a], pts[a + 1], densityScalar * 5, style);
+        }
+    }
+
+    @Override
+    public float measureText(String text, int style) {
+        return (float) font.getStringBounds(text, FONT_CONTEXT).getWidth();
+    }
+}
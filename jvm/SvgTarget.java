@@ -0,0 +1,91 @@
+package com.baker.goodpointersv2;
+
+import java.util.Locale;
+
+/**
+ * Draws the diagram as an SVG document. Call begin(), draw through DiagramRenderer,
+ * then finish() for the text. Can be reused for the next document afterwards.
+ */
+public class SvgTarget extends JvmTarget {
+    private final StringBuilder out = new StringBuilder();
+
+    public SvgTarget(float densityScalar) {
+        super(densityScalar);
+    }
+
+    /**
+     * Start a new document, throwing away anything drawn before.
+     * @param width Width of the document.
+     * @param height Height of the document.
+     */
+    public void begin(int width, int height) {
+        out.setLength(0);
+        out.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(width)
+                .append("\" height=\"").append(height).append("\" viewBox=\"0 0 ")
+                .append(width).append(' ').append(height).append("\">\n");
+        out.append("<rect width=\"100%\" height=\"100%\" fill=\"#FFFFFF\"/>\n");
+    }
+
+    /**
+     * @return The finished document.
+     */
+    public String finish() {
+        out.append("</svg>\n");
+        return out.toString();
+    }
+
+    @Override
+    public void drawRoundRect(float left, float top, float right, float bottom, float radius, int style) {
+        out.append("<rect x=\"").append(num(left)).append("\" y=\"").append(num(top))
+                .append("\" width=\"").append(num(right - left)).append("\" height=\"")
+                .append(num(bottom - top)).append("\" rx=\"").append(num(radius))
+                .append("\" fill=\"").append(color(style)).append("\"/>\n");
+    }
+
+    @Override
+    public void drawCircle(float cx, float cy, float radius, int style) {
+        out.append("<circle cx=\"").append(num(cx)).append("\" cy=\"").append(num(cy))
+                .append("\" r=\"").append(num(radius)).append("\" fill=\"").append(color(style))
+                .append("\"/>\n");
+    }
+
+    @Override
+    public void drawLine(float startX, float startY, float stopX, float stopY, int style) {
+        out.append("<line x1=\"").append(num(startX)).append("\" y1=\"").append(num(startY))
+                .append("\" x2=\"").append(num(stopX)).append("\" y2=\"").append(num(stopY))
+                .append("\" stroke=\"").append(color(style)).append("\" stroke-width=\"")
+                .append(num(lineWidth())).append("\"/>\n");
+    }
+
+    @Override
+    public void drawText(String text, float x, float y, int style) {
+        out.append("<text x=\"").append(num(x)).append("\" y=\"").append(num(y))
+                .append("\" font-family=\"sans-serif\" font-size=\"").append(num(font.getSize2D()))
+                .append("\" text-anchor=\"middle\" fill=\"").append(color(style)).append("\">");
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '&':
+                    out.append("&amp;");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+        out.append("</text>\n");
+    }
+
+    private static String num(float v) {
+        return String.format(Locale.ROOT, "%.2f", v);
+    }
+
+    private static String color(int style) {
+        return String.format(Locale.ROOT, "#%06X", COLORS[style] & 0xFFFFFF);
+    }
+}
@@ -0,0 +1,110 @@
+package com.baker.goodpointersv2;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AddressSpaceTest {
+    @Test
+    public void sizesTooBigForTheRegionAreRefused() {
+        AddressSpace space = new AddressSpace();
+        int brk = space.getHeapBreak();
+        assertEquals(-1, space.allocHeap(Integer.MAX_VALUE));
+        assertEquals(-1, space.allocHeap(AddressSpace.MAX_HEAP_BLOCK + 1));
+        assertEquals(-1, space.allocHeap(-4));
+        assertEquals(brk, space.getHeapBreak());
+
+        int sp = space.getStackPointer();
+        assertEquals(-1, space.allocStack(Integer.MAX_VALUE));
+        assertEquals(-1, space.allocStack(AddressSpace.STACK_LIMIT + 1));
+        assertEquals(-1, space.allocStack(0));
+        assertEquals(sp, space.getStackPointer());
+        assertEquals(0, space.getUsedBytes());
+
+        assertFalse(space.claim(AddressSpace.HEAP_BASE, Integer.MAX_VALUE));
+        assertFalse(space.claim(AddressSpace.STACK_TOP - 4, 8));
+        assertFalse(space.claim(0, 4));
+        assertEquals(0, space.getUsedBytes());
+    }
+
+    @Test
+    public void largestBlocksStillFit() {
+        AddressSpace space = new AddressSpace();
+        int heap = space.allocHeap(AddressSpace.MAX_HEAP_BLOCK);
+        assertEquals(AddressSpace.HEAP_BASE, heap);
+        assertTrue(space.getHeapBreak() > heap);
+        int stack = space.allocStack(AddressSpace.STACK_LIMIT - 16);
+        assertNotEquals(-1, stack);
+        assertTrue(space.free(heap));
+        assertTrue(space.free(stack));
+        assertEquals(0, space.getUsedBytes());
+    }
+
+    @Test
+    public void millionAllocationsAndFreesReuseMemory() {
+        AddressSpace space = new AddressSpace();
+        Random random = new Random(19);
+        int[] heap = new int[1024];
+        int[] stack = new int[1024];
+        for (int i = 0; i < heap.length; i++) {
+            heap[i] = space.allocHeap(size(random));
+            stack[i] = space.allocStack(size(random));
+        }
+        int brk = space.getHeapBreak();
+        int sp = space.getStackPointer();
+
+        for (int n = 0; n < 1000000; n++) {
+            int i = random.nextInt(heap.length);
+            int[] blocks = (n & 1) == 0 ? heap : stack;
+            assertTrue(space.free(blocks[i]));
+            blocks[i] = blocks == heap ? space.allocHeap(size(random)) : space.allocStack(size(random));
+            assertNotEquals(-1, blocks[i]);
+        }
+        // Freed blocks are taken again, so neither region grows much past its first size
+        assertTrue(space.getHeapBreak() - AddressSpace.HEAP_BASE
+                < 4 * (brk - AddressSpace.HEAP_BASE));
+        assertTrue(AddressSpace.STACK_TOP - space.getStackPointer()
+                < 4 * (AddressSpace.STACK_TOP - sp));
+
+        for (int i = 0; i < heap.length; i++) {
+            assertTrue(space.free(heap[i]));
+            assertTrue(space.free(stack[i]));
+        }
+        assertEquals(0, space.getUsedBytes());
+        assertEquals(AddressSpace.STACK_TOP, space.getStackPointer());
+    }
+
+    @Test
+    public void emptyHeapBlocksAreRefused() {
+        AddressSpace space = new AddressSpace();
+        int brk = space.getHeapBreak();
+        assertEquals(-1, space.allocHeap(0));
+        assertEquals(-1, AddressSpace.footprint(0, true));
+        assertFalse(space.claim(brk, 0));
+        assertEquals(brk, space.getHeapBreak());
+
+        // Before, a zero byte block left the break where it was, so the next block shared it
+        int a = space.allocHeap(1);
+        int b = space.allocHeap(1);
+        assertNotEquals(a, b);
+        assertEquals(8, space.sizeAt(a));
+        assertEquals(a + 8, b);
+    }
+
+    @Test
+    public void doubleFreeIsCaught() {
+        AddressSpace space = new AddressSpace();
+        int a = space.allocHeap(12);
+        assertTrue(space.free(a));
+        assertFalse(space.free(a));
+    }
+
+    private static int size(Random random) {
+        return 1 << random.nextInt(6);
+    }
+}
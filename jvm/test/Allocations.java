@@ -0,0 +1,21 @@
+package com.baker.goodpointersv2;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Counts the bytes the calling thread allocates, through HotSpot's ThreadMXBean.
+ */
+final class Allocations {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private Allocations() {
+    }
+
+    /**
+     * @return Bytes allocated by the calling thread so far.
+     */
+    static long now() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
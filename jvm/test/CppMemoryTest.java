@@ -0,0 +1,145 @@
+package com.baker.goodpointersv2;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CppMemoryTest {
+    @Test
+    public void declarationsAndPointersAreShown() {
+        VisController controller = new VisController();
+        CppMemory memory = new CppMemory(controller);
+        memory.setSource("int x = 5;\nint* p = &x;\n*p = 7;\nint** pp = &p;");
+        assertEquals("{p=->x, pp=->p, x=7}", describe(controller));
+    }
+
+    @Test
+    public void editingALineRerunsWhatReadsIt() {
+        VisController controller = new VisController();
+        CppMemory memory = new CppMemory(controller);
+        memory.setSource("int a = 1;\nint b = a;\nint c = 3;");
+        memory.editLine(0, "int a = 2;");
+        assertEquals("{a=2, b=2, c=3}", describe(controller));
+    }
+
+    @Test
+    public void retargetingAPointerUndoesItsWrite() {
+        VisController controller = new VisController();
+        CppMemory memory = new CppMemory(controller);
+        memory.setSource("int x = 1;\nint y = 2;\nint* p = &x;\n*p = 9;");
+        assertEquals("{p=->x, x=9, y=2}", describe(controller));
+        memory.editLine(2, "int* p = &y;");
+        assertEquals("{p=->y, x=1, y=9}", describe(controller));
+    }
+
+    @Test
+    public void deletingADeclarationRemovesItsVariable() {
+        VisController controller = new VisController();
+        CppMemory memory = new CppMemory(controller);
+        memory.setSource("int x = 1;\nint* p = &x;\nint y = *p;");
+        memory.editLine(0, "");
+        assertEquals("{p=, y=}", describe(controller));
+        memory.editLine(0, "int x = 4;");
+        assertEquals("{p=->x, x=4, y=4}", describe(controller));
+    }
+
+    @Test
+    public void editDoesNotRerunUnrelatedStatements() {
+        VisController controller = new VisController();
+        CppMemory memory = new CppMemory(controller);
+        StringBuilder source = new StringBuilder("int a = 0;\n");
+        for (int i = 1; i < 5000; i++) {
+            source.append("int v").append(i).append(" = ").append(i).append(";\n");
+        }
+        // Fails on every run, so each rerun of it is reported again
+        source.append("q = 1;");
+        memory.setSource(source.toString());
+        VisDiagnostics diagnostics = controller.getDiagnostics();
+        assertEquals(1, diagnostics.getCount(VisDiagnostics.STATEMENT_FAILED));
+
+        memory.editLine(0, "int a = 1;");
+        memory.editLine(2500, "int v2500 = 7;");
+        assertEquals(1, diagnostics.getCount(VisDiagnostics.STATEMENT_FAILED));
+        assertEquals(0, controller.findNonPointerByName("a"));
+    }
+
+    @Test
+    public void refusedStatementIsSetAsideUntilItIsFixed() {
+        // y is already shown by something other than the source, so declaring it is refused
+        VisController controller = new VisController();
+        controller.addNonPointer(new NonPointer("y", "0", "int"));
+        CppMemory memory = new CppMemory(controller);
+        memory.setSource("int x = 1;\nint z = 2;\nint* p = &x;");
+        VisDiagnostics diagnostics = controller.getDiagnostics();
+
+        memory.editLine(1, "int y = 2;");
+        // The rest of the edit still shows
+        assertEquals("{p=->x, x=1, y=0}", describe(controller));
+        long refused = diagnostics.getCount(VisDiagnostics.BATCH_REJECTED);
+        assertTrue(refused > 0);
+
+        // Later edits don't send y again
+        memory.editLine(0, "int x = 3;");
+        memory.editLine(2, "int* p = nullptr;");
+        assertEquals("{p=, x=3, y=0}", describe(controller));
+        assertEquals(refused, diagnostics.getCount(VisDiagnostics.BATCH_REJECTED));
+
+        memory.editLine(1, "int w = 2;");
+        memory.editLine(2, "int* p = &w;");
+        assertEquals("{p=->w, w=2, x=3, y=0}", describe(controller));
+        assertEquals(refused, diagnostics.getCount(VisDiagnostics.BATCH_REJECTED));
+    }
+
+    @Test
+    public void editsEndUpTheSameAsAFreshRun() {
+        String[] statements = {
+                "int a = 1;", "int a = 2;", "int b = a;", "double b = 4;", "int c = b;",
+                "a = 3;", "b = c;", "int* p = &a;", "int* p = &b;", "int* q = p;",
+                "int* q = &c;", "*p = 5;", "*q = a;", "p = q;", "p = nullptr;", "c = *p;",
+                "int** pp = &p;", "int** pp = &q;", "**pp = 6;", "*pp = &c;", "", "int a = 1; b = a;"};
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            String[] lines = new String[8];
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = statements[random.nextInt(statements.length)];
+            }
+            VisController edited = new VisController();
+            CppMemory memory = new CppMemory(edited);
+            memory.setSource(String.join("\n", lines));
+            for (int edit = 0; edit < 10; edit++) {
+                int line = random.nextInt(lines.length);
+                lines[line] = statements[random.nextInt(statements.length)];
+                memory.editLine(line, lines[line]);
+
+                VisController fresh = new VisController();
+                new CppMemory(fresh).setSource(String.join("\n", lines));
+                assertEquals(String.join("\n", lines), describe(fresh), describe(edited));
+            }
+        }
+    }
+
+    // Every variable shown, with a nonPointer's value or what a pointer is aimed at
+    private static String describe(VisController controller) {
+        FrameSnapshot frame = controller.getFrame();
+        TreeMap<String, String> shown = new TreeMap<String, String>();
+        for (int i = 0; i < frame.getNonPointerCount(); i++) {
+            FrameSnapshot.Node node = frame.getNonPointer(i);
+            shown.put(node.getName(), node.getText());
+        }
+        for (int i = 0; i < frame.getPointerCount(); i++) {
+            FrameSnapshot.Node node = frame.getPointer(i);
+            String target = "";
+            if (node.getTarget() != -1) {
+                target = "->" + (node.isTargetPointer()
+                        ? frame.getPointer(node.getTarget()) : frame.getNonPointer(node.getTarget()))
+                        .getName();
+            }
+            shown.put(node.getName(), target);
+        }
+        return shown.toString();
+    }
+}
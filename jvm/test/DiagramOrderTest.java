@@ -0,0 +1,92 @@
+package com.baker.goodpointersv2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DiagramOrderTest {
+    // Pointer i aims at nonPointer count - 1 - i, so in slot order every arrow crosses
+    // every other
+    private static FrameSnapshot reversed(int count) {
+        List<NonPointer> nonPtrs = new ArrayList<NonPointer>();
+        List<Pointer> ptrs = new ArrayList<Pointer>();
+        for (int j = 0; j < count; j++) {
+            NonPointer np = new NonPointer("n" + j, "0", "int");
+            np.setSlot(j);
+            np.setOrder(j);
+            nonPtrs.add(np);
+        }
+        for (int i = 0; i < count; i++) {
+            Pointer p = new Pointer(nonPtrs.get(count - 1 - i), "p" + i);
+            p.setSlot(i);
+            p.setOrder(i);
+            ptrs.add(p);
+        }
+        return FrameSnapshot.of(ptrs, nonPtrs);
+    }
+
+    @Test
+    public void refineUncrossesArrows() {
+        FrameSnapshot frame = reversed(200);
+        DiagramOrder identity = DiagramOrder.identity(frame);
+        assertEquals(200L * 199 / 2, identity.countCrossings());
+        DiagramOrder refined = identity.refine();
+        assertEquals(0, refined.countCrossings());
+        // Already uncrossed, so nothing moves
+        assertSame(refined, refined.refine());
+    }
+
+    @Test
+    public void adaptKeepsColumnsOfSlotsBothFramesHave() {
+        FrameSnapshot frame = reversed(50);
+        DiagramOrder refined = DiagramOrder.identity(frame).refine();
+        assertSame(refined, refined.adapt(frame));
+        FrameSnapshot smaller = reversed(40);
+        DiagramOrder adapted = refined.adapt(smaller);
+        assertTrue(DiagramOrder.sameColumns(adapted, adapted.adapt(smaller)));
+        for (int i = 1; i < 40; i++) {
+            assertTrue(adapted.getPointerColumn(i) < 40);
+            assertTrue((adapted.getPointerColumn(i) < adapted.getPointerColumn(i - 1))
+                    == (refined.getPointerColumn(i) < refined.getPointerColumn(i - 1)));
+        }
+    }
+
+    @Test
+    public void adaptFollowsVariablesToTheirNewSlots() {
+        VisController controller = new VisController();
+        for (int j = 0; j < 20; j++) {
+            controller.addNonPointer(new NonPointer("n" + j, "0", "int"));
+        }
+        for (int i = 0; i < 20; i++) {
+            controller.addPointer(new Pointer("p" + i));
+            controller.pointTo("p" + i, "n" + (19 - i));
+        }
+        DiagramOrder refined = DiagramOrder.identity(controller.getFrame()).refine();
+        // The last of each row moves into the freed slot
+        controller.deleteNonPointer("n3");
+        controller.deletePointer("p5");
+        DiagramOrder adapted = refined.adapt(controller.getFrame());
+        assertEquals(0, adapted.countCrossings());
+        // n19 is in n3's slot now, and left of n3 in the refined order, so its column is kept
+        assertEquals(refined.getNonPointerColumn(19), adapted.getNonPointerColumn(3));
+    }
+
+    @Test
+    public void exportedDiagramIsOrdered() {
+        FrameSnapshot frame = reversed(20);
+        String svg = new DiagramExporter(1080, 1920, 2.625f).toSvg(frame);
+        // Pointer 0 aims at the last nonPointer, so ordered that's drawn under it, on the left
+        assertTrue(labelX(svg, "n19") < labelX(svg, "n0"));
+    }
+
+    private static float labelX(String svg, String label) {
+        int end = svg.indexOf(">" + label + "</text>");
+        int start = svg.lastIndexOf("<text x=\"", end) + "<text x=\"".length();
+        return Float.parseFloat(svg.substring(start, svg.indexOf('"', start)));
+    }
+}
@@ -0,0 +1,122 @@
+package com.baker.goodpointersv2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DiagramRendererTest {
+    /**
+     * Counts what's drawn, measuring text at a fixed width per character.
+     */
+    private static final class CountingTarget implements RenderTarget {
+        int shapes;
+        int lines;
+        int texts;
+
+        @Override
+        public void drawRoundRect(float left, float top, float right, float bottom, float radius, int style) {
+            shapes++;
+        }
+
+        @Override
+        public void drawCircle(float cx, float cy, float radius, int style) {
+            shapes++;
+        }
+
+        @Override
+        public void drawLine(float startX, float startY, float stopX, float stopY, int style) {
+            lines++;
+        }
+
+        @Override
+        public void drawLines(float[] pts, int count, int style) {
+            lines += count / 4;
+        }
+
+        @Override
+        public void drawPoints(float[] pts, int count, int style) {
+            shapes += count / 2;
+        }
+
+        @Override
+        public void drawText(String text, float x, float y, int style) {
+            texts++;
+        }
+
+        @Override
+        public float measureText(String text, int style) {
+            return text.length() * 7;
+        }
+    }
+
+    private static FrameSnapshot frame() {
+        VisController controller = new VisController();
+        VisBatch batch = controller.beginBatch();
+        for (int j = 0; j < 300; j++) {
+            batch.addNonPointer(new NonPointer("n" + j, Integer.toString(j * 7), "int"));
+        }
+        for (int i = 0; i < 100; i++) {
+            batch.addPointer(new Pointer("p" + i));
+            if (i % 10 == 9) {
+                batch.pointToPointer("p" + i, "p" + (i - 1));
+            } else {
+                batch.pointTo("p" + i, "n" + (i * 37 % 300));
+            }
+        }
+        assertTrue(batch.commit());
+        return controller.getFrame();
+    }
+
+    @Test
+    public void drawingALaidOutFrameAllocatesNothing() {
+        FrameSnapshot frame = frame();
+        CountingTarget target = new CountingTarget();
+        DiagramRenderer renderer = new DiagramRenderer(target, 2.625f);
+        DiagramLayout layout = new DiagramLayout();
+        DiagramOrder order = DiagramOrder.identity(frame).refine();
+        layout.rebuild(frame, 1080, 1920, 2.625f, order);
+
+        // The first draws fill the label caches
+        for (int n = 0; n < 50; n++) {
+            drawPanned(renderer, target, frame, layout, n);
+        }
+        target.shapes = 0;
+        long before = Allocations.now();
+        for (int n = 0; n < 1000; n++) {
+            drawPanned(renderer, target, frame, layout, n % 50);
+        }
+        long drawn = Allocations.now() - before;
+        assertTrue(target.shapes > 0);
+        assertEquals("Allocated " + drawn + " bytes in 1000 draws", 0, drawn, 512);
+
+        // Laying the same frame out again reuses the layout's arrays
+        before = Allocations.now();
+        for (int n = 0; n < 100; n++) {
+            layout.rebuild(frame, 1080, 1920, 2.625f, order);
+        }
+        long rebuilt = Allocations.now() - before;
+        assertEquals("Allocated " + rebuilt + " bytes in 100 rebuilds", 0, rebuilt, 512);
+    }
+
+    @Test
+    public void onlyWhatIsOnScreenIsDrawn() {
+        FrameSnapshot frame = frame();
+        CountingTarget target = new CountingTarget();
+        DiagramRenderer renderer = new DiagramRenderer(target, 2.625f);
+        DiagramLayout layout = new DiagramLayout();
+        layout.rebuild(frame, 1080, 1920, 2.625f);
+        renderer.draw(target, frame, layout, 0, 0, layout.contentWidth, 1920);
+        int all = renderer.getNodesDrawn();
+        assertEquals(400, all);
+        renderer.draw(target, frame, layout, 0, 0, 1080, 1920);
+        assertTrue(renderer.getNodesDrawn() < all / 4);
+    }
+
+    // One screen width of the diagram, a step further along each time
+    private static void drawPanned(DiagramRenderer renderer, RenderTarget target, FrameSnapshot frame,
+                                   DiagramLayout layout, int step) {
+        float left = step * (layout.contentWidth - 1080) / 50;
+        renderer.draw(target, frame, layout, left, 0, left + 1080, 1920);
+    }
+}
@@ -0,0 +1,225 @@
+package com.baker.goodpointersv2;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DiagramTransitionTest {
+    // Narrow enough that the spacing between nodes stays at its minimum as the rows grow
+    // and shrink, so a step only moves what it changed
+    private static final int WIDTH = 600;
+    private static final int HEIGHT = 800;
+
+    private final DiagramTransition transition = new DiagramTransition();
+
+    // n0 to n19, with p0 to p9 aimed at n0 to n9
+    private static VisController model() {
+        VisController controller = new VisController();
+        VisBatch batch = controller.beginBatch();
+        for (int j = 0; j < 20; j++) {
+            batch.addNonPointer(new NonPointer("n" + j, Integer.toString(j), "int"));
+        }
+        for (int i = 0; i < 10; i++) {
+            batch.addPointer(new Pointer("p" + i)).pointTo("p" + i, "n" + i);
+        }
+        assertTrue(batch.commit());
+        return controller;
+    }
+
+    private static DiagramLayout layout(FrameSnapshot frame, DiagramOrder order) {
+        DiagramLayout layout = new DiagramLayout();
+        layout.rebuild(frame, WIDTH, HEIGHT, 1, order);
+        return layout;
+    }
+
+    private boolean build(FrameSnapshot from, FrameSnapshot to, int limit) {
+        return transition.build(from, layout(from, null), to, layout(to, null), limit);
+    }
+
+    // What happened to each animated node, by name
+    private Map<String, Integer> nonPointerFlags() {
+        Map<String, Integer> flags = new HashMap<String, Integer>();
+        for (int k = 0; k < transition.nonPtrCount; k++) {
+            flags.put(transition.nonPtrNodes[k].getName(), transition.nonPtrFlags[k]);
+        }
+        return flags;
+    }
+
+    private Map<String, Integer> pointerFlags() {
+        Map<String, Integer> flags = new HashMap<String, Integer>();
+        for (int k = 0; k < transition.ptrCount; k++) {
+            flags.put(transition.ptrNodes[k].getName(), transition.ptrFlags[k]);
+        }
+        return flags;
+    }
+
+    private static Map<String, Integer> flags(Object... nameThenFlags) {
+        Map<String, Integer> flags = new HashMap<String, Integer>();
+        for (int k = 0; k < nameThenFlags.length; k += 2) {
+            flags.put((String) nameThenFlags[k], (Integer) nameThenFlags[k + 1]);
+        }
+        return flags;
+    }
+
+    @Test
+    public void changedValueIsAnimatedInPlace() {
+        VisController controller = model();
+        FrameSnapshot from = controller.getFrame();
+        controller.changeNonPtrVal("n3", "42");
+        assertTrue(build(from, controller.getFrame(), 100));
+
+        // p3 shows the address it holds, which hasn't changed
+        assertEquals(flags("n3", DiagramTransition.CHANGED), nonPointerFlags());
+        assertEquals(0, transition.ptrCount);
+        assertFalse(transition.isStructural());
+        assertTrue(transition.isNonPointerAnimated(controller.findNonPointerByName("n3")));
+        assertFalse(transition.isNonPointerAnimated(controller.findNonPointerByName("n4")));
+        assertEquals(transition.nonPtrFromX[0], transition.nonPtrToX[0], 0);
+    }
+
+    @Test
+    public void unchangedFrameHasNothingToAnimate() {
+        FrameSnapshot frame = model().getFrame();
+        assertFalse(build(frame, frame, 100));
+        assertEquals(0, transition.getAnimatedCount());
+    }
+
+    @Test
+    public void addedNodesAppearWhereTheyArePlaced() {
+        VisController controller = model();
+        FrameSnapshot from = controller.getFrame();
+        VisBatch batch = controller.beginBatch();
+        batch.addNonPointer(new NonPointer("m", "1", "int"));
+        batch.addPointer(new Pointer("q")).pointTo("q", "m");
+        assertTrue(batch.commit());
+        FrameSnapshot to = controller.getFrame();
+        assertTrue(build(from, to, 100));
+
+        assertEquals(flags("m", DiagramTransition.ADDED), nonPointerFlags());
+        assertEquals(flags("q", DiagramTransition.ADDED), pointerFlags());
+        assertTrue(transition.isStructural());
+        DiagramLayout toLayout = layout(to, null);
+        assertEquals(toLayout.nonPtrX[controller.findNonPointerByName("m")], transition.nonPtrFromX[0], 0);
+        assertEquals(toLayout.nonPtrX[controller.findNonPointerByName("m")], transition.nonPtrToX[0], 0);
+        // Its arrow starts out where it ends up
+        assertEquals(transition.stopToX[0], transition.stopFromX[0], 0);
+        assertEquals(toLayout.nonPtrX[controller.findNonPointerByName("m")], transition.stopToX[0], 0);
+    }
+
+    @Test
+    public void deleteRemovesOneNodeAndMovesTheLastIntoItsSlot() {
+        VisController controller = model();
+        FrameSnapshot from = controller.getFrame();
+        DiagramLayout fromLayout = layout(from, null);
+        controller.deleteNonPointer("n2");
+        controller.deletePointer("p9");
+        FrameSnapshot to = controller.getFrame();
+        assertTrue(transition.build(from, fromLayout, to, layout(to, null), 100));
+
+        assertEquals(flags("n2", DiagramTransition.REMOVED, "n19", DiagramTransition.MOVED),
+                nonPointerFlags());
+        // p2's arrow goes with n2, p9 goes, and the last of the others takes p9's place
+        assertEquals(flags("p2", DiagramTransition.RETARGETED, "p9", DiagramTransition.REMOVED),
+                pointerFlags());
+        assertTrue(transition.isStructural());
+        for (int k = 0; k < transition.nonPtrCount; k++) {
+            if (transition.nonPtrNodes[k].getName().equals("n19")) {
+                assertEquals(fromLayout.nonPtrX[19], transition.nonPtrFromX[k], 0);
+                assertEquals(fromLayout.nonPtrX[2], transition.nonPtrToX[k], 0);
+            }
+        }
+        for (int k = 0; k < transition.ptrCount; k++) {
+            if (transition.ptrNodes[k].getName().equals("p2")) {
+                assertEquals(fromLayout.nonPtrX[2], transition.stopFromX[k], 0);
+                assertTrue(Float.isNaN(transition.stopToX[k]));
+            }
+        }
+    }
+
+    @Test
+    public void retargetedPointerMovesItsArrow() {
+        VisController controller = model();
+        FrameSnapshot from = controller.getFrame();
+        DiagramLayout fromLayout = layout(from, null);
+        controller.pointTo("p1", "n15");
+        assertTrue(build(from, controller.getFrame(), 100));
+
+        // It holds another address, too
+        assertEquals(flags("p1", DiagramTransition.RETARGETED | DiagramTransition.CHANGED),
+                pointerFlags());
+        assertEquals(0, transition.nonPtrCount);
+        assertEquals(fromLayout.nonPtrX[1], transition.stopFromX[0], 0);
+        assertEquals(fromLayout.nonPtrX[15], transition.stopToX[0], 0);
+        assertEquals(transition.ptrFromX[0], transition.ptrToX[0], 0);
+    }
+
+    @Test
+    public void moreChangesThanTheLimitAreNotAnimated() {
+        VisController controller = model();
+        FrameSnapshot from = controller.getFrame();
+        VisBatch batch = controller.beginBatch();
+        for (int j = 0; j < 5; j++) {
+            batch.changeNonPtrVal("n" + j, "x");
+        }
+        assertTrue(batch.commit());
+        FrameSnapshot to = controller.getFrame();
+
+        assertFalse(build(from, to, 4));
+        assertEquals(0, transition.getAnimatedCount());
+        assertFalse(transition.isNonPointerAnimated(0));
+        assertTrue(build(from, to, 5));
+        assertEquals(5, transition.getAnimatedCount());
+        // Reused for the next step
+        assertFalse(build(from, to, 2));
+        assertEquals(0, transition.getAnimatedCount());
+    }
+
+    @Test
+    public void reorderedLayoutMovesOnlyWhatWasPlacedElsewhere() {
+        // Pointer i aims at nonPointer 9 - i, so refining the order moves columns around
+        // while the frame stays the same
+        VisController controller = new VisController();
+        VisBatch batch = controller.beginBatch();
+        for (int j = 0; j < 10; j++) {
+            batch.addNonPointer(new NonPointer("n" + j, "0", "int"));
+        }
+        for (int i = 0; i < 10; i++) {
+            batch.addPointer(new Pointer("p" + i)).pointTo("p" + i, "n" + (9 - i));
+        }
+        assertTrue(batch.commit());
+        FrameSnapshot frame = controller.getFrame();
+        DiagramLayout bySlot = layout(frame, null);
+        DiagramLayout refined = layout(frame, DiagramOrder.identity(frame).refine());
+
+        // Pointers that stay put but whose target moves have their arrows moved
+        int moved = 0;
+        for (int s = 0; s < 10; s++) {
+            int target = frame.getPointer(s).getTarget();
+            if (bySlot.nonPtrX[s] != refined.nonPtrX[s]) {
+                moved++;
+            }
+            if (bySlot.ptrX[s] != refined.ptrX[s] || bySlot.nonPtrX[target] != refined.nonPtrX[target]) {
+                moved++;
+            }
+        }
+        assertTrue(moved > 0);
+        assertTrue(transition.build(frame, bySlot, frame, refined, 100));
+        assertEquals(moved, transition.getAnimatedCount());
+        for (int k = 0; k < transition.nonPtrCount; k++) {
+            assertEquals(DiagramTransition.MOVED, transition.nonPtrFlags[k]);
+            assertNotEquals(transition.nonPtrFromX[k], transition.nonPtrToX[k], 0);
+        }
+        for (int k = 0; k < transition.ptrCount; k++) {
+            assertTrue((transition.ptrFlags[k] & (DiagramTransition.MOVED | DiagramTransition.RETARGETED)) != 0);
+        }
+        // The same frame in the same order has nothing to animate
+        assertFalse(transition.build(frame, refined, frame, refined, 100));
+        assertFalse(transition.build(frame, bySlot, frame, refined, moved - 1));
+    }
+}
@@ -0,0 +1,118 @@
+package com.baker.goodpointersv2;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameSnapshotTest {
+    private static final int NON_POINTERS = 50;
+    private static final int POINTERS = 20;
+
+    @Test
+    public void readersNeverSeeAHalfAppliedStep() throws Throwable {
+        final VisController controller = new VisController();
+        VisBatch setup = controller.beginBatch();
+        for (int j = 0; j < NON_POINTERS; j++) {
+            setup.addNonPointer(new NonPointer("n" + j, "0", "int"));
+        }
+        for (int i = 0; i < POINTERS; i++) {
+            setup.addPointer(new Pointer("p" + i)).pointTo("p" + i, "n0");
+        }
+        assertTrue(setup.commit());
+
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicLong framesChecked = new AtomicLong();
+        Thread[] readers = new Thread[3];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        FrameSnapshot last = null;
+                        while (writing.get()) {
+                            FrameSnapshot frame = controller.getFrame();
+                            if (frame != last) {
+                                check(frame);
+                                framesChecked.incrementAndGet();
+                                last = frame;
+                            }
+                        }
+                        check(controller.getFrame());
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+            readers[r].start();
+        }
+
+        // Every step sets all the values to its number and aims every pointer at the
+        // nonPointer it picks, and every fifth also adds or removes a variable at the end
+        try {
+            for (int n = 1; n <= 20000 && failure.get() == null; n++) {
+                VisBatch batch = controller.beginBatch();
+                for (int j = 0; j < NON_POINTERS; j++) {
+                    batch.changeNonPtrVal("n" + j, Integer.toString(n));
+                }
+                for (int i = 0; i < POINTERS; i++) {
+                    batch.pointTo("p" + i, "n" + n % NON_POINTERS);
+                }
+                if (n % 10 == 5) {
+                    batch.addNonPointer(new NonPointer("extra", Integer.toString(n), "int"));
+                } else if (n % 10 == 0) {
+                    batch.deleteNonPointer("extra");
+                }
+                assertTrue(batch.commit());
+            }
+        } finally {
+            writing.set(false);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        assertTrue(framesChecked.get() > 0);
+    }
+
+    @Test
+    public void stepsShareTheNodesTheyDidNotChange() {
+        VisController controller = new VisController();
+        VisBatch setup = controller.beginBatch();
+        for (int j = 0; j < 100000; j++) {
+            setup.addNonPointer(new NonPointer("n" + j, "0", "int"));
+        }
+        assertTrue(setup.commit());
+        // 100,000 slots make a trie of 4 levels
+        FrameSnapshot before = controller.getFrame();
+        controller.changeNonPtrVal("n50000", "1");
+        assertEquals(4, controller.getFrame().nonPtrs.copiedNodes(before.nonPtrs));
+
+        // The last node moves to the front and the end is popped: two paths from the root
+        before = controller.getFrame();
+        controller.deleteNonPointer("n0");
+        assertEquals(7, controller.getFrame().nonPtrs.copiedNodes(before.nonPtrs));
+        assertEquals(0, controller.getFrame().ptrs.copiedNodes(before.ptrs));
+    }
+
+    private static void check(FrameSnapshot frame) {
+        String value = frame.getNonPointer(0).getText();
+        int n = Integer.parseInt(value);
+        for (int j = 0; j < NON_POINTERS; j++) {
+            assertEquals(value, frame.getNonPointer(j).getText());
+        }
+        assertEquals(n % 10 >= 5 ? NON_POINTERS + 1 : NON_POINTERS, frame.getNonPointerCount());
+        for (int i = 0; i < frame.getPointerCount(); i++) {
+            FrameSnapshot.Node ptr = frame.getPointer(i);
+            assertTrue(ptr.getTarget() >= 0 && ptr.getTarget() < frame.getNonPointerCount());
+            assertEquals("n" + n % NON_POINTERS, frame.getNonPointer(ptr.getTarget()).getName());
+        }
+    }
+}
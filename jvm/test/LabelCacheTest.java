@@ -0,0 +1,111 @@
+package com.baker.goodpointersv2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LabelCacheTest {
+    // Every character 10 pixels wide, counting what it's asked to measure
+    private static final class MeasuringTarget implements RenderTarget {
+        int measured;
+        int style = -1;
+
+        @Override
+        public void drawRoundRect(float left, float top, float right, float bottom, float radius, int style) {
+        }
+
+        @Override
+        public void drawCircle(float cx, float cy, float radius, int style) {
+        }
+
+        @Override
+        public void drawLine(float startX, float startY, float stopX, float stopY, int style) {
+        }
+
+        @Override
+        public void drawLines(float[] pts, int count, int style) {
+        }
+
+        @Override
+        public void drawPoints(float[] pts, int count, int style) {
+        }
+
+        @Override
+        public void drawText(String text, float x, float y, int style) {
+        }
+
+        @Override
+        public float measureText(String text, int style) {
+            measured++;
+            this.style = style;
+            return text.length() * 10;
+        }
+    }
+
+    @Test
+    public void labelIsMeasuredOnceUntilEvicted() {
+        MeasuringTarget target = new MeasuringTarget();
+        LabelCache cache = new LabelCache(target, RenderTarget.DARK_TEXT, 100, 8);
+        assertEquals("0x1f", cache.get("0x1f"));
+        assertEquals(40, cache.getWidth("0x1f"), 0);
+        assertEquals("0x1f", cache.get("0x1f"));
+        assertEquals(1, target.measured);
+        assertEquals(RenderTarget.DARK_TEXT, target.style);
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        cache.evict("0x1f");
+        assertEquals(0, cache.size());
+        assertEquals(40, cache.getWidth("0x1f"), 0);
+        assertEquals(2, target.measured);
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void leastRecentlyDrawnLabelGoesFirst() {
+        MeasuringTarget target = new MeasuringTarget();
+        LabelCache cache = new LabelCache(target, RenderTarget.TEXT, 100, 3);
+        cache.get("a");
+        cache.get("b");
+        cache.get("c");
+        // Drawing a again makes b the least recently drawn
+        cache.get("a");
+        cache.get("d");
+        assertEquals(3, cache.size());
+        assertEquals(4, cache.getMisses());
+
+        cache.get("a");
+        cache.get("c");
+        cache.get("d");
+        assertEquals(4, cache.getMisses());
+        cache.get("b");
+        assertEquals(5, cache.getMisses());
+        // b took the place of a, the least recently drawn by then
+        cache.get("a");
+        assertEquals(6, cache.getMisses());
+        assertEquals(3, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(4, cache.getHits());
+    }
+
+    @Test
+    public void tooWideLabelIsCutToFitWithAnEllipsis() {
+        MeasuringTarget target = new MeasuringTarget();
+        LabelCache cache = new LabelCache(target, RenderTarget.TEXT, 50, 8);
+        // Exactly as wide as allowed is left alone
+        assertEquals("12345", cache.get("12345"));
+        assertEquals(50, cache.getWidth("12345"), 0);
+
+        // Four characters and the ellipsis fill the 50 pixels
+        assertEquals("1234\u2026", cache.get("123456"));
+        assertEquals(50, cache.getWidth("123456"), 0);
+        assertEquals("abcd\u2026", cache.get("abcdefghijklmnopqrstuvwxyz"));
+
+        // Nothing fits but the ellipsis
+        LabelCache narrow = new LabelCache(target, RenderTarget.TEXT, 5, 8);
+        assertEquals("\u2026", narrow.get("abc"));
+        assertEquals(10, narrow.getWidth("abc"), 0);
+    }
+}
@@ -0,0 +1,96 @@
+package com.baker.goodpointersv2;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LayoutWorkerTest {
+    private final AtomicInteger notified = new AtomicInteger();
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private final LayoutWorker worker = new LayoutWorker(new LayoutWorker.Listener() {
+        @Override
+        public void onOrderReady(DiagramOrder order) {
+            notified.incrementAndGet();
+            ready.countDown();
+        }
+    });
+
+    @After
+    public void tearDown() {
+        worker.shutdown();
+    }
+
+    // count nonPointers, with a pointer to each, aimed in reverse if crossed
+    private static FrameSnapshot frame(int count, boolean crossed) {
+        List<NonPointer> nonPtrs = new ArrayList<NonPointer>();
+        List<Pointer> ptrs = new ArrayList<Pointer>();
+        for (int j = 0; j < count; j++) {
+            NonPointer np = new NonPointer("n" + j, "0", "int");
+            np.setSlot(j);
+            np.setOrder(j);
+            nonPtrs.add(np);
+        }
+        for (int i = 0; i < count; i++) {
+            Pointer p = new Pointer(nonPtrs.get(crossed ? count - 1 - i : i), "p" + i);
+            p.setSlot(i);
+            p.setOrder(i);
+            ptrs.add(p);
+        }
+        return FrameSnapshot.of(ptrs, nonPtrs);
+    }
+
+    @Test
+    public void onlyOrdersThatMovedSomethingAreReported() throws InterruptedException {
+        worker.request(frame(100, false));
+        FrameSnapshot crossed = frame(100, true);
+        worker.request(crossed);
+        assertTrue(ready.await(10, TimeUnit.SECONDS));
+        DiagramOrder order = worker.orderFor(crossed);
+        assertSame(crossed, order.getFrame());
+        assertEquals(0, order.countCrossings());
+        // Already in slot order, so refining moves nothing
+        assertEquals(1, notified.get());
+    }
+
+    @Test
+    public void orderForAFrameTheWorkerHasNotGotToAllocatesNothing() throws InterruptedException {
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        LayoutWorker lagging = new LayoutWorker(new LayoutWorker.Listener() {
+            @Override
+            public void onOrderReady(DiagramOrder order) {
+                busy.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        try {
+            lagging.request(frame(500, true));
+            assertTrue(busy.await(10, TimeUnit.SECONDS));
+            // The worker is held up in the listener, so this frame's order is carried over
+            FrameSnapshot next = frame(600, false);
+            lagging.request(next);
+            lagging.orderFor(next);
+            long before = Allocations.now();
+            for (int n = 0; n < 10000; n++) {
+                assertSame(next, lagging.orderFor(next).getFrame());
+            }
+            assertTrue(Allocations.now() - before < 1000);
+        } finally {
+            release.countDown();
+            lagging.shutdown();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.baker.goodpointersv2;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MemorySnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Something of everything the format holds
+    private static VisController model() {
+        VisController controller = new VisController();
+        controller.addNonPointer(new NonPointer("g", "7", "long long"));
+        NonPointer onHeap = new NonPointer("h", "x", "char");
+        onHeap.setOnHeap(true);
+        controller.addNonPointer(onHeap);
+        controller.pushFrame("main");
+        controller.addNonPointer(new NonPointer("arr", "0", "int", 100));
+        controller.changeElement("arr", 42, "9");
+        controller.addNonPointer(new NonPointer("gone", "1", "short"));
+        controller.addPointer(new Pointer("p"));
+        controller.pointTo("p", "arr");
+        controller.movePointer("p", 42);
+        controller.derefPointer("p", true);
+        controller.addPointer(new Pointer("pp"));
+        controller.pointToPointer("pp", "p");
+        controller.addPointer(new Pointer("dangling"));
+        controller.pointTo("dangling", "gone");
+        controller.deleteNonPointer("gone");
+        controller.pushFrame("f");
+        controller.addPointer(new Pointer("toHeap"));
+        controller.pointTo("toHeap", "h");
+        return controller;
+    }
+
+    private static byte[] save(VisController controller) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        controller.save(out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void restoredModelSavesTheSameBytes() throws IOException {
+        VisController original = model();
+        byte[] saved = save(original);
+        VisController restored = new VisController();
+        restored.restore(ByteBuffer.wrap(saved));
+        assertArrayEquals(saved, save(restored));
+
+        FrameSnapshot a = original.getFrame();
+        FrameSnapshot b = restored.getFrame();
+        assertEquals(a.getPointerCount(), b.getPointerCount());
+        assertEquals(a.getNonPointerCount(), b.getNonPointerCount());
+        for (int i = 0; i < a.getPointerCount(); i++) {
+            assertNode(a.getPointer(i), b.getPointer(i));
+        }
+        for (int j = 0; j < a.getNonPointerCount(); j++) {
+            assertNode(a.getNonPointer(j), b.getNonPointer(j));
+        }
+        assertEquals("f", restored.getStackFrame().getFunction());
+        assertEquals("main", restored.getStackFrame().getCaller().getFunction());
+    }
+
+    @Test
+    public void restoredModelCarriesOn() throws IOException {
+        VisController restored = new VisController();
+        restored.restore(ByteBuffer.wrap(save(model())));
+
+        // New variables get addresses clear of every restored one
+        restored.addNonPointer(new NonPointer("fresh", "1", "int"));
+        NonPointer onHeap = new NonPointer("freshHeap", "1", "int");
+        onHeap.setOnHeap(true);
+        restored.addNonPointer(onHeap);
+        Set<Integer> addresses = new HashSet<Integer>();
+        FrameSnapshot frame = restored.getFrame();
+        for (int i = 0; i < frame.getPointerCount(); i++) {
+            assertTrue(addresses.add(frame.getPointer(i).getAddressValue()));
+        }
+        for (int j = 0; j < frame.getNonPointerCount(); j++) {
+            assertTrue(addresses.add(frame.getNonPointer(j).getAddressValue()));
+        }
+
+        // Undo stops at the restored model, and popping frames takes their locals
+        assertTrue(restored.undo());
+        assertTrue(restored.undo());
+        assertEquals(0, restored.getCurrentStep());
+        assertEquals(VisDiagnostics.OK, restored.popFrame());
+        assertEquals(-1, restored.findPointerByName("toHeap"));
+        assertEquals(VisDiagnostics.OK, restored.popFrame());
+        assertEquals(-1, restored.findNonPointerByName("arr"));
+        assertTrue(restored.findNonPointerByName("h") != -1);
+    }
+
+    @Test
+    public void modelRestoredFromAFileAllocatesAsBefore() throws IOException {
+        // Saved to a file and mapped back, as MainActivity does across a rotation
+        VisController original = model();
+        original.deleteNonPointer("h");
+        File file = folder.newFile();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            original.save(out);
+        } finally {
+            out.close();
+        }
+        VisController restored = new VisController();
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            restored.restore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            in.close();
+        }
+
+        // The freed heap block and the popped frame's stack are handed out again the same way
+        for (VisController controller : new VisController[] {original, restored}) {
+            NonPointer onHeap = new NonPointer("again", "1", "char");
+            onHeap.setOnHeap(true);
+            controller.addNonPointer(onHeap);
+            controller.popFrame();
+            controller.addNonPointer(new NonPointer("local", "2", "int"));
+        }
+        FrameSnapshot a = original.getFrame();
+        FrameSnapshot b = restored.getFrame();
+        assertEquals(a.getNonPointerCount(), b.getNonPointerCount());
+        for (int j = 0; j < a.getNonPointerCount(); j++) {
+            assertNode(a.getNonPointer(j), b.getNonPointer(j));
+        }
+        assertEquals(a.getPointerCount(), b.getPointerCount());
+        for (int i = 0; i < a.getPointerCount(); i++) {
+            assertNode(a.getPointer(i), b.getPointer(i));
+        }
+    }
+
+    @Test
+    public void truncatedSnapshotIsAnIOException() throws IOException {
+        byte[] saved = save(model());
+        for (int length = 0; length < saved.length; length++) {
+            VisController controller = new VisController();
+            try {
+                controller.restore(ByteBuffer.wrap(Arrays.copyOf(saved, length)));
+                fail("Restored " + length + " of " + saved.length + " bytes");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void fiftyThousandVariablesRoundTrip() throws IOException {
+        VisController controller = new VisController();
+        VisBatch batch = controller.beginBatch();
+        for (int j = 0; j < 40000; j++) {
+            batch.addNonPointer(new NonPointer("n" + j, Integer.toString(j), "int"));
+        }
+        for (int i = 0; i < 10000; i++) {
+            batch.addPointer(new Pointer("p" + i)).pointTo("p" + i, "n" + i * 4);
+        }
+        assertTrue(batch.commit());
+        byte[] saved = save(controller);
+        ByteBuffer in = ByteBuffer.allocateDirect(saved.length);
+        in.put(saved).flip();
+
+        VisController restored = new VisController();
+        long best = Long.MAX_VALUE;
+        for (int n = 0; n < 5; n++) {
+            long start = System.nanoTime();
+            restored.restore(in.duplicate());
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        assertArrayEquals(saved, save(restored));
+        assertEquals(10000, restored.getFrame().getPointerCount());
+        assertTrue("Restoring took " + best / 1000000 + "ms", best < 1000000000L);
+    }
+
+    private static void assertNode(FrameSnapshot.Node a, FrameSnapshot.Node b) {
+        assertEquals(a.getName(), b.getName());
+        assertEquals(a.getText(), b.getText());
+        assertEquals(a.getAddressValue(), b.getAddressValue());
+        assertEquals(a.getSize(), b.getSize());
+        assertEquals(a.getTarget(), b.getTarget());
+        assertEquals(a.isTargetPointer(), b.isTargetPointer());
+    }
+}
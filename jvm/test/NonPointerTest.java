@@ -0,0 +1,61 @@
+package com.baker.goodpointersv2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class NonPointerTest {
+    @Test
+    public void millionElementArrayCollapsesIntoRuns() {
+        NonPointer big = new NonPointer("big", "0", "int", 1000000);
+        assertEquals("0\u00d71000000", big.getDisplayValue());
+        assertEquals(4000000, big.getSize());
+
+        big.setElement(500000, "7");
+        assertEquals("0\u00d7500000, 7, 0\u00d7499999", big.getDisplayValue());
+        // Equal neighbours join one run
+        big.setElement(500001, "7");
+        big.setElement(0, "0");
+        assertEquals("0\u00d7500000, 7\u00d72, 0\u00d7499998", big.getDisplayValue());
+        // Past three runs the rest is left out
+        big.setElement(999999, "9");
+        assertEquals("0\u00d7500000, 7\u00d72, 0\u00d7499997, \u2026", big.getDisplayValue());
+        // Elements written on their own keep their values
+        big.setValue("1");
+        assertEquals("0, 1\u00d7499999, 7\u00d72, \u2026", big.getDisplayValue());
+    }
+
+    @Test
+    public void collapsingStopsAfterTheRunsShown() {
+        // Every element written, but only as far as the fourth run is looked at
+        NonPointer big = new NonPointer("big", "0", "int", 1000000);
+        for (int i = 0; i < 1000000; i++) {
+            big.setElement(i, Integer.toString(i & 1));
+        }
+        assertEquals("0, 1, 0, \u2026", big.getDisplayValue());
+        assertSame(big.getDisplayValue(), big.getDisplayValue());
+    }
+
+    @Test
+    public void elementChangeReachesOnlyThePointersAtIt() {
+        NonPointer arr = new NonPointer("arr", "0", "int", 10);
+        Pointer atThree = new Pointer("a");
+        atThree.setNonPointer(arr, 3);
+        Pointer atFour = new Pointer("b");
+        atFour.setNonPointer(arr, 4);
+        // A third referrer grows the list past the two it starts with, leaving empty room
+        Pointer atFive = new Pointer("c");
+        atFive.setNonPointer(arr, 5);
+        atFive.setNonPointer(new NonPointer("x", "1", "int"));
+
+        arr.setElement(3, "7");
+        assertEquals("7", atThree.getDerefValue());
+        assertEquals("0", atFour.getDerefValue());
+        arr.setValue("2");
+        assertEquals("7", atThree.getDerefValue());
+        assertEquals("2", atFour.getDerefValue());
+        assertEquals("1", atFive.getDerefValue());
+        assertEquals(2, arr.getReferrerCount());
+    }
+}
@@ -0,0 +1,131 @@
+package com.baker.goodpointersv2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PointerTest {
+    // chain[0] is aimed at end, and every other one at the one before it
+    private static Pointer[] chain(NonPointer end, int depth) {
+        Pointer[] chain = new Pointer[depth];
+        chain[0] = new Pointer("p0");
+        chain[0].setNonPointer(end);
+        for (int d = 1; d < depth; d++) {
+            chain[d] = new Pointer("p" + d);
+            chain[d].setPointer(chain[d - 1]);
+        }
+        return chain;
+    }
+
+    @Test
+    public void chainResolvesToItsEnd() {
+        NonPointer x = new NonPointer("x", "5", "int");
+        Pointer[] chain = chain(x, 3);
+        assertSame(x, chain[2].resolve());
+        assertEquals(3, chain[2].getChainDepth());
+        assertEquals(2, chain[1].getChainDepth());
+        assertEquals("5", chain[2].getDerefValue());
+        assertFalse(chain[2].isCyclic());
+    }
+
+    @Test
+    public void cycleIsDetectedAndForgottenOnceBroken() {
+        Pointer a = new Pointer("a");
+        Pointer b = new Pointer("b");
+        Pointer c = new Pointer("c");
+        a.setPointer(b);
+        b.setPointer(c);
+        c.setPointer(a);
+        Pointer into = new Pointer("into");
+        into.setPointer(a);
+        assertNull(into.resolve());
+        assertTrue(into.isCyclic());
+        assertTrue(b.isCyclic());
+        assertEquals(0, into.getChainDepth());
+        assertEquals("", into.getDerefValue());
+
+        NonPointer x = new NonPointer("x", "7", "int");
+        c.setNonPointer(x);
+        assertSame(x, into.resolve());
+        assertFalse(into.isCyclic());
+        assertFalse(a.isCyclic());
+        assertEquals(4, into.getChainDepth());
+    }
+
+    @Test
+    public void retargetingALinkIsSeenAllTheWayUp() {
+        NonPointer x = new NonPointer("x", "1", "int");
+        NonPointer y = new NonPointer("y", "2", "int");
+        Pointer[] chain = chain(x, 1000);
+        Pointer top = chain[999];
+        Pointer[] branch = chain(x, 1);
+        Pointer side = new Pointer("side");
+        side.setPointer(chain[500]);
+        top.deref(true);
+        assertSame(x, top.resolve());
+        assertSame(x, side.resolve());
+        assertEquals("1", top.getToDisplay());
+        assertSame(x, branch[0].resolve());
+
+        // Everything above the changed link follows it, across the branch at chain[500]
+        chain[0].setNonPointer(y);
+        assertSame(y, top.resolve());
+        assertSame(y, side.resolve());
+        assertEquals(1000, top.getChainDepth());
+        assertEquals("2", top.getToDisplay());
+        assertSame(x, branch[0].resolve());
+
+        // Aiming a link in the middle elsewhere cuts off only what's above it
+        chain[600].setPointer(branch[0]);
+        assertSame(x, top.resolve());
+        assertEquals(401, top.getChainDepth());
+        assertSame(y, side.resolve());
+    }
+
+    @Test
+    public void valueChangeReachesDereferencedPointersUpTheChain() {
+        NonPointer x = new NonPointer("x", "1", "int");
+        Pointer[] chain = chain(x, 50);
+        Pointer a = new Pointer("a");
+        Pointer b = new Pointer("b");
+        // A cycle hanging off the chain mustn't keep the walk going
+        a.setPointer(b);
+        b.setPointer(a);
+        chain[49].deref(true);
+        chain[10].deref(true);
+        assertEquals("1", chain[49].getToDisplay());
+        assertEquals("1", chain[10].getToDisplay());
+
+        x.setValue("9");
+        assertEquals("9", chain[49].getToDisplay());
+        assertEquals("9", chain[10].getToDisplay());
+        assertEquals("9", chain[0].getDerefValue());
+    }
+
+    @Test
+    public void walkingAPlainChainAllocatesNothing() {
+        NonPointer x = new NonPointer("x", "1", "int");
+        NonPointer y = new NonPointer("y", "2", "int");
+        Pointer[] chain = chain(x, 1000);
+        Pointer top = chain[999];
+        top.deref(true);
+        // Warm up, then forget and rebuild the chain and change its value, a thousand
+        // links each time
+        for (int n = 0; n < 20000; n++) {
+            chain[0].setNonPointer(n % 2 == 0 ? y : x);
+            top.resolve();
+        }
+        long before = Allocations.now();
+        for (int n = 0; n < 1000; n++) {
+            chain[0].moveTo(0);
+            top.resolve();
+            chain[0].setpValue(n % 2 == 0 ? "3" : "4");
+        }
+        long walked = Allocations.now() - before;
+        assertEquals("Allocated " + walked + " bytes in 1000 walks", 0, walked, 512);
+    }
+}
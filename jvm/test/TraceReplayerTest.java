@@ -0,0 +1,222 @@
+package com.baker.goodpointersv2;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TraceReplayerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TraceReplayer replayer;
+
+    @After
+    public void tearDown() throws IOException {
+        if (replayer != null) {
+            replayer.close();
+        }
+    }
+
+    @Test
+    public void corruptEventLeavesTheChunkToBeReadAgain() throws IOException {
+        byte[] trace = trace(4, 100);
+        corrupt(trace, 4);
+        VisController controller = new VisController();
+        replayer = new TraceReplayer(write(trace), controller);
+
+        assertEquals(0, replayer.advance(4));
+        assertEquals(0, replayer.getStep());
+        assertTrue(replayer.seek(3));
+        assertEquals("v3", value(controller));
+        assertFalse(replayer.step());
+        assertEquals(3, replayer.getStep());
+        assertEquals(2, controller.getDiagnostics().getCount(VisDiagnostics.BAD_TRACE));
+    }
+
+    @Test
+    public void seekReplaysFromTheNearestKeyframe() throws IOException {
+        // An event replayed from the start would fail, so every seek past the keyframe
+        // after it shows that the keyframe was used
+        byte[] trace = trace(1000, 100);
+        corrupt(trace, 150);
+        VisController controller = new VisController();
+        replayer = new TraceReplayer(write(trace), controller);
+
+        assertTrue(replayer.seek(950));
+        assertEquals("v950", value(controller));
+        assertTrue(replayer.seek(200));
+        assertEquals("v200", value(controller));
+        assertTrue(replayer.seek(120));
+        assertFalse(replayer.seek(160));
+        assertTrue(replayer.seek(1000));
+        assertEquals("v1000", value(controller));
+        assertTrue(replayer.seek(0));
+        assertEquals(0, controller.getFrame().getNonPointerCount());
+    }
+
+    @Test
+    public void seekCostDoesNotGrowWithTheTrace() throws IOException {
+        VisController controller = new VisController();
+        replayer = new TraceReplayer(write(trace(200000, 256)), controller);
+        // Warm up, then seek back and forth across the whole trace
+        for (int n = 0; n < 200; n++) {
+            assertTrue(replayer.seek(1 + n * 997 % 199999));
+        }
+        long start = System.nanoTime();
+        for (int n = 0; n < 200; n++) {
+            assertTrue(replayer.seek(200000 - n * 991 % 199999));
+        }
+        long perSeek = (System.nanoTime() - start) / 200;
+        assertEquals("v" + (200000 - 199 * 991 % 199999), value(controller));
+
+        assertTrue(replayer.seek(0));
+        start = System.nanoTime();
+        assertEquals(200000, replayer.advance(200000));
+        long replay = System.nanoTime() - start;
+        // A seek replays at most 256 of the 200,000 events
+        assertTrue("Seek took " + perSeek + "ns, replaying everything " + replay + "ns",
+                perSeek * 20 < replay);
+    }
+
+    @Test
+    public void seekHandsOutTheAddressesSteppingWould() throws IOException {
+        // b's freed block is reused by d, whether stepped to or restored from the keyframe
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(out, 4);
+        writer.addNonPointer("a", "1", "int", true);
+        writer.addNonPointer("b", "2", "int", true);
+        writer.addNonPointer("c", "3", "int", true);
+        writer.deleteNonPointer("b");
+        writer.addNonPointer("d", "4", "int", true);
+        writer.finish();
+        VisController controller = new VisController();
+        replayer = new TraceReplayer(write(out.toByteArray()), controller);
+        assertEquals(5, replayer.advance(5));
+        String stepped = describe(controller);
+        assertTrue(replayer.seek(0));
+        assertTrue(replayer.seek(5));
+        assertEquals(stepped, describe(controller));
+    }
+
+    @Test
+    public void seekMatchesSteppingFromTheStart() throws IOException {
+        // Locals and heap blocks of mixed sizes come and go, in and out of calls, so the
+        // keyframes have holes, free lists and frames to carry
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(out, 7);
+        String[] types = {"char", "short", "int", "double", "long double"};
+        List<String> live = new ArrayList<String>();
+        Random random = new Random(3);
+        int depth = 0;
+        for (int n = 0; n < 400; n++) {
+            int roll = random.nextInt(10);
+            if (roll < 5 || live.isEmpty()) {
+                String name = "v" + n;
+                writer.addNonPointer(name, Integer.toString(n), types[random.nextInt(types.length)],
+                        random.nextBoolean());
+                live.add(name);
+            } else if (roll < 8) {
+                writer.deleteNonPointer(live.remove(random.nextInt(live.size())));
+            } else if (roll == 8 || depth == 0) {
+                writer.pushFrame("f" + n);
+                depth++;
+            } else {
+                // Locals of the popped frame go with it, so stop tracking them all
+                writer.popFrame();
+                depth--;
+                live.clear();
+            }
+        }
+        writer.finish();
+        VisController stepped = new VisController();
+        TraceReplayer reference = new TraceReplayer(write(out.toByteArray()), stepped);
+        VisController controller = new VisController();
+        replayer = new TraceReplayer(write(out.toByteArray()), controller);
+        try {
+            for (int step = 1; step <= reference.getStepCount(); step++) {
+                assertTrue(reference.step());
+                assertTrue(replayer.seek(0));
+                assertTrue(replayer.seek(step));
+                assertEquals("Step " + step, describe(stepped), describe(controller));
+            }
+        } finally {
+            reference.close();
+        }
+    }
+
+    // One variable x, then a new value for it on every step after the first
+    private static byte[] trace(int steps, int keyframeInterval) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(out, keyframeInterval);
+        writer.addNonPointer("x", "v1", "int", false);
+        for (int s = 2; s <= steps; s++) {
+            writer.changeNonPtrVal("x", "v" + s);
+        }
+        writer.finish();
+        return out.toByteArray();
+    }
+
+    // Make the event of a step, from 2 up, an unknown kind. Its value is a new string, so
+    // the event comes straight after that string's record.
+    private static void corrupt(byte[] trace, int step) {
+        byte[] value = ("v" + step).getBytes(Charset.forName("UTF-8"));
+        for (int i = 1; i + value.length < trace.length; i++) {
+            int k = 0;
+            while (k < value.length && trace[i + k] == value[k]) {
+                k++;
+            }
+            if (k == value.length && trace[i - 1] == value.length) {
+                trace[i + value.length] = 99;
+                return;
+            }
+        }
+        throw new AssertionError("No step " + step + " in trace");
+    }
+
+    private File write(byte[] trace) throws IOException {
+        File file = folder.newFile();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(trace);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    // Every variable in slot order, with its address
+    private static String describe(VisController controller) {
+        FrameSnapshot frame = controller.getFrame();
+        StringBuilder s = new StringBuilder();
+        for (int j = 0; j < frame.getNonPointerCount(); j++) {
+            FrameSnapshot.Node node = frame.getNonPointer(j);
+            s.append(node.getName()).append('=').append(node.getText()).append('@')
+                    .append(node.getAddress()).append(' ');
+        }
+        for (int i = 0; i < frame.getPointerCount(); i++) {
+            FrameSnapshot.Node node = frame.getPointer(i);
+            s.append(node.getName()).append('@').append(node.getAddress()).append(' ');
+        }
+        return s.toString();
+    }
+
+    private static String value(VisController controller) {
+        FrameSnapshot frame = controller.getFrame();
+        return frame.getNonPointer(0).getText();
+    }
+}
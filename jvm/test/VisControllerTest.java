@@ -0,0 +1,418 @@
+package com.baker.goodpointersv2;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VisControllerTest {
+    @Test
+    public void variableThatDoesNotFitIsNotAdded() {
+        VisController controller = new VisController();
+        int steps = controller.getStepCount();
+        NonPointer local = new NonPointer("big", "0", "char", AddressSpace.STACK_LIMIT + 1);
+        assertEquals(VisDiagnostics.OUT_OF_MEMORY, controller.addNonPointer(local));
+        NonPointer onHeap = new NonPointer("huge", "0", "int", AddressSpace.MAX_HEAP_BLOCK);
+        onHeap.setOnHeap(true);
+        assertEquals(VisDiagnostics.OUT_OF_MEMORY, controller.addNonPointer(onHeap));
+
+        assertEquals(-1, controller.findNonPointerByName("big"));
+        assertEquals(-1, controller.findNonPointerByName("huge"));
+        assertEquals(0, controller.getFrame().getNonPointerCount());
+        assertEquals(steps, controller.getStepCount());
+        assertEquals(-1, controller.findNonPointerByAddress(0));
+        assertEquals(2, controller.getDiagnostics().getCount(VisDiagnostics.OUT_OF_MEMORY));
+
+        // The name is still free
+        assertEquals(VisDiagnostics.OK, controller.addNonPointer(new NonPointer("big", "1", "char")));
+    }
+
+    @Test
+    public void batchThatDoesNotFitIsRejected() {
+        VisController controller = new VisController();
+        controller.addNonPointer(new NonPointer("a", "1", "int"));
+        int steps = controller.getStepCount();
+        boolean applied = controller.beginBatch()
+                .addNonPointer(new NonPointer("b", "2", "int"))
+                .addNonPointer(new NonPointer("c", "0", "int", AddressSpace.STACK_LIMIT / 8))
+                .addNonPointer(new NonPointer("d", "0", "int", AddressSpace.STACK_LIMIT / 8))
+                .commit();
+        assertFalse(applied);
+        assertEquals(steps, controller.getStepCount());
+        assertEquals(1, controller.getFrame().getNonPointerCount());
+        assertEquals(-1, controller.findNonPointerByName("b"));
+        VisDiagnostics diagnostics = controller.getDiagnostics();
+        assertEquals(VisDiagnostics.BATCH_REJECTED, diagnostics.getCode(diagnostics.size() - 1));
+        assertEquals(2, diagnostics.getArg(diagnostics.size() - 1));
+
+        assertTrue(controller.beginBatch()
+                .addNonPointer(new NonPointer("b", "2", "int"))
+                .addNonPointer(new NonPointer("c", "0", "int", AddressSpace.STACK_LIMIT / 8))
+                .commit());
+        assertNotEquals(-1, controller.findNonPointerByName("c"));
+    }
+
+    @Test
+    public void undoingADeletePutsSlotsBack() throws IOException {
+        VisController controller = new VisController();
+        for (int i = 0; i < 5; i++) {
+            controller.addNonPointer(new NonPointer("n" + i, Integer.toString(i), "int"));
+        }
+        for (int i = 0; i < 5; i++) {
+            controller.addPointer(new Pointer("p" + i));
+            controller.pointTo("p" + i, "n" + (4 - i));
+        }
+        byte[] before = save(controller);
+        controller.deleteNonPointer("n1");
+        controller.deletePointer("p1");
+        assertEquals(1, controller.findNonPointerByName("n4"));
+        assertTrue(controller.undo());
+        assertTrue(controller.undo());
+        assertEquals(1, controller.findNonPointerByName("n1"));
+        assertEquals(4, controller.findNonPointerByName("n4"));
+        assertEquals(1, controller.findPointerByName("p1"));
+        assertArrayEquals(before, save(controller));
+        assertEquals("n1", controller.getFrame().getNonPointer(1).getName());
+        assertEquals(3, controller.getFrame().getPointer(1).getTarget());
+    }
+
+    @Test
+    public void deletingAtTheFrontLeavesTheRestInPlace() {
+        VisController controller = new VisController();
+        VisBatch batch = controller.beginBatch();
+        for (int j = 0; j < 100000; j++) {
+            batch.addNonPointer(new NonPointer("n" + j, "0", "int"));
+        }
+        assertTrue(batch.commit());
+        FrameSnapshot before = controller.getFrame();
+        controller.deleteNonPointer("n0");
+        // The last one is moved into the freed slot, and no other node is made again
+        int[] changed = new int[4];
+        assertEquals(1, controller.getFrame().nonPtrs.diffShared(before.nonPtrs, changed));
+        assertEquals(0, changed[0]);
+        assertEquals(0, controller.findNonPointerByName("n99999"));
+        assertEquals(1, controller.findNonPointerByName("n1"));
+    }
+
+    @Test
+    public void changingAValueRefreshesOnlyThePointersLeadingToIt() {
+        VisController controller = new VisController();
+        aimAtX(controller);
+        FrameSnapshot before = controller.getFrame();
+        assertEquals(VisDiagnostics.OK, controller.changeNonPtrVal("x", "5"));
+
+        // Only x, the two pointers at it and the pointer to one of them get new nodes
+        FrameSnapshot after = controller.getFrame();
+        int[] changed = new int[8];
+        assertEquals(1, after.nonPtrs.diffShared(before.nonPtrs, changed));
+        assertEquals(controller.findNonPointerByName("x"), changed[0]);
+        int count = after.ptrs.diffShared(before.ptrs, changed);
+        int[] expected = {controller.findPointerByName("p"), controller.findPointerByName("q"),
+                controller.findPointerByName("pp")};
+        Arrays.sort(expected);
+        int[] slots = Arrays.copyOf(changed, count);
+        Arrays.sort(slots);
+        assertArrayEquals(expected, slots);
+        assertEquals("5", after.getPointer(expected[0]).getText());
+        assertEquals("5", after.getPointer(expected[2]).getText());
+    }
+
+    @Test
+    public void deletingAVariableLeavesExactlyItsPointersDangling() {
+        VisController controller = new VisController();
+        List<Pointer> pointers = aimAtX(controller);
+        assertEquals(VisDiagnostics.OK, controller.deleteNonPointer("x"));
+        // Only they lose their arrows; pp is still aimed at p
+        FrameSnapshot frame = controller.getFrame();
+        for (Pointer p : pointers) {
+            boolean atX = p.getName().equals("p") || p.getName().equals("q");
+            assertEquals(p.getName(), atX, p.isDangling());
+            assertEquals(p.getName(), atX, frame.getPointer(p.getSlot()).getTarget() == -1);
+        }
+    }
+
+    // x with p and q aimed at it and pp aimed at p, among 100 other pointers at other
+    // variables. All but q show the values they lead to.
+    private static List<Pointer> aimAtX(VisController controller) {
+        List<Pointer> pointers = new ArrayList<Pointer>();
+        VisBatch batch = controller.beginBatch();
+        for (int j = 0; j < 100; j++) {
+            pointers.add(new Pointer("r" + j));
+            batch.addNonPointer(new NonPointer("n" + j, Integer.toString(j), "int"))
+                    .addPointer(pointers.get(j)).pointTo("r" + j, "n" + j);
+        }
+        batch.addNonPointer(new NonPointer("x", "1", "int"));
+        for (String name : new String[] {"p", "q", "pp"}) {
+            pointers.add(new Pointer(name));
+            batch.addPointer(pointers.get(pointers.size() - 1));
+        }
+        assertTrue(batch.pointTo("p", "x").pointTo("q", "x").pointToPointer("pp", "p").commit());
+        for (Pointer p : pointers) {
+            if (!p.getName().equals("q")) {
+                assertEquals(VisDiagnostics.OK, controller.derefPointer(p.getName(), true));
+            }
+        }
+        return pointers;
+    }
+
+    @Test
+    public void pointerArithmeticStaysWithinWhatItPointsAt() {
+        VisController controller = new VisController();
+        controller.addNonPointer(new NonPointer("arr", "0", "int", 10));
+        controller.addNonPointer(new NonPointer("x", "1", "double"));
+        Pointer p = new Pointer("p");
+        controller.addPointer(p);
+        controller.addPointer(new Pointer("q"));
+        controller.pointTo("p", "arr");
+        controller.pointTo("q", "x");
+        int base = controller.getFrame().getNonPointer(controller.findNonPointerByName("arr"))
+                .getAddressValue();
+        int steps = controller.getStepCount();
+
+        // One past the end is as far as it goes, and the first element as far back
+        assertEquals(VisDiagnostics.OK, controller.movePointer("p", 10));
+        assertEquals(base + 40, p.getpAddressValue());
+        assertEquals(VisDiagnostics.OUT_OF_BOUNDS, controller.movePointer("p", 1));
+        assertEquals(VisDiagnostics.OK, controller.movePointer("p", -7));
+        assertEquals(base + 12, p.getpAddressValue());
+        assertEquals(VisDiagnostics.OUT_OF_BOUNDS, controller.movePointer("p", -4));
+        assertEquals(VisDiagnostics.OUT_OF_BOUNDS, controller.movePointer("p", Integer.MIN_VALUE));
+        assertEquals(VisDiagnostics.OK, controller.movePointer("p", -3));
+        assertEquals(base, p.getpAddressValue());
+        // A plain variable is an array of one
+        assertEquals(VisDiagnostics.OK, controller.movePointer("q", 1));
+        assertEquals(VisDiagnostics.OUT_OF_BOUNDS, controller.movePointer("q", 1));
+        assertEquals(VisDiagnostics.NO_POINTER, controller.movePointer("r", 1));
+
+        // Refused moves aren't steps and leave the pointer where it was
+        assertEquals(steps + 4, controller.getStepCount());
+        assertEquals(4, controller.getDiagnostics().getCount(VisDiagnostics.OUT_OF_BOUNDS));
+    }
+
+    @Test
+    public void addressInsideAnArrayFindsTheArray() {
+        VisController controller = new VisController();
+        String[] types = {"char", "int", "double"};
+        VisBatch batch = controller.beginBatch();
+        for (int j = 0; j < 300; j++) {
+            NonPointer np = new NonPointer("a" + j, "0", types[j % 3], 1 + j % 17);
+            np.setOnHeap(j % 2 == 0);
+            batch.addNonPointer(np);
+        }
+        assertTrue(batch.commit());
+        // Deleting some moves others into their slots, so the index is built again
+        for (int j = 0; j < 300; j += 7) {
+            controller.deleteNonPointer("a" + j);
+        }
+
+        FrameSnapshot frame = controller.getFrame();
+        for (int slot = 0; slot < frame.getNonPointerCount(); slot++) {
+            FrameSnapshot.Node node = frame.getNonPointer(slot);
+            int start = node.getAddressValue();
+            int end = start + node.getSize();
+            assertEquals(slot, controller.findNonPointerByAddress(start));
+            assertEquals(slot, controller.findNonPointerByAddress(start + node.getSize() / 2));
+            assertEquals(slot, controller.findNonPointerByAddress(end - 1));
+            assertNotEquals(slot, controller.findNonPointerByAddress(end));
+            assertNotEquals(slot, controller.findNonPointerByAddress(start - 1));
+        }
+        assertEquals(-1, controller.findNonPointerByAddress(0));
+
+        // An address in the middle of an array aims a pointer at that element
+        int slot = controller.findNonPointerByName("a10");
+        FrameSnapshot.Node arr = frame.getNonPointer(slot);
+        Pointer p = new Pointer("p");
+        controller.addPointer(p);
+        assertEquals(VisDiagnostics.OK, controller.pointToAddress("p", arr.getAddressValue() + 5 * 4));
+        assertEquals(5, p.getElement());
+        assertEquals(VisDiagnostics.NO_ADDRESS,
+                controller.pointToAddress("p", arr.getAddressValue() + 5 * 4 + 1));
+    }
+
+    @Test
+    public void everyStepRestoresTheSameModel() throws IOException {
+        VisController controller = new VisController();
+        Random random = new Random(1);
+        List<byte[]> saved = new ArrayList<byte[]>();
+        saved.add(saveModel(controller));
+        for (int n = 0; n < 400; n++) {
+            String nonPtr = "n" + random.nextInt(12);
+            String ptr = "p" + random.nextInt(6);
+            int result;
+            switch (random.nextInt(5)) {
+                case 0:
+                case 1:
+                    result = controller.addNonPointer(new NonPointer(nonPtr, Integer.toString(n), "int"));
+                    break;
+                case 2:
+                    result = controller.addPointer(new Pointer(ptr));
+                    if (result != VisDiagnostics.OK) {
+                        result = controller.pointTo(ptr, nonPtr);
+                    }
+                    break;
+                case 3:
+                    result = controller.deleteNonPointer(nonPtr);
+                    break;
+                default:
+                    result = controller.deletePointer(ptr);
+            }
+            if (result == VisDiagnostics.OK) {
+                saved.add(saveModel(controller));
+            }
+        }
+        assertEquals(saved.size(), controller.getStepCount());
+        for (int n = 0; n < 1000; n++) {
+            int step = random.nextInt(saved.size());
+            assertTrue(controller.jumpToStep(step));
+            assertArrayEquals("step " + step, saved.get(step), saveModel(controller));
+        }
+    }
+
+    @Test
+    public void undoAndRedoDoNotGrowTheFrame() {
+        VisController controller = new VisController();
+        controller.pushFrame("f");
+        StackFrame f = controller.getStackFrame();
+        controller.addNonPointer(new NonPointer("x", "1", "int"));
+        controller.addPointer(new Pointer("p"));
+        controller.pointTo("p", "x");
+        for (int n = 0; n < 1000; n++) {
+            assertTrue(controller.jumpToStep(1));
+            assertTrue(controller.jumpToStep(controller.getStepCount() - 1));
+        }
+        assertTrue(f.pointers.size() + f.nonPointers.size() <= 16);
+
+        // Every live local is still listed, so popping the frame takes them all
+        assertEquals(VisDiagnostics.OK, controller.popFrame());
+        assertEquals(0, controller.getFrame().getPointerCount());
+        assertEquals(0, controller.getFrame().getNonPointerCount());
+        assertEquals(0, controller.getAddressSpace().getUsedBytes());
+    }
+
+    @Test
+    public void poppingAFrameLeavesWhatCameAfterItAlone() {
+        VisController controller = new VisController();
+        controller.pushFrame("f");
+        VisBatch batch = controller.beginBatch();
+        for (int j = 0; j < 1000; j++) {
+            batch.addNonPointer(new NonPointer("local" + j, "0", "int"));
+        }
+        for (int j = 0; j < 100000; j++) {
+            NonPointer np = new NonPointer("n" + j, "0", "int");
+            np.setOnHeap(true);
+            batch.addNonPointer(np);
+        }
+        assertTrue(batch.commit());
+        FrameSnapshot before = controller.getFrame();
+        assertEquals(VisDiagnostics.OK, controller.popFrame());
+        // Heap variables from the end fill the locals' slots, nothing else is made again
+        int[] changed = new int[1000];
+        assertEquals(1000, controller.getFrame().nonPtrs.diffShared(before.nonPtrs, changed));
+        assertEquals(100000, controller.getFrame().getNonPointerCount());
+        assertEquals(-1, controller.findNonPointerByName("local0"));
+        assertNotEquals(-1, controller.findNonPointerByName("n99999"));
+    }
+
+    @Test
+    public void tenThousandRecursiveCallsReturn() {
+        VisController controller = new VisController();
+        for (int d = 0; d < 10000; d++) {
+            controller.pushFrame("f");
+            controller.addNonPointer(new NonPointer("n" + d, Integer.toString(d), "int"));
+        }
+        assertEquals(10000, controller.getStackFrame().getDepth());
+        for (int d = 10000; d > 0; d--) {
+            assertEquals(VisDiagnostics.OK, controller.popFrame());
+            assertEquals(d - 1, controller.getFrame().getNonPointerCount());
+        }
+        assertEquals(null, controller.getStackFrame());
+        assertEquals(0, controller.getAddressSpace().getUsedBytes());
+        assertTrue(controller.undo());
+        assertEquals(1, controller.getStackFrame().getDepth());
+        assertEquals(0, controller.findNonPointerByName("n0"));
+    }
+
+    @Test
+    public void bulkLoadCostsTheSamePerVariableAtEverySize() {
+        // Warm up, so the JIT has removed what it's going to before anything is counted
+        loadBytesPerVariable(10000);
+        loadBytesPerVariable(10000);
+        long small = loadBytesPerVariable(1000);
+        long medium = loadBytesPerVariable(10000);
+        long large = loadBytesPerVariable(100000);
+        // Each step copies O(log n) trie nodes and lists grow by doubling, so allow some
+        // drift. Anything O(n) per variable would be 10 to 100 times over.
+        assertTrue(medium + " vs " + small, medium < small * 3 / 2);
+        assertTrue(large + " vs " + small, large < small * 3 / 2);
+    }
+
+    // Adds count nonPointers one call at a time, with a pointer for every tenth
+    private static long loadBytesPerVariable(int count) {
+        String[] names = new String[count];
+        for (int j = 0; j < count; j++) {
+            names[j] = "n" + j;
+        }
+        long before = Allocations.now();
+        VisController controller = new VisController();
+        for (int j = 0; j < count; j++) {
+            controller.addNonPointer(new NonPointer(names[j], "0", "int"));
+        }
+        for (int i = 0; i < count / 10; i++) {
+            controller.addPointer(new Pointer("p" + i));
+            controller.pointTo("p" + i, names[i * 7 % count]);
+        }
+        long bytes = Allocations.now() - before;
+        assertEquals(count, controller.getFrame().getNonPointerCount());
+        return bytes / count;
+    }
+
+    private static byte[] save(VisController controller) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        controller.save(out);
+        return out.toByteArray();
+    }
+
+    // The snapshot without the allocator state at its end. A jump puts every block back,
+    // but frees and claims them in an order of its own, so the free lists can differ.
+    private static byte[] saveModel(VisController controller) throws IOException {
+        byte[] saved = save(controller);
+        ByteArrayOutputStream state = new ByteArrayOutputStream();
+        MemorySnapshot.Writer w = new MemorySnapshot.Writer(state);
+        controller.getAddressSpace().writeState(w);
+        w.flush();
+        return Arrays.copyOf(saved, saved.length - state.size());
+    }
+
+    @Test
+    public void millionAddsAndDeletesKeepAddressesBounded() {
+        VisController controller = new VisController();
+        String[] names = new String[256];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "v" + i;
+            controller.addNonPointer(new NonPointer(names[i], "0", "int"));
+        }
+        int sp = controller.getAddressSpace().getStackPointer();
+        VisBatch batch = controller.beginBatch();
+        for (int n = 0; n < 1000000; n++) {
+            String name = names[n * 31 & 255];
+            batch.deleteNonPointer(name).addNonPointer(new NonPointer(name, Integer.toString(n), "int"));
+            if (batch.size() == 512) {
+                assertTrue(batch.commit());
+                batch = controller.beginBatch();
+            }
+        }
+        assertEquals(names.length, controller.getFrame().getNonPointerCount());
+        assertEquals(names.length * 4, controller.getAddressSpace().getUsedBytes());
+        assertTrue(sp - controller.getAddressSpace().getStackPointer() <= names.length * 4);
+    }
+}
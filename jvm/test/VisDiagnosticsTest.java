@@ -0,0 +1,119 @@
+package com.baker.goodpointersv2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class VisDiagnosticsTest {
+    @Test
+    public void ringKeepsTheLatestEvents() {
+        // Rounded up to 4
+        VisDiagnostics diagnostics = new VisDiagnostics(3);
+        for (int n = 0; n < 10; n++) {
+            diagnostics.report(VisDiagnostics.NO_ELEMENT, "a" + n, n);
+        }
+        assertEquals(4, diagnostics.size());
+        assertEquals(10, diagnostics.getRecorded());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(VisDiagnostics.NO_ELEMENT, diagnostics.getCode(i));
+            assertEquals("a" + (6 + i), diagnostics.getSubject(i));
+            assertEquals(6 + i, diagnostics.getArg(i));
+        }
+        assertEquals("No element 9 in a9.", diagnostics.format(3));
+
+        diagnostics.clear();
+        assertEquals(0, diagnostics.size());
+        assertEquals(10, diagnostics.getCount(VisDiagnostics.NO_ELEMENT));
+        diagnostics.report(VisDiagnostics.NO_FUNCTION, null, 0);
+        assertEquals(1, diagnostics.size());
+        assertEquals(VisDiagnostics.NO_FUNCTION, diagnostics.getCode(0));
+    }
+
+    @Test
+    public void countsAndListenerCarryOnWithRecordingOff() {
+        VisDiagnostics diagnostics = new VisDiagnostics();
+        final List<String> heard = new ArrayList<String>();
+        diagnostics.setListener(new VisDiagnostics.Listener() {
+            @Override
+            public void onDiagnostic(int code, String subject, int arg) {
+                heard.add(VisDiagnostics.format(code, subject, arg));
+            }
+        });
+        diagnostics.report(VisDiagnostics.NO_POINTER, "p", 0);
+        diagnostics.setEnabled(false);
+        assertEquals(VisDiagnostics.NO_STEP, diagnostics.report(VisDiagnostics.NO_STEP, null, 12));
+        diagnostics.setListener(null);
+        diagnostics.report(VisDiagnostics.NO_STEP, null, 13);
+
+        assertEquals(1, diagnostics.size());
+        assertEquals(2, diagnostics.getCount(VisDiagnostics.NO_STEP));
+        assertEquals(2, heard.size());
+        assertEquals("Cannot find pointer p in list.", heard.get(0));
+        assertEquals("No step 12 to go to.", heard.get(1));
+    }
+
+    @Test
+    public void operationsReturnTheCodeTheyReport() {
+        VisController controller = new VisController();
+        VisDiagnostics diagnostics = controller.getDiagnostics();
+        final List<Integer> heard = new ArrayList<Integer>();
+        diagnostics.setListener(new VisDiagnostics.Listener() {
+            @Override
+            public void onDiagnostic(int code, String subject, int arg) {
+                heard.add(code);
+            }
+        });
+        assertEquals(VisDiagnostics.OK, controller.addNonPointer(new NonPointer("arr", "0", "int", 4)));
+        assertEquals(VisDiagnostics.OK, controller.addPointer(new Pointer("p")));
+        int[] codes = {
+                controller.addNonPointer(new NonPointer("arr", "1", "int")),
+                controller.pointTo("q", "arr"),
+                controller.pointTo("p", "b"),
+                controller.changeNonPtrVal("arr", "1"),
+                controller.changeElement("arr", 4, "1"),
+                controller.movePointer("p", 1),
+                controller.popFrame(),
+        };
+        int[] expected = {
+                VisDiagnostics.DUPLICATE_NAME, VisDiagnostics.NO_POINTER,
+                VisDiagnostics.NO_NON_POINTER, VisDiagnostics.WHOLE_ARRAY,
+                VisDiagnostics.NO_ELEMENT, VisDiagnostics.OUT_OF_BOUNDS, VisDiagnostics.NO_FUNCTION,
+        };
+        assertEquals(expected.length, diagnostics.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], codes[i]);
+            assertEquals(expected[i], diagnostics.getCode(i));
+            assertEquals(expected[i], (int) heard.get(i));
+            assertEquals(1, diagnostics.getCount(expected[i]));
+        }
+        assertEquals("arr", diagnostics.getSubject(0));
+        assertEquals(4, diagnostics.getArg(4));
+        assertNull(diagnostics.getSubject(6));
+    }
+
+    @Test
+    public void countsFromManyThreadsAddUp() throws InterruptedException {
+        final VisDiagnostics diagnostics = new VisDiagnostics();
+        diagnostics.setEnabled(false);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int n = 0; n < 100000; n++) {
+                        diagnostics.report(VisDiagnostics.BAD_TRACE, null, n);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, diagnostics.getCount(VisDiagnostics.BAD_TRACE));
+    }
+}
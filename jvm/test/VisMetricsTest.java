@@ -0,0 +1,115 @@
+package com.baker.goodpointersv2;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VisMetricsTest {
+    // A clock that moves on 100ns each time it's read, and counts the reads
+    private static final class CountingMetrics extends VisMetrics {
+        long reads;
+
+        @Override
+        long now() {
+            reads++;
+            return reads * 100;
+        }
+    }
+
+    @Test
+    public void disabledMetricsNeverReadTheClock() {
+        CountingMetrics metrics = new CountingMetrics();
+        for (int n = 0; n < 1000; n++) {
+            long start = metrics.start();
+            assertEquals(0, start);
+            metrics.opDone(VisMetrics.POINT_TO, start);
+            metrics.frameDone(metrics.start(), 10, 5, 20);
+        }
+        assertEquals(0, metrics.reads);
+        assertEquals(0, metrics.getOpLatency(VisMetrics.POINT_TO).getCount());
+        assertEquals(0, metrics.getFrameTime().getCount());
+        assertEquals(0, metrics.getLastNodesDrawn());
+
+        metrics.setEnabled(true);
+        long start = metrics.start();
+        metrics.opDone(VisMetrics.POINT_TO, start);
+        metrics.frameDone(metrics.start(), 10, 5, 20);
+        assertEquals(4, metrics.reads);
+        assertEquals(1, metrics.getOpLatency(VisMetrics.POINT_TO).getCount());
+        assertEquals(100, metrics.getOpLatency(VisMetrics.POINT_TO).getMax());
+        assertEquals(1, metrics.getFrameTime().getCount());
+        assertEquals(10, metrics.getLastNodesDrawn());
+        assertEquals(5, metrics.getLastArrowsDrawn());
+        assertEquals(20, metrics.getLastDrawCalls());
+
+        // An operation that started while disabled isn't timed once it's enabled
+        metrics.opDone(VisMetrics.BATCH, 0);
+        assertEquals(4, metrics.reads);
+        metrics.reset();
+        assertEquals(0, metrics.getFrameTime().getCount());
+        assertEquals(0, metrics.getLastDrawCalls());
+    }
+
+    @Test
+    public void percentilesAreWithinAQuarterAbove() {
+        VisMetrics.Histogram histogram = new VisMetrics().getFrameTime();
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, histogram.getMean());
+        for (long v = 1; v <= 1000000; v++) {
+            histogram.record(v);
+        }
+        assertEquals(1000000, histogram.getCount());
+        assertEquals(500000, histogram.getMean());
+        assertEquals(1000000, histogram.getMax());
+        for (double p : new double[] {1, 10, 50, 90, 99, 99.9}) {
+            long exact = (long) Math.ceil(1000000 * p / 100);
+            long reported = histogram.getPercentile(p);
+            assertTrue(p + ": " + reported, reported >= exact && reported <= exact * 1.25 + 1);
+        }
+        // Never past the largest recorded
+        assertEquals(1000000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void smallAndSkewedDurations() {
+        VisMetrics.Histogram histogram = new VisMetrics().getFrameTime();
+        // Under 4 each value has a bucket of its own
+        histogram.record(0);
+        histogram.record(1);
+        histogram.record(2);
+        histogram.record(3);
+        assertEquals(2, histogram.getPercentile(50));
+        assertEquals(3, histogram.getPercentile(100));
+        // A clock that went backwards counts as 0
+        histogram.record(-5);
+        assertEquals(1, histogram.getPercentile(20));
+
+        histogram.reset();
+        for (int n = 0; n < 99; n++) {
+            histogram.record(1000);
+        }
+        histogram.record(16000000);
+        assertTrue(histogram.getPercentile(99) <= 1250);
+        assertEquals(16000000, histogram.getPercentile(99.5));
+    }
+
+    @Test
+    public void bucketsAreAQuarterOfAPowerOfTwoWide() {
+        Random random = new Random(5);
+        for (int n = 0; n < 100000; n++) {
+            // Any duration record() lets through, which is never negative
+            long v = random.nextLong() >>> (1 + random.nextInt(63));
+            int bucket = VisMetrics.Histogram.bucketOf(v);
+            assertTrue(bucket < 256);
+            long lower = VisMetrics.Histogram.lowerBound(bucket);
+            long upper = VisMetrics.Histogram.lowerBound(bucket + 1);
+            assertTrue(v + " in " + lower + ".." + upper, lower <= v && (v < upper || upper < lower));
+            if (v >= 4 && upper > lower) {
+                assertTrue(upper - lower <= lower / 4);
+            }
+        }
+    }
+}